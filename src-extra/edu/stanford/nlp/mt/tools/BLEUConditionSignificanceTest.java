@@ -3,21 +3,19 @@ package edu.stanford.nlp.mt.tools;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.LineNumberReader;
-import java.io.PrintStream;
-import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
 
-import edu.stanford.nlp.math.ArrayMath;
 import edu.stanford.nlp.mt.metrics.BLEUMetric;
 import edu.stanford.nlp.mt.metrics.MetricUtils;
 import edu.stanford.nlp.mt.util.IOTools;
@@ -25,7 +23,6 @@ import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
 import edu.stanford.nlp.mt.util.InputProperties;
 import edu.stanford.nlp.mt.util.InputProperty;
-import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.util.PropertiesUtils;
 import edu.stanford.nlp.util.StringUtils;
@@ -91,65 +88,87 @@ public class BLEUConditionSignificanceTest {
     return diff;
   }
   
-  private static double computeSampled(
-      List<List<String>> translationList,
-      List<List<Sequence<IString>>> referencesList) throws IOException {
-    
-    int size = translationList.size();
-    List<String> lines = new ArrayList<>(size);
-    List<InputProperties> inputProperties = new ArrayList<>(size);
-    Random random = new Random();
-    for (int i = 0; i < size; ++i) {
-      boolean isPE = random.nextBoolean();
-      InputProperties props = new InputProperties();
-      props.put(InputProperty.Domain, isPE ? "pe" : "imt");
-      inputProperties.add(props);
+  private static String genre(InputProperties inputProperties) {
+    Object domain = inputProperties.get(InputProperty.Domain);
+    if (domain == null) return DEFAULT_GENRE;
+    return domain instanceof String[] ? ((String[]) domain)[0] : (String) domain;
+  }
 
-      List<String> candidates = translationList.get(i);
-      assert candidates.size() > 0 : String.valueOf(i);
-      int candidateId = random.nextInt(candidates.size());
-      lines.add(candidates.get(candidateId));
-    }
-    Map<String,BLEUMetric<IString, String>.BLEUIncrementalMetric> metrics = 
-        BLEUGenreEvaluator.run(referencesList, inputProperties, BLEU_ORDER, 
-            lines);
-    double imtScore = metrics.get("imt").score();
-    double peScore = metrics.get("pe").score();
-    double diff = imtScore - peScore;
-//    System.err.printf("sample: imt: %.3f pe: %.3f diff:%.3f%n", imtScore, peScore, diff);
-    return diff;
+  private static void addTo(double[] a, double[] b) {
+    for (int i = 0; i < a.length; ++i) a[i] += b[i];
   }
-  
-  private static double computeBLEU(List<String> translations, List<String> references) {
-    // Convert references to Sequences
-    List<List<Sequence<IString>>> refSequences = new ArrayList<>();
-    for (String line : references) {
-      line = NISTTokenizer.tokenize(line);
-      List<Sequence<IString>> refList = new ArrayList<>();
-      refList.add(IStrings.tokenize(line));
-      refSequences.add(refList);
-    }
-    BLEUMetric<IString, String> bleu = new BLEUMetric<IString, String>(refSequences, BLEU_ORDER,
-        false);
-    BLEUMetric<IString, String>.BLEUIncrementalMetric incMetric = bleu.getIncrementalMetric();
 
-    for (String line : translations) {
-      line = NISTTokenizer.tokenize(line);
-      Sequence<IString> translation = IStrings.tokenize(line);
-      ScoredFeaturizedTranslation<IString, String> tran = new ScoredFeaturizedTranslation<IString, String>(
-          translation, null, 0);
-      incMetric.add(tran);
-    }
-    return incMetric.score();
+  /**
+   * BLEU sufficient statistics of a NIST-tokenized translation.
+   */
+  private static double[] sufficientStatistics(BLEUMetric<IString, String> bleu, int sourceId,
+      String line) {
+    return bleu.sufficientStatistics(sourceId, IStrings.tokenize(NISTTokenizer.tokenize(line)));
   }
-  
-  private static Map<Integer,List<String>> deepCopy(Map<Integer,List<String>> list) {
-    Map<Integer,List<String>> listOfLists = new HashMap<>();
-    for (Integer key : list.keySet()) {
-      List<String> nl = new ArrayList<>(list.get(key));
-      listOfLists.put(key, nl);
+
+  /**
+   * Draw a candidate without replacement. <code>order</code> holds the candidate ids, of
+   * which the first <code>remaining</code> have not been drawn.
+   */
+  private static int draw(int[] order, int remaining, SplittableRandom random) {
+    int k = random.nextInt(remaining);
+    int id = order[k];
+    order[k] = order[remaining - 1];
+    order[remaining - 1] = id;
+    return id;
+  }
+
+  /**
+   * Permutation test over the pooled translations. In each sample, each line is assigned
+   * to a random condition and one of its translations is drawn at random.
+   *
+   * @param translationList
+   * @param referencesList
+   * @param observedDifference
+   * @param samples
+   * @param seed
+   * @param numThreads
+   * @return The number of samples that matched or exceeded the observed difference.
+   */
+  private static int pooledPermutationTest(List<List<String>> translationList,
+      List<List<Sequence<IString>>> referencesList, double observedDifference, int samples,
+      long seed, int numThreads) {
+    // Per-sentence statistics are computed once and summed in each sample
+    BLEUMetric<IString, String> bleu = new BLEUMetric<IString, String>(referencesList, BLEU_ORDER,
+        false);
+    final int size = translationList.size();
+    final double[][][] stats = new double[size][][];
+    for (int i = 0; i < size; ++i) {
+      List<String> candidates = translationList.get(i);
+      assert candidates.size() > 0 : String.valueOf(i);
+      stats[i] = new double[candidates.size()][];
+      for (int j = 0; j < stats[i].length; ++j) {
+        stats[i][j] = sufficientStatistics(bleu, i, candidates.get(j));
+      }
     }
-    return listOfLists;
+
+    final int dimension = bleu.numSufficientStatistics();
+    int[] matchedOrExceededDiffs = new int[1];
+    SignificanceTest.runBlocks(samples, seed, numThreads, (numSamples, random) -> {
+      int count = 0;
+      double[] imtStats = new double[dimension];
+      double[] peStats = new double[dimension];
+      for (int n = 0; n < numSamples; ++n) {
+        Arrays.fill(imtStats, 0.0);
+        Arrays.fill(peStats, 0.0);
+        for (int i = 0; i < size; ++i) {
+          boolean isPE = random.nextBoolean();
+          addTo(isPE ? peStats : imtStats, stats[i][random.nextInt(stats[i].length)]);
+        }
+        double sampleDiff = bleu.scoreSufficientStatistics(imtStats)
+            - bleu.scoreSufficientStatistics(peStats);
+
+        // Two-sided test
+        if (Math.abs(sampleDiff) >= Math.abs(observedDifference)) ++count;
+      }
+      return count;
+    }, count -> matchedOrExceededDiffs[0] += count);
+    return matchedOrExceededDiffs[0];
   }
   
   /**
@@ -159,22 +178,33 @@ public class BLEUConditionSignificanceTest {
    * @param subjectToTgt
    * @param subjectSet
    * @param referencesList
+   * @param samples
+   * @param seed
+   * @param numThreads
    * @throws IOException
    */
   private static void conventionalPermutationTest(
       Map<String, List<InputProperties>> subjectToProps,
       Map<String, File> subjectToTgt, Set<String> subjectSet,
-      List<List<Sequence<IString>>> referencesList) throws IOException {
+      List<List<Sequence<IString>>> referencesList, int samples, long seed, int numThreads)
+          throws IOException {
+    // Score against the first reference of each line
+    List<List<Sequence<IString>>> refSequences = new ArrayList<>(referencesList.size());
+    for (List<Sequence<IString>> refs : referencesList) {
+      String line = NISTTokenizer.tokenize(refs.get(0).toString());
+      refSequences.add(Collections.singletonList(IStrings.tokenize(line)));
+    }
+    BLEUMetric<IString, String> bleu = new BLEUMetric<IString, String>(refSequences, BLEU_ORDER,
+        false);
+    final int dimension = bleu.numSufficientStatistics();
 
     // Read the data
-    List<String> imtTranslations = new ArrayList<>();
-    List<String> imtReferences = new ArrayList<>();
+    double[] imtObserved = new double[dimension];
     List<Integer> imtIds = new ArrayList<>();
-    List<String> peTranslations = new ArrayList<>();
-    List<String> peReferences = new ArrayList<>();
+    double[] peObserved = new double[dimension];
     List<Integer> peIds = new ArrayList<>();
-    Map<Integer,List<String>> pooledTranslations = new HashMap<>();
-    List<String> references = new ArrayList<>();
+    List<List<double[]>> pooledStats = new ArrayList<>(referencesList.size());
+    for (int i = 0; i < referencesList.size(); ++i) pooledStats.add(new ArrayList<>());
     for (String subjectId : subjectSet) {
       assert subjectToProps.containsKey(subjectId) : subjectId;
       assert subjectToTgt.containsKey(subjectId) : subjectId;
@@ -182,88 +212,72 @@ public class BLEUConditionSignificanceTest {
       LineNumberReader reader = IOTools.getReaderFromFile(subjectToTgt.get(subjectId));
       for (String line; (line = reader.readLine()) != null;) {
         int sourceId = reader.getLineNumber() - 1;
-        String genre = inputProperties.get(sourceId).containsKey(InputProperty.Domain) ? (String) inputProperties.get(sourceId).get(InputProperty.Domain)
-            : DEFAULT_GENRE;
-        String refLine = referencesList.get(sourceId).get(0).toString();
-        if (references.size() <= referencesList.size()) {
-          references.add(refLine);
-        }
+        String genre = genre(inputProperties.get(sourceId));
+        double[] stats = sufficientStatistics(bleu, sourceId, line.trim());
         switch (genre) {
           case "pe":
-            peTranslations.add(line.trim());
-            peReferences.add(refLine);
+            addTo(peObserved, stats);
             peIds.add(sourceId);
             break;
           case "imt":
-            imtTranslations.add(line.trim());
-            imtReferences.add(refLine);
+            addTo(imtObserved, stats);
             imtIds.add(sourceId);
             break;
           default:
             System.err.printf("WARNING: Discarding line %d for user %s%n", sourceId, subjectId);
             continue;
         }
-        if ( ! pooledTranslations.containsKey(sourceId)) {
-          List<String> l = new ArrayList<>();
-          pooledTranslations.put(sourceId, l);
-        }
-        pooledTranslations.get(sourceId).add(line.trim());
+        pooledStats.get(sourceId).add(stats);
       }
+      reader.close();
     }
     
     // Compute the observed statistics
-    final int imtSampleSize = imtReferences.size();
-    final int peSampleSize = peReferences.size();
-    double peScore = computeBLEU(peTranslations, peReferences);
-    double imtScore = computeBLEU(imtTranslations, imtReferences);
+    double peScore = bleu.scoreSufficientStatistics(peObserved);
+    double imtScore = bleu.scoreSufficientStatistics(imtObserved);
     double observedDiff = imtScore - peScore;
     System.err.printf("observed: imt: %.4f pe: %.4f diff: %.4f%n", imtScore, peScore, observedDiff);
     
     // Sample
-    Random random = new Random();
-    int matchedOrExceededDiffs = 0;
-    System.err.print("Sampling..");
-    for (int i = 0; i < SAMPLES; i++) {
-      if ((i % 50) == 0)
-        System.err.printf(".");
-      
-      Map<Integer,List<String>> pTranslations = deepCopy(pooledTranslations);
-      List<String> imtSampleTranslations = new ArrayList<>();
-      List<String> peSampleTranslations = new ArrayList<>();
-
-      // Sample PE translations
-      for (int sourceId : peIds) {
-        List<String> candidates = pTranslations.get(sourceId);
-        assert candidates.size() > 0 : String.valueOf(sourceId);
-        int idx = random.nextInt(candidates.size());
-        peSampleTranslations.add(candidates.get(idx));
-        candidates.remove(idx);
-      }
-      
-      // Sample IMT translations
-      for (int sourceId : imtIds) {
-        List<String> candidates = pTranslations.get(sourceId);
-        assert candidates.size() > 0 : String.valueOf(sourceId);
-        int idx = random.nextInt(candidates.size());
-        imtSampleTranslations.add(candidates.get(idx));
-        candidates.remove(idx);
+    final double[][][] pooled = new double[pooledStats.size()][][];
+    for (int i = 0; i < pooled.length; ++i) pooled[i] = pooledStats.get(i).toArray(new double[0][]);
+    final int[] peSample = peIds.stream().mapToInt(Integer::intValue).toArray();
+    final int[] imtSample = imtIds.stream().mapToInt(Integer::intValue).toArray();
+    int[] matchedOrExceededDiffs = new int[1];
+    System.err.printf("Sampling... (%d iters)%n", samples);
+    SignificanceTest.runBlocks(samples, seed, numThreads, (numSamples, random) -> {
+      int count = 0;
+      int[][] order = new int[pooled.length][];
+      for (int i = 0; i < order.length; ++i) {
+        order[i] = new int[pooled[i].length];
+        for (int j = 0; j < order[i].length; ++j) order[i][j] = j;
       }
-      
-      assert peSampleTranslations.size() == peSampleSize;
-      assert imtSampleTranslations.size() == imtSampleSize;
-      double peSampleScore = computeBLEU(peSampleTranslations, peReferences);
-      double imtSampleScore = computeBLEU(imtSampleTranslations, imtReferences);
-      double sampleDiff = imtSampleScore - peSampleScore;
-//      System.err.printf("sample: imt: %.4f pe: %.4f diff: %.4f%n", imtSampleScore, peSampleScore, sampleDiff);
-      
-      // Two-sided test
-      if (Math.abs(sampleDiff) >= Math.abs(observedDiff)) {
-        matchedOrExceededDiffs++;
+      int[] remaining = new int[pooled.length];
+      double[] imtStats = new double[dimension];
+      double[] peStats = new double[dimension];
+      for (int n = 0; n < numSamples; ++n) {
+        for (int i = 0; i < remaining.length; ++i) remaining[i] = order[i].length;
+        Arrays.fill(imtStats, 0.0);
+        Arrays.fill(peStats, 0.0);
+
+        // Sample PE translations, then IMT translations, without replacement
+        for (int sourceId : peSample) {
+          addTo(peStats, pooled[sourceId][draw(order[sourceId], remaining[sourceId]--, random)]);
+        }
+        for (int sourceId : imtSample) {
+          addTo(imtStats, pooled[sourceId][draw(order[sourceId], remaining[sourceId]--, random)]);
+        }
+        double sampleDiff = bleu.scoreSufficientStatistics(imtStats)
+            - bleu.scoreSufficientStatistics(peStats);
+
+        // Two-sided test
+        if (Math.abs(sampleDiff) >= Math.abs(observedDiff)) ++count;
       }
-    }
-    double p = (matchedOrExceededDiffs + 1.0) / (SAMPLES + 1.0);
-    System.out.printf("%np = %f (%d+1)/(%d+1)%n", p, matchedOrExceededDiffs,
-        SAMPLES);
+      return count;
+    }, count -> matchedOrExceededDiffs[0] += count);
+    double p = (matchedOrExceededDiffs[0] + 1.0) / (samples + 1.0);
+    System.out.printf("%np = %f (%d+1)/(%d+1)%n", p, matchedOrExceededDiffs[0],
+        samples);
   }
   
   private static String usage() {
@@ -274,6 +288,9 @@ public class BLEUConditionSignificanceTest {
     sb.append(" Options:").append(nl);
     sb.append("   -order num  : ngram order (default: 4)").append(nl);
     sb.append("   -c          : Output merged files for conventional evaluation.").append(nl);
+    sb.append("   -samples num : number of samples (default: 1000)").append(nl);
+    sb.append("   -threads num : number of sampling threads (default: 1)").append(nl);
+    sb.append("   -seed num    : random seed").append(nl);
     return sb.toString();
   }
 
@@ -281,6 +298,9 @@ public class BLEUConditionSignificanceTest {
     Map<String,Integer> argDefs = new HashMap<String,Integer>();
     argDefs.put("order", 1);
     argDefs.put("c", 0);
+    argDefs.put("samples", 1);
+    argDefs.put("threads", 1);
+    argDefs.put("seed", 1);
     return argDefs;
   }
 
@@ -298,6 +318,9 @@ public class BLEUConditionSignificanceTest {
     Properties options = StringUtils.argsToProperties(args, argDefs());
     int BLEUOrder = PropertiesUtils.getInt(options, "order", BLEUMetric.DEFAULT_MAX_NGRAM_ORDER);
     boolean doConventional = PropertiesUtils.getBool(options, "c", false);
+    final int samples = PropertiesUtils.getInt(options, "samples", SAMPLES);
+    final int numThreads = PropertiesUtils.getInt(options, "threads", 1);
+    final long seed = PropertiesUtils.getLong(options, "seed", SignificanceTest.DEFAULT_SEED);
     String[] parameters = options.getProperty("").split("\\s+");
     if (parameters.length < 2) {
       System.err.print(usage());
@@ -334,25 +357,18 @@ public class BLEUConditionSignificanceTest {
     
     if (doConventional) {
       System.err.println("Generating long-format files for evaluation");
-      conventionalPermutationTest(subjectToProps, subjectToTgt, subjectSet, referencesList);
+      conventionalPermutationTest(subjectToProps, subjectToTgt, subjectSet, referencesList,
+          samples, seed, numThreads);
       System.exit(-1);
     }
     
     // Run the significance test
     System.out.printf("Observed difference: %.3f%n", observedDifference);
-    System.out.printf("Sampling... (%d iters)%n", SAMPLES);
-    int matchedOrExceededDiffs = 0;
-    for (int i = 0; i < SAMPLES; i++) {
-      if ((i % 50) == 0)
-        System.out.printf(".");
-      double sampleDiff = computeSampled(translationList, referencesList);
-
-      // Two-sided test
-      if (Math.abs(sampleDiff) >= Math.abs(observedDifference))
-        matchedOrExceededDiffs++;
-    }
-    double p = (matchedOrExceededDiffs + 1.0) / (SAMPLES + 1.0);
+    System.out.printf("Sampling... (%d iters)%n", samples);
+    int matchedOrExceededDiffs = pooledPermutationTest(translationList, referencesList,
+        observedDifference, samples, seed, numThreads);
+    double p = (matchedOrExceededDiffs + 1.0) / (samples + 1.0);
     System.out.printf("%np = %f (%d+1)/(%d+1)%n", p, matchedOrExceededDiffs,
-        SAMPLES);
+        samples);
   }
 }
@@ -1,27 +1,25 @@
 package edu.stanford.nlp.mt.tools;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.PriorityQueue;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
 
 import edu.stanford.nlp.mt.lm.KenLanguageModel;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
-import edu.stanford.nlp.mt.util.LineIndexedCorpus;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
 import edu.stanford.nlp.mt.util.ArraySequence;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringUtils;
 
 /**
  * extension of Moore-Lewis's "Intelligent Selection of Language Model Training Data" (ACL2010)
  * detailed in Domain Adaptation via Pseudo In-Domain Data Selection
  * http://research.microsoft.com/pubs/155466/emnlp11-select-train-data.pdf
  * This also takes into account of the source in addition to the target.
+ * The bitext is streamed and scored on multiple threads with {@link StreamingCorpusSelection}.
  * @author Sida Wang <sidaw@stanford.edu> based on MooreLewis by
  * @author Thang Luong <lmthang@stanford.edu>
  */
@@ -32,16 +30,18 @@ public class ModifiedMooreLewisCorpusSelection {
   private KenLanguageModel outKenLMSource;
   private KenLanguageModel outKenLMTarget;
 
-  private LineIndexedCorpus dataSource;
-  private LineIndexedCorpus dataTarget;
-  private double[] perpDiffScores; // cross-entropy diff scores
+  private String dataFileSource;
+  private String dataFileTarget;
 
   private IString startToken;
   private IString endToken;
   private int order;
 
+  private int numThreads = 1;
+  private String checkpointFile;
+
   public static void usage() {
-    System.err.println("Usage:\n\tjava ...ModifiedMooreLewisCorpusSelection " +
+    System.err.println("Usage:\n\tjava ...ModifiedMooreLewisCorpusSelection [options] " +
         "(selectionSize) (inDomainKenLMPrefix) (outDomainKenLMPredix) (dataPrefix) (outPrefix) "
         + "[lenThreshold] [isRemoveRepetition] [targetWeight]");
     System.err.println("  (in|out)DomainKenLMPrefix.src and (in|out)inDomainKenLMPrefix.targ are expected");
@@ -49,6 +49,11 @@ public class ModifiedMooreLewisCorpusSelection {
         + "outPrefix.score (cross-entropy diff scores), and outPrefix.line (0-based line indices)");
     System.err.println("  lenThreshold: only select sentences with >= lenThreshold tokens (default=1)");
     System.err.println("  isRemoveRepetition: if set to true, only keep non-duplicated sentences (default=false)");
+    System.err.println("Options:");
+    System.err.println("  -threads num: number of scoring threads (default=1)");
+    System.err.println("  -threshold x: output all sentence pairs with score <= x in data order, "
+        + "instead of the selectionSize best pairs");
+    System.err.println("  -checkpoint file: periodically save the selection state to file, and resume from it if it exists");
   }
 
   public ModifiedMooreLewisCorpusSelection(String inDomainKenLMFilePrefix,
@@ -73,24 +78,17 @@ public class ModifiedMooreLewisCorpusSelection {
     checkConsistency(inKenLMSource, outKenLMSource);
     checkConsistency(inKenLMTarget, outKenLMTarget);
 
-    // data file
-    String dataFileSource = dataFilePrefix + ".src";
-    String dataFileTarget = dataFilePrefix + ".targ";
-    System.err.println("# Opening " + dataFileSource);
-    try {
-      dataSource = new LineIndexedCorpus(dataFileSource);
-      dataTarget = new LineIndexedCorpus(dataFileTarget);
-    } catch (IOException e) {
-      System.err.println("! Can't load data file " + dataFilePrefix);
-      e.printStackTrace();
-    }
+    // data files, which are streamed during selection
+    dataFileSource = dataFilePrefix + ".src";
+    dataFileTarget = dataFilePrefix + ".targ";
+  }
 
-    assert dataSource.size() == dataTarget.size():
-    	"bitexts should have the same size on both source and target";
-    // cross-entropy diff scores
-    perpDiffScores = new double[dataSource.size()];
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads;
+  }
 
-    // others
+  public void setCheckpoint(String checkpointFile) {
+    this.checkpointFile = checkpointFile;
   }
 
   private void checkConsistency(KenLanguageModel inKenLM, KenLanguageModel outKenLM) {
@@ -104,14 +102,6 @@ public class ModifiedMooreLewisCorpusSelection {
 	}
   }
 
-  // smallest values first
-  private class SentenceScoreComparator implements Comparator<Integer> {
-    @Override
-    public int compare(Integer o1, Integer o2) {
-       return (int)Math.signum(perpDiffScores[o1]-perpDiffScores[o2]);
-    }
-  }
-
   private double computePerpDiff(String lineSource, String lineTarget, double targetWeight){
     double scoreTarget = computeSinglePerpDiff(lineTarget.split("\\s+"), inKenLMTarget, outKenLMTarget);
     double scoreSource = computeSinglePerpDiff(lineSource.split("\\s+"), inKenLMSource, outKenLMSource);
@@ -129,65 +119,45 @@ public class ModifiedMooreLewisCorpusSelection {
     return Math.exp(-inKenLM.score(sequence, 1, null).getScore()/numNgrams) - Math.exp(-outKenLM.score(sequence, 1, null).getScore()/numNgrams);
   }
 
+  private StreamingCorpusSelection newSelection(int lenThreshold, boolean isRemoveRepetition, double targetWeight) {
+    StreamingCorpusSelection selection = new StreamingCorpusSelection(record -> {
+      String[] tokens = record[1].split("\\s+");
+      return tokens.length>=lenThreshold ? computePerpDiff(record[0], record[1], targetWeight) : Double.NaN; // >= lenThreshold tokens
+    }, true, numThreads);
+    selection.setRemoveRepetition(isRemoveRepetition);
+    if (checkpointFile != null) {
+      selection.setCheckpoint(checkpointFile, StreamingCorpusSelection.DEFAULT_CHECKPOINT_INTERVAL);
+    }
+    return selection;
+  }
+
+  // picking up smallest perplexity diff values first
   public void select(String outPrefix, int selectionSize,
 		  int lenThreshold, boolean isRemoveRepetition, double targetWeight) throws IOException {
-    PriorityQueue<Integer> Q = new PriorityQueue<>(perpDiffScores.length, new SentenceScoreComparator());
-    int i = 0;
-    for (; i<dataTarget.size(); i++) {
-      String[] tokens = dataTarget.get(i).split("\\s+");
-      if(tokens.length>=lenThreshold){ // >= lenThreshold tokens
-        perpDiffScores[i] = computePerpDiff(dataSource.get(i), dataTarget.get(i), targetWeight);
-        Q.add(i);
-      }
-      if((i+1) % 100000 == 0){
-        System.err.print(" (" + i/1000 + "K) ");
-      }
-    }
-    System.err.println("Done! Num lines = " + i);
-
-    // init print writers
-    System.err.println("# Output sorted cross-entropy diff scores ...");
-    PrintWriter selectedDataPWSource = new PrintWriter(new OutputStreamWriter(
-        new FileOutputStream(outPrefix + ".data.source"), "UTF-8"));
-    PrintWriter selectedDataPWTarget = new PrintWriter(new OutputStreamWriter(
-            new FileOutputStream(outPrefix + ".data.target"), "UTF-8"));
-
-    PrintWriter selectedScorePW = new PrintWriter(new OutputStreamWriter(
-        new FileOutputStream(outPrefix + ".score"), "UTF-8"));
-    PrintWriter selectedLinePW = new PrintWriter(new OutputStreamWriter(
-        new FileOutputStream(outPrefix + ".line"), "UTF-8"));
-
-    // picking up smallest cross-entropy diff values first
-    i = 0;
-    Set<String> uniqueLines = new HashSet<>();
-    while(!Q.isEmpty()){
-      int lineId = Q.poll();
-      String lineSource = dataSource.get(lineId);
-      String lineTarget = dataTarget.get(lineId);
-      String lineCombined = lineSource + "___" + lineTarget;
-      if(!isRemoveRepetition || !uniqueLines.contains(lineCombined)){ // if isRemoveRepetition=true, line must be unique
-    	selectedDataPWSource.println(lineSource);
-    	selectedDataPWTarget.println(lineTarget);
-        selectedScorePW.println(perpDiffScores[lineId]);
-        selectedLinePW.println(lineId); // 0-based index
-
-        if(!isRemoveRepetition)
-        	uniqueLines.add(lineCombined);
-
-        i++;
-        if(i==selectionSize){
-          break;
-        }
-      }
-    }
+    newSelection(lenThreshold, isRemoveRepetition, targetWeight).selectTopK(
+        new String[] { dataFileSource, dataFileTarget }, selectionSize,
+        new String[] { outPrefix + ".data.source", outPrefix + ".data.target" }, outPrefix + ".score", outPrefix + ".line");
+  }
 
-    selectedDataPWSource.close();
-    selectedDataPWTarget.close();
-    selectedScorePW.close();
-    selectedLinePW.close();
+  // all pairs with perplexity diff values <= threshold, in data order
+  public void selectThreshold(String outPrefix, double threshold,
+      int lenThreshold, boolean isRemoveRepetition, double targetWeight) throws IOException {
+    newSelection(lenThreshold, isRemoveRepetition, targetWeight).selectThreshold(
+        new String[] { dataFileSource, dataFileTarget }, threshold,
+        new String[] { outPrefix + ".data.source", outPrefix + ".data.target" }, outPrefix + ".score", outPrefix + ".line");
+  }
+
+  private static Map<String,Integer> argDefs() {
+    Map<String,Integer> argDefs = new HashMap<>();
+    argDefs.put("threads", 1);
+    argDefs.put("threshold", 1);
+    argDefs.put("checkpoint", 1);
+    return argDefs;
   }
 
   public static void main(String[] args) throws IOException {
+    Properties options = StringUtils.argsToProperties(args, argDefs());
+    args = options.getProperty("", "").trim().isEmpty() ? new String[0] : options.getProperty("").trim().split("\\s+");
     if (args.length<5 || args.length>8) {
       System.err.print("Input arguments (count=" + args.length + "):");
       for (String string : args) { System.err.print(" " + string); }
@@ -202,12 +172,19 @@ public class ModifiedMooreLewisCorpusSelection {
     String dataFile = args[3];
     String outPrefix = args[4];
     int lenThreshold = (args.length>=6)? Integer.parseInt(args[5]):1; // select sentences >= lenThreshold tokens
-    boolean isRemoveRepetition = (args.length == 7) && Boolean.parseBoolean(args[6]);
+    boolean isRemoveRepetition = (args.length >= 7) && Boolean.parseBoolean(args[6]);
     double targetWeight = (args.length==8)? Double.parseDouble(args[7]):0.5;
 
     ModifiedMooreLewisCorpusSelection mmlcs = new ModifiedMooreLewisCorpusSelection(inDomainKenLMFile, outDomainKenLMFile, dataFile);
 
+    mmlcs.setNumThreads(PropertiesUtils.getInt(options, "threads", 1));
+    mmlcs.setCheckpoint(options.getProperty("checkpoint"));
+
     // MooreLewis selection
-    mmlcs.select(outPrefix, selectionSize, lenThreshold, isRemoveRepetition, targetWeight);
+    if (options.containsKey("threshold")) {
+      mmlcs.selectThreshold(outPrefix, PropertiesUtils.getDouble(options, "threshold"), lenThreshold, isRemoveRepetition, targetWeight);
+    } else {
+      mmlcs.select(outPrefix, selectionSize, lenThreshold, isRemoveRepetition, targetWeight);
+    }
   }
 }
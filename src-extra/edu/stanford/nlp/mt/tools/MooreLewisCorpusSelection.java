@@ -1,25 +1,24 @@
 package edu.stanford.nlp.mt.tools;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.PriorityQueue;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
 
 import edu.stanford.nlp.mt.lm.KenLanguageModel;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
-import edu.stanford.nlp.mt.util.LineIndexedCorpus;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
 import edu.stanford.nlp.mt.util.ArraySequence;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringUtils;
 
 /**
  * Moore-Lewis's "Intelligent Selection of Language Model Training Data" (ACL2010).
  *
+ * The data is streamed and scored on multiple threads with {@link StreamingCorpusSelection}.
+ *
  * @author Thang Luong lmthang@stanford.edu, 2013
  *
  */
@@ -27,21 +26,28 @@ public class MooreLewisCorpusSelection {
 
   private KenLanguageModel inKenLM;
   private KenLanguageModel outKenLM;
-  private LineIndexedCorpus data;
-  private double[] crossEntDiffScores; // cross-entropy diff scores
+  private String dataFile;
 
   private IString startToken;
   private IString endToken;
   private int order;
 
+  private int numThreads = 1;
+  private String checkpointFile;
+
   public static void usage() {
-    System.err.println("Usage:\n\tjava ...MooreLewisCorpusSelection " +
+    System.err.println("Usage:\n\tjava ...MooreLewisCorpusSelection [options] " +
         "(selectionSize) (inDomainKenLM) (outDomainKenLM) (data) (outPrefix) "
         + "[lenThreshold] [isRemoveRepetition]");
     System.err.println("  outPrefix: for each selectSize we will output three files outPrefix.data, "
         + "outPrefix.score (cross-entropy diff scores), and outPrefix.line (0-based line indices)");
     System.err.println("  lenThreshold: only select sentences with >= lenThreshold tokens (default=1)");
     System.err.println("  isRemoveRepetition: if set to true, only keep non-duplicated sentences (default=false)");
+    System.err.println("Options:");
+    System.err.println("  -threads num: number of scoring threads (default=1)");
+    System.err.println("  -threshold x: output all sentences with cross-entropy diff <= x in data order, "
+        + "instead of the selectionSize best sentences");
+    System.err.println("  -checkpoint file: periodically save the selection state to file, and resume from it if it exists");
   }
 
   public MooreLewisCorpusSelection(String inDomainKenLMFile, String outDomainKenLMFile, String dataFile){
@@ -53,17 +59,8 @@ public class MooreLewisCorpusSelection {
     System.err.println("# Loading out-domain KenLM " + outDomainKenLMFile);
     outKenLM = new KenLanguageModel(outDomainKenLMFile);
 
-    // data file
-    System.err.println("# Opening " + dataFile);
-    try {
-      data = new LineIndexedCorpus(dataFile);
-    } catch (IOException e) {
-      System.err.println("! Can't load data file " + dataFile);
-      e.printStackTrace();
-    }
-
-    // cross-entropy diff scores
-    crossEntDiffScores = new double[data.size()];
+    // data file, which is streamed during selection
+    this.dataFile = dataFile;
 
     // others
     startToken = inKenLM.getStartToken();
@@ -76,12 +73,12 @@ public class MooreLewisCorpusSelection {
     }
   }
 
-  // smallest values first
-  private class SentenceScoreComparator implements Comparator<Integer> {
-    @Override
-    public int compare(Integer o1, Integer o2) {
-       return (int)Math.signum(crossEntDiffScores[o1]-crossEntDiffScores[o2]);
-    }
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads;
+  }
+
+  public void setCheckpoint(String checkpointFile) {
+    this.checkpointFile = checkpointFile;
   }
 
   public double computeCrossEntDiff(String line){
@@ -98,59 +95,41 @@ public class MooreLewisCorpusSelection {
     return -inKenLM.score(sequence, 1, null).getScore()/numNgrams + outKenLM.score(sequence, 1, null).getScore()/numNgrams;
   }
 
+  private StreamingCorpusSelection newSelection(int lenThreshold, boolean isRemoveRepetition) {
+    StreamingCorpusSelection selection = new StreamingCorpusSelection(record -> {
+      String[] tokens = record[0].split("\\s+");
+      return tokens.length>=lenThreshold ? computeCrossEntDiff(tokens) : Double.NaN; // >= lenThreshold tokens
+    }, true, numThreads);
+    selection.setRemoveRepetition(isRemoveRepetition);
+    if (checkpointFile != null) {
+      selection.setCheckpoint(checkpointFile, StreamingCorpusSelection.DEFAULT_CHECKPOINT_INTERVAL);
+    }
+    return selection;
+  }
 
+  // picking up smallest cross-entropy diff values first
   public void select(String outPrefix, int selectionSize, int lenThreshold, boolean isRemoveRepetition) throws IOException {
-    PriorityQueue<Integer> Q = new PriorityQueue<>(crossEntDiffScores.length, new SentenceScoreComparator());
-    int count=0;
-
-    for (String line : data) {
-      String[] tokens = line.split("\\s+");
-      if(tokens.length>=lenThreshold){ // >= lenThreshold tokens
-        crossEntDiffScores[count] = computeCrossEntDiff(tokens);
-        Q.add(count);
-      }
-
+    newSelection(lenThreshold, isRemoveRepetition).selectTopK(new String[] { dataFile }, selectionSize, 
+        new String[] { outPrefix + ".data" }, outPrefix + ".score", outPrefix + ".line");
+  }
 
-      if(++count % 100000 == 0){
-        System.err.print(" (" + count/1000 + "K) ");
-      }
-    }
-    System.err.println("Done! Num lines = " + count);
-
-    // init print writers
-    System.err.println("# Output sorted cross-entropy diff scores ...");
-    PrintWriter selectedDataPW = new PrintWriter(new OutputStreamWriter(
-        new FileOutputStream(outPrefix + ".data"), "UTF-8"));
-    PrintWriter selectedScorePW = new PrintWriter(new OutputStreamWriter(
-        new FileOutputStream(outPrefix + ".score"), "UTF-8"));
-    PrintWriter selectedLinePW = new PrintWriter(new OutputStreamWriter(
-        new FileOutputStream(outPrefix + ".line"), "UTF-8"));
-
-    // picking up smallest cross-entropy diff values first
-    count = 0;
-    Set<String> uniqueLines = new HashSet<>();
-    while(!Q.isEmpty()){
-      int lineId = Q.poll();
-      String line = data.get(lineId);
-      if(!isRemoveRepetition || !uniqueLines.contains(line)){ // if isRemoveRepetition=true, line must be unique
-        selectedDataPW.println(line);
-        selectedScorePW.println(crossEntDiffScores[lineId]);
-        selectedLinePW.println(lineId); // 0-based index
-        uniqueLines.add(line);
-
-        count++;
-        if(count==selectionSize){
-          break;
-        }
-      }
-    }
+  // all sentences with cross-entropy diff values <= threshold, in data order
+  public void selectThreshold(String outPrefix, double threshold, int lenThreshold, boolean isRemoveRepetition) throws IOException {
+    newSelection(lenThreshold, isRemoveRepetition).selectThreshold(new String[] { dataFile }, threshold, 
+        new String[] { outPrefix + ".data" }, outPrefix + ".score", outPrefix + ".line");
+  }
 
-    selectedDataPW.close();
-    selectedScorePW.close();
-    selectedLinePW.close();
+  private static Map<String,Integer> argDefs() {
+    Map<String,Integer> argDefs = new HashMap<>();
+    argDefs.put("threads", 1);
+    argDefs.put("threshold", 1);
+    argDefs.put("checkpoint", 1);
+    return argDefs;
   }
 
   public static void main(String[] args) throws IOException {
+    Properties options = StringUtils.argsToProperties(args, argDefs());
+    args = options.getProperty("", "").trim().isEmpty() ? new String[0] : options.getProperty("").trim().split("\\s+");
     if (args.length<5 || args.length>7) {
       System.err.print("Input arguments (count=" + args.length + "):");
       for (String string : args) { System.err.print(" " + string); }
@@ -168,8 +147,14 @@ public class MooreLewisCorpusSelection {
     boolean isRemoveRepetition = args.length == 7 && Boolean.parseBoolean(args[6]);
 
     MooreLewisCorpusSelection mlcs = new MooreLewisCorpusSelection(inDomainKenLMFile, outDomainKenLMFile, dataFile);
+    mlcs.setNumThreads(PropertiesUtils.getInt(options, "threads", 1));
+    mlcs.setCheckpoint(options.getProperty("checkpoint"));
 
     // MooreLewis selection
-    mlcs.select(outPrefix, selectionSize, lenThreshold, isRemoveRepetition);
+    if (options.containsKey("threshold")) {
+      mlcs.selectThreshold(outPrefix, PropertiesUtils.getDouble(options, "threshold"), lenThreshold, isRemoveRepetition);
+    } else {
+      mlcs.select(outPrefix, selectionSize, lenThreshold, isRemoveRepetition);
+    }
   }
 }
@@ -42,9 +42,13 @@ import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
 import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilterFactory;
 import edu.stanford.nlp.mt.decoder.util.BeamFactory;
 import edu.stanford.nlp.mt.decoder.util.DTUHypothesis;
+import edu.stanford.nlp.mt.decoder.util.DecodingBudget;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.decoder.util.OutputSpace;
 import edu.stanford.nlp.mt.decoder.util.OutputSpaceFactory;
+import edu.stanford.nlp.mt.decoder.util.PrefixDecodingContext;
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
+import edu.stanford.nlp.mt.decoder.util.RuleQueryCache;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.decoder.util.ScorerFactory;
 import edu.stanford.nlp.mt.lm.LanguageModel;
@@ -80,11 +84,11 @@ import edu.stanford.nlp.mt.util.TimingUtils;
 import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
 import edu.stanford.nlp.mt.util.TokenUtils;
 import edu.stanford.nlp.mt.util.WordPredictionAccuracy;
+import edu.stanford.nlp.mt.util.WorkStealingScheduler;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.util.StringUtils;
-import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
 import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 
 /**
@@ -117,8 +121,9 @@ public class Phrasal {
         .append(
             " filename : Translation model file. Multiple models can be specified by separating filenames with colons.")
         .append(nl).append("  -").append(LANGUAGE_MODEL_OPT)
-        .append(" filename : Language model file. For KenLM, prefix filename with 'kenlm:'").append(nl).append("  -")
+        .append(" filename : Language model file. For KenLM, prefix filename with 'kenlm:'. For NPLM, prefix with 'nplm:'").append(nl).append("  -")
         .append(OPTION_LIMIT_OPT).append(" num : Translation option limit.").append(nl).append("  -")
+        .append(RULE_CACHE_SIZE).append(" num : Number of source inputs with cached translation model queries (default: 0, i.e. no cache).").append(nl).append("  -")
         .append(NBEST_LIST_OPT).append(" num : n-best list size.").append(nl).append("  -")
         .append(DISTINCT_NBEST_LIST_OPT).append(" boolean : Generate distinct n-best lists (default: false)").append(nl).append("  -")
         .append("  -").append(FORCE_DECODE).append(" filename [filename] : Force decode to reference file(s).")
@@ -127,7 +132,7 @@ public class Phrasal {
         .append(SEARCH_ALGORITHM).append(" [cube|multibeam] : Inference algorithm (default:cube)").append(nl)
         .append("  -").append(REORDERING_MODEL)
         .append(
-            " type filename [options] : Lexicalized re-ordering model where type is [classic|hierarchical]. Multiple models can be separating filenames with colons.")
+            " type filename [options] : Lexicalized re-ordering model where type is [classic|hierarchical]. Multiple models can be separating filenames with colons. The file may be compiled with tm.CompiledReorderingTable.")
         .append(nl).append("  -").append(WEIGHTS_FILE).append(" filename : Load all model weights from file.")
         .append(nl).append("  -").append(MAX_SENTENCE_LENGTH).append(" num : Maximum input sentence length.").append(nl)
         .append("  -").append(MIN_SENTENCE_LENGTH).append(" num : Minimum input sentence length.").append(nl)
@@ -136,6 +141,9 @@ public class Phrasal {
         .append(ADDITIONAL_FEATURIZERS).append(" class [class] : List of additional feature functions.").append(nl)
         .append("  -").append(DISABLED_FEATURIZERS).append(" class [class] : List of baseline featurizers to disable.")
         .append(nl).append("  -").append(NUM_THREADS).append(" num : Number of decoding threads (default: 1)")
+        .append(nl).append("  -").append(SCHEDULER_WINDOW).append(" num : Number of inputs that are decoded longest-first (default: 4 x threads)")
+        .append(nl).append("  -").append(OUTLIER_FACTOR).append(" num : Query the translation model in parallel for inputs that cost more than num times the median (default: 0, i.e. disabled)")
+        .append(nl).append("  -").append(DECODING_BUDGET).append(" derivations [recombinations [ms]] : Per-input search budget. The beam size, rule query limit, and distortion limit are reduced to stay within it (default: 0, i.e. unlimited)")
         .append(nl).append("  -").append(USE_ITG_CONSTRAINTS)
         .append(" boolean : Use ITG constraints for decoding (multibeam search only)").append(nl).append("  -")
         .append(RECOMBINATION_MODE).append(" name : Recombination mode [pharoah,exact,dtu] (default: exact).")
@@ -146,6 +154,7 @@ public class Phrasal {
             " filename [filename] : Phrase tables that cannot have associated reordering models. Optionally supports custom per-table prefixes for features (e.g., pref:filename).")
         .append(nl).append("  -").append(ALIGNMENT_OUTPUT_FILE)
         .append(" filename : Output word-word alignments to file for each translation.").append(nl).append("  -")
+        .append(SEARCH_GRAPH_FILE).append(" filename : Output the search graph of each input in binary format for lattice tuning (compressed if filename ends with .gz).").append(nl).append("  -")
         .append(PREPROCESSOR_FILTER).append(" language [opts] : Pre-processor to apply to source input.").append(nl)
         .append("  -").append(POSTPROCESSOR_FILTER)
         .append(" language [opts] : Post-processor to apply to target output.").append(nl).append("  -")
@@ -169,6 +178,8 @@ public class Phrasal {
         .append(" int : size of n-best list for KSR computation (default: 0, i.e. no KSR computation).").append(nl)
         .append("  -").append(WPA_NBEST_SIZE)
         .append(" int : size of n-best list for word prediction accuracy computation (default: 0, i.e. no WPA computation).").append(nl)
+        .append("  -").append(PREFIX_DECODING_CONTEXT)
+        .append(" boolean : reuse search state between the prefixes of KSR/WPA computation (default: false).").append(nl)
         .append("  -").append(REFERENCE)
         .append(" String : reference file for KSR/WPA computation.").append(nl);
     return sb.toString();
@@ -180,6 +191,7 @@ public class Phrasal {
   public static final String TRANSLATION_TABLE_OPT = "ttable-file";
   public static final String LANGUAGE_MODEL_OPT = "lmodel-file";
   public static final String OPTION_LIMIT_OPT = "ttable-limit";
+  public static final String RULE_CACHE_SIZE = "rule-cache-size";
   public static final String NBEST_LIST_OPT = "n-best-list";
   public static final String DISTINCT_NBEST_LIST_OPT = "distinct-n-best-list";
   public static final String FORCE_DECODE = "force-decode";
@@ -194,6 +206,9 @@ public class Phrasal {
   public static final String ADDITIONAL_FEATURIZERS = "additional-featurizers";
   public static final String DISABLED_FEATURIZERS = "disabled-featurizers";
   public static final String NUM_THREADS = "threads";
+  public static final String SCHEDULER_WINDOW = "scheduler-window";
+  public static final String OUTLIER_FACTOR = "outlier-factor";
+  public static final String DECODING_BUDGET = "decoding-budget";
   public static final String USE_ITG_CONSTRAINTS = "use-itg-constraints";
   public static final String RECOMBINATION_MODE = "recombination-mode";
   public static final String GAPS_OPT = "gaps";
@@ -205,6 +220,7 @@ public class Phrasal {
   public static final String FOREGROUND_TM = "foreground-tm-file";
   public static final String TERMBASE = "termbase-file";
   public static final String ALIGNMENT_OUTPUT_FILE = "alignment-output-file";
+  public static final String SEARCH_GRAPH_FILE = "search-graph-file";
   public static final String PREPROCESSOR_FILTER = "preprocessor-filter";
   public static final String POSTPROCESSOR_FILTER = "postprocessor-filter";
   public static final String SOURCE_CLASS_MAP = "source-class-map";
@@ -215,6 +231,7 @@ public class Phrasal {
   public static final String WRAP_BOUNDARY = "wrap-boundary";
   public static final String KSR_NBEST_SIZE = "ksr_nbest_size";
   public static final String WPA_NBEST_SIZE = "wpa_nbest_size";
+  public static final String PREFIX_DECODING_CONTEXT = "prefix_decoding_context";
   public static final String ORACLE_NBEST_SIZE = "oracle_nbest_size";
   public static final String REFERENCE = "reference";
 
@@ -225,12 +242,12 @@ public class Phrasal {
   static {
     REQUIRED_FIELDS.add(TRANSLATION_TABLE_OPT);
     OPTIONAL_FIELDS.addAll(Arrays.asList(INPUT_FILE_OPT,WEIGHTS_FILE, REORDERING_MODEL, DISTORTION_LIMIT, ADDITIONAL_FEATURIZERS,
-        DISABLED_FEATURIZERS, OPTION_LIMIT_OPT, NBEST_LIST_OPT, DISTINCT_NBEST_LIST_OPT, 
+        DISABLED_FEATURIZERS, OPTION_LIMIT_OPT, RULE_CACHE_SIZE, NBEST_LIST_OPT, DISTINCT_NBEST_LIST_OPT, 
         FORCE_DECODE, PREFIX_ALIGN_COMPOUNDS, RECOMBINATION_MODE, SEARCH_ALGORITHM, BEAM_SIZE, WEIGHTS_FILE, MAX_SENTENCE_LENGTH, MIN_SENTENCE_LENGTH,
-        USE_ITG_CONSTRAINTS, NUM_THREADS, GAPS_OPT, GAPS_IN_FUTURE_COST_OPT, LINEAR_DISTORTION_OPT,
+        USE_ITG_CONSTRAINTS, NUM_THREADS, SCHEDULER_WINDOW, OUTLIER_FACTOR, DECODING_BUDGET, GAPS_OPT, GAPS_IN_FUTURE_COST_OPT, LINEAR_DISTORTION_OPT,
         MAX_PENDING_PHRASES_OPT, DROP_UNKNOWN_WORDS, INDEPENDENT_PHRASE_TABLES, FOREGROUND_TM, TERMBASE, LANGUAGE_MODEL_OPT,
-        ALIGNMENT_OUTPUT_FILE, PREPROCESSOR_FILTER, POSTPROCESSOR_FILTER, SOURCE_CLASS_MAP, TARGET_CLASS_MAP,
-        PRINT_MODEL_SCORES, INPUT_PROPERTIES, FEATURE_AUGMENTATION, WRAP_BOUNDARY, KSR_NBEST_SIZE, WPA_NBEST_SIZE, ORACLE_NBEST_SIZE, REFERENCE));
+        ALIGNMENT_OUTPUT_FILE, SEARCH_GRAPH_FILE, PREPROCESSOR_FILTER, POSTPROCESSOR_FILTER, SOURCE_CLASS_MAP, TARGET_CLASS_MAP,
+        PRINT_MODEL_SCORES, INPUT_PROPERTIES, FEATURE_AUGMENTATION, WRAP_BOUNDARY, KSR_NBEST_SIZE, WPA_NBEST_SIZE, PREFIX_DECODING_CONTEXT, ORACLE_NBEST_SIZE, REFERENCE));
     ALL_RECOGNIZED_FIELDS.addAll(REQUIRED_FIELDS);
     ALL_RECOGNIZED_FIELDS.addAll(OPTIONAL_FIELDS);
   }
@@ -251,6 +268,22 @@ public class Phrasal {
    */
   private int numThreads = 1;
 
+  /**
+   * Number of inputs that are sorted by estimated cost before decoding.
+   */
+  private int schedulerWindow;
+
+  /**
+   * Inputs that cost more than this factor times the median cost are decoded
+   * with a parallel rule query. Disabled if not positive.
+   */
+  private double outlierFactor = 0.0;
+
+  /**
+   * Default search budget for each input. Null if unlimited.
+   */
+  private DecodingBudget decodingBudget = null;
+
   /**
    * Hard distortion limit for phrase-based decoder
    */
@@ -261,6 +294,11 @@ public class Phrasal {
    */
   private int ruleQueryLimit = 20;
 
+  /**
+   * Translation model queries shared by all inferers. Null if disabled.
+   */
+  private RuleQueryCache<IString, String> ruleQueryCache = null;
+
   /**
    * Global model loaded at startup.
    */
@@ -328,6 +366,11 @@ public class Phrasal {
    */
   private PrintStream alignmentWriter;
 
+  /**
+   * Search graph output
+   */
+  private SearchGraph.Writer searchGraphWriter;
+
   /**
    * References for force decoding
    */
@@ -364,6 +407,7 @@ public class Phrasal {
    */
   private final int ksr_nbest_size;
   private final int wpa_nbest_size;
+  private final boolean prefixDecodingContext;
   private final int oracle_nbest_size;
   private final String references;
 
@@ -415,6 +459,15 @@ public class Phrasal {
     return translationModel;
   }
 
+  /**
+   * Access the cache of translation model queries.
+   *
+   * @return The cache, or null if it is disabled.
+   */
+  public RuleQueryCache<IString, String> getRuleQueryCache() {
+    return ruleQueryCache;
+  }
+
   /**
    * Access the decoder's language model.
    *
@@ -493,6 +546,21 @@ public class Phrasal {
     }
     logger.info("Number of threads: {}", numThreads);
 
+    schedulerWindow = config.containsKey(SCHEDULER_WINDOW) ? Integer.parseInt(config.get(SCHEDULER_WINDOW).get(0)) 
+        : 4 * numThreads;
+    if (schedulerWindow < 1) {
+      logger.fatal("Scheduler window must be positive: {}", schedulerWindow);
+      throw new RuntimeException();
+    }
+    if (config.containsKey(OUTLIER_FACTOR)) {
+      outlierFactor = Double.parseDouble(config.get(OUTLIER_FACTOR).get(0));
+    }
+    logger.info("Scheduler window: {}  outlier factor: {}", schedulerWindow, outlierFactor);
+    if (config.containsKey(DECODING_BUDGET)) {
+      decodingBudget = DecodingBudget.fromString(String.join(",", config.get(DECODING_BUDGET)));
+      logger.info("Decoding budget: {}", decodingBudget);
+    }
+
     if (withGaps) {
       recombinationMode = RecombinationFilterFactory.DTU_RECOMBINATION;
     } else if (config.containsKey(RECOMBINATION_MODE)) {
@@ -617,6 +685,14 @@ public class Phrasal {
       ruleQueryLimit = Integer.valueOf(config.get(OPTION_LIMIT_OPT).get(0));
     }
     logger.info("Phrase table rule query limit: {}", ruleQueryLimit);
+    
+    if (config.containsKey(RULE_CACHE_SIZE)) {
+      final int ruleCacheSize = Integer.valueOf(config.get(RULE_CACHE_SIZE).get(0));
+      if (ruleCacheSize > 0) {
+        ruleQueryCache = new RuleQueryCache<>(ruleCacheSize);
+        logger.info("Rule query cache size: {}", ruleCacheSize);
+      }
+    }
 
     // Translation model setup
     final List<String> tmOptions = config.get(TRANSLATION_TABLE_OPT);
@@ -866,22 +942,27 @@ public class Phrasal {
     final AbstractBeamInfererBuilder<IString, String> infererBuilder = (AbstractBeamInfererBuilder<IString, String>) InfererBuilderFactory
         .factory(searchAlgorithm);
 
-    // Create the decoders, one per thread
+    // Create the decoders, one per thread. The models, the heuristic, and the recombination
+    // filter are shared. Each thread only has its own scorer and search state.
+    final boolean shareFeaturizer = featurizer.isThreadsafe();
+    if ( ! shareFeaturizer) logger.info("Cloning the feature extractor for each thread");
     for (int i = 0; i < numThreads; i++) {
       try {
         infererBuilder.setUnknownWordModel(oovModel, dropUnknownWords);
-        infererBuilder.setFeaturizer((FeatureExtractor<IString, String>) featurizer.clone());
-        infererBuilder.setPhraseGenerator((TranslationModel<IString, String>) translationModel.clone());
-        if(foregroundModel != null) infererBuilder.setForegroundModel((TranslationModel<IString, String>) foregroundModel.clone());
-        if(termbaseModel != null) infererBuilder.setTermbaseModel((TranslationModel<IString, String>) termbaseModel.clone());
+        infererBuilder.setFeaturizer(shareFeaturizer ? featurizer : 
+          (FeatureExtractor<IString, String>) featurizer.clone());
+        infererBuilder.setPhraseGenerator(translationModel);
+        if(foregroundModel != null) infererBuilder.setForegroundModel(foregroundModel);
+        if(termbaseModel != null) infererBuilder.setTermbaseModel(termbaseModel);
         final Scorer<String> scorer = ScorerFactory.factory(ScorerFactory.SPARSE_SCORER, globalModel, null);
         infererBuilder.setScorer(scorer);
         scorers.add(scorer);
-        infererBuilder.setSearchHeuristic((SearchHeuristic<IString, String>) heuristic.clone());
-        infererBuilder.setRecombinationFilter((RecombinationFilter<Derivation<IString, String>>) filter.clone());
+        infererBuilder.setRuleQueryCache(ruleQueryCache);
+        infererBuilder.setSearchHeuristic(heuristic);
+        infererBuilder.setRecombinationFilter(filter);
 
       } catch (final CloneNotSupportedException e) {
-        logger.fatal("Could not clone an inferer member", e);
+        logger.fatal("Could not clone the feature extractor", e);
         throw new RuntimeException();
       }
 
@@ -901,6 +982,10 @@ public class Phrasal {
         final int beamSize = Integer.parseInt(config.get(BEAM_SIZE).get(0));
         infererBuilder.setBeamSize(beamSize);
       }
+      
+      if (decodingBudget != null) {
+        infererBuilder.setDecodingBudget(decodingBudget);
+      }
       inferers.add(infererBuilder.newInferer());
       
       ((AbstractBeamInferer<IString, String>) inferers.get(i)).setPrefixAlignCompounds(prefixAlignCompounds);
@@ -949,11 +1034,20 @@ public class Phrasal {
     if (alignmentOpt != null && alignmentOpt.size() == 1) {
       alignmentWriter = IOTools.getWriterFromFile(alignmentOpt.get(0));
     }
+
+    // Determine if we need to write search graphs
+    final List<String> searchGraphOpt = config.get(SEARCH_GRAPH_FILE);
+    if (searchGraphOpt != null && searchGraphOpt.size() == 1) {
+      searchGraphWriter = new SearchGraph.Writer(searchGraphOpt.get(0));
+      logger.info("Search graph filename: {}", searchGraphOpt.get(0));
+    }
     
     ksr_nbest_size = config.containsKey(KSR_NBEST_SIZE) ?
         Integer.valueOf(config.get(KSR_NBEST_SIZE).get(0)) : 0;
     wpa_nbest_size = config.containsKey(WPA_NBEST_SIZE) ?
         Integer.valueOf(config.get(WPA_NBEST_SIZE).get(0)) : 0;
+    prefixDecodingContext = config.containsKey(PREFIX_DECODING_CONTEXT) ?
+        Boolean.valueOf(config.get(PREFIX_DECODING_CONTEXT).get(0)) : false;
     oracle_nbest_size = config.containsKey(ORACLE_NBEST_SIZE) ?
         Integer.valueOf(config.get(ORACLE_NBEST_SIZE).get(0)) : 0;
     references = config.containsKey(REFERENCE) ? config.get(REFERENCE).get(0) : null;
@@ -1056,8 +1150,13 @@ public class Phrasal {
     @Override
     public DecoderOutput process(DecoderInput input) {
       // Generate n-best list
+      InputProperties inputProps = input.inputProps;
+      if (searchGraphWriter != null) {
+        inputProps = new InputProperties(input.inputProps);
+        inputProps.put(InputProperty.SearchGraph, searchGraphWriter);
+      }
       final List<RichTranslation<IString, String>> translations = decode(input.source, input.sourceInputId, infererId,
-          nbestListSize, input.targets, input.inputProps);
+          nbestListSize, input.targets, inputProps);
 
       // Select and process the best translation
       Sequence<IString> bestTranslation = null;
@@ -1082,6 +1181,10 @@ public class Phrasal {
       int wpaCorrect = 0;
       int wpaTotal = 0;
       
+      // KSR and WPA decode successive prefixes of the reference, so they can share search state
+      final PrefixDecodingContext<IString,String> prefixContext = prefixDecodingContext ?
+          new PrefixDecodingContext<>() : null;
+      
       int previousPrefixSize = input.targets != null && input.targets.size() > 0 ? 
           input.targets.get(0).size() : 0;
       if(input.ksr_nbest_size > 0 && input.reference != null) {
@@ -1091,6 +1194,7 @@ public class Phrasal {
         }
         InputProperties ksrProps = new InputProperties(input.inputProps);
         ksrProps.put(InputProperty.TargetPrefix, true);
+        if (prefixContext != null) ksrProps.put(InputProperty.PrefixDecodingContext, prefixContext);
         
         List<RichTranslation<IString, String>> ksrTranslations = translations;
         KSR ksrResult = null;
@@ -1120,6 +1224,7 @@ public class Phrasal {
           List<RichTranslation<IString, String>> wpaTranslations;
           InputProperties wpaProps = new InputProperties(input.inputProps);
           wpaProps.put(InputProperty.TargetPrefix, true);
+          if (prefixContext != null) wpaProps.put(InputProperty.PrefixDecodingContext, prefixContext);
           ++previousPrefixSize;
           for(; previousPrefixSize < input.reference.size(); ++previousPrefixSize) {
             wpaTranslations = decode(input.source, input.sourceInputId, infererId, nbestListSize, 
@@ -1134,6 +1239,10 @@ public class Phrasal {
         }
       }
       
+      if (prefixContext != null && (input.ksr_nbest_size > 0 || input.wpa_nbest_size > 0)) {
+        logger.info("input {}: prefix decoding {}", input.sourceInputId, prefixContext.statistics());
+      }
+      
       previousPrefixSize = input.targets != null && input.targets.size() > 0 ?
           input.targets.get(0).size() : 0;
       if(input.oracle_nbest_size > 0 && input.reference != null) {
@@ -1152,6 +1261,23 @@ public class Phrasal {
     }
   }
 
+  /**
+   * Estimated decoding cost of an input: the source length times the maximum
+   * size of the rule query, which is the number of source spans times the rule
+   * query limit.
+   * 
+   * @param input
+   * @return
+   */
+  private double estimatedCost(DecoderInput input) {
+    final int sourceLength = input.source.size();
+    final int maxPhraseLength = Math.min(sourceLength, Math.abs(translationModel.maxLengthSource()));
+    final long numSpans = (long) maxPhraseLength * sourceLength - maxPhraseLength * (maxPhraseLength - 1L) / 2;
+    final int queryLimit = input.inputProps.containsKey(InputProperty.RuleQueryLimit) ? 
+        (int) input.inputProps.get(InputProperty.RuleQueryLimit) : ruleQueryLimit;
+    return (double) sourceLength * numSpans * queryLimit;
+  }
+
   /**
    * Output the result of decodeFromConsole(), and write to the n-best list if
    * necessary.
@@ -1222,8 +1348,9 @@ public class Phrasal {
   public List<RichTranslation<IString, String>> decode(InputStream inputStream, boolean outputToConsole)
       throws IOException {
     logger.info("Entering main translation loop");
-    final MulticoreWrapper<DecoderInput, DecoderOutput> wrapper = new MulticoreWrapper<>(numThreads, 
-        new PhrasalProcessor(0));
+    final WorkStealingScheduler<DecoderInput, DecoderOutput> wrapper = new WorkStealingScheduler<>(numThreads, 
+        new PhrasalProcessor(0), this::estimatedCost, schedulerWindow, outlierFactor, 
+        input -> input.inputProps.put(InputProperty.ParallelRuleQuery, true));
     final LineNumberReader reader = new LineNumberReader(new InputStreamReader(inputStream, 
         IOTools.DEFAULT_ENCODING));
     final List<RichTranslation<IString, String>> bestTranslationList = outputToConsole ? null
@@ -1308,6 +1435,7 @@ public class Phrasal {
     final double totalTime = TimingUtils.elapsedSeconds(startTime);
     final double segmentsPerSec = sourceInputId / totalTime;
     logger.info("Decoding at {} segments/sec (total: {} sec)", segmentsPerSec, totalTime);
+    logger.info("Scheduler: {}", wrapper.statistics());
     
     reader.close();
     if(refReader != null) refReader.close();
@@ -1508,6 +1636,10 @@ public class Phrasal {
    * Free resources and cleanup.
    */
   private void shutdown() {
+    if (ruleQueryCache != null) {
+      logger.info("Rule query cache: {}", ruleQueryCache.statistics());
+    }
+
     if (nbestListWriter != null) {
       logger.info("Closing n-best writer");
       nbestListWriter.close();
@@ -1517,6 +1649,15 @@ public class Phrasal {
       logger.info("Closing alignment writer");
       alignmentWriter.close();
     }
+
+    if (searchGraphWriter != null) {
+      logger.info("Closing search graph writer");
+      try {
+        searchGraphWriter.close();
+      } catch (IOException e) {
+        logger.error("Could not close search graph writer", e);
+      }
+    }
   }
 
   /**
@@ -0,0 +1,136 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import edu.stanford.nlp.mt.tm.DTUTable;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.TrieIntegerArrayIndex;
+
+/**
+ * Benchmark of gapped source pattern matching in the DTU phrase table on a synthetic
+ * table and synthetic sentences. Compares the compiled automaton to the previous walk
+ * over the source trie, which allocated a state object for every partial match.
+ *
+ * Usage: DTUTableMatch [num_patterns]
+ */
+public class DTUTableMatch {
+
+  private static final int VOCAB_SIZE = 300;
+  private static final int NUM_SENTENCES = 2000;
+  private static final int MAX_LENGTH = 40;
+
+  private static String word(Random random) {
+    // Approximately Zipfian
+    return "w" + ((int) Math.pow(VOCAB_SIZE, random.nextDouble()) - 1);
+  }
+
+  private static DTUTable<String> makeTable(int numPatterns, Random random) throws IOException {
+    File file = File.createTempFile("dtutable", ".txt");
+    file.deleteOnExit();
+    try (PrintStream out = new PrintStream(file, "UTF-8")) {
+      for (int i = 0; i < numPatterns; ++i) {
+        StringBuilder source = new StringBuilder(word(random));
+        int length = 1 + random.nextInt(4);
+        for (int j = 1; j < length; ++j) {
+          // Gaps between words
+          if (random.nextInt(3) == 0) source.append(" X");
+          source.append(" ").append(word(random));
+        }
+        out.printf("%s ||| %s ||| ||| ||| 0.5 0.5%n", source, word(random));
+      }
+    }
+    return new DTUTable<>(file.getPath());
+  }
+
+  /**
+   * The previous matcher. Counts the complete matches.
+   */
+  private static int trieMatch(DTUTable<String> table, Sequence<IString> sequence) {
+    TrieIntegerArrayIndex trieIndex = (TrieIntegerArrayIndex) table.sourceIndex;
+    int numMatches = 0;
+    for (int startIdx = 0; startIdx < sequence.size(); startIdx++) {
+      Deque<Object[]> deque = new LinkedList<>();
+      deque.add(new Object[] { TrieIntegerArrayIndex.IDX_ROOT, startIdx, new CoverageSet(), new IString[0] });
+      while ( ! deque.isEmpty()) {
+        Object[] s = deque.pop();
+        int state = (Integer) s[0], pos = (Integer) s[1];
+        CoverageSet cs = (CoverageSet) s[2];
+        IString[] foreign = (IString[]) s[3];
+        if (state < table.translations.size() && table.translations.get(state) != null) ++numMatches;
+        if (pos < sequence.size()) {
+          Integer nextState = trieIndex.map.get(trieIndex.getTransition(state, sequence.get(pos).id));
+          if (nextState != null) {
+            CoverageSet coverage = cs.clone();
+            coverage.set(pos);
+            IString[] f = new IString[foreign.length + 1];
+            System.arraycopy(foreign, 0, f, 0, foreign.length);
+            f[foreign.length] = sequence.get(pos);
+            deque.add(new Object[] { nextState, pos + 1, coverage, f });
+          }
+        }
+        if (pos > startIdx && pos + 1 < sequence.size()) {
+          Integer nextState = trieIndex.map.get(trieIndex.getTransition(state, DTUTable.GAP_STR.id));
+          if (nextState != null) {
+            for (int afterX = pos + DTUTable.MIN_GAP_SIZE; afterX <= startIdx + DTUTable.maxPhraseSpan
+                && afterX < sequence.size(); ++afterX) {
+              Integer next2State = trieIndex.map.get(trieIndex.getTransition(nextState, sequence.get(afterX).id));
+              if (next2State != null) {
+                CoverageSet coverage = cs.clone();
+                coverage.set(afterX);
+                IString[] f = new IString[foreign.length + 2];
+                System.arraycopy(foreign, 0, f, 0, foreign.length);
+                f[foreign.length] = DTUTable.GAP_STR;
+                f[foreign.length + 1] = sequence.get(afterX);
+                deque.add(new Object[] { next2State, afterX + 1, coverage, f });
+              }
+            }
+          }
+        }
+      }
+    }
+    return numMatches;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int numPatterns = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    Random random = new Random(7);
+    DTUTable<String> table = makeTable(numPatterns, random);
+    List<Sequence<IString>> sentences = new ArrayList<>(NUM_SENTENCES);
+    for (int i = 0; i < NUM_SENTENCES; ++i) {
+      StringBuilder sb = new StringBuilder(word(random));
+      for (int j = 1, sz = 1 + random.nextInt(MAX_LENGTH); j < sz; ++j) sb.append(" ").append(word(random));
+      sentences.add(IStrings.tokenize(sb.toString()));
+    }
+
+    System.out.printf("%d patterns  %d sentences%n", numPatterns, NUM_SENTENCES);
+    // The first passes warm up the JIT
+    for (int pass = 0; pass < 3; ++pass) {
+      long startTime = System.nanoTime();
+      long trieMatches = 0;
+      for (Sequence<IString> sentence : sentences) trieMatches += trieMatch(table, sentence);
+      long trieTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      long matches = 0;
+      for (Sequence<IString> sentence : sentences) matches += table.match(sentence).size();
+      long compiledTime = System.nanoTime() - startTime;
+      if (matches != trieMatches) {
+        throw new RuntimeException(String.format("Matches differ: %d %d", trieMatches, matches));
+      }
+      if (pass == 2) {
+        System.out.printf("matches: %d%n", matches);
+        System.out.printf("match:   trie %.1fms  compiled %.1fms%n", trieTime / 1e6, compiledTime / 1e6);
+      }
+    }
+  }
+}
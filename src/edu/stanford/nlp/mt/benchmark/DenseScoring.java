@@ -0,0 +1,89 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.stanford.nlp.mt.decoder.util.DenseScorer;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Benchmark of dense feature scoring. Compares scoring a list of <code>FeatureValue</code>s,
+ * which looks up each feature in the index, to scoring a <code>float[]</code> block.
+ */
+public class DenseScoring {
+
+  private static final int NUM_RULES = 10000;
+  private static final int NUM_ITERS = 200;
+
+  public static void main(String[] args) {
+    Random random = new Random(11);
+    System.out.printf("%-10s %16s %16s %16s%n", "#features", "list ns/rule", "featurize+list", "block ns/rule");
+    // The first pass warms up the JIT
+    for (int pass = 0; pass < 2; ++pass) {
+      for (int numFeatures : new int[] { 4, 8, 16, 32, 64 }) {
+        String[] featureNames = new String[numFeatures];
+        Counter<String> weights = new ClassicCounter<>();
+        for (int i = 0; i < numFeatures; ++i) {
+          featureNames[i] = "TM:FEATURE." + i;
+          weights.setCount(featureNames[i], random.nextGaussian());
+        }
+        DenseScorer scorer = new DenseScorer(weights);
+        float[][] blocks = new float[NUM_RULES][numFeatures];
+        List<List<FeatureValue<String>>> featureLists = new ArrayList<>(NUM_RULES);
+        for (float[] block : blocks) {
+          List<FeatureValue<String>> features = new ArrayList<>(numFeatures);
+          for (int i = 0; i < numFeatures; ++i) {
+            block[i] = random.nextFloat();
+            features.add(new FeatureValue<>(featureNames[i], block[i], true));
+          }
+          featureLists.add(features);
+        }
+
+        double listSum = 0.0;
+        long startTime = System.nanoTime();
+        for (int iter = 0; iter < NUM_ITERS; ++iter) {
+          for (List<FeatureValue<String>> features : featureLists) {
+            listSum += scorer.getIncrementalScore(features);
+          }
+        }
+        long listTime = System.nanoTime() - startTime;
+
+        // The current rule path also creates the feature values
+        double featurizeSum = 0.0;
+        startTime = System.nanoTime();
+        for (int iter = 0; iter < NUM_ITERS; ++iter) {
+          for (float[] block : blocks) {
+            List<FeatureValue<String>> features = new ArrayList<>(numFeatures);
+            for (int i = 0; i < numFeatures; ++i) {
+              features.add(new FeatureValue<>(featureNames[i], block[i], true));
+            }
+            featurizeSum += scorer.getIncrementalScore(features);
+          }
+        }
+        long featurizeTime = System.nanoTime() - startTime;
+
+        double blockSum = 0.0;
+        startTime = System.nanoTime();
+        for (int iter = 0; iter < NUM_ITERS; ++iter) {
+          for (float[] block : blocks) {
+            blockSum += scorer.getIncrementalScore(block, featureNames);
+          }
+        }
+        long blockTime = System.nanoTime() - startTime;
+
+        if (Math.abs(listSum - blockSum) > 1e-6 * Math.abs(listSum) ||
+            Math.abs(featurizeSum - blockSum) > 1e-6 * Math.abs(listSum)) {
+          throw new RuntimeException(String.format("Scores differ: %f %f %f", listSum, featurizeSum, blockSum));
+        }
+        final double numScores = (double) NUM_RULES * NUM_ITERS;
+        if (pass > 0) {
+          System.out.printf("%-10d %16.1f %16.1f %16.1f%n", numFeatures, listTime / numScores,
+              featurizeTime / numScores, blockTime / numScores);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
+import edu.stanford.nlp.mt.decoder.feat.Featurizer;
+import edu.stanford.nlp.mt.decoder.feat.base.TranslationModelFeaturizer;
+import edu.stanford.nlp.mt.decoder.h.IsolatedPhraseForeignCoverageHeuristic;
+import edu.stanford.nlp.mt.decoder.util.Scorer;
+import edu.stanford.nlp.mt.decoder.util.SparseScorer;
+import edu.stanford.nlp.mt.tm.CompiledPhraseTable;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.Rule;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.PhraseAlignment;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Benchmark of the future cost heuristic for sentence lengths from 10 to 100. Compares
+ * <code>IsolatedPhraseForeignCoverageHeuristic</code> to a square span table without
+ * memoization. The coverage sets are sampled from left-to-right searches with a distortion
+ * limit. Each one is queried several times in a row, as when the items of a cube
+ * pruning bundle are expanded.
+ */
+public class FutureCostHeuristic {
+
+  private static final String SCORE_NAME = CompiledPhraseTable.DEFAULT_FEATURE_PREFIX + ".0";
+  private static final int MAX_PHRASE_LENGTH = 7;
+  private static final int RULES_PER_SPAN = 20;
+  private static final int DISTORTION_LIMIT = 5;
+  private static final int NUM_COVERAGES = 20000;
+  private static final int NUM_LOOKUPS = 2000000;
+  private static final int MAX_RUN_LENGTH = 16;
+
+  private static List<ConcreteRule<IString,String>> makeRules(Sequence<IString> source, Random random) {
+    List<Featurizer<IString,String>> featurizers = new ArrayList<>();
+    featurizers.add(new TranslationModelFeaturizer());
+    FeatureExtractor<IString,String> featurizer = new FeatureExtractor<>(featurizers);
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount(TranslationModelFeaturizer.toTMFeature(SCORE_NAME), 1.0);
+    Scorer<String> scorer = new SparseScorer(weights);
+    PhraseAlignment alignment = PhraseAlignment.getPhraseAlignment("(0)");
+
+    List<ConcreteRule<IString,String>> ruleList = new ArrayList<>();
+    for (int i = 0; i < source.size(); ++i) {
+      for (int j = i + 1; j <= Math.min(i + MAX_PHRASE_LENGTH, source.size()); ++j) {
+        CoverageSet coverage = new CoverageSet(source.size());
+        coverage.set(i, j);
+        Sequence<IString> sourcePhrase = source.subsequence(i, j);
+        for (int k = 0; k < RULES_PER_SPAN; ++k) {
+          Rule<IString> rule = new Rule<>(new float[] { -5.0f * (j - i) * random.nextFloat() },
+              new String[] { SCORE_NAME }, sourcePhrase, sourcePhrase, alignment, "benchmark");
+          ruleList.add(new ConcreteRule<>(rule, coverage, featurizer, scorer, source, 0,
+              new InputProperties()));
+        }
+      }
+    }
+    return ruleList;
+  }
+
+  /**
+   * Coverage sets of partial translations with a distortion limit.
+   */
+  private static CoverageSet[] makeCoverages(int length, Random random) {
+    CoverageSet[] coverages = new CoverageSet[NUM_COVERAGES];
+    for (int i = 0; i < coverages.length; ++i) {
+      CoverageSet coverage = new CoverageSet(length);
+      int numPhrases = random.nextInt(length);
+      for (int j = 0; j < numPhrases; ++j) {
+        int start = Math.min(length - 1, coverage.nextClearBit(0) + random.nextInt(DISTORTION_LIMIT));
+        if (coverage.get(start)) continue;
+        int end = Math.min(coverage.nextSetBit(start) < 0 ? length : coverage.nextSetBit(start),
+            start + 1 + random.nextInt(3));
+        coverage.set(start, end);
+      }
+      coverages[i] = coverage;
+    }
+    return coverages;
+  }
+
+  /**
+   * The span table without packing or memoization.
+   */
+  private static double[] squareTable(List<ConcreteRule<IString,String>> ruleList, int length) {
+    final int n = length + 1;
+    double[] table = new double[n * n];
+    Arrays.fill(table, Double.NEGATIVE_INFINITY);
+    for (ConcreteRule<IString,String> rule : ruleList) {
+      int end = rule.sourcePosition + rule.abstractRule.source.size() - 1;
+      int idx = rule.sourcePosition * n + end;
+      table[idx] = Math.max(table[idx], rule.isolationScore);
+    }
+    for (int spanSize = 2; spanSize <= length; ++spanSize) {
+      for (int start = 0; start <= length - spanSize; ++start) {
+        int end = start + spanSize - 1;
+        double best = table[start * n + end];
+        for (int center = start + 1; center <= end; ++center) {
+          best = Math.max(best, table[start * n + center - 1] + table[center * n + end]);
+        }
+        table[start * n + end] = best;
+      }
+    }
+    return table;
+  }
+
+  private static double squareFutureCost(double[] table, int length, CoverageSet coverage) {
+    double futureCost = 0.0;
+    for (int start = coverage.nextClearBit(0), end; start < length; start = coverage.nextClearBit(end)) {
+      end = coverage.nextSetBit(start);
+      if (end < 0) end = length;
+      futureCost += table[start * (length + 1) + end - 1];
+    }
+    return futureCost;
+  }
+
+  public static void main(String[] args) {
+    Random random = new Random(7);
+    IsolatedPhraseForeignCoverageHeuristic<IString,String> heuristic = new IsolatedPhraseForeignCoverageHeuristic<>();
+    System.out.printf("%-8s %14s %14s %14s %14s%n", "length", "square init", "packed init",
+        "square ns/op", "packed ns/op");
+    // The first pass warms up the JIT
+    for (int pass = 0; pass < 2; ++pass) {
+      for (int length = 10; length <= 100; length += 10) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; ++i) sb.append(i == 0 ? "" : " ").append("w").append(i);
+        Sequence<IString> source = IStrings.tokenize(sb.toString());
+        List<ConcreteRule<IString,String>> ruleList = makeRules(source, random);
+        List<List<ConcreteRule<IString,String>>> rules = Collections.singletonList(ruleList);
+        CoverageSet[] coverages = makeCoverages(length, random);
+        int[] lookups = new int[NUM_LOOKUPS];
+        for (int i = 0; i < lookups.length; ) {
+          int coverage = random.nextInt(coverages.length);
+          for (int j = random.nextInt(MAX_RUN_LENGTH); j >= 0 && i < lookups.length; --j) {
+            lookups[i++] = coverage;
+          }
+        }
+
+        long startTime = System.nanoTime();
+        double[] table = squareTable(ruleList, length);
+        long squareInit = System.nanoTime() - startTime;
+        double squareSum = 0.0;
+        startTime = System.nanoTime();
+        for (int i : lookups) squareSum += squareFutureCost(table, length, coverages[i]);
+        long squareTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        heuristic.getInitialHeuristic(source, new InputProperties(), rules, null, 0);
+        long packedInit = System.nanoTime() - startTime;
+        double packedSum = 0.0;
+        startTime = System.nanoTime();
+        for (int i : lookups) packedSum += heuristic.getFutureCost(coverages[i]);
+        long packedTime = System.nanoTime() - startTime;
+
+        if (Math.abs(squareSum - packedSum) > 1e-4 * Math.abs(squareSum)) {
+          throw new RuntimeException(String.format("Future costs differ: %f %f", squareSum, packedSum));
+        }
+        if (pass > 0) {
+          System.out.printf("%-8d %12.3fms %12.3fms %14.1f %14.1f%n", length, squareInit / 1e6,
+              packedInit / 1e6, squareTime / (double) NUM_LOOKUPS, packedTime / (double) NUM_LOOKUPS);
+        }
+      }
+    }
+  }
+}
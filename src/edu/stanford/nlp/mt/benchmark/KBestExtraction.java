@@ -0,0 +1,100 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
+import edu.stanford.nlp.mt.decoder.util.KBestLatticeDecoder;
+import edu.stanford.nlp.mt.decoder.util.State;
+import edu.stanford.nlp.mt.decoder.util.StateLatticeDecoder;
+
+/**
+ * Benchmark of n-best extraction for n of 100, 1000, and 10000. Compares
+ * <code>StateLatticeDecoder</code> to <code>KBestLatticeDecoder</code> on synthetic
+ * recombination lattices that are the size of the lattice of a 30 word sentence.
+ */
+public class KBestExtraction {
+
+  private static final int NUM_LAYERS = 30;
+  private static final int LAYER_SIZE = 200;
+  private static final int GROUP_SIZE = 8;
+  private static final int NUM_LATTICES = 20;
+
+  private static class LatticeState implements State<LatticeState> {
+    final LatticeState parent;
+    final double partialScore;
+    final int depth;
+    LatticeState(LatticeState parent, double weight) {
+      this.parent = parent;
+      this.partialScore = parent == null ? weight : parent.partialScore + weight;
+      this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+    @Override
+    public int compareTo(LatticeState o) { return Double.compare(partialScore, o.partialScore); }
+    @Override
+    public double score() { return partialScore; }
+    @Override
+    public double partialScore() { return partialScore; }
+    @Override
+    public State<LatticeState> parent() { return parent; }
+    @Override
+    public int depth() { return depth; }
+  }
+
+  /**
+   * A layered lattice. Each retained state is the best of a group of recombined states.
+   */
+  private static List<LatticeState> makeLattice(RecombinationHistory<LatticeState> history, Random random) {
+    List<LatticeState> layer = Collections.singletonList(new LatticeState(null, 0.0));
+    for (int i = 0; i < NUM_LAYERS; ++i) {
+      List<LatticeState> nextLayer = new ArrayList<>(LAYER_SIZE);
+      for (int j = 0; j < LAYER_SIZE; ++j) {
+        List<LatticeState> group = new ArrayList<>(GROUP_SIZE);
+        for (int k = 0; k < GROUP_SIZE; ++k) {
+          group.add(new LatticeState(layer.get(random.nextInt(layer.size())), -random.nextDouble()));
+        }
+        Collections.sort(group, Collections.reverseOrder());
+        for (int k = 1; k < GROUP_SIZE; ++k) history.log(group.get(0), group.get(k));
+        nextLayer.add(group.get(0));
+      }
+      layer = nextLayer;
+    }
+    return layer;
+  }
+
+  public static void main(String[] args) {
+    Random random = new Random(3);
+    List<RecombinationHistory<LatticeState>> histories = new ArrayList<>();
+    List<List<LatticeState>> goals = new ArrayList<>();
+    for (int i = 0; i < NUM_LATTICES; ++i) {
+      histories.add(new RecombinationHistory<>());
+      goals.add(makeLattice(histories.get(i), random));
+    }
+    System.out.printf("%-8s %14s %14s %14s %14s%n", "n", "agenda", "lazy", "agenda size", "candidates");
+    // The first passes warm up the JIT
+    for (int pass = 0; pass < 4; ++pass) {
+      for (int n = 100; n <= 10000; n *= 10) {
+        long agendaTime = 0, lazyTime = 0, agendaSize = 0, numCandidates = 0;
+        for (int i = 0; i < NUM_LATTICES; ++i) {
+          long startTime = System.nanoTime();
+          StateLatticeDecoder<LatticeState> agenda = new StateLatticeDecoder<>(goals.get(i), histories.get(i));
+          for (int j = 0; j < n && agenda.hasNext(); ++j) agenda.next();
+          agendaTime += System.nanoTime() - startTime;
+          agendaSize += agenda.maxAgendaSize;
+
+          startTime = System.nanoTime();
+          KBestLatticeDecoder<LatticeState> lazy = new KBestLatticeDecoder<>(goals.get(i), histories.get(i));
+          for (int j = 0; j < n && lazy.hasNext(); ++j) lazy.next();
+          lazyTime += System.nanoTime() - startTime;
+          numCandidates += lazy.numCandidates;
+        }
+        if (pass == 3) {
+          System.out.printf("%-8d %12.3fms %12.3fms %14d %14d%n", n, agendaTime / 1e6 / NUM_LATTICES,
+              lazyTime / 1e6 / NUM_LATTICES, agendaSize / NUM_LATTICES, numCandidates / NUM_LATTICES);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHash;
+import edu.stanford.nlp.mt.decoder.util.State;
+import edu.stanford.nlp.mt.lm.KenLMState;
+import edu.stanford.nlp.mt.lm.LMState;
+import edu.stanford.nlp.mt.util.MurmurHash2;
+
+/**
+ * Benchmark of beam insertion with language model recombination. Compares the packed
+ * <code>LMState</code> to a state that wraps an <code>int[]</code> context, which is how
+ * <code>KenLMState</code> was stored before. Contexts are sampled from a Zipfian vocabulary
+ * so that many insertions recombine.
+ */
+public class LMStateRecombination {
+
+  private static final int VOCAB_SIZE = 5000;
+  private static final int BEAM_SIZE = 1000;
+  private static final int NUM_INSERTIONS = 20 * BEAM_SIZE;
+  private static final int NUM_BEAMS = 200;
+
+  /**
+   * The unpacked context.
+   */
+  private static class ArrayState {
+    final int[] state;
+    final int hashCode;
+    ArrayState(int[] state) {
+      this.state = state;
+      this.hashCode = MurmurHash2.hash32(state, state.length, 1);
+    }
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof ArrayState && Arrays.equals(state, ((ArrayState) o).state);
+    }
+    @Override
+    public int hashCode() { return hashCode; }
+  }
+
+  private static class Hypothesis implements State<Hypothesis> {
+    final double score;
+    final LMState packed;
+    final ArrayState unpacked;
+    Hypothesis(double score, int[] context) {
+      this.score = score;
+      this.packed = new KenLMState(0.0, context, context.length);
+      this.unpacked = new ArrayState(context);
+    }
+    @Override
+    public int compareTo(Hypothesis o) { return Double.compare(score, o.score); }
+    @Override
+    public double score() { return score; }
+    @Override
+    public double partialScore() { return score; }
+    @Override
+    public State<Hypothesis> parent() { return null; }
+    @Override
+    public int depth() { return 0; }
+  }
+
+  private static class PackedFilter implements RecombinationFilter<Hypothesis> {
+    @Override
+    public boolean combinable(Hypothesis hypA, Hypothesis hypB) {
+      return hypA.packed.sameContext(hypB.packed);
+    }
+    @Override
+    public long recombinationHashCode(Hypothesis hyp) {
+      return hyp.packed.longHashCode();
+    }
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      return super.clone();
+    }
+  }
+
+  private static class UnpackedFilter implements RecombinationFilter<Hypothesis> {
+    @Override
+    public boolean combinable(Hypothesis hypA, Hypothesis hypB) {
+      return hypA.unpacked.hashCode() == hypB.unpacked.hashCode() && hypA.unpacked.equals(hypB.unpacked);
+    }
+    @Override
+    public long recombinationHashCode(Hypothesis hyp) {
+      return hyp.unpacked.hashCode();
+    }
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      return super.clone();
+    }
+  }
+
+  private static int zipf(Random random) {
+    return (int) Math.min(VOCAB_SIZE - 1, Math.exp(random.nextDouble() * Math.log(VOCAB_SIZE)) - 1);
+  }
+
+  private static double run(Hypothesis[] hyps, RecombinationFilter<Hypothesis> filter) {
+    long numNovel = 0;
+    long startTime = System.nanoTime();
+    for (int i = 0; i < NUM_BEAMS; ++i) {
+      RecombinationHash<Hypothesis> hash = new RecombinationHash<>(filter);
+      for (int j = 0; j < NUM_INSERTIONS; ++j) {
+        if (hash.update(hyps[(i * 7919 + j) % hyps.length]) == RecombinationHash.Status.NOVEL) ++numNovel;
+      }
+    }
+    long elapsed = System.nanoTime() - startTime;
+    if (numNovel == 0) throw new RuntimeException();
+    return NUM_BEAMS * NUM_INSERTIONS / (elapsed / 1e9);
+  }
+
+  public static void main(String[] args) {
+    Random random = new Random(13);
+    System.out.printf("%-8s %16s %16s%n", "order", "unpacked ins/s", "packed ins/s");
+    // The first passes warm up the JIT
+    for (int pass = 0; pass < 3; ++pass) {
+      for (int order = 3; order <= 7; order += 2) {
+        Hypothesis[] hyps = new Hypothesis[NUM_INSERTIONS * 4];
+        for (int i = 0; i < hyps.length; ++i) {
+          int[] context = new int[order - 1];
+          for (int j = 0; j < context.length; ++j) {
+            // Short contexts recombine more often
+            context[j] = j < 2 ? zipf(random) : random.nextInt(VOCAB_SIZE);
+          }
+          hyps[i] = new Hypothesis(random.nextDouble(), context);
+        }
+        double unpacked = run(hyps, new UnpackedFilter());
+        double packed = run(hyps, new PackedFilter());
+        if (pass == 2) {
+          System.out.printf("%-8d %16.0f %16.0f%n", order, unpacked, packed);
+        }
+      }
+    }
+  }
+}
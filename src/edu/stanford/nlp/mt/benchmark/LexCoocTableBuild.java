@@ -0,0 +1,145 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import edu.stanford.nlp.mt.tm.LexCoocTable;
+import edu.stanford.nlp.mt.util.ParallelCorpus;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * Benchmark of the lexical cooc table of the dynamic translation model on a synthetic
+ * bitext with a Zipfian vocabulary. Compares the sequential build into one hash map
+ * to the parallel build, the cost of mapping a saved table, and the lookup times.
+ *
+ * Usage: LexCoocTableBuild [num_sentences]
+ */
+public class LexCoocTableBuild {
+
+  private static final int VOCAB_SIZE = 50000;
+  private static final int MAX_LENGTH = 30;
+  private static final int NUM_LOOKUPS = 5000000;
+
+  private static String sentence(String prefix, int length, Random random) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < length; ++i) {
+      // Approximately Zipfian
+      int id = (int) Math.pow(VOCAB_SIZE, random.nextDouble()) - 1;
+      sb.append(i == 0 ? "" : " ").append(prefix).append(id);
+    }
+    return sb.toString();
+  }
+
+  private static ParallelSuffixArray makeBitext(int numSentences, Random random) {
+    ParallelCorpus corpus = new ParallelCorpus(numSentences);
+    for (int n = 0; n < numSentences; ++n) {
+      int length = 1 + random.nextInt(MAX_LENGTH);
+      StringBuilder align = new StringBuilder();
+      for (int i = 0; i < length; ++i) {
+        int j = Math.max(0, Math.min(length - 1, i + random.nextInt(5) - 2));
+        align.append(i == 0 ? "" : " ").append(i).append("-").append(j);
+      }
+      corpus.add(sentence("s", length, random), sentence("t", length, random), align.toString());
+    }
+    return new ParallelSuffixArray(corpus);
+  }
+
+  /**
+   * The sequential build into one hash map.
+   */
+  private static Long2IntOpenHashMap sequentialBuild(ParallelSuffixArray sa) {
+    Long2IntOpenHashMap counts = new Long2IntOpenHashMap(10 * sa.getVocabulary().size());
+    sa.stream().forEach(s -> {
+      for (int i = 0, sz = s.sourceLength(); i < sz; ++i) {
+        final int srcId = s.source(i);
+        if (s.isSourceUnaligned(i)) {
+          counts.addTo(LexCoocTable.pack(srcId, LexCoocTable.NULL_ID), 1);
+          counts.addTo(LexCoocTable.pack(Integer.MIN_VALUE, LexCoocTable.NULL_ID), 1);
+          counts.addTo(LexCoocTable.pack(srcId, Integer.MIN_VALUE), 1);
+        } else {
+          for (int j : s.f2e(i)) {
+            counts.addTo(LexCoocTable.pack(srcId, s.target(j)), 1);
+            counts.addTo(LexCoocTable.pack(Integer.MIN_VALUE, s.target(j)), 1);
+            counts.addTo(LexCoocTable.pack(srcId, Integer.MIN_VALUE), 1);
+          }
+        }
+      }
+      for (int i = 0, sz = s.targetLength(); i < sz; ++i) {
+        if (s.isTargetUnaligned(i)) {
+          counts.addTo(LexCoocTable.pack(LexCoocTable.NULL_ID, s.target(i)), 1);
+          counts.addTo(LexCoocTable.pack(Integer.MIN_VALUE, s.target(i)), 1);
+          counts.addTo(LexCoocTable.pack(LexCoocTable.NULL_ID, Integer.MIN_VALUE), 1);
+        }
+      }
+    });
+    return counts;
+  }
+
+  private static long lookups(LexCoocTable table, int[] src, int[] tgt) {
+    long sum = 0;
+    for (int i = 0; i < src.length; ++i) sum += table.getJointCount(src[i], tgt[i]);
+    return sum;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int numSentences = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+    Random random = new Random(11);
+    ParallelSuffixArray sa = makeBitext(numSentences, random);
+    int vocabSize = sa.getVocabulary().size();
+    int[] src = new int[NUM_LOOKUPS];
+    int[] tgt = new int[NUM_LOOKUPS];
+    for (int i = 0; i < NUM_LOOKUPS; ++i) {
+      src[i] = random.nextInt(vocabSize);
+      tgt[i] = random.nextInt(vocabSize);
+    }
+    File file = File.createTempFile("cooc", ".bin");
+    file.deleteOnExit();
+
+    System.out.printf("%d sentences  %d threads%n", numSentences, Runtime.getRuntime().availableProcessors());
+    // The first pass warms up the JIT
+    for (int pass = 0; pass < 2; ++pass) {
+      long startTime = System.nanoTime();
+      Long2IntOpenHashMap map = sequentialBuild(sa);
+      long sequentialTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      LexCoocTable table = LexCoocTable.build(sa);
+      long parallelTime = System.nanoTime() - startTime;
+      if (map.size() != table.size()) {
+        throw new RuntimeException(String.format("Sizes differ: %d %d", map.size(), table.size()));
+      }
+
+      startTime = System.nanoTime();
+      table.save(file.getPath(), 1L);
+      long saveTime = System.nanoTime() - startTime;
+      startTime = System.nanoTime();
+      LexCoocTable mapped = LexCoocTable.load(file.getPath(), 1L);
+      long loadTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      long mapSum = 0;
+      for (int i = 0; i < NUM_LOOKUPS; ++i) mapSum += map.get(LexCoocTable.pack(src[i], tgt[i]));
+      long mapLookup = System.nanoTime() - startTime;
+      startTime = System.nanoTime();
+      long tableSum = lookups(table, src, tgt);
+      long tableLookup = System.nanoTime() - startTime;
+      startTime = System.nanoTime();
+      long mappedSum = lookups(mapped, src, tgt);
+      long mappedLookup = System.nanoTime() - startTime;
+      if (mapSum != tableSum || mapSum != mappedSum) {
+        throw new RuntimeException(String.format("Counts differ: %d %d %d", mapSum, tableSum, mappedSum));
+      }
+
+      if (pass > 0) {
+        System.out.printf("entries: %d%n", table.size());
+        System.out.printf("build:   sequential %.1fms  parallel %.1fms%n", sequentialTime / 1e6, parallelTime / 1e6);
+        System.out.printf("save:    %.1fms  map: %.1fms%n", saveTime / 1e6, loadTime / 1e6);
+        System.out.printf("lookup:  hash %.1fns  sorted %.1fns  mapped %.1fns%n",
+            mapLookup / (double) NUM_LOOKUPS, tableLookup / (double) NUM_LOOKUPS,
+            mappedLookup / (double) NUM_LOOKUPS);
+      }
+    }
+  }
+}
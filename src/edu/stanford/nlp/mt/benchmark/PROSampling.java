@@ -0,0 +1,151 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import edu.stanford.nlp.mt.tune.optimizers.OptimizerUtils;
+import edu.stanford.nlp.mt.tune.optimizers.PairwiseRankingSampler;
+import edu.stanford.nlp.mt.tune.optimizers.PairwiseRankingSampler.SparseVector;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.stats.Counters;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.Triple;
+import edu.stanford.nlp.util.concurrent.ConcurrentHashIndex;
+
+/**
+ * Benchmark of PRO pair sampling and construction of the difference vectors on synthetic
+ * n-best lists. Compares the previous serial sampler, which sorted boxed pairs and subtracted
+ * <code>Counter</code>s, to the parallel sampler with thread pools of increasing size.
+ *
+ * Usage: PROSampling [num_lists [nbest_size]]
+ */
+public class PROSampling {
+
+  private static final int GAMMA = 5000;
+  private static final int XI = 50;
+  private static final double N_THRESHOLD = 0.05;
+  private static final int NUM_DENSE_FEATURES = 15;
+  private static final int NUM_SPARSE_FEATURES = 20;
+
+  private static List<List<FeatureValue<String>>> makeList(int size, Random random) {
+    List<List<FeatureValue<String>>> nbestList = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) {
+      List<FeatureValue<String>> features = new ArrayList<>();
+      for (int j = 0; j < NUM_DENSE_FEATURES; ++j) features.add(new FeatureValue<>("dense" + j, random.nextGaussian()));
+      for (int j = 0; j < NUM_SPARSE_FEATURES; ++j) features.add(new FeatureValue<>("sparse" + random.nextInt(5000), 1.0));
+      nbestList.add(features);
+    }
+    return nbestList;
+  }
+
+  /**
+   * The previous sampler.
+   */
+  private static List<Counter<String>> serialSample(List<List<FeatureValue<String>>> nbestList, double[] scores,
+      Random random) {
+    List<Triple<Double,Integer,Integer>> v = new ArrayList<>();
+    for (int g = 0; g < GAMMA; g++) {
+      int j = random.nextInt(nbestList.size());
+      int jPrime = random.nextInt(nbestList.size());
+      double absDiff = Math.abs(scores[j] - scores[jPrime]);
+      if (absDiff >= N_THRESHOLD) {
+        v.add(scores[j] > scores[jPrime] ? new Triple<>(absDiff, j, jPrime) : new Triple<>(absDiff, jPrime, j));
+      }
+    }
+    Collections.sort(v);
+    Collections.reverse(v);
+    List<Counter<String>> data = new ArrayList<>();
+    for (Triple<Double,Integer,Integer> pair : v.subList(0, Math.min(XI, v.size()))) {
+      Counter<String> plusFeatures = OptimizerUtils.featureValueCollectionToCounter(nbestList.get(pair.second()));
+      Counter<String> minusFeatures = OptimizerUtils.featureValueCollectionToCounter(nbestList.get(pair.third()));
+      Counter<String> gtVector = new ClassicCounter<>(plusFeatures);
+      Counters.subtractInPlace(gtVector, minusFeatures);
+      data.add(gtVector);
+      Counter<String> ltVector = new ClassicCounter<>(minusFeatures);
+      Counters.subtractInPlace(ltVector, plusFeatures);
+      data.add(ltVector);
+    }
+    return data;
+  }
+
+  private static double parallelSample(List<List<List<FeatureValue<String>>>> nbestLists, List<double[]> scores,
+      int numThreads) throws InterruptedException, ExecutionException {
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    Index<String> featureIndex = new ConcurrentHashIndex<>();
+    try {
+      List<SparseVector> data = pool.submit(() -> IntStream.range(0, nbestLists.size()).parallel().mapToObj(i -> {
+        List<List<FeatureValue<String>>> nbestList = nbestLists.get(i);
+        double[] listScores = scores.get(i);
+        int[][] pairs = PairwiseRankingSampler.sample(nbestList.size(), j -> listScores[j], GAMMA, XI, N_THRESHOLD,
+            new Random(PairwiseRankingSampler.seed(1, i, 0)));
+        List<SparseVector> differences = new ArrayList<>(pairs.length);
+        for (int[] pair : pairs) {
+          differences.add(PairwiseRankingSampler.difference(nbestList.get(pair[0]), nbestList.get(pair[1]), null,
+              featureIndex::addToIndex));
+        }
+        return differences;
+      }).flatMap(List::stream).collect(Collectors.toList())).get();
+
+      // Checksum, which must not depend on the number of threads
+      double checksum = 0.0;
+      for (SparseVector v : data) {
+        for (int i = 0; i < v.size(); ++i) checksum += v.values[i] * featureIndex.get(v.features[i]).length();
+      }
+      return checksum;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException, ExecutionException {
+    int numLists = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int nbestSize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    Random random = new Random(7);
+    List<List<List<FeatureValue<String>>>> nbestLists = new ArrayList<>(numLists);
+    List<double[]> scores = new ArrayList<>(numLists);
+    for (int i = 0; i < numLists; ++i) {
+      nbestLists.add(makeList(nbestSize, random));
+      double[] listScores = new double[nbestSize];
+      for (int j = 0; j < nbestSize; ++j) listScores[j] = random.nextDouble();
+      scores.add(listScores);
+    }
+    final int maxThreads = Runtime.getRuntime().availableProcessors();
+    System.out.printf("%d lists  %d-best  %d processors%n", numLists, nbestSize, maxThreads);
+
+    // The first passes warm up the JIT
+    for (int pass = 0; pass < 3; ++pass) {
+      long startTime = System.nanoTime();
+      int numData = 0;
+      for (int i = 0; i < numLists; ++i) {
+        numData += serialSample(nbestLists.get(i), scores.get(i), new Random(i)).size();
+      }
+      long serialTime = System.nanoTime() - startTime;
+      if (pass == 2) {
+        System.out.printf("serial counters:  %.1fms  (%d data)%n", serialTime / 1e6, numData);
+      }
+
+      double checksum = Double.NaN;
+      for (int numThreads = 1; numThreads <= Math.max(4, maxThreads); numThreads *= 2) {
+        startTime = System.nanoTime();
+        double threadChecksum = parallelSample(nbestLists, scores, numThreads);
+        long time = System.nanoTime() - startTime;
+        if ( ! Double.isNaN(checksum) && checksum != threadChecksum) {
+          throw new RuntimeException(String.format("Samples differ with %d threads", numThreads));
+        }
+        checksum = threadChecksum;
+        if (pass == 2) {
+          System.out.printf("%2d threads:       %.1fms  (%.0f lists/s)%n", numThreads, time / 1e6,
+              numLists / (time / 1e9));
+        }
+      }
+    }
+  }
+}
@@ -6,6 +6,10 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -16,12 +20,14 @@ import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
 import edu.stanford.nlp.mt.decoder.util.Beam;
 import edu.stanford.nlp.mt.decoder.util.BeamFactory;
 import edu.stanford.nlp.mt.decoder.util.DTUHypothesis;
+import edu.stanford.nlp.mt.decoder.util.DecodingBudget;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.decoder.util.DiverseNbestDecoder;
+import edu.stanford.nlp.mt.decoder.util.KBestLatticeDecoder;
 import edu.stanford.nlp.mt.decoder.util.NbestListUtils;
 import edu.stanford.nlp.mt.decoder.util.OutputSpace;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
-import edu.stanford.nlp.mt.decoder.util.StateLatticeDecoder;
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
 import edu.stanford.nlp.mt.decoder.util.SyntheticRules;
 import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.tm.DTURule;
@@ -66,6 +72,7 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
   // Members
   protected final int beamCapacity;
   protected final BeamFactory.BeamType beamType;
+  protected final DecodingBudget decodingBudget;
   private final Comparator<RichTranslation<TK,FV>> translationComparator;
   
   protected boolean prefixAlignCompounds = false;
@@ -79,6 +86,7 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
     super(builder);
     this.beamCapacity = builder.beamSize;
     this.beamType = builder.beamType;
+    this.decodingBudget = builder.decodingBudget;
     this.translationComparator = new Comparator<RichTranslation<TK,FV>>() {
       @Override
       public int compare(RichTranslation<TK, FV> o1, RichTranslation<TK, FV> o2) {
@@ -112,8 +120,7 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
       int sourceInputId, Scorer<FV> scorer) {
     
     // Initial query
-    List<ConcreteRule<TK,FV>> ruleList = phraseGenerator.getRules(source, sourceInputProperties, 
-        sourceInputId, scorer);
+    List<ConcreteRule<TK,FV>> ruleList = queryRules(source, sourceInputProperties, sourceInputId, scorer);
     
     // Compute coverage
     final CoverageSet coverage = new CoverageSet(source.size());
@@ -131,7 +138,7 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
         }
         Sequence<TK> sourceFiltered = filteredToks.size() > 0 ? 
             new ArraySequence<TK>(filteredToks) : Sequences.emptySequence();
-        ruleList = phraseGenerator.getRules(sourceFiltered, sourceInputProperties, sourceInputId, scorer);
+        ruleList = queryRules(sourceFiltered, sourceInputProperties, sourceInputId, scorer);
         return new PhraseQuery<>(sourceFiltered, ruleList);
         
       } else {
@@ -158,6 +165,22 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
     return new PhraseQuery<>(source, ruleList);
   }
   
+  /**
+   * Query the phrase table, or the rule query cache if it is configured.
+   * 
+   * @param source
+   * @param sourceInputProperties
+   * @param sourceInputId
+   * @param scorer
+   * @return
+   */
+  private List<ConcreteRule<TK,FV>> queryRules(Sequence<TK> source, 
+      InputProperties sourceInputProperties, int sourceInputId, Scorer<FV> scorer) {
+    return ruleQueryCache == null ? 
+        phraseGenerator.getRules(source, sourceInputProperties, sourceInputId, scorer) :
+          ruleQueryCache.getRules(this, source, sourceInputProperties, sourceInputId, scorer);
+  }
+  
   /**
    * Container for the result of a TM query.
    * 
@@ -195,6 +218,15 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
     if (beam == null) return null; // Decoder failure
     timer.mark("Decode");    
 
+    if (sourceInputProperties.containsKey(InputProperty.SearchGraph) && beam.size() > 0) {
+      @SuppressWarnings("unchecked")
+      Consumer<SearchGraph> searchGraphConsumer = (Consumer<SearchGraph>) sourceInputProperties.get(InputProperty.SearchGraph);
+      List<Derivation<TK, FV>> goalStates = new ArrayList<>(beam.size());
+      for (Derivation<TK, FV> derivation : beam) goalStates.add(derivation);
+      searchGraphConsumer.accept(SearchGraph.build(sourceInputId, goalStates, recombinationHistory));
+      timer.mark("Search graph");
+    }
+
     // Backward pass
     List<RichTranslation<TK, FV>> nbestList;
     if (nbestMode == NbestMode.Standard) {
@@ -281,14 +313,14 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
     // Configure n-best extractor from goal states in final beam.
     List<Derivation<TK, FV>> goalStates = new ArrayList<>(beam.size());
     for (Derivation<TK, FV> derivation : beam) goalStates.add(derivation);
-    final StateLatticeDecoder<Derivation<TK, FV>> latticeDecoder = new StateLatticeDecoder<>(
+    final KBestLatticeDecoder<Derivation<TK, FV>> latticeDecoder = new KBestLatticeDecoder<>(
         goalStates, recombinationHistory);
 
     // Extract lattice paths
     final boolean prefixDecoding = sourceInputProperties.containsKey(InputProperty.TargetPrefix);
     final boolean prefixDiversity = distinct && prefixDecoding;
     final Sequence<TK> prefix = prefixDecoding ? targets.get(0) : null;
-    final Set<Sequence<TK>> distinctSurfaceTranslations = distinct ? new HashSet<>(size) : null;
+    final LongSet distinctSurfaceTranslations = distinct ? new LongOpenHashSet(size) : null;
     final List<RichTranslation<TK, FV>> translations = new ArrayList<>(size);
     int numExtracted = 0;
     long nbestId = 0;    
@@ -304,16 +336,11 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
       // left-to-right. Might need to move this check *after* building the DTUHypothesis
       // below.
       if (distinct) {
-        Sequence<TK> pathTarget = extractTarget(latticePath);
-        if(prefixDiversity) {
-          int start = prefix.size();
-          int end = Math.min(pathTarget.size(), prefix.size() + PREFIX_DIVERSITY_SIZE);
-          if (start < end) pathTarget = pathTarget.subsequence(start, end);
-        }
+        final long pathTarget = prefixDiversity ? 
+            targetHash(latticePath, prefix.size(), prefix.size() + PREFIX_DIVERSITY_SIZE) :
+              targetHash(latticePath, 0, Integer.MAX_VALUE);
         // Seen a higher-scoring derivation with this target string before
-        if (distinctSurfaceTranslations.contains(pathTarget)) continue;
-
-        distinctSurfaceTranslations.add(pathTarget);
+        if ( ! distinctSurfaceTranslations.add(pathTarget)) continue;
       }
       
       // This is very inefficient. But we need to reconstruct the Featurizable
@@ -361,28 +388,47 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
     // scores predicted by the lattice may not actually correspond to their real
     // scores.
     Collections.sort(translations, translationComparator);    
-    logger.info("Input {}: nbest #extracted {} max-agenda-size {}", sourceInputId, numExtracted, 
-        latticeDecoder.maxAgendaSize);
+    logger.info("Input {}: nbest #extracted {} #candidates {}", sourceInputId, numExtracted, 
+        latticeDecoder.numCandidates);
     
     return translations;
   }
 
   /**
-   * Extract the target sequence from the lattice path.
+   * 64-bit hash of the target tokens of a lattice path in the window [start,end). If the
+   * target is shorter than the prefix window, then the whole target is hashed, as in the
+   * unwindowed case.
    * 
    * @param latticePath
+   * @param start
+   * @param end
    * @return
    */
-  private Sequence<TK> extractTarget(List<Derivation<TK, FV>> latticePath) {
-    List<TK> tokens = new ArrayList<>(100);
+  private long targetHash(List<Derivation<TK, FV>> latticePath, int start, int end) {
+    int length = 0;
+    for (Derivation<TK, FV> node : latticePath) {
+      if (node.rule != null) length += node.rule.abstractRule.target.size();
+    }
+    if (start >= Math.min(length, end)) {
+      start = 0;
+      end = length;
+    }
+    long hash = 0xcbf29ce484222325L;
+    int position = 0;
     for (Derivation<TK, FV> node : latticePath) {
-      if (node.rule != null) {
-        for (TK token : node.rule.abstractRule.target) {
-          tokens.add(token);
+      if (node.rule == null) continue;
+      for (TK token : node.rule.abstractRule.target) {
+        if (position >= start && position < end) {
+          hash = (hash ^ token.hashCode()) * 0x100000001b3L;
         }
+        ++position;
       }
     }
-    return new ArraySequence<>(tokens);
+    hash ^= Math.min(length, end) - start;
+    // Final avalanche (MurmurHash3 fmix64)
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
   }
 
   @Override
@@ -2,6 +2,7 @@ package edu.stanford.nlp.mt.decoder;
 
 import edu.stanford.nlp.mt.decoder.Inferer;
 import edu.stanford.nlp.mt.decoder.util.BeamFactory;
+import edu.stanford.nlp.mt.decoder.util.DecodingBudget;
 
 /**
  * An abstract builder interface for beam-based inferers.
@@ -16,6 +17,7 @@ abstract public class AbstractBeamInfererBuilder<TK, FV> extends
 
   protected int beamSize;
   protected BeamFactory.BeamType beamType;
+  protected DecodingBudget decodingBudget;
 
   /**
    * Constructor.
@@ -53,6 +55,17 @@ abstract public class AbstractBeamInfererBuilder<TK, FV> extends
     return this;
   }
 
+  /**
+   * Set the default resource budget for each input.
+   * 
+   * @param decodingBudget
+   * @return
+   */
+  public AbstractBeamInfererBuilder<TK, FV> setDecodingBudget(DecodingBudget decodingBudget) {
+    this.decodingBudget = decodingBudget;
+    return this;
+  }
+
   @Override
   abstract public Inferer<TK, FV> newInferer();
 
@@ -4,6 +4,7 @@ import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
 import edu.stanford.nlp.mt.decoder.h.SearchHeuristic;
 import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.decoder.util.RuleQueryCache;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.tm.TranslationModel;
 
@@ -25,6 +26,7 @@ abstract public class AbstractInferer<TK, FV> implements Inferer<TK, FV> {
   protected final TranslationModel<TK,FV> unknownWordModel;
   public final TranslationModel<TK,FV> foregroundModel;
   public final TranslationModel<TK,FV> termbaseModel;
+  protected final RuleQueryCache<TK,FV> ruleQueryCache;
 
   /**
    * Constructor.
@@ -41,5 +43,6 @@ abstract public class AbstractInferer<TK, FV> implements Inferer<TK, FV> {
     unknownWordModel = builder.unknownWordModel;
     foregroundModel = builder.foregroundModel;
     termbaseModel = builder.termbaseModel;
+    ruleQueryCache = builder.ruleQueryCache;
   }
 }
@@ -4,6 +4,7 @@ import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
 import edu.stanford.nlp.mt.decoder.h.SearchHeuristic;
 import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.decoder.util.RuleQueryCache;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.tm.TranslationModel;
 
@@ -23,6 +24,7 @@ abstract public class AbstractInfererBuilder<TK, FV> implements InfererBuilder<T
   protected RecombinationFilter<Derivation<TK, FV>> filter;
   protected boolean filterUnknownWords;
   protected TranslationModel<TK, FV> unknownWordModel;
+  protected RuleQueryCache<TK,FV> ruleQueryCache = null;
 
   @Override
   abstract public Inferer<TK, FV> newInferer();
@@ -54,6 +56,17 @@ abstract public class AbstractInfererBuilder<TK, FV> implements InfererBuilder<T
     return this;
   }
   
+  /**
+   * Share a cache of translation model queries among the inferers.
+   * 
+   * @param ruleQueryCache
+   * @return
+   */
+  public InfererBuilder<TK, FV> setRuleQueryCache(RuleQueryCache<TK,FV> ruleQueryCache) {
+    this.ruleQueryCache = ruleQueryCache;
+    return this;
+  }
+  
   @Override
   public InfererBuilder<TK, FV> setScorer(Scorer<FV> scorer) {
     this.scorer = scorer;
@@ -12,7 +12,9 @@ import org.apache.logging.log4j.Logger;
 import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
 import edu.stanford.nlp.mt.decoder.util.Beam;
 import edu.stanford.nlp.mt.decoder.util.BundleBeam;
+import edu.stanford.nlp.mt.decoder.util.DecodingBudget;
 import edu.stanford.nlp.mt.decoder.util.OutputSpace;
+import edu.stanford.nlp.mt.decoder.util.PrefixDecodingContext;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.decoder.util.HyperedgeBundle;
 import edu.stanford.nlp.mt.decoder.util.HyperedgeBundle.Consequent;
@@ -102,6 +104,7 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       List<Sequence<TK>> targets, int nbest) {
 
     TimeKeeper timer = TimingUtils.start();
+    final long startTime = TimingUtils.startTime();
     
     boolean printDebug = false; // sourceInputId == 1022;
     
@@ -124,12 +127,27 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     final int localBeamCapacity = sourceInputProperties.containsKey(InputProperty.BeamSize) ?
         (int) sourceInputProperties.get(InputProperty.BeamSize) :
           beamCapacity;
+    final DecodingBudget budget = inputProperties.containsKey(InputProperty.DecodingBudget) ?
+        (DecodingBudget) inputProperties.get(InputProperty.DecodingBudget) : decodingBudget;
+    inputProperties.remove(InputProperty.DecodingDegradations);
+    
+    // Search state from previous calls with the same source input and a shorter prefix
+    final boolean prefixDecoding = inputProperties.containsKey(InputProperty.TargetPrefix) 
+        && targets != null && targets.size() > 0;
+    final PrefixDecodingContext<TK,FV> prefixContext = prefixDecoding ? 
+        (PrefixDecodingContext<TK,FV>) inputProperties.get(InputProperty.PrefixDecodingContext) : null;
     
     // TM (phrase table) query for applicable rules
-    final PhraseQuery<TK,FV> phraseQuery = 
-        getRules(source, inputProperties, targets, sourceInputId, scorer);
+    PhraseQuery<TK,FV> phraseQuery = prefixContext == null ? null :
+      prefixContext.getRules(source, sourceInputId, inputProperties);
+    if (phraseQuery == null) {
+      phraseQuery = getRules(source, inputProperties, targets, sourceInputId, scorer);
+      if (prefixContext != null) prefixContext.setRules(phraseQuery);
+      timer.mark("TM query");
+    } else {
+      timer.mark("TM query (cached)");
+    }
     source = phraseQuery.filteredSource;
-    timer.mark("TM query");
     
     // Check after potential filtering for OOVs
     if (source.size() == 0) return null;
@@ -176,10 +194,10 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     int startOfDecoding = 1;
     int minSourceCoverage = 0;
     boolean prefilledBeams = false;
-    if (inputProperties.containsKey(InputProperty.TargetPrefix) && targets != null && targets.size() > 0) {
+    if (prefixDecoding) {
       if (targets.size() > 1) logger.warn("Decoding to multiple prefixes is not supported. Choosing the first one.");
       minSourceCoverage = decodePrefix(source, ruleList, inputProperties, targets.get(0), 
-          scorer, beams, sourceInputId, outputSpace, recombinationHistory, timer);
+          scorer, beams, sourceInputId, outputSpace, recombinationHistory, prefixContext, timer);
       if (minSourceCoverage < 0) {
         logger.warn("input {}: PREFIX DECODING FAILURE", sourceInputId);
         return null;
@@ -189,6 +207,13 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       timer.mark("Prefix Decoding");
     }
   
+    // Adapt the search to the resource budget
+    final DecodingBudget.Monitor monitor = budget == null ? null : budget.monitor(startOfDecoding, 
+        sourceLength, localBeamCapacity, (int) inputProperties.getOrDefault(InputProperty.RuleQueryLimit, -1), 
+        maxDistortion, startTime);
+    int beamCapacity = localBeamCapacity;
+    int distortionLimit = maxDistortion;
+  
     //System.err.println("start main translation loop");
     // main translation loop---beam expansion
     final int maxPhraseLength = phraseGenerator.maxLengthSource();
@@ -197,24 +222,42 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       int rootBeam = prefilledBeams ? minSourceCoverage : 0;
       int minCoverage = i - maxPhraseLength;
       int startBeam = Math.max(rootBeam, minCoverage);
+      
+      if (monitor != null) {
+        monitor.update(i, totalHypothesesGenerated, numRecombinations(recombinationHistory, numRecombined));
+        beamCapacity = monitor.beamSize();
+        ruleGrid.setRuleQueryLimit(monitor.ruleQueryLimit());
+        if (monitor.distortionLimit() != distortionLimit) {
+          distortionLimit = monitor.distortionLimit();
+          for (int j = startBeam; j <= sourceLength; ++j) {
+            ((BundleBeam<TK,FV>) beams.get(j)).setDistortionLimit(distortionLimit);
+          }
+        }
+      }
 
       // Initialize the priority queue
       Queue<Item> pq = new PriorityQueue<>(2*localBeamCapacity);
+      List<Consequent<TK,FV>> successors = new ArrayList<>();
       for (int j = startBeam; j < i; ++j) {
         BundleBeam<TK,FV> bundleBeam = (BundleBeam<TK,FV>) beams.get(j);
         for (HyperedgeBundle<TK,FV> bundle : bundleBeam.getBundlesForConsequentSize(i)) {
-          for(Item consequent : generateConsequentsFrom(null, bundle, sourceInputId, outputSpace, false)) {
-            ++totalHypothesesGenerated;
-            if (consequent.derivation == null) ++numPruned;
-            pq.add(consequent);
-          }
+          successors.addAll(bundle.nextSuccessors(null));
         }
       }
+      for(Item consequent : generateConsequents(successors, sourceInputId, outputSpace, false)) {
+        ++totalHypothesesGenerated;
+        if (consequent.derivation == null) ++numPruned;
+        pq.add(consequent);
+      }
 
       // Beam-filling
       BundleBeam<TK,FV> newBeam = (BundleBeam<TK, FV>) beams.get(i);
       int numPoppedItems = newBeam.size();
-      while (numPoppedItems < localBeamCapacity && ! pq.isEmpty()) {
+      while (numPoppedItems < beamCapacity && ! pq.isEmpty()) {
+        if (monitor != null && newBeam.size() > 0 && monitor.checkExceeded(i, totalHypothesesGenerated, 
+            numRecombinations(recombinationHistory, numRecombined + newBeam.recombined()))) {
+          break;
+        }
         final Item item = pq.poll();
 
         // Derivations are null if they're pruned by an output constraint.
@@ -251,6 +294,11 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     logger.info("input {}: Decoding time: {}", sourceInputId, timer);
     logger.info("input {}: #derivations generated: {}  pruned: {}  recombined: {}", sourceInputId, 
         totalHypothesesGenerated, numPruned, numRecombined);
+    if (monitor != null && monitor.degradations().size() > 0) {
+      inputProperties.put(InputProperty.DecodingDegradations, new ArrayList<>(monitor.degradations()));
+      logger.warn("input {}: search degraded to stay within the decoding budget: {}", sourceInputId, 
+          monitor.degradations());
+    }
 
     // Return the best beam, which should be the goal beam
     boolean isGoalBeam = true;
@@ -285,6 +333,19 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     return null;
   }
 
+  /**
+   * Number of recombinations for the decoding budget. The history is not kept
+   * for 1-best decoding.
+   * 
+   * @param recombinationHistory
+   * @param numRecombined
+   * @return
+   */
+  private static <TK,FV> int numRecombinations(RecombinationHistory<Derivation<TK, FV>> recombinationHistory, 
+      int numRecombined) {
+    return recombinationHistory == null ? numRecombined : recombinationHistory.size();
+  }
+
   /**
    * Searches for consequents, always returning at least one and at most two.
    * 
@@ -298,16 +359,45 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
   private List<Item> generateConsequentsFrom(Consequent<TK, FV> antecedent, 
       HyperedgeBundle<TK, FV> bundle, int sourceInputId, OutputSpace<TK, FV> outputSpace, 
       boolean checkSourceCoverage) {
-    List<Item> successors = new ArrayList<>(2);
-    for(Consequent<TK, FV> successor : bundle.nextSuccessors(antecedent)) {
-      boolean buildDerivation = outputSpace.allowableContinuation(successor.antecedent.featurizable, successor.rule)
+    return generateConsequents(bundle.nextSuccessors(antecedent), sourceInputId, outputSpace, 
+        checkSourceCoverage);
+  }
+  
+  /**
+   * Builds derivations for a list of successors. If any featurizer batches its
+   * queries, then the queries for all successors are executed as one batch
+   * before the derivations are featurized.
+   * 
+   * @param successors
+   * @param sourceInputId
+   * @param outputSpace
+   * @param checkSourceCoverage
+   * @return
+   */
+  private List<Item> generateConsequents(List<Consequent<TK, FV>> successors, int sourceInputId, 
+      OutputSpace<TK, FV> outputSpace, boolean checkSourceCoverage) {
+    final int numSuccessors = successors.size();
+    final boolean[] buildDerivation = new boolean[numSuccessors];
+    for (int i = 0; i < numSuccessors; ++i) {
+      Consequent<TK, FV> successor = successors.get(i);
+      buildDerivation[i] = outputSpace.allowableContinuation(successor.antecedent.featurizable, successor.rule)
           && (!checkSourceCoverage || (!successor.antecedent.sourceCoverage.intersects(successor.rule.sourceCoverage) ));
-      Derivation<TK, FV> derivation = buildDerivation ? new Derivation<>(sourceInputId,
+    }
+    if (featurizer.hasBatchQueries()) {
+      for (int i = 0; i < numSuccessors; ++i) {
+        if (buildDerivation[i]) featurizer.queue(successors.get(i).antecedent, successors.get(i).rule);
+      }
+      featurizer.flush();
+    }
+    List<Item> items = new ArrayList<>(numSuccessors);
+    for (int i = 0; i < numSuccessors; ++i) {
+      Consequent<TK, FV> successor = successors.get(i);
+      Derivation<TK, FV> derivation = buildDerivation[i] ? new Derivation<>(sourceInputId,
           successor.rule, successor.antecedent.length, successor.antecedent, featurizer, scorer, 
           heuristic, outputSpace) : null;
-      successors.add(new Item(derivation, successor));
+      items.add(new Item(derivation, successor));
     }
-    return successors;
+    return items;
   }
   
   private int itemId = 0;
@@ -366,13 +456,15 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
    * @param prefix
    * @param scorer
    * @param beams
+   * @param prefixContext If not null, restore the beams for the unchanged part of the prefix.
    * @return The beam at which standard decoding should begin.
    */
   @SuppressWarnings("unchecked")
   private int decodePrefix(Sequence<TK> source, List<ConcreteRule<TK,FV>> ruleList, 
       InputProperties sourceInputProperties, Sequence<TK> prefix, Scorer<FV> scorer, 
       List<Beam<Derivation<TK,FV>>> beams, int sourceInputId, OutputSpace<TK, FV> outputSpace,
-      RecombinationHistory<Derivation<TK, FV>> recombinationHistory, TimeKeeper timer) {
+      RecombinationHistory<Derivation<TK, FV>> recombinationHistory, 
+      PrefixDecodingContext<TK,FV> prefixContext, TimeKeeper timer) {
     if (source == null || source.size() == 0 || prefix == null || prefix.size() == 0) return 0;
 
     //System.err.println("start prefix decoding");
@@ -413,10 +505,18 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       tgtBeams.add(new BundleBeam<>(localBeamCapacity, filter, prefixGrid, recombinationHistory, maxDistortion, i, true));
     }
     
+    // Resume search after the beams that are still valid for this prefix, i.e., whose rules in
+    // the prefix grid, including the synthetic rules, did not change.
+    final int restoredCardinality = prefixContext == null ? 0 : 
+      prefixContext.restore(prefix, prefixGrid, tgtBeams, recombinationHistory);
+    if (restoredCardinality > 0) {
+      logger.info("input {}: restored prefix beams 1-{}", sourceInputId, restoredCardinality);
+    }
+    
     final int maxTgtPhraseLength = prefixGrid.maxTargetLength();
     int totalHypothesesGenerated = 1, numRecombined = 0, numPruned = 0;
     int lastRecoveredCardinality = 0;
-    for (int i = 1; i <= prefixLength; ++i) {
+    for (int i = restoredCardinality + 1; i <= prefixLength; ++i) {
       //System.err.println("i = " + i);
       int rootBeam = 0;
       int minCoverage = i - maxTgtPhraseLength;
@@ -424,17 +524,19 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
 
       // Initialize the priority queue
       Queue<Item> pq = new PriorityQueue<>(2*localBeamCapacity);
+      List<Consequent<TK,FV>> successors = new ArrayList<>();
       for (int j = startBeam; j < i; ++j) {
         BundleBeam<TK,FV> bundleBeam = (BundleBeam<TK,FV>) tgtBeams.get(j);
         //System.err.println("card " + j + " consequent size " + i);
         for (HyperedgeBundle<TK,FV> bundle : bundleBeam.getBundlesForConsequentSize(i)) {
-          for(Item consequent : generateConsequentsFrom(null, bundle, sourceInputId, outputSpace, true)) {
-            ++totalHypothesesGenerated;
-            if (consequent.derivation == null) ++numPruned;
-            pq.add(consequent);
-          }
+          successors.addAll(bundle.nextSuccessors(null));
         }
       }
+      for(Item consequent : generateConsequents(successors, sourceInputId, outputSpace, true)) {
+        ++totalHypothesesGenerated;
+        if (consequent.derivation == null) ++numPruned;
+        pq.add(consequent);
+      }
       
       // Beam-filling
       BundleBeam<TK,FV> newBeam = (BundleBeam<TK, FV>) tgtBeams.get(i);
@@ -495,6 +597,7 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       numRecombined += newBeam.recombined();
     }
     timer.mark("PrefixDecoding");
+    if (prefixContext != null) prefixContext.save(prefix, tgtBeams, recombinationHistory, lastRecoveredCardinality);
     
     // Debug statistics
     logger.info("input {}: Prefix decoding time: {}", sourceInputId, timer);
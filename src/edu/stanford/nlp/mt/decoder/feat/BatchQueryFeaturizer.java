@@ -0,0 +1,39 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+import edu.stanford.nlp.mt.util.Featurizable;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * A derivation featurizer that can queue the (expensive) model queries for many
+ * derivation extensions and execute them as one batch. The decoder queues all 
+ * extensions produced while expanding a beam or hyperedge bundle, calls 
+ * <code>flush()</code>, and then featurizes the derivations as usual.
+ * 
+ * Implementations must be threadsafe.
+ * 
+ * @param <TK>
+ * @param <FV>
+ */
+public interface BatchQueryFeaturizer<TK,FV> {
+
+  /**
+   * True if this featurizer actually batches queries.
+   * 
+   * @return
+   */
+  boolean batchQueries();
+  
+  /**
+   * Queue the queries for extending a derivation with a target phrase.
+   * 
+   * @param prior The featurizable of the antecedent, or null for the null hypothesis.
+   * @param targetPhrase
+   * @param done True if the extension covers the full source input.
+   */
+  void queue(Featurizable<TK,FV> prior, Sequence<TK> targetPhrase, boolean done);
+  
+  /**
+   * Execute the queued queries.
+   */
+  void flush();
+}
@@ -0,0 +1,33 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+import edu.stanford.nlp.mt.util.Featurizable;
+
+/**
+ * A rule featurizer with a fixed feature layout, such as the scores of a phrase table.
+ * The feature values are a <code>float[]</code> block that the scorer scores with one
+ * dot product instead of one weight lookup per feature. <code>ruleFeaturize()</code>
+ * must still return the same features.
+ * 
+ * @param <TK>
+ * @param <FV>
+ */
+public interface DenseFeaturizer<TK, FV> extends RuleFeaturizer<TK, FV> {
+
+  /**
+   * The feature names of the block. Rules with the same layout should return
+   * the same array, which scorers use as a key for the aligned weights. May be
+   * longer than the feature values.
+   * 
+   * @param f
+   * @return
+   */
+  FV[] getDenseFeatureNames(Featurizable<TK, FV> f);
+
+  /**
+   * The feature values of <code>f.rule</code>. Must not be modified by the caller.
+   * 
+   * @param f
+   * @return
+   */
+  float[] getDenseFeatureValues(Featurizable<TK, FV> f);
+}
@@ -3,10 +3,15 @@ package edu.stanford.nlp.mt.decoder.feat;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.decoder.util.Scorer;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.DTURule;
+import edu.stanford.nlp.mt.tm.Rule;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.InputProperty;
@@ -26,6 +31,11 @@ public class FeatureExtractor<TK, FV> extends
     Cloneable {
   
   private List<Featurizer<TK, FV>> featurizers;
+  private List<BatchQueryFeaturizer<TK, FV>> batchFeaturizers;
+  private List<RuleFeaturizer<TK, FV>> staticRuleFeaturizers;
+  private List<RuleFeaturizer<TK, FV>> dynamicRuleFeaturizers;
+  // Identifies the static rule features cached on rules. Shared by clones.
+  private Object staticFeaturesKey = new Object();
   private final int numDerivationFeaturizers;
   private int featureAugmentationMode = -1;
   private ConcurrentHashMap<String, String> prefixFeatMap = null;
@@ -58,6 +68,8 @@ public class FeatureExtractor<TK, FV> extends
       }
     }
     this.numDerivationFeaturizers = id + 1;
+    indexBatchFeaturizers();
+    indexRuleFeaturizers();
     
     setFeatureAugmentationMode(featureAugmentationMode);
     
@@ -65,6 +77,36 @@ public class FeatureExtractor<TK, FV> extends
     initialize();
   }
 
+  /**
+   * Find the featurizers that batch their queries.
+   */
+  @SuppressWarnings("unchecked")
+  private void indexBatchFeaturizers() {
+    batchFeaturizers = new ArrayList<>();
+    for (Featurizer<TK, FV> featurizer : featurizers) {
+      if (featurizer instanceof DerivationFeaturizer && featurizer instanceof BatchQueryFeaturizer
+          && ((BatchQueryFeaturizer<TK, FV>) featurizer).batchQueries()) {
+        batchFeaturizers.add((BatchQueryFeaturizer<TK, FV>) featurizer);
+      }
+    }
+  }
+  
+  /**
+   * Split the rule featurizers into those with features that can be cached on
+   * the rule and the others.
+   */
+  @SuppressWarnings("unchecked")
+  private void indexRuleFeaturizers() {
+    staticRuleFeaturizers = new ArrayList<>();
+    dynamicRuleFeaturizers = new ArrayList<>();
+    for (Featurizer<TK, FV> featurizer : featurizers) {
+      if (featurizer instanceof StaticRuleFeaturizer) {
+        staticRuleFeaturizers.add((RuleFeaturizer<TK, FV>) featurizer);
+      } else if (featurizer instanceof RuleFeaturizer) {
+        dynamicRuleFeaturizers.add((RuleFeaturizer<TK, FV>) featurizer);
+      }
+    }
+  }
   
   public boolean setFeatureAugmentationMode(String featureAugmentationMode) {
     if (featureAugmentationMode != null) {
@@ -117,6 +159,9 @@ public class FeatureExtractor<TK, FV> extends
       if (!foundFeaturizers.contains(f))
         System.err.println("No featurizer to disable for class: " + f);
     featurizers = filteredFeaturizers;
+    indexBatchFeaturizers();
+    indexRuleFeaturizers();
+    staticFeaturesKey = new Object();
   }
 
   @Override
@@ -130,9 +175,25 @@ public class FeatureExtractor<TK, FV> extends
           .add(f instanceof NeedsCloneable ? (DerivationFeaturizer<TK, FV>) ((NeedsCloneable<TK, FV>) f)
               .clone() : f);
     }
+    featurizer.indexBatchFeaturizers();
+    featurizer.indexRuleFeaturizers();
     return featurizer;
   }
 
+  /**
+   * True if this feature extractor can be shared by decoder threads, i.e., no
+   * featurizer implements <code>NeedsCloneable</code>. Otherwise, each thread needs its
+   * own copy from <code>clone()</code>.
+   * 
+   * @return
+   */
+  public boolean isThreadsafe() {
+    for (Featurizer<TK, FV> featurizer : getFeaturizers()) {
+      if (featurizer instanceof NeedsCloneable) return false;
+    }
+    return true;
+  }
+
   /**
    * Get all feature templates in this feature extractor. Recursively extracts
    * feature templates from nested <code>FeatureExtractor</code>s.
@@ -183,6 +244,38 @@ public class FeatureExtractor<TK, FV> extends
     return featureValues;
   }
 
+  /**
+   * True if any derivation featurizer batches its queries.
+   * 
+   * @return
+   */
+  public boolean hasBatchQueries() {
+    return batchFeaturizers.size() > 0;
+  }
+  
+  /**
+   * Queue the queries for extending a derivation with a rule. See
+   * <code>BatchQueryFeaturizer</code>.
+   * 
+   * @param antecedent
+   * @param rule
+   */
+  public void queue(Derivation<TK, FV> antecedent, ConcreteRule<TK, FV> rule) {
+    final boolean done = antecedent.untranslatedSourceTokens == rule.sourceCoverage.cardinality();
+    for (BatchQueryFeaturizer<TK, FV> featurizer : batchFeaturizers) {
+      featurizer.queue(antecedent.featurizable, rule.abstractRule.target, done);
+    }
+  }
+  
+  /**
+   * Execute all queued queries.
+   */
+  public void flush() {
+    for (BatchQueryFeaturizer<TK, FV> featurizer : batchFeaturizers) {
+      featurizer.flush();
+    }
+  }
+  
   /**
    * Extract rule features.
    */
@@ -209,6 +302,125 @@ public class FeatureExtractor<TK, FV> extends
     return featureValues;
   }
  
+  /**
+   * Extract rule features and return their score. The features are added to
+   * <code>featureValues</code>. The blocks of <code>DenseFeaturizer</code>s are scored
+   * with one dot product. The features of <code>StaticRuleFeaturizer</code>s and
+   * their score are cached on the rule, and are scored again only when the weights
+   * change.
+   * 
+   * @param f
+   * @param scorer
+   * @param featureValues
+   * @return
+   */
+  public double ruleFeaturize(Featurizable<TK, FV> f, Scorer<FV> scorer,
+      List<FeatureValue<FV>> featureValues) {
+    double score = 0.0;
+    if (staticRuleFeaturizers.size() > 0) {
+      final Rule<TK> rule = f.rule == null ? null : f.rule.abstractRule;
+      // Augmented features depend on the input properties
+      if (rule != null && featureAugmentationMode < 0 && ! (rule instanceof DTURule)) {
+        StaticRuleFeatures<FV> staticFeatures = getStaticFeatures(f, rule, scorer);
+        featureValues.addAll(staticFeatures.features);
+        score += staticFeatures.score;
+      } else {
+        score += ruleFeaturize(f, scorer, staticRuleFeaturizers, featureValues);
+      }
+    }
+    score += ruleFeaturize(f, scorer, dynamicRuleFeaturizers, featureValues);
+
+    if(featureAugmentationMode >= 0) {
+      int numFeatures = featureValues.size();
+      augmentFeatures(f, featureValues);
+      score += scorer.getIncrementalScore(featureValues.subList(numFeatures, featureValues.size()));
+    }
+    return score;
+  }
+
+  /**
+   * Extract and score the features of a subset of the rule featurizers.
+   * 
+   * @param f
+   * @param scorer
+   * @param ruleFeaturizers
+   * @param featureValues
+   * @return
+   */
+  private double ruleFeaturize(Featurizable<TK, FV> f, Scorer<FV> scorer,
+      List<RuleFeaturizer<TK, FV>> ruleFeaturizers, List<FeatureValue<FV>> featureValues) {
+    double score = 0.0;
+    final List<FeatureValue<FV>> sparseFeatureValues = new ArrayList<>();
+    for (RuleFeaturizer<TK, FV> ruleFeaturizer : ruleFeaturizers) {
+      List<FeatureValue<FV>> listFeatureValues = ruleFeaturizer.ruleFeaturize(f);
+      if (listFeatureValues != null) {
+        boolean doNotCache = ruleFeaturizer.isolationScoreOnly();
+        boolean isDense = ruleFeaturizer instanceof DenseFeaturizer;
+        for (FeatureValue<FV> fv : listFeatureValues) {
+          fv.doNotCache = doNotCache;
+          featureValues.add(fv);
+          if ( ! isDense) sparseFeatureValues.add(fv);
+        }
+        if (isDense) {
+          DenseFeaturizer<TK, FV> denseFeaturizer = (DenseFeaturizer<TK, FV>) ruleFeaturizer;
+          score += scorer.getIncrementalScore(denseFeaturizer.getDenseFeatureValues(f),
+              denseFeaturizer.getDenseFeatureNames(f));
+        }
+      }
+    }
+    return score + scorer.getIncrementalScore(sparseFeatureValues);
+  }
+
+  /**
+   * Get the static features of a rule from the cache, or extract them.
+   * 
+   * @param f
+   * @param rule
+   * @param scorer
+   * @return
+   */
+  @SuppressWarnings("unchecked")
+  private StaticRuleFeatures<FV> getStaticFeatures(Featurizable<TK, FV> f, Rule<TK> rule,
+      Scorer<FV> scorer) {
+    final long weightsVersion = scorer.weightsVersion();
+    final Object cached = rule.staticFeatures;
+    StaticRuleFeatures<FV> staticFeatures = cached instanceof StaticRuleFeatures ?
+        (StaticRuleFeatures<FV>) cached : null;
+    if (staticFeatures == null || staticFeatures.key != staticFeaturesKey
+        || ! Objects.equals(staticFeatures.phraseTableName, rule.phraseTableName)) {
+      List<FeatureValue<FV>> features = new ArrayList<>();
+      double score = ruleFeaturize(f, scorer, staticRuleFeaturizers, features);
+      staticFeatures = new StaticRuleFeatures<>(staticFeaturesKey, rule.phraseTableName,
+          features, weightsVersion, score);
+      rule.staticFeatures = staticFeatures;
+
+    } else if (staticFeatures.weightsVersion != weightsVersion) {
+      staticFeatures = new StaticRuleFeatures<>(staticFeaturesKey, rule.phraseTableName,
+          staticFeatures.features, weightsVersion, scorer.getIncrementalScore(staticFeatures.features));
+      rule.staticFeatures = staticFeatures;
+    }
+    return staticFeatures;
+  }
+
+  /**
+   * The static features of a rule and their score under a weight vector.
+   */
+  private static class StaticRuleFeatures<FV> {
+    final Object key;
+    final String phraseTableName;
+    final List<FeatureValue<FV>> features;
+    final long weightsVersion;
+    final double score;
+    StaticRuleFeatures(Object key, String phraseTableName, List<FeatureValue<FV>> features,
+        long weightsVersion, double score) {
+      this.key = key;
+      this.phraseTableName = phraseTableName;
+      this.features = features;
+      this.weightsVersion = weightsVersion;
+      this.score = score;
+    }
+  }
+
   private static final String[] NO_GENRE = new String[]{""};
   private static final String PREFIX = "PRF";
   private static final String PREFIX_BOUNDARY_STRADDLE = PREFIX + "-" + "STR";
@@ -2,6 +2,9 @@ package edu.stanford.nlp.mt.decoder.feat;
 
 /**
  * Indicates that the featurizer is not re-entrant and thus should be cloned.
+ * Each decoder thread then gets a copy of the whole feature extractor. Featurizers
+ * that keep per-thread scratch state in a <code>ThreadLocal</code> can be shared
+ * and should not implement this interface.
  * 
  * @author Michel Galley
  * @author Spence Green
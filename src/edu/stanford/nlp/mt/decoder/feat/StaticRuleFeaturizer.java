@@ -0,0 +1,14 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+/**
+ * A rule featurizer whose features depend only on the translation rule
+ * <code>f.rule.abstractRule</code>, and not on the source input or the source span.
+ * The features and their score are cached on the rule and reused for all source
+ * inputs until the weights change.
+ * 
+ * @param <TK>
+ * @param <FV>
+ */
+public interface StaticRuleFeaturizer<TK, FV> extends RuleFeaturizer<TK, FV> {
+
+}
@@ -10,7 +10,6 @@ import java.util.List;
 
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeaturizerState;
-import edu.stanford.nlp.mt.decoder.feat.NeedsCloneable;
 import edu.stanford.nlp.mt.tm.ExtendedLexicalReorderingTable;
 import edu.stanford.nlp.mt.tm.ExtendedLexicalReorderingTable.ReorderingTypes;
 import edu.stanford.nlp.mt.train.AlignmentGrid;
@@ -29,8 +28,7 @@ import edu.stanford.nlp.mt.util.Sequence;
  * @see LexicalReorderingFeaturizer
  */
 public class HierarchicalReorderingFeaturizer extends
-    DerivationFeaturizer<IString, String> implements
-    NeedsCloneable<IString, String> {
+    DerivationFeaturizer<IString, String> {
 
   public static final String DEBUG_PROPERTY = "DebugHierarchicalReorderingFeaturizer";
   public static final boolean DEBUG = Boolean.parseBoolean(System.getProperty(
@@ -153,7 +151,8 @@ public class HierarchicalReorderingFeaturizer extends
   final boolean has2Disc, hasContainment;
   final String[] featureTags;
   final ExtendedLexicalReorderingTable mlrt;
-  private BitSet tmpCoverage = new BitSet();
+  // Scratch space for backtracking
+  private final ThreadLocal<BitSet> tmpCoverage = ThreadLocal.withInitial(BitSet::new);
   private final ReorderingTypes[] positionalMapping;
 
   /**
@@ -220,6 +219,14 @@ public class HierarchicalReorderingFeaturizer extends
           mlrt.positionalMapping[i]);
   }
 
+  /**
+   * The i-th score of a rule, either from the dynamic TM scores or at an index of the
+   * reordering table.
+   */
+  private float score(float[] scores, int index, int i) {
+    return scores == null ? mlrt.getReorderingScore(index, i) : scores[i];
+  }
+
   @Override
   public List<FeatureValue<String>> featurize(
       Featurizable<IString, String> f) {
@@ -231,10 +238,13 @@ public class HierarchicalReorderingFeaturizer extends
         .length() == f.prior.sourcePosition);
     boolean discont2 = (f.prior != null && fEnd(f) <= fStart(f.prior));
 
-    float[] scores = mlrt == null ? f.rule.abstractRule.reoderingScores : 
-      mlrt.getReorderingScores(f.derivation.rule.abstractRule);
-    float[] priorScores = (f.prior == null ? null : 
-      (mlrt == null ? f.rule.abstractRule.reoderingScores : mlrt.getReorderingScores(f.prior.derivation.rule.abstractRule)));
+    // Scores of the dynamic TM, or indices into the reordering table, which are read
+    // in place to avoid copying the scores for every hypothesis.
+    final float[] scores = mlrt == null ? f.rule.abstractRule.reoderingScores : null;
+    final float[] priorScores = (f.prior == null || mlrt != null ? null : f.rule.abstractRule.reoderingScores);
+    final int index = mlrt == null ? -1 : mlrt.getReorderingIndex(f.derivation.rule.abstractRule);
+    final int priorIndex = mlrt == null || f.prior == null ? -1 :
+      mlrt.getReorderingIndex(f.prior.derivation.rule.abstractRule);
 
     ReorderingTypes forwardOrientation = ReorderingTypes.discontinuousWithPrevious, 
         backwardOrientation = ReorderingTypes.discontinuousWithNext;
@@ -259,8 +269,10 @@ public class HierarchicalReorderingFeaturizer extends
       System.err.printf("Monotone: %s\nSwap: %s\n", locallyMonotone,
           locallySwapping);
       System.err.printf("PriorScores: %s\nScores: %s\n",
-          (priorScores == null ? "null" : Arrays.toString(priorScores)),
-          (scores == null ? "null" : Arrays.toString(scores)));
+          (priorScores == null ? (priorIndex < 0 ? "null" : 
+            Arrays.toString(mlrt.getReorderingScores(f.prior.derivation.rule.abstractRule))) : Arrays.toString(priorScores)),
+          (scores == null ? (index < 0 ? "null" : 
+            Arrays.toString(mlrt.getReorderingScores(f.derivation.rule.abstractRule))) : Arrays.toString(scores)));
     }
 
     boolean containmentOrientation = false;
@@ -357,15 +369,15 @@ public class HierarchicalReorderingFeaturizer extends
       if (type == forwardOrientation || type == backwardOrientation) {
         if (!usePrior(positionalMapping[i])) {
           boolean firstInDTU = f.getSegmentIdx() == 0;
-          if (scores != null && firstInDTU) {
-            values.add(new FeatureValue<String>(featureTags[i], scores[i], true));
+          if ((scores != null || index >= 0) && firstInDTU) {
+            values.add(new FeatureValue<String>(featureTags[i], score(scores, index, i), true));
           }
         } else {
           boolean lastInDTU = (f.prior == null)
               || f.prior.getSegmentIdx() + 1 == f.prior.getSegmentNumber();
-          if (priorScores != null && lastInDTU) {
+          if ((priorScores != null || priorIndex >= 0) && lastInDTU) {
             values
-                .add(new FeatureValue<String>(featureTags[i], priorScores[i], true));
+                .add(new FeatureValue<String>(featureTags[i], score(priorScores, priorIndex, i), true));
           }
         }
       }
@@ -403,16 +415,14 @@ public class HierarchicalReorderingFeaturizer extends
       ReorderingTypes finalBackwardOrientation = (fEndPos == fLen) ? ReorderingTypes.monotoneWithNext
           : ReorderingTypes.discontinuousWithNext;
 
-      float[] finalScores = mlrt == null ? f.rule.abstractRule.reoderingScores : 
-        mlrt.getReorderingScores(f.derivation.rule.abstractRule);
       // Create feature functions:
       for (int i = 0; i < positionalMapping.length; ++i) {
         ReorderingTypes type = positionalMapping[i];
         if (type == finalBackwardOrientation) {
           if (usePrior(positionalMapping[i])) {
-            if (finalScores != null)
+            if (scores != null || index >= 0)
               values.add(new FeatureValue<String>(featureTags[i],
-                  finalScores[i], true));
+                  score(scores, index, i), true));
           }
         }
       }
@@ -637,15 +647,6 @@ public class HierarchicalReorderingFeaturizer extends
       Sequence<IString> foreign) {
   }
 
-  @Override
-  public NeedsCloneable<IString, String> clone()
-      throws CloneNotSupportedException {
-    HierarchicalReorderingFeaturizer featurizer = (HierarchicalReorderingFeaturizer) super
-        .clone();
-    featurizer.tmpCoverage = new BitSet();
-    return featurizer;
-  }
-
   // //////////////
   // Debug code //
   // //////////////
@@ -709,6 +710,7 @@ public class HierarchicalReorderingFeaturizer extends
     // If any of these blocks lies after f in foreign side, we know it's not
     // monotone:
     Featurizable<IString, String> tmp_f = f.prior;
+    final BitSet tmpCoverage = this.tmpCoverage.get();
     tmpCoverage.clear();
     boolean foundAdjPhrase = false;
     while (true) {
@@ -764,6 +766,7 @@ public class HierarchicalReorderingFeaturizer extends
     // If any of these blocks lies before f in foreign side, we know it's not
     // monotone:
     Featurizable<IString, String> tmp_f = f.prior;
+    final BitSet tmpCoverage = this.tmpCoverage.get();
     tmpCoverage.clear();
     boolean foundAdjPhrase = false;
     while (true) {
@@ -170,10 +170,9 @@ public class LexicalReorderingFeaturizer extends
 
     // Generative model
     if (mlrt != null) {
-      float[] scores = mlrt
-          .getReorderingScores(f.derivation.rule.abstractRule);
-      float[] priorScores = (f.prior == null ? null : mlrt
-          .getReorderingScores(f.prior.derivation.rule.abstractRule));
+      final int index = mlrt.getReorderingIndex(f.derivation.rule.abstractRule);
+      final int priorIndex = f.prior == null ? -1 : mlrt
+          .getReorderingIndex(f.prior.derivation.rule.abstractRule);
 
       if (DETAILED_DEBUG) {
         System.err.printf("%s(%d) => %s(%d)\n", f.sourcePhrase,
@@ -184,6 +183,9 @@ public class LexicalReorderingFeaturizer extends
           System.err.printf("Prior %s(%d) => %s(%d)\n", f.sourcePhrase,
               f.sourcePosition, f.targetPhrase, f.targetPosition);
         System.err.printf("Monotone: %s\nSwap: %s\n", monotone, swap);
+        float[] scores = mlrt.getReorderingScores(f.derivation.rule.abstractRule);
+        float[] priorScores = (f.prior == null ? null : mlrt
+            .getReorderingScores(f.prior.derivation.rule.abstractRule));
         System.err.printf("PriorScores: %s\nScores: %s\n",
             (priorScores == null ? "null" : Arrays.toString(priorScores)),
             (scores == null ? "null" : Arrays.toString(scores)));
@@ -192,12 +194,12 @@ public class LexicalReorderingFeaturizer extends
       for (int i = 0; i < mlrt.positionalMapping.length; i++) {
         boolean ff = featureFunction(monotone, swap, mlrt.positionalMapping[i]);
         if (!usePrior(mlrt.positionalMapping[i])) {
-          if (scores != null && ff)
-            features.add(new FeatureValue<>(featureTags[i], scores[i], true));
+          if (index >= 0 && ff)
+            features.add(new FeatureValue<>(featureTags[i], mlrt.getReorderingScore(index, i), true));
         } else {
-          if (priorScores != null && ff)
+          if (priorIndex >= 0 && ff)
             features
-                .add(new FeatureValue<>(featureTags[i], priorScores[i], true));
+                .add(new FeatureValue<>(featureTags[i], mlrt.getReorderingScore(priorIndex, i), true));
         }
       }
     }
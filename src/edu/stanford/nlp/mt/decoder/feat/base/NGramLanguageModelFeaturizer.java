@@ -6,9 +6,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
 
+import edu.stanford.nlp.mt.decoder.feat.BatchQueryFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
+import edu.stanford.nlp.mt.lm.BatchedLanguageModel;
 import edu.stanford.nlp.mt.lm.LMState;
 import edu.stanford.nlp.mt.lm.LanguageModel;
 import edu.stanford.nlp.mt.lm.LanguageModelFactory;
@@ -29,7 +31,7 @@ import edu.stanford.nlp.util.PropertiesUtils;
  * @author Spence Green
  */
 public class NGramLanguageModelFeaturizer extends DerivationFeaturizer<IString, String> implements
-RuleFeaturizer<IString, String> {
+RuleFeaturizer<IString, String>, BatchQueryFeaturizer<IString, String> {
   private static final boolean DEBUG = false;
   public static final String DEFAULT_FEATURE_NAME = "LM";
 
@@ -112,6 +114,43 @@ RuleFeaturizer<IString, String> {
     return new ArraySequence<IString>(true, array);
   }
 
+  /**
+   * Add boundary tokens to the target phrase of a derivation extension.
+   * 
+   * @param partialTranslation
+   * @param prior
+   * @param priorState
+   * @param done
+   * @return
+   */
+  private Sequence<IString> wrapBoundaries(Sequence<IString> partialTranslation, 
+      Featurizable<IString, String> prior, LMState priorState, boolean done) {
+    if (! wrapBoundary) {
+      if (prior == null && done) {
+        return Sequences.wrapStartEnd(partialTranslation, startToken, endToken);
+      } else if (prior == null) {
+        return Sequences.wrapStart(partialTranslation, startToken);
+      } else if (done) {
+        return Sequences.wrapEnd(partialTranslation, endToken);
+      } 
+    } else if (prior != null && priorState == null) {
+      return Sequences.wrapStart(partialTranslation, prior.targetSequence.get(0));
+    }
+    return partialTranslation;
+  }
+  
+  /**
+   * The LM query start index for a derivation extension.
+   * 
+   * @param prior
+   * @param priorState
+   * @return
+   */
+  private static int startIndex(Featurizable<IString, String> prior, LMState priorState) {
+    if (prior == null) return 1;
+    return wrapBoundary && priorState == null ? 1 : 0;
+  }
+  
   @Override
   public List<FeatureValue<String>> featurize(Featurizable<IString, String> f) {
     if (DEBUG) {
@@ -125,25 +164,9 @@ RuleFeaturizer<IString, String> {
     
     Sequence<IString> partialTranslation = isClassBased ? 
         toClassRepresentation(f.targetPhrase) : f.targetPhrase;
-    int startIndex = 0;
-    if (! wrapBoundary) {
-      if (f.prior == null && f.done) {
-        partialTranslation = Sequences.wrapStartEnd(
-            partialTranslation, startToken, endToken);
-        startIndex = 1;
-      } else if (f.prior == null) {
-        partialTranslation = Sequences.wrapStart(partialTranslation, startToken);
-        startIndex = 1;
-      } else if ( f.done) {
-        partialTranslation = Sequences.wrapEnd(partialTranslation, endToken);
-      } 
-    } else if (f.prior == null) {
-      if (partialTranslation.size() < 2) return null;
-      startIndex = 1;
-    } else if (f.prior != null && priorState == null) {
-      partialTranslation = Sequences.wrapStart(partialTranslation, f.prior.targetSequence.get(0));
-      startIndex = 1;
-    }
+    if (wrapBoundary && f.prior == null && partialTranslation.size() < 2) return null;
+    partialTranslation = wrapBoundaries(partialTranslation, f.prior, priorState, f.done);
+    int startIndex = startIndex(f.prior, priorState);
     
     LMState state = lm.score(partialTranslation, startIndex, priorState);
     f.setState(this, state);
@@ -155,6 +178,27 @@ RuleFeaturizer<IString, String> {
     return Collections.singletonList(new FeatureValue<>(featureName, state.getScore(), true));
   }
 
+  @Override
+  public boolean batchQueries() {
+    return lm instanceof BatchedLanguageModel;
+  }
+
+  @Override
+  public void queue(Featurizable<IString, String> prior, Sequence<IString> targetPhrase, boolean done) {
+    if ( ! (lm instanceof BatchedLanguageModel)) return;
+    LMState priorState = prior == null ? null : (LMState) prior.getState(this);
+    Sequence<IString> partialTranslation = isClassBased ? 
+        toClassRepresentation(targetPhrase) : targetPhrase;
+    if (wrapBoundary && prior == null && partialTranslation.size() < 2) return;
+    partialTranslation = wrapBoundaries(partialTranslation, prior, priorState, done);
+    ((BatchedLanguageModel<IString>) lm).queue(partialTranslation, startIndex(prior, priorState), priorState);
+  }
+
+  @Override
+  public void flush() {
+    if (lm instanceof BatchedLanguageModel) ((BatchedLanguageModel<IString>) lm).flush();
+  }
+
   @Override
   public List<FeatureValue<String>> ruleFeaturize(
       Featurizable<IString, String> f) {
@@ -6,7 +6,6 @@ import java.util.List;
 import java.util.Map;
 
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
-import edu.stanford.nlp.mt.decoder.feat.NeedsCloneable;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.util.DTUHypothesis;
 import edu.stanford.nlp.mt.tm.DTURule;
@@ -24,7 +23,7 @@ import edu.stanford.nlp.mt.util.Sequence;
  * @author Michel Galley
  */
 @SuppressWarnings("unused")
-public class TargetGapFeaturizer extends DerivationFeaturizer<IString,String> implements NeedsCloneable<IString, String>,
+public class TargetGapFeaturizer extends DerivationFeaturizer<IString,String> implements
     RuleFeaturizer<IString, String> {
 
   public static final String DEBUG_PROPERTY = "DebugTargetGapFeaturizer";
@@ -182,15 +181,13 @@ public class TargetGapFeaturizer extends DerivationFeaturizer<IString,String> im
     return list;
   }
 
-  private Map<Rule<IString>, DTUFeaturizable<IString, String>> seenOptions = new HashMap<Rule<IString>, DTUFeaturizable<IString, String>>();
-
   private void addCrossingCountFeatures(List<FeatureValue<String>> feats,
       DTUFeaturizable<IString, String> startF,
       DTUFeaturizable<IString, String> endF) {
 
     Featurizable<IString, String> curF = endF.prior;
 
-    seenOptions.clear();
+    Map<Rule<IString>, DTUFeaturizable<IString, String>> seenOptions = new HashMap<Rule<IString>, DTUFeaturizable<IString, String>>();
 
     int bonbonCount = 0;
     for (int i = 0; curF != null && curF != startF; ++i, curF = curF.prior) {
@@ -226,13 +223,6 @@ public class TargetGapFeaturizer extends DerivationFeaturizer<IString,String> im
           * crossingCount, true));
   }
 
-  @Override
-  public Object clone() throws CloneNotSupportedException {
-    TargetGapFeaturizer f = (TargetGapFeaturizer) super.clone();
-    f.seenOptions = new HashMap<Rule<IString>, DTUFeaturizable<IString, String>>();
-    return f;
-  }
-
   @Override
   public void initialize(int sourceInputId,
       Sequence<IString> foreign) {
@@ -5,7 +5,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
-import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.DenseFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.StaticRuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -18,7 +19,8 @@ import edu.stanford.nlp.mt.util.IString;
  * 
  * @param <T>
  */
-public class TranslationModelFeaturizer implements RuleFeaturizer<IString, String> {
+public class TranslationModelFeaturizer implements DenseFeaturizer<IString, String>,
+    StaticRuleFeaturizer<IString, String> {
   
   public static final String FEATURE_PREFIX = "TM";
 
@@ -65,14 +67,7 @@ public class TranslationModelFeaturizer implements RuleFeaturizer<IString, Strin
       throw new RuntimeException("Score name/value arrays of different dimensions for table: " + phraseTableName);
     }
     
-    String[] featureNames = featureNamesHash.get(phraseTableName);
-    if (featureNames == null) {
-      featureNames = createAndCacheFeatureNames(phraseTableName, featurizable.phraseScoreNames, false);
-    }
-    if (featurizable.phraseScoreNames.length > featureNames.length) {
-      // We want to cache the longest feature list for each phrase table
-      featureNames = createAndCacheFeatureNames(phraseTableName, featurizable.phraseScoreNames, true);
-    }
+    final String[] featureNames = getDenseFeatureNames(featurizable);
     
     // construct array of FeatureValue objects
     final List<FeatureValue<String>> features = new ArrayList<>(featureNames.length);
@@ -82,6 +77,27 @@ public class TranslationModelFeaturizer implements RuleFeaturizer<IString, Strin
     return features;
   }
 
+  @Override
+  public String[] getDenseFeatureNames(Featurizable<IString, String> featurizable) {
+    final String phraseTableName = featurizable.phraseTableName;
+    String[] featureNames = featureNamesHash.get(phraseTableName);
+    if (featureNames == null) {
+      createAndCacheFeatureNames(phraseTableName, featurizable.phraseScoreNames, false);
+      // Return the cached array, which is the key of the dense weights in the scorer
+      featureNames = featureNamesHash.get(phraseTableName);
+    }
+    if (featurizable.phraseScoreNames.length > featureNames.length) {
+      // We want to cache the longest feature list for each phrase table
+      featureNames = createAndCacheFeatureNames(phraseTableName, featurizable.phraseScoreNames, true);
+    }
+    return featureNames;
+  }
+
+  @Override
+  public float[] getDenseFeatureValues(Featurizable<IString, String> featurizable) {
+    return featurizable.translationScores;
+  }
+
   @Override
   public void initialize() {}
 
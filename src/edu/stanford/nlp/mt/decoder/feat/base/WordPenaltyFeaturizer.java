@@ -3,7 +3,7 @@ package edu.stanford.nlp.mt.decoder.feat.base;
 import java.util.Collections;
 import java.util.List;
 
-import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.StaticRuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 
@@ -13,7 +13,7 @@ import edu.stanford.nlp.mt.util.Featurizable;
  * @author danielcer
  * 
  */
-public class WordPenaltyFeaturizer<TK> implements RuleFeaturizer<TK, String> {
+public class WordPenaltyFeaturizer<TK> implements StaticRuleFeaturizer<TK, String> {
 
   public static final String FEATURE_NAME = "WordPenalty";
 
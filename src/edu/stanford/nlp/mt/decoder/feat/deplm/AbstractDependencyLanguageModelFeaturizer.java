@@ -1,35 +1,30 @@
 package edu.stanford.nlp.mt.decoder.feat.deplm;
 
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
-import edu.stanford.nlp.ling.IndexedWord;
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeaturizerState;
-import edu.stanford.nlp.mt.decoder.feat.NeedsCloneable;
 import edu.stanford.nlp.mt.lm.LMState;
-import edu.stanford.nlp.mt.tools.deplm.DependencyUtils;
 import edu.stanford.nlp.mt.util.CoverageSet;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
-import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.PhraseAlignment;
 import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.SourceAnnotationStore;
+import edu.stanford.nlp.mt.util.SourceDependencyParse;
 import edu.stanford.nlp.mt.util.TargetClassMap;
 import edu.stanford.nlp.mt.util.TokenUtils;
-import edu.stanford.nlp.util.Pair;
 
-public abstract class AbstractDependencyLanguageModelFeaturizer extends DerivationFeaturizer<IString, String>  implements NeedsCloneable<IString, String> {
+public abstract class AbstractDependencyLanguageModelFeaturizer extends DerivationFeaturizer<IString, String> {
 
   public static String FEAT_NAME_FRAG_PENALTY = "DEPLM_FRAG_PENALTY";
   public static String FEAT_NAME_WORD_PENALTY = "DEPLM_WORD_PENALTY";
@@ -43,19 +38,18 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
   public TargetClassMap targetClassMap;
 
   
-  public static Map<Integer, Map<Integer, Set<Integer>>> reachableNodesCache;
-  public static Map<Integer, Map<Integer, HashSet<Integer>>> forwardDependenciesCache;
-  public static Map<Integer, Map<Integer,Integer>> reverseDependenciesCache;
+  // Source dependency parses. Shared by all threads.
+  protected SourceAnnotationStore parses;
   
-  public Map<Integer, HashSet<Integer>> head2Dependent;
-  public Map<Integer,Integer> dependent2Head;
-  public Map<Integer, Set<Integer>> reachableNodes;
+  // The parse of the current source input
+  private final ThreadLocal<SourceDependencyParse> parse = new ThreadLocal<>();
 
   public static String HEAD_SUFFIX = "<HEAD>";
   public static String ROOT_SUFFIX = "<ROOT>";
   public static String FRAG_SUFFIX = "<FRAG>";
   
-  protected DepLMState state;
+  // The state that is built by the current call to featurize()
+  private final ThreadLocal<DepLMState> state = new ThreadLocal<>();
 
   
   public abstract void scoreLeft(List<FeatureValue<String>> features, List<Double> lmScores, IString token, int tokenIndex, DepLMSubState subState);
@@ -64,6 +58,24 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
 
   public abstract void scoreRightEnd(List<FeatureValue<String>> features,  List<Double> lmScores, DepLMSubState subState);
   
+  /**
+   * The parse of the source input that is decoded by the current thread.
+   * 
+   * @return
+   */
+  protected SourceDependencyParse parse() {
+    return parse.get();
+  }
+  
+  /**
+   * The state that is built by the current call to <code>featurize()</code>.
+   * 
+   * @return
+   */
+  protected DepLMState state() {
+    return state.get();
+  }
+  
   public abstract void scoreUnaligned(List<FeatureValue<String>> features,  List<Double> lmScores, IString token, int tokenIndex);
   
   public abstract void scoreFrag(List<FeatureValue<String>> features,  List<Double> lmScores, IString token, int tokenIndex, boolean scoreEmptyChildren);
@@ -133,60 +145,58 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
   }
   
 
-  public Set<Integer> reachableNodes(int root, int depth) {
-    Set<Integer> reachableNodes = new HashSet<>();
-    reachableNodes.add(root);
-    Set<Integer> children = this.head2Dependent.get(root);
-    if (children == null)
-      return reachableNodes;
-    
-    for (int i : children) {
-      if (this.disableTransitivity) {
-        reachableNodes.add(i);
-      } else {
-        reachableNodes.addAll(reachableNodes(i, depth + 1));
-      }
-    }
- 
-    return reachableNodes;
-    
+  /**
+   * The source head of a source token, or null if the token is not attached.
+   * 
+   * @param sourceIndex
+   * @return
+   */
+  protected Integer head(int sourceIndex) {
+    int head = parse().head(sourceIndex);
+    return head == SourceDependencyParse.NO_HEAD ? null : head;
   }
   
-  public Set<Integer> reachableNodes(int root) {
-    if (!reachableNodes.containsKey(root)) {
-      reachableNodes.put(root, this.reachableNodes(root, 0));
+  /**
+   * True if all source tokens reachable from a source head are covered. If transitivity 
+   * is disabled, then only the head and its direct dependents are checked.
+   * 
+   * @param root
+   * @param sourceCoverage
+   * @return
+   */
+  protected boolean reachableNodesCovered(int root, CoverageSet sourceCoverage) {
+    if ( ! sourceCoverage.get(root)) return false;
+    if (this.disableTransitivity) {
+      for (int j = parse().nextChild(root, 0); j >= 0; j = parse().nextChild(root, j + 1)) {
+        if ( ! sourceCoverage.get(j)) return false;
+      }
+    } else {
+      for (int j = parse().nextReachable(root, 0); j >= 0; j = parse().nextReachable(root, j + 1)) {
+        if ( ! sourceCoverage.get(j)) return false;
+      }
     }
-    
-    return reachableNodes.get(root);
+    return true;
   }
   
-  
+  /**
+   * Load source dependency parses from either a CoNLL file or a compiled
+   * <code>SourceAnnotationStore</code>.
+   * 
+   * @param filename
+   * @throws IOException
+   */
   public void loadDependencies(String filename) throws IOException {
-    LineNumberReader reader = IOTools.getReaderFromFile(filename);
-    forwardDependenciesCache = new HashMap<Integer, Map<Integer, HashSet<Integer>>>();
-    reverseDependenciesCache = new HashMap<Integer, Map<Integer, Integer>>();
-    reachableNodesCache = new HashMap<Integer, Map<Integer, Set<Integer>>>();
-
-    
-    HashMap<Integer, Pair<IndexedWord, List<Integer>>> deps;
-    int i = 0;
-    while ((deps = DependencyUtils.getDependenciesFromCoNLLFileReader(reader, true, true)) != null) {
-      reverseDependenciesCache.put(i,DependencyUtils.getReverseDependencies(deps));
-      Map<Integer, HashSet<Integer>> forwardDeps = new HashMap<Integer, HashSet<Integer>>();
-      for (Integer gov : deps.keySet()) {
-        List<Integer> children = deps.get(gov).second;
-        forwardDeps.put(gov, new HashSet<Integer>());
-        for (Integer child : children) {
-          forwardDeps.get(gov).add(child);
-        }
-      }
-      forwardDependenciesCache.put(i, forwardDeps);
-      i++;
-    }
-    
-    reader.close();
+    this.parses = SourceAnnotationStore.load(filename);
   }
   
+  /**
+   * The source dependency parses used by this featurizer. Parses for inputs that 
+   * are not in the store can be added on the fly.
+   * 
+   * @return
+   */
+  public SourceAnnotationStore getParses() { return parses; }
+  
   /**
    * Clean up the state by scoring or attaching all left children of a substate
    * that corresponds to an unaligned source token
@@ -197,6 +207,7 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
     
     final int startPos = f.sourcePosition;
     final int endPos = startPos + f.sourcePhrase.size();
+    final DepLMState state = state();
     
     for (int j = startPos; j < endPos; j++) {
       DepLMSubState orphanedSubState = state.getSubState(j);
@@ -206,14 +217,14 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
           && isSourceTokenScorable(j, tgtIndex, f, state.getAlignedSourceIndices())) {
       
         DepLMSubState subState = null;
-        Integer sourceHeadIndex = dependent2Head.get(j);
+        Integer sourceHeadIndex = head(j);
         
         boolean isRoot = ! this.disableTransitivity; // in case transitive attachments are disabled, go directly to the root
         boolean foundLeftHead = false;
         boolean foundRightHead = false;
 
         while (!isRoot && !foundLeftHead && !foundRightHead) {
-          sourceHeadIndex = this.dependent2Head.get(sourceHeadIndex);
+          sourceHeadIndex = head(sourceHeadIndex);
           if (sourceHeadIndex == null || sourceHeadIndex < 0) {
             isRoot = true;
           } else {
@@ -250,11 +261,8 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
   
   @Override
   public void initialize(int sourceInputId, Sequence<IString> source) {
-    this.head2Dependent = forwardDependenciesCache.get(sourceInputId);
-    this.dependent2Head = reverseDependenciesCache.get(sourceInputId);
-    if (reachableNodesCache.get(sourceInputId) == null)
-      reachableNodesCache.put(sourceInputId, new HashMap<Integer, Set<Integer>>());
-    this.reachableNodes = reachableNodesCache.get(sourceInputId);
+    SourceDependencyParse parse = parses.get(sourceInputId);
+    this.parse.set(parse == null ? SourceDependencyParse.EMPTY : parse);
   }
   
   @Override
@@ -265,7 +273,8 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
     
     // Lookup the state
     DepLMState prevState = f.prior == null ? null : (DepLMState) f.prior.getState(this);
-    this.state = prevState == null ? new DepLMState() : prevState.clone();
+    final DepLMState state = prevState == null ? new DepLMState() : prevState.clone();
+    this.state.set(state);
     
     PhraseAlignment alignment = f.rule.abstractRule.alignment;
     for (int i = 0, targetLength = f.targetPhrase.size(); i < targetLength; i++) {
@@ -303,13 +312,14 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
         int srcIndex = alignment.t2s(i)[j] + f.sourcePosition;
         // Heuristic: choose the leftmost aligned token in the case of multiple alignments
         // TODO: Is this the best/right heuristic?
-        if (sourceHeadIndex == null && this.dependent2Head.get(srcIndex) != null) {
-          sourceHeadIndex = this.dependent2Head.get(srcIndex);
+        Integer srcHeadIndex = head(srcIndex);
+        if (sourceHeadIndex == null && srcHeadIndex != null) {
+          sourceHeadIndex = srcHeadIndex;
           sourceDepIndex = srcIndex;
-        } else if (this.dependent2Head.get(srcIndex) != null) {
+        } else if (srcHeadIndex != null) {
           if (sourceHeadIndex == srcIndex) {
             // Special case: target aligned to both dependent and head
-            sourceHeadIndex = this.dependent2Head.get(srcIndex);
+            sourceHeadIndex = srcHeadIndex;
             sourceDepIndex = srcIndex;
           }
         }
@@ -358,7 +368,7 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
             boolean foundRightHead = false;
 
             while (!isRoot && !foundLeftHead && !foundRightHead) {
-              sourceHeadIndex = this.dependent2Head.get(sourceHeadIndex);
+              sourceHeadIndex = head(sourceHeadIndex);
               if (sourceHeadIndex == null || sourceHeadIndex < 0) {
                 isRoot = true;
               } else {
@@ -411,17 +421,7 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
     for (Integer i : state.getSubStates().keySet()) {
       if (state.getSubState(i) == null)
         continue;
-      HashSet<Integer> deps = this.head2Dependent.get(i);
-      boolean del = f.derivation.sourceCoverage.get(i);
-      if (del && deps != null) {
-        for (Integer j : this.reachableNodes(i)) {
-          if (!f.derivation.sourceCoverage.get(j)) {
-            del = false;
-            break;
-          }
-        }
-      }
-      if (del) {
+      if (reachableNodesCovered(i, f.derivation.sourceCoverage)) {
         if (state.getSubState(i).getHeadToken() != null) {
           //score right end token
           scoreRightEnd(features, lmScores, state.getSubState(i));
@@ -468,12 +468,6 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
   
   
   
-  @Override
-  public Object clone() throws CloneNotSupportedException {
-    return super.clone();
-  }
-  
-  
   public static class DepLMState extends FeaturizerState {
 
     private HashMap<Integer, Integer> projectedDependencies;
@@ -114,7 +114,7 @@ public class GenerativeDependencyLanguageModelFeaturizer extends AbstractDepende
     
     lmScores.add(score);
     features.add(new FeatureValue<String>(FEAT_NAME_WORD_PENALTY, 1.0));
-    this.state.getProjectedDependencies().put(tokenIndex, -2);
+    state().getProjectedDependencies().put(tokenIndex, -2);
     
     if (this.useFragPenalty)
       features.add(new FeatureValue<String>(FEAT_NAME_FRAG_PENALTY, 1.0));
@@ -138,7 +138,7 @@ public class GenerativeDependencyLanguageModelFeaturizer extends AbstractDepende
     features.add(new FeatureValue<String>(FEAT_NAME_WORD_PENALTY, 1.0));
     /* Set tokenIndex to -1 to disable adding another dependency. Used by scoreRightEnd. */
     if (tokenIndex > -1) 
-      this.state.getProjectedDependencies().put(tokenIndex, subState.getHeadTokenIndex());
+      state().getProjectedDependencies().put(tokenIndex, subState.getHeadTokenIndex());
 
   }
   
@@ -149,7 +149,7 @@ public class GenerativeDependencyLanguageModelFeaturizer extends AbstractDepende
       score += score(END_TOKEN, token, ROOT_TOKEN, ROOT_DIR_TOKEN);
     
     
-    this.state.getProjectedDependencies().put(tokenIndex, -1);
+    state().getProjectedDependencies().put(tokenIndex, -1);
 
     lmScores.add(score);
     features.add(new FeatureValue<String>(FEAT_NAME_WORD_PENALTY, 1.0));
@@ -171,7 +171,7 @@ public class GenerativeDependencyLanguageModelFeaturizer extends AbstractDepende
         /* Add dependencies to the state */
         if (i < leftChildrenCount) {
           Integer depToken2Index = subState.getLeftChildrenIndices().get(i);
-          this.state.getProjectedDependencies().put(depToken2Index, headTokenIndex);
+          state().getProjectedDependencies().put(depToken2Index, headTokenIndex);
         }
       }
     }
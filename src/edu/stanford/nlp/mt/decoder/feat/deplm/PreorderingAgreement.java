@@ -11,7 +11,6 @@ import java.util.List;
 import java.util.Properties;
 
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
-import edu.stanford.nlp.mt.decoder.feat.NeedsCloneable;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -24,13 +23,12 @@ import edu.stanford.nlp.mt.util.Sequence;
  *
  */
 
-public class PreorderingAgreement extends DerivationFeaturizer<IString, String> implements NeedsCloneable<IString, String> {
+public class PreorderingAgreement extends DerivationFeaturizer<IString, String> {
 
   
   private static final String FEATURE_NAME = "POAGR";
 
   private static List<List<Integer>> preorderedPermutations = null;
-  private List<Integer> preorderedPermutationSequence = null;
   
   private boolean addCorrelationFeature = false;
   private boolean addPermutationIdentityFeature = false;
@@ -78,7 +76,6 @@ public class PreorderingAgreement extends DerivationFeaturizer<IString, String>
   @Override
   public void initialize(int sourceInputId,
       Sequence<IString> source) {
-    this.preorderedPermutationSequence = preorderedPermutations.get(sourceInputId);
   }
   
   private List<Integer> getPermutationSequence(Featurizable<IString, String> f) {
@@ -185,21 +182,22 @@ public class PreorderingAgreement extends DerivationFeaturizer<IString, String>
     if (f  == null || f.sourcePhrase == null)
       return features;
 
+    final List<Integer> preorderedPermutationSequence = preorderedPermutations.get(f.sourceInputId);
     List<Integer> permutationSequence = getPermutationSequence(f);
     //System.err.println("----------------------------------------");
-    //System.err.println("Reference Permutation: " + StringUtils.join(this.preorderedPermutationSequence));
+    //System.err.println("Reference Permutation: " + StringUtils.join(preorderedPermutationSequence));
     //System.err.println("Predicted Permutation: " + StringUtils.join(permutationSequence));
     //System.err.println("SourcePhraseSize: " + f.sourcePhrase.size());
 
     int start = permutationSequence.size() - f.sourcePhrase.size();
     if (addCorrelationFeature) {
-      double correlationCoeff = pearsonCorrelationCoeff(permutationSequence, this.preorderedPermutationSequence, start);
+      double correlationCoeff = pearsonCorrelationCoeff(permutationSequence, preorderedPermutationSequence, start);
       features.add(new FeatureValue<String>(FEATURE_NAME + "-CORR", correlationCoeff));
     }
    
     if (addPermutationIdentityFeature) {
-      boolean permIdentical = isPermutationSequenceIdentical(permutationSequence, this.preorderedPermutationSequence, start);
-      double featVal = permIdentical ? 1.0 / this.preorderedPermutationSequence.size() : 0.0;
+      boolean permIdentical = isPermutationSequenceIdentical(permutationSequence, preorderedPermutationSequence, start);
+      double featVal = permIdentical ? 1.0 / preorderedPermutationSequence.size() : 0.0;
       features.add(new FeatureValue<String>(FEATURE_NAME + "-IDENT", featVal));
     }
     
@@ -210,14 +208,8 @@ public class PreorderingAgreement extends DerivationFeaturizer<IString, String>
 
     //System.err.println("----------------------------------------");
 
-    //addDistanceCountFeatures(features, permutationSequence, this.preorderedPermutationSequence, start);
+    //addDistanceCountFeatures(features, permutationSequence, preorderedPermutationSequence, start);
     
     return features;
   }
-  
-  
-  @Override
-  public Object clone() throws CloneNotSupportedException {
-    return super.clone();
-  }
 }
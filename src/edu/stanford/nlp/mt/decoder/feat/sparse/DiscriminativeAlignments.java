@@ -9,7 +9,7 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
 
-import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.StaticRuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -25,7 +25,7 @@ import edu.stanford.nlp.mt.util.TargetClassMap;
  * @author Spence Green
  *
  */
-public class DiscriminativeAlignments implements RuleFeaturizer<IString,String> {
+public class DiscriminativeAlignments implements StaticRuleFeaturizer<IString,String> {
   private static final String FEATURE_NAME = "ALN";
   private static final String FEATURE_NAME_TGT = "ALNT";
   private static final String FEATURE_NAME_SRC = "ALNS";
@@ -13,7 +13,6 @@ import java.util.Properties;
 import edu.stanford.nlp.ling.Label;
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
-import edu.stanford.nlp.mt.decoder.feat.NeedsCloneable;
 import edu.stanford.nlp.mt.util.CoreNLPCache;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -24,9 +23,10 @@ import edu.stanford.nlp.trees.Tree;
 import edu.stanford.nlp.trees.TreeCoreAnnotations.TreeAnnotation;
 
 
-public class DistortionProbability extends DerivationFeaturizer<IString, String> implements NeedsCloneable<IString, String> {
+public class DistortionProbability extends DerivationFeaturizer<IString, String> {
 
-  private List<Label> posTags;
+  // POS tags of the source input that is decoded by the current thread
+  private final ThreadLocal<List<Label>> posTags = new ThreadLocal<>();
   
   private static TwoDimensionalCounter<String, Integer> posDistortionProbabilities = null;
   
@@ -78,7 +78,7 @@ private void loadProbabilities(String filename) throws IOException {
   public void initialize(int sourceInputId,
       Sequence<IString> source) {
       Tree parseTree = CoreNLPCache.get(sourceInputId).get(TreeAnnotation.class);
-      this.posTags = parseTree.preTerminalYield();
+      this.posTags.set(parseTree.preTerminalYield());
       
       
   }
@@ -115,6 +115,7 @@ private void loadProbabilities(String filename) throws IOException {
   @Override
   public List<FeatureValue<String>> featurize(Featurizable<IString, String> f) {
     List<FeatureValue<String>> features = new LinkedList<>();
+    final List<Label> posTags = this.posTags.get();
     List<Integer> permutation = getPermutationSequence(f);
     int sourceLength = f.sourcePhrase.size();
     int hypLength = permutation.size();
@@ -126,16 +127,11 @@ private void loadProbabilities(String filename) throws IOException {
     for (int i = start; i < hypLength; i++) {
       int dist = sortedReference.get(i - start) - i;
       int bucket = getBucket(dist);
-      double val = posDistortionProbabilities.getCount(this.posTags.get(i).value(), bucket);
+      double val = posDistortionProbabilities.getCount(posTags.get(i).value(), bucket);
       features.add(new FeatureValue<String>("DIST_PROB", val));
     }
     
     return features;
   }
-  
-  @Override
-  public Object clone() throws CloneNotSupportedException {
-    return super.clone();
-  }
 
 }
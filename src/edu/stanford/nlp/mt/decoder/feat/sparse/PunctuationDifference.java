@@ -4,12 +4,12 @@ import java.util.LinkedList;
 import java.util.List;
 
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
-import edu.stanford.nlp.mt.decoder.feat.NeedsCloneable;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.TokenUtils;
+import edu.stanford.nlp.util.MutableInteger;
 
 
 /**
@@ -18,25 +18,29 @@ import edu.stanford.nlp.mt.util.TokenUtils;
  * @author Spence Green
  *
  */
-public class PunctuationDifference extends DerivationFeaturizer<IString, String> implements NeedsCloneable<IString,String> {
+public class PunctuationDifference extends DerivationFeaturizer<IString, String> {
 
   private static final String FEATURE_NAME = "PDIF";
   
-  private int numSourcePunctuationTokens;
+  // Punctuation count of the source input that is decoded by the current thread
+  private final ThreadLocal<MutableInteger> numSourcePunctuationTokens = 
+      ThreadLocal.withInitial(MutableInteger::new);
 
   @Override
   public void initialize(int sourceInputId,
       Sequence<IString> source) {
-    numSourcePunctuationTokens = 0;
+    int count = 0;
     for (IString token : source) {
       if (TokenUtils.isPunctuation(token.toString())) {
-        ++numSourcePunctuationTokens;
+        ++count;
       }
     }
+    numSourcePunctuationTokens.get().set(count);
   }
 
   @Override
   public List<FeatureValue<String>> featurize(Featurizable<IString, String> f) {
+    final int numSourcePunctuationTokens = this.numSourcePunctuationTokens.get().intValue();
     if (numSourcePunctuationTokens == 0) return null;
     int numTargetPunctuationTokens = 0;
     for (IString token : f.targetPhrase) {
@@ -49,9 +53,4 @@ public class PunctuationDifference extends DerivationFeaturizer<IString, String>
     features.add(new FeatureValue<String>(FEATURE_NAME, featureValue));
     return features;
   }
-  
-  @Override
-  public Object clone() throws CloneNotSupportedException {
-    return super.clone();
-  }
 }
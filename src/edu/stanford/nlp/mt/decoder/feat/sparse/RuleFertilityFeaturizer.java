@@ -3,7 +3,7 @@ package edu.stanford.nlp.mt.decoder.feat.sparse;
 import java.util.Collections;
 import java.util.List;
 
-import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.StaticRuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -14,7 +14,7 @@ import edu.stanford.nlp.mt.util.IString;
  * @author Spence Green
  *
  */
-public class RuleFertilityFeaturizer implements RuleFeaturizer<IString, String> {
+public class RuleFertilityFeaturizer implements StaticRuleFeaturizer<IString, String> {
 
   public static final String FEATURE_NAME = "FRT";
   
@@ -4,7 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
-import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.StaticRuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
 import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.util.FeatureValue;
@@ -21,7 +21,7 @@ import edu.stanford.nlp.util.PropertiesUtils;
  * @author Spence Green
  * 
  */
-public class RuleIndicator implements RuleFeaturizer<IString, String> {
+public class RuleIndicator implements StaticRuleFeaturizer<IString, String> {
 
   private static final String FEATURE_NAME = "DPT";
 
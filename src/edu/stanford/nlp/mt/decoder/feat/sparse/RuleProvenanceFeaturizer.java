@@ -7,7 +7,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import edu.stanford.nlp.mt.Phrasal;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
-import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.StaticRuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -18,7 +18,7 @@ import edu.stanford.nlp.mt.util.IString;
  * @author Spence Green
  *
  */
-public class RuleProvenanceFeaturizer implements RuleFeaturizer<IString, String> {
+public class RuleProvenanceFeaturizer implements StaticRuleFeaturizer<IString, String> {
 
   public static final String FEATURE_NAME = "PRV";
   public static final String SOURCE_WORDS = FEATURE_NAME + ":srcWrd";  
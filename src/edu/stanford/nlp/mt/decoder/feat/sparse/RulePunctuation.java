@@ -5,7 +5,7 @@ import java.util.List;
 import java.util.Properties;
 
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
-import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.StaticRuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -18,7 +18,7 @@ import edu.stanford.nlp.mt.util.TokenUtils;
  * @author Spence Green
  *
  */
-public class RulePunctuation implements RuleFeaturizer<IString, String> {
+public class RulePunctuation implements StaticRuleFeaturizer<IString, String> {
 
   public static final String FEATURE_PREFIX = "RPN";
   public static final String INCONSISTENT = FEATURE_PREFIX + ":inconsistent";
@@ -9,7 +9,6 @@ import java.util.Properties;
 import java.util.Set;
 
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
-import edu.stanford.nlp.mt.decoder.feat.NeedsCloneable;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -20,6 +19,7 @@ import edu.stanford.nlp.mt.util.TokenUtils;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counters;
+import edu.stanford.nlp.util.MutableInteger;
 import edu.stanford.nlp.util.PropertiesUtils;
 
 /**
@@ -39,7 +39,7 @@ import edu.stanford.nlp.util.PropertiesUtils;
  * @author Spence Green
  *
  */
-public class TargetFunctionWordInsertion extends DerivationFeaturizer<IString, String> implements NeedsCloneable<IString,String> {
+public class TargetFunctionWordInsertion extends DerivationFeaturizer<IString, String> {
 
   private static final String FEATURE_NAME = "TWFN";
   
@@ -49,7 +49,9 @@ public class TargetFunctionWordInsertion extends DerivationFeaturizer<IString, S
   private final Set<IString> targetFunctionWordSet;
   private final int rankCutoff;
 
-  private int numSourceFunctionTokens;
+  // Function word count of the source input that is decoded by the current thread
+  private final ThreadLocal<MutableInteger> numSourceFunctionTokens = 
+      ThreadLocal.withInitial(MutableInteger::new);
   
   /**
    * Constructor.
@@ -101,25 +103,22 @@ public class TargetFunctionWordInsertion extends DerivationFeaturizer<IString, S
     }
   }
 
-  @Override
-  public Object clone() throws CloneNotSupportedException {
-    return super.clone();
-  }
-  
   @Override
   public void initialize(int sourceInputId,
       Sequence<IString> source) {
-    numSourceFunctionTokens = 0;
+    int count = 0;
     for (IString token : source) {
       if (sourceFunctionWordSet.contains(token)) {
-        ++numSourceFunctionTokens;
+        ++count;
       }
     }
+    numSourceFunctionTokens.get().set(count);
   }
 
   @Override
   public List<FeatureValue<String>> featurize(
       Featurizable<IString, String> f) {
+    final int numSourceFunctionTokens = this.numSourceFunctionTokens.get().intValue();
     if (numSourceFunctionTokens == 0) return null;
     int numTargetFunctionTokens = 0;
     for (IString token : f.targetPhrase) {
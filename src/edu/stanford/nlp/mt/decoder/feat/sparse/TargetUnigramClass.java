@@ -3,7 +3,7 @@ package edu.stanford.nlp.mt.decoder.feat.sparse;
 import java.util.LinkedList;
 import java.util.List;
 
-import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.StaticRuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -16,7 +16,7 @@ import edu.stanford.nlp.mt.util.TargetClassMap;
  * @author Spence Green
  *
  */
-public class TargetUnigramClass implements RuleFeaturizer<IString, String> {
+public class TargetUnigramClass implements StaticRuleFeaturizer<IString, String> {
 
   private static final String FEATURE_NAME = "TGTCLS";
 
@@ -33,7 +33,8 @@ public class DTUIsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
       .getProperty(IGNORE_TGT_PROPERTY, "true"));
 
   protected final RuleFeaturizer<TK, FV> phraseFeaturizer;
-  protected SpanScores hSpanScores;
+  // Future costs of the source input that is decoded by the current thread
+  protected final ThreadLocal<SpanScores> hSpanScores = new ThreadLocal<>();
 
   static {
     System.err.println("Ignoring target gaps in future cost computation: "
@@ -72,6 +73,7 @@ public class DTUIsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
 
     CoverageSet coverage = hyp.sourceCoverage;
     int startEdge = coverage.nextClearBit(0);
+    final SpanScores spanScores = hSpanScores.get();
 
     if (Double.isNaN(oldH)) {
       System.err.printf("getHeuristicDelta:\n");
@@ -89,7 +91,7 @@ public class DTUIsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
         endEdge = hyp.sourceSequence.size();
       }
 
-      double localH = hSpanScores.getScore(startEdge, endEdge - 1);
+      double localH = spanScores.getScore(startEdge, endEdge - 1);
 
       if (Double.isNaN(localH)) {
         System.err.printf("Bad retrieved score for %d:%d ==> %f\n", startEdge,
@@ -259,9 +261,9 @@ public class DTUIsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
     }
     dumpScores(viterbiSpanScores, sourceSequence, "Final Scores", debug);
 
-    hSpanScores = viterbiSpanScores;
+    hSpanScores.set(viterbiSpanScores);
 
-    double hCompleteSequence = hSpanScores.getScore(0, foreignSequenceSize - 1);
+    double hCompleteSequence = viterbiSpanScores.getScore(0, foreignSequenceSize - 1);
 
     if (Double.isInfinite(hCompleteSequence) || Double.isNaN(hCompleteSequence)) {
       //hCompleteSequence = MINUS_INF;
@@ -24,7 +24,11 @@ public class IsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
   public static final boolean DEBUG = Boolean.parseBoolean(System.getProperty(
       DEBUG_PROPERTY, "false"));
 
-  protected SpanScores hSpanScores;
+  // Number of memoized coverage sets per thread. Must be a power of two.
+  private static final int MEMO_SIZE = 1 << 12;
+
+  // Future costs of the source input that is decoded by the current thread
+  protected final ThreadLocal<SpanScores> hSpanScores = new ThreadLocal<>();
 
   @Override
   public Object clone() throws CloneNotSupportedException {
@@ -37,38 +41,30 @@ public class IsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
   public double getHeuristicDelta(Derivation<TK, FV> newHypothesis,
       CoverageSet newCoverage) {
     double oldH = newHypothesis.parent.h;
-    double newH = 0;
-    CoverageSet coverage = newHypothesis.sourceCoverage;
-    int startEdge = coverage.nextClearBit(0);
-
-    // System.out.printf("getHeuristicDelta:\n");
-    // System.out.printf("coverage: %s", newHypothesis.foreignCoverage);
-
-    int foreignSize = newHypothesis.sourceSequence.size();
-    for (int endEdge; startEdge < foreignSize; startEdge = coverage
-        .nextClearBit(endEdge)) {
-      endEdge = coverage.nextSetBit(startEdge);
-
-      if (endEdge == -1) {
-        endEdge = newHypothesis.sourceSequence.size();
-      }
-      double localH = hSpanScores.getScore(startEdge, endEdge - 1);
-
-      // System.out.printf("retreiving score for %d:%d ==> %f", startEdge,
-      // endEdge-1, localH);
-
-      newH += localH;
-    }
+    double newH = getFutureCost(newHypothesis.sourceCoverage);
     return newH - oldH;
   }
 
+  /**
+   * Sum of the future costs of the uncovered spans of the source input that was
+   * passed to the last call to <code>getInitialHeuristic()</code> by this thread.
+   * Memoized in a direct-mapped table since successive derivations often have the
+   * same coverage set.
+   * 
+   * @param coverage
+   * @return
+   */
+  public double getFutureCost(CoverageSet coverage) {
+    return hSpanScores.get().getFutureCost(coverage);
+  }
+
   @Override
   public double getInitialHeuristic(Sequence<TK> sourceSequence, InputProperties sourceInputProperties,
       List<List<ConcreteRule<TK,FV>>> ruleList, Scorer<FV> scorer, int sourceInputId) {
 
     int foreignSequenceSize = sourceSequence.size();
 
-    SpanScores viterbiSpanScores = new SpanScores(foreignSequenceSize);
+    SpanScores viterbiSpanScores = new SpanScores(foreignSequenceSize, hSpanScores.get());
 
     if (DEBUG) {
       System.err.println("IsolatedPhraseForeignCoverageHeuristic");
@@ -100,7 +96,7 @@ public class IsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
       System.err.println("------------------------------");
 
       for (int startPos = 0; startPos < foreignSequenceSize; startPos++) {
-        for (int endPos = 0; endPos < foreignSequenceSize; endPos++) {
+        for (int endPos = startPos; endPos < foreignSequenceSize; endPos++) {
           System.err.printf("\t%d:%d score: %f\n", startPos, endPos,
               viterbiSpanScores.getScore(startPos, endPos));
         }
@@ -120,9 +116,9 @@ public class IsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
       }
       for (int startPos = 0; startPos <= foreignSequenceSize - spanSize; startPos++) {
         int terminalPos = startPos + spanSize - 1;
-        double bestScore = viterbiSpanScores.getScore(startPos, terminalPos);
+        float bestScore = viterbiSpanScores.getScore(startPos, terminalPos);
         for (int centerEdge = startPos + 1; centerEdge <= terminalPos; centerEdge++) {
-          double combinedScore = viterbiSpanScores.getScore(startPos,
+          float combinedScore = viterbiSpanScores.getScore(startPos,
               centerEdge - 1)
               + viterbiSpanScores.getScore(centerEdge, terminalPos);
           if (combinedScore > bestScore) {
@@ -149,31 +145,82 @@ public class IsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
       }
     }
 
-    hSpanScores = viterbiSpanScores;
+    hSpanScores.set(viterbiSpanScores);
 
-    double hCompleteSequence = hSpanScores.getScore(0, foreignSequenceSize - 1);
+    double hCompleteSequence = foreignSequenceSize == 0 ? 0.0 :
+      viterbiSpanScores.getScore(0, foreignSequenceSize - 1);
     if (DEBUG) {
       System.err.println("Done IsolatedForeignCoverageHeuristic");
     }
     return hCompleteSequence;
   }
 
+  /**
+   * Future costs of all spans of a source input, packed in a triangular array
+   * with one row per start position, and the memoized future costs of coverage sets.
+   */
   private static class SpanScores {
-    final double[] spanValues;
-    final int terminalPositions;
+    final float[] spanValues;
+    final int length;
+    final CoverageSet[] memoKeys;
+    final float[] memoValues;
+
+    public SpanScores(int length, SpanScores previous) {
+      this.length = length;
+      spanValues = new float[length * (length + 1) / 2];
+      Arrays.fill(spanValues, Float.NEGATIVE_INFINITY);
+      // Reuse the keys of the previous source input
+      memoKeys = previous == null ? new CoverageSet[MEMO_SIZE] : previous.memoKeys;
+      memoValues = previous == null ? new float[MEMO_SIZE] : previous.memoValues;
+      Arrays.fill(memoValues, Float.NaN);
+    }
 
-    public SpanScores(int length) {
-      terminalPositions = length + 1;
-      spanValues = new double[terminalPositions * terminalPositions];
-      Arrays.fill(spanValues, Double.NEGATIVE_INFINITY);
+    private int index(int startPosition, int endPosition) {
+      assert startPosition <= endPosition && endPosition < length;
+      return startPosition * length - (startPosition * (startPosition - 1) / 2)
+          + endPosition - startPosition;
     }
 
-    public double getScore(int startPosition, int endPosition) {
-      return spanValues[startPosition * terminalPositions + endPosition];
+    public float getScore(int startPosition, int endPosition) {
+      return spanValues[index(startPosition, endPosition)];
     }
 
     public void setScore(int startPosition, int endPosition, double score) {
-      spanValues[startPosition * terminalPositions + endPosition] = score;
+      spanValues[index(startPosition, endPosition)] = (float) score;
+    }
+
+    public float getFutureCost(CoverageSet coverage) {
+      final int hashCode = coverage.hashCode();
+      final int slot = (hashCode ^ (hashCode >>> 16)) & (MEMO_SIZE - 1);
+      float futureCost = memoValues[slot];
+      if (Float.isNaN(futureCost) || ! memoKeys[slot].equals(coverage)) {
+        futureCost = sumGaps(coverage);
+        if (memoKeys[slot] == null) {
+          memoKeys[slot] = coverage.clone();
+        } else {
+          memoKeys[slot].clear();
+          memoKeys[slot].or(coverage);
+        }
+        memoValues[slot] = futureCost;
+      }
+      return futureCost;
+    }
+
+    /**
+     * Sum the future costs of the gaps in the coverage set.
+     * 
+     * @param coverage
+     * @return
+     */
+    public float sumGaps(CoverageSet coverage) {
+      float futureCost = 0.0f;
+      for (int startEdge = coverage.nextClearBit(0), endEdge; startEdge < length;
+          startEdge = coverage.nextClearBit(endEdge)) {
+        endEdge = coverage.nextSetBit(startEdge);
+        if (endEdge < 0 || endEdge > length) endEdge = length;
+        futureCost += spanValues[index(startEdge, endEdge - 1)];
+      }
+      return futureCost;
     }
   }
 }
@@ -3,7 +3,6 @@ package edu.stanford.nlp.mt.decoder.recomb;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.decoder.util.DTUHypothesis;
 
-import java.util.Arrays;
 import java.util.Iterator;
 
 /**
@@ -71,6 +70,8 @@ public class DTURecombinationFilter<TK, FV> implements
         } else {
           if (EQ_NUM_PHRASES_RECOMBINATION) {
             return true;
+          } else if (dtuA.pendingSignature() != dtuB.pendingSignature()) {
+            return false;
           } else {
             // Correct recombination:
             boolean combinable = true;
@@ -96,6 +97,13 @@ public class DTURecombinationFilter<TK, FV> implements
     }
   }
 
+  /**
+   * Same value as <code>Arrays.hashCode(new int[] { a, b })</code>.
+   */
+  private static int hash(int a, int b) {
+    return 31 * (31 + a) + b;
+  }
+
   @Override
   public long recombinationHashCode(Derivation<TK, FV> hyp) {
     boolean isDTU = hyp instanceof DTUHypothesis;
@@ -105,19 +113,13 @@ public class DTURecombinationFilter<TK, FV> implements
     DTUHypothesis<TK, FV> dtu = isDTU ? (DTUHypothesis<TK, FV>) hyp : null;
     if (EQ_NUM_WORDS_RECOMBINATION) {
       int pendingWords = dtu == null ? 0 : dtu.pendingWords();
-      return Arrays.hashCode(new int[] { isDTUn, pendingWords });
+      return hash(isDTUn, pendingWords);
     } else if (EQ_NUM_PHRASES_RECOMBINATION) {
       int pendingPhrases = dtu == null ? 0 : dtu.pendingPhrases.size();
-      return Arrays.hashCode(new int[] { isDTUn, pendingPhrases });
+      return hash(isDTUn, pendingPhrases);
     } else {
-      int pendingPhrases = dtu == null ? 0 : dtu.pendingPhrases.size();
-      int[] hashes = new int[pendingPhrases + 1];
-      hashes[0] = isDTUn;
-      int i = 0;
-      if (dtu != null)
-        for (DTUHypothesis.PendingPhrase<TK,FV> pp : dtu.pendingPhrases)
-          hashes[++i] = pp.concreteOpt.abstractRule.hashCode();
-      return Arrays.hashCode(hashes);
+      long pendingSignature = dtu == null ? 0 : dtu.pendingSignature();
+      return 31 * (31 + isDTUn) + pendingSignature;
     }
   }
 
@@ -5,7 +5,6 @@ import java.util.List;
 
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.Featurizer;
-import edu.stanford.nlp.mt.decoder.feat.FeaturizerState;
 import edu.stanford.nlp.mt.decoder.feat.base.NGramLanguageModelFeaturizer;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.lm.LMState;
@@ -48,12 +47,11 @@ public class NGramLMRecombinationFilter implements RecombinationFilter<Derivatio
     }
 
     for (DerivationFeaturizer<IString,String> lmFeaturizer : lmFeaturizers) {
-      FeaturizerState stateA = (FeaturizerState) hypA.featurizable.getState(lmFeaturizer);
-      FeaturizerState stateB = (FeaturizerState) hypB.featurizable.getState(lmFeaturizer);
+      LMState stateA = (LMState) hypA.featurizable.getState(lmFeaturizer);
+      LMState stateB = (LMState) hypB.featurizable.getState(lmFeaturizer);
 
-      // Do the two states hash to the same bucket?
-      if ( ! (stateA.hashCode() == stateB.hashCode() &&
-              stateA.equals(stateB))) {
+      // Compare the packed contexts
+      if ( ! stateA.sameContext(stateB)) {
         return false;
       }
     }
@@ -69,28 +67,15 @@ public class NGramLMRecombinationFilter implements RecombinationFilter<Derivatio
     }
     
     if (lmFeaturizers.size() == 1) {
-      return hyp.featurizable.getState(lmFeaturizers.get(0)).hashCode();
+      return ((LMState) hyp.featurizable.getState(lmFeaturizers.get(0))).longHashCode();
     
     } else {
-      // Ripped off from MurmurHash3
-      final int c1 = 0xcc9e2d51;
-      final int c2 = 0x1b873593;
-
-      final int sz = lmFeaturizers.size();
-      int h1 = sz*4;
-
-      for (int i=0; i<sz; i++) {
-        LMState state = (LMState) hyp.featurizable.getState(lmFeaturizers.get(i));
-        int k1 = state.hashCode();
-        k1 *= c1;
-        k1 = (k1 << 15) | (k1 >>> 17);  // ROTL32(k1,15);
-        k1 *= c2;
-
-        h1 ^= k1;
-        h1 = (h1 << 13) | (h1 >>> 19);  // ROTL32(h1,13);
-        h1 = h1*5+0xe6546b64;
+      long h = lmFeaturizers.size();
+      for (DerivationFeaturizer<IString,String> lmFeaturizer : lmFeaturizers) {
+        LMState state = (LMState) hyp.featurizable.getState(lmFeaturizer);
+        h = h * 0x9e3779b97f4a7c15L + state.longHashCode();
       }
-      return h1;
+      return h;
     }
   }
   
@@ -18,6 +18,7 @@ import edu.stanford.nlp.mt.decoder.util.State;
 public class RecombinationHistory<S extends State<S>> {
 
   private final Map<S, List<S>> historyMap = new HashMap<>(3000);
+  private int size = 0;
 
   /**
    * Log a recombination decision.
@@ -37,8 +38,16 @@ public class RecombinationHistory<S extends State<S>> {
     historyMap.remove(discarded);
     retainedList.addAll(discardedList);
     retainedList.add(discarded);
+    ++size;
   }
 
+  /**
+   * Number of recombinations that have been logged.
+   * 
+   * @return
+   */
+  public int size() { return size; }
+
   /**
    * 
    */
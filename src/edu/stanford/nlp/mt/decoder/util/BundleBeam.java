@@ -29,7 +29,7 @@ public class BundleBeam<TK,FV> implements Beam<Derivation<TK,FV>> {
   protected final RecombinationHash<Derivation<TK,FV>> recombinationHash;
   protected final int capacity;
   protected int recombined = 0;
-  protected final int distortionLimit;
+  protected int distortionLimit;
   protected final int sequenceLength;
 
   protected Map<Integer,List<HyperedgeBundle<TK,FV>>> bundles;
@@ -220,6 +220,18 @@ public class BundleBeam<TK,FV> implements Beam<Derivation<TK,FV>> {
     return bundles.getOrDefault(rangeSize, Collections.emptyList());
   }
   
+  /**
+   * Change the distortion limit. Bundles that have been grouped are discarded, so this
+   * only affects consequent sizes that have not been requested.
+   * 
+   * @param distortionLimit
+   */
+  public void setDistortionLimit(int distortionLimit) {
+    if (distortionLimit == this.distortionLimit) return;
+    this.distortionLimit = distortionLimit;
+    bundles = null;
+  }
+
   /**
    * Reset this beam for search.
    */
@@ -167,6 +167,10 @@ public class DTUHypothesis<TK, FV> extends Derivation<TK, FV> {
 
   private boolean hasExpired = false;
 
+  // Summary of the pending phrases for recombination
+  private int pendingWords;
+  private long pendingSignature;
+
   public static void setMaxTargetPhraseSpan(int m) {
     System.err.println("Setting new maximum target phrase span: " + m);
     MAX_TARGET_PHRASE_SPAN = m;
@@ -181,15 +185,41 @@ public class DTUHypothesis<TK, FV> extends Derivation<TK, FV> {
     MAX_PENDING_PHRASES = m;
   }
 
+  /**
+   * Number of target words in the pending phrases.
+   *
+   * @return
+   */
   public int pendingWords() {
-    int sz = 0;
-    for (DTUHypothesis.PendingPhrase<TK, FV> elA : pendingPhrases) {
-      DTURule<TK> dtuOpt = (DTURule<TK>) elA.concreteOpt.abstractRule;
-      for (int segId = elA.segmentIdx + 1; segId < dtuOpt.dtus.length; ++segId) {
-        sz += dtuOpt.dtus[segId].size();
+    return pendingWords;
+  }
+
+  /**
+   * Signature of the rules and segments of the pending phrases. Hypotheses whose
+   * pending phrases have the same rules and segments have the same signature.
+   *
+   * @return
+   */
+  public long pendingSignature() {
+    return pendingSignature;
+  }
+
+  /**
+   * Compute the summary of the pending phrases once they are final.
+   */
+  private void summarizePendingPhrases() {
+    int words = 0;
+    long signature = 0;
+    for (PendingPhrase<TK, FV> pp : pendingPhrases) {
+      DTURule<TK> dtuOpt = (DTURule<TK>) pp.concreteOpt.abstractRule;
+      for (int segId = pp.segmentIdx + 1; segId < dtuOpt.dtus.length; ++segId) {
+        words += dtuOpt.dtus[segId].size();
       }
+      signature = 31 * signature + System.identityHashCode(dtuOpt);
+      signature = 31 * signature + pp.segmentIdx;
     }
-    return sz;
+    this.pendingWords = words;
+    this.pendingSignature = signature;
   }
 
   @Override
@@ -384,6 +414,7 @@ public class DTUHypothesis<TK, FV> extends Derivation<TK, FV> {
 
     // Estimate future cost for pending phrases:
     pendingPhrasesCost = costPendingPhrases();
+    summarizePendingPhrases();
     checkExpiration();
   }
 
@@ -447,6 +478,7 @@ public class DTUHypothesis<TK, FV> extends Derivation<TK, FV> {
       this.hasExpired = true;
 
     pendingPhrasesCost = costPendingPhrases();
+    summarizePendingPhrases();
     checkExpiration();
   }
 
@@ -482,6 +514,7 @@ public class DTUHypothesis<TK, FV> extends Derivation<TK, FV> {
 
     seenOptions.add(translationOpt.abstractRule);
     pendingPhrasesCost = costPendingPhrases();
+    summarizePendingPhrases();
     checkExpiration();
   }
 
@@ -0,0 +1,221 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.stanford.nlp.mt.util.TimingUtils;
+
+/**
+ * A per-input resource budget for decoding: the number of derivations created, the number
+ * of recombination history entries, and the elapsed time. A value that is not positive
+ * disables the corresponding limit.
+ *
+ * The decoder calls a <code>Monitor</code> before filling each beam. The monitor extrapolates
+ * usage to the remaining beams and, if the projection exceeds the budget, degrades the search
+ * one step at a time: smaller beams, then a smaller rule query limit, then monotone decoding,
+ * and finally greedy decoding. Once a limit is reached, the rest of the input is decoded
+ * greedily and monotonically, which is cheap enough to finish.
+ */
+public class DecodingBudget {
+
+  // Floors of the adaptive search parameters
+  public static final int MIN_BEAM_SIZE = 10;
+  public static final int MIN_RULE_QUERY_LIMIT = 5;
+
+  public final long maxDerivations;
+  public final long maxRecombinations;
+  public final long maxMillis;
+
+  /**
+   * Constructor.
+   *
+   * @param maxDerivations
+   * @param maxRecombinations
+   * @param maxMillis
+   */
+  public DecodingBudget(long maxDerivations, long maxRecombinations, long maxMillis) {
+    this.maxDerivations = maxDerivations;
+    this.maxRecombinations = maxRecombinations;
+    this.maxMillis = maxMillis;
+  }
+
+  /**
+   * Parse a budget of the form <code>derivations[,recombinations[,milliseconds]]</code>.
+   *
+   * @param str
+   * @return
+   */
+  public static DecodingBudget fromString(String str) {
+    String[] fields = str.trim().split(",");
+    if (fields.length > 3) throw new IllegalArgumentException("Invalid decoding budget: " + str);
+    long[] values = new long[3];
+    for (int i = 0; i < fields.length; ++i) {
+      values[i] = Long.parseLong(fields[i].trim());
+    }
+    return new DecodingBudget(values[0], values[1], values[2]);
+  }
+
+  /**
+   * Start monitoring the search for one input.
+   *
+   * @param firstCardinality First coverage cardinality that will be decoded.
+   * @param lastCardinality Last coverage cardinality that will be decoded.
+   * @param beamSize
+   * @param ruleQueryLimit
+   * @param distortionLimit
+   * @param startTime Start time of decoding from <code>TimingUtils.startTime()</code>.
+   * @return
+   */
+  public Monitor monitor(int firstCardinality, int lastCardinality, int beamSize, int ruleQueryLimit,
+      int distortionLimit, long startTime) {
+    return new Monitor(firstCardinality, lastCardinality, beamSize, ruleQueryLimit, distortionLimit,
+        startTime);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("derivations: %d  recombinations: %d  ms: %d", maxDerivations,
+        maxRecombinations, maxMillis);
+  }
+
+  /**
+   * A step taken to stay within the budget.
+   */
+  public static class Degradation {
+    public enum Type { BeamSize, RuleQueryLimit, Monotone, Greedy, BudgetExceeded };
+
+    public final Type type;
+    public final int cardinality;
+    public final int value;
+
+    public Degradation(Type type, int cardinality, int value) {
+      this.type = type;
+      this.cardinality = cardinality;
+      this.value = value;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s=%d@%d", type, value, cardinality);
+    }
+  }
+
+  /**
+   * Adaptive search parameters for one input. Not threadsafe.
+   */
+  public class Monitor {
+    private final int firstCardinality;
+    private final int lastCardinality;
+    private final long startTime;
+    private final List<Degradation> degradations = new ArrayList<>();
+
+    private int beamSize;
+    private int ruleQueryLimit;
+    private int distortionLimit;
+    private boolean exceeded = false;
+
+    private Monitor(int firstCardinality, int lastCardinality, int beamSize, int ruleQueryLimit,
+        int distortionLimit, long startTime) {
+      this.firstCardinality = firstCardinality;
+      this.lastCardinality = lastCardinality;
+      this.beamSize = beamSize;
+      this.ruleQueryLimit = ruleQueryLimit < 0 ? Integer.MAX_VALUE : ruleQueryLimit;
+      this.distortionLimit = distortionLimit;
+      this.startTime = startTime;
+    }
+
+    /**
+     * Update the search parameters before filling the beam of the given cardinality.
+     *
+     * @param cardinality
+     * @param numDerivations
+     * @param numRecombinations
+     */
+    public void update(int cardinality, long numDerivations, long numRecombinations) {
+      if (exceeded) return;
+      if (isExceeded(numDerivations, numRecombinations)) {
+        exceed(cardinality);
+        return;
+      }
+      if (cardinality <= firstCardinality) return;
+
+      // Fraction of the budget that the remaining beams may use at the current rate
+      final double done = (cardinality - firstCardinality) / (double) (lastCardinality - firstCardinality + 1);
+      double scale = 1.0;
+      scale = Math.min(scale, remainingScale(numDerivations, maxDerivations, done));
+      scale = Math.min(scale, remainingScale(numRecombinations, maxRecombinations, done));
+      scale = Math.min(scale, remainingScale(elapsedMillis(), maxMillis, done));
+      if (scale >= 1.0) return;
+
+      if (beamSize > MIN_BEAM_SIZE) {
+        beamSize = Math.max(MIN_BEAM_SIZE, (int) (beamSize * scale));
+        degradations.add(new Degradation(Degradation.Type.BeamSize, cardinality, beamSize));
+
+      } else if (ruleQueryLimit > MIN_RULE_QUERY_LIMIT) {
+        ruleQueryLimit = ruleQueryLimit == Integer.MAX_VALUE ? MIN_RULE_QUERY_LIMIT :
+          Math.max(MIN_RULE_QUERY_LIMIT, (int) (ruleQueryLimit * scale));
+        degradations.add(new Degradation(Degradation.Type.RuleQueryLimit, cardinality, ruleQueryLimit));
+
+      } else if (distortionLimit != 0) {
+        distortionLimit = 0;
+        degradations.add(new Degradation(Degradation.Type.Monotone, cardinality, 0));
+
+      } else if (beamSize > 1) {
+        beamSize = 1;
+        degradations.add(new Degradation(Degradation.Type.Greedy, cardinality, 1));
+      }
+    }
+
+    /**
+     * True if a limit has been reached. Switches to greedy, monotone decoding.
+     *
+     * @param cardinality
+     * @param numDerivations
+     * @param numRecombinations
+     * @return
+     */
+    public boolean checkExceeded(int cardinality, long numDerivations, long numRecombinations) {
+      if ( ! exceeded && isExceeded(numDerivations, numRecombinations)) exceed(cardinality);
+      return exceeded;
+    }
+
+    private boolean isExceeded(long numDerivations, long numRecombinations) {
+      return (maxDerivations > 0 && numDerivations >= maxDerivations)
+          || (maxRecombinations > 0 && numRecombinations >= maxRecombinations)
+          || (maxMillis > 0 && elapsedMillis() >= maxMillis);
+    }
+
+    private void exceed(int cardinality) {
+      exceeded = true;
+      beamSize = 1;
+      distortionLimit = 0;
+      ruleQueryLimit = Math.min(ruleQueryLimit, MIN_RULE_QUERY_LIMIT);
+      degradations.add(new Degradation(Degradation.Type.BudgetExceeded, cardinality, 1));
+    }
+
+    /**
+     * Scale of the current rate of use at which the projected use over the remaining
+     * beams stays within the limit.
+     */
+    private double remainingScale(long used, long limit, double done) {
+      if (limit <= 0 || used == 0) return 1.0;
+      final double projectedRemaining = used * (1.0 - done) / done;
+      return projectedRemaining <= 0.0 ? 1.0 : (limit - used) / projectedRemaining;
+    }
+
+    private long elapsedMillis() {
+      return TimingUtils.elapsedMillis(startTime);
+    }
+
+    public int beamSize() { return beamSize; }
+
+    public int ruleQueryLimit() { return ruleQueryLimit; }
+
+    public int distortionLimit() { return distortionLimit; }
+
+    public boolean isExceeded() { return exceeded; }
+
+    public List<Degradation> degradations() { return Collections.unmodifiableList(degradations); }
+  }
+}
@@ -2,6 +2,8 @@ package edu.stanford.nlp.mt.decoder.util;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.stanford.nlp.mt.util.DenseFeatureValueCollection;
 import edu.stanford.nlp.mt.util.FeatureValue;
@@ -23,8 +25,15 @@ public class DenseScorer implements Scorer<String> {
 
   private final Index<String> featureIndex;
   private double[] weights;
+  private long weightsVersion;
   private final boolean sharedFeatureIndex;
 
+  // Maximum number of dense feature layouts
+  private static final int MAX_BLOCKS = 1024;
+
+  // Weights aligned with the feature names of dense blocks. Keyed by array identity.
+  private volatile Map<String[],double[]> blockWeights;
+
   public DenseScorer(String filename) {
     sharedFeatureIndex = false;
     featureIndex = new HashIndex<String>();
@@ -49,6 +58,46 @@ public class DenseScorer implements Scorer<String> {
         getIncrementalScoreHash(features);
   }
 
+  @Override
+  public double getIncrementalScore(float[] values, String[] featureNames) {
+    final Map<String[],double[]> blockWeights = this.blockWeights;
+    double[] w = blockWeights.get(featureNames);
+    if (w == null) {
+      w = new double[featureNames.length];
+      for (int i = 0; i < featureNames.length; ++i) {
+        int index = featureIndex.indexOf(featureNames[i]);
+        w[i] = index >= 0 && index < weights.length ? weights[index] : 0.0;
+      }
+      if (blockWeights.size() >= MAX_BLOCKS) blockWeights.clear();
+      blockWeights.put(featureNames, w);
+    }
+    return dotProduct(values, w, values.length);
+  }
+
+  /**
+   * Dot product of the first <code>length</code> dimensions. The four partial sums
+   * break the dependency between the additions.
+   * 
+   * @param values
+   * @param weights
+   * @param length
+   * @return
+   */
+  public static double dotProduct(float[] values, double[] weights, int length) {
+    double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+    int i = 0;
+    for (final int end = length & ~3; i < end; i += 4) {
+      s0 += values[i] * weights[i];
+      s1 += values[i+1] * weights[i+1];
+      s2 += values[i+2] * weights[i+2];
+      s3 += values[i+3] * weights[i+3];
+    }
+    for (; i < length; ++i) {
+      s0 += values[i] * weights[i];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
   private double getIncrementalScoreInnerProduct(
       DenseFeatureValueCollection<String> fva) {
     return ArrayMath.innerProduct(fva.toDoubleArray(), weights);
@@ -88,6 +137,13 @@ public class DenseScorer implements Scorer<String> {
       if (key == null) continue;
       weights[featureIndex.indexOf(key)] = featureWts.getCount(key);
     }
+    weightsVersion = ScorerFactory.weightsVersion(featureWts);
+    blockWeights = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public long weightsVersion() {
+    return weightsVersion;
   }
 
   @Override
@@ -0,0 +1,208 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
+
+/**
+ * Lazy k-best extraction from the recombination lattice (Huang and Chiang, 2005,
+ * Algorithm 3). Each retained state is a node whose incoming edges are the state itself
+ * and the states that were recombined into it. Each node keeps a heap of candidates and
+ * the memoized list of its best paths, which are only extended on demand. Same usage as
+ * <code>StateLatticeDecoder</code>, but the work per path is proportional to the path
+ * length instead of to the size of a global agenda.
+ * 
+ * The decoder is the Viterbi pass: the partial score of a retained state is the score of
+ * the best path into it, so the best path into a node is found without visiting the
+ * rest of the lattice.
+ *
+ * @param <S>
+ */
+public class KBestLatticeDecoder<S extends State<S>> implements
+    Iterator<List<S>>, Iterable<List<S>> {
+
+  private final RecombinationHistory<S> recombinationHistory;
+  private final Map<State<S>, Node> nodes = new IdentityHashMap<>();
+  private final Node goal;
+  private int k = 0;
+  private Item nextItem = null;
+
+  /**
+   * Number of candidates that were created.
+   */
+  public int numCandidates = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param goalStates
+   * @param recombinationHistory
+   */
+  public KBestLatticeDecoder(List<S> goalStates, RecombinationHistory<S> recombinationHistory) {
+    this.recombinationHistory = recombinationHistory;
+    this.goal = new Node(goalStates, true);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextItem == null) nextItem = kth(goal, k);
+    return nextItem != null;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<S> next() {
+    if ( ! hasNext()) throw new NoSuchElementException();
+    final List<S> path = new ArrayList<>();
+    for (Item item = nextItem.antecedent; item != null; item = item.antecedent) {
+      path.add((S) item.edge);
+    }
+    Collections.reverse(path);
+    ++k;
+    nextItem = null;
+    return path;
+  }
+
+  /**
+   * The score of the last path returned by <code>next()</code>.
+   *
+   * @return
+   */
+  public double lastScore() {
+    if (k == 0) throw new IllegalStateException();
+    return goal.kbest.get(k-1).score;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Iterator<List<S>> iterator() {
+    return this;
+  }
+
+  /**
+   * The k-th best path into a node, or null if the node has fewer paths.
+   *
+   * @param node
+   * @param k
+   * @return
+   */
+  private Item kth(Node node, int k) {
+    while (node.kbest.size() <= k) {
+      if (node.exhausted) return null;
+      if (node.candidates == null) {
+        node.candidates = new PriorityQueue<>();
+        for (State<S> edge : node.edges) push(node, edge, 0);
+      } else {
+        // Successor of the last best path
+        Item last = node.kbest.get(node.kbest.size() - 1);
+        push(node, last.edge, last.j + 1);
+      }
+      Item best = node.candidates.poll();
+      if (best == null) {
+        node.exhausted = true;
+        return null;
+      }
+      if (best.antecedent == null && (node.isGoal || best.edge.parent() != null)) {
+        // Viterbi candidate
+        best.antecedent = kth(node.isGoal ? node(best.edge) : node(best.edge.parent()), 0);
+      }
+      node.kbest.add(best);
+    }
+    return node.kbest.get(k);
+  }
+
+  /**
+   * Add the candidate that extends the j-th best path into the tail of the edge.
+   *
+   * @param node
+   * @param edge
+   * @param j
+   */
+  private void push(Node node, State<S> edge, int j) {
+    if (j == 0) {
+      // The score of the best path through an edge is its partial score. The antecedent
+      // is found if the candidate is popped.
+      node.candidates.add(new Item(edge, j, null, edge.partialScore(), numCandidates++));
+      return;
+    }
+    if (node.isGoal) {
+      // Edges to the goal have no weight
+      Item antecedent = kth(node(edge), j);
+      if (antecedent != null) {
+        node.candidates.add(new Item(edge, j, antecedent, antecedent.score, numCandidates++));
+      }
+      return;
+    }
+    final State<S> parent = edge.parent();
+    if (parent == null) return;
+    Item antecedent = kth(node(parent), j);
+    if (antecedent != null) {
+      double score = antecedent.score + edge.partialScore() - parent.partialScore();
+      node.candidates.add(new Item(edge, j, antecedent, score, numCandidates++));
+    }
+  }
+
+  private Node node(State<S> state) {
+    Node node = nodes.get(state);
+    if (node == null) {
+      List<S> recombinations = recombinationHistory.recombinations(state);
+      List<State<S>> edges = new ArrayList<>(recombinations.size() + 1);
+      edges.add(state);
+      edges.addAll(recombinations);
+      node = new Node(edges, false);
+      nodes.put(state, node);
+    }
+    return node;
+  }
+
+  /**
+   * A retained state and the states that were recombined into it.
+   */
+  private class Node {
+    final List<? extends State<S>> edges;
+    final boolean isGoal;
+    final List<Item> kbest = new ArrayList<>(1);
+    PriorityQueue<Item> candidates;
+    boolean exhausted = false;
+    Node(List<? extends State<S>> edges, boolean isGoal) {
+      this.edges = edges;
+      this.isGoal = isGoal;
+    }
+  }
+
+  /**
+   * A path that ends with an edge, and extends the j-th best path into the
+   * tail of the edge.
+   */
+  private class Item implements Comparable<Item> {
+    final State<S> edge;
+    final int j;
+    Item antecedent;
+    final double score;
+    final int id;
+    Item(State<S> edge, int j, Item antecedent, double score, int id) {
+      this.edge = edge;
+      this.j = j;
+      this.antecedent = antecedent;
+      this.score = score;
+      this.id = id;
+    }
+
+    @Override
+    public int compareTo(Item o) {
+      int cmp = Double.compare(o.score, score);
+      return cmp == 0 ? Integer.compare(id, o.id) : cmp;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import edu.stanford.nlp.mt.decoder.AbstractBeamInferer.PhraseQuery;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.InputProperty;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Search state that is kept between successive prefix decoding calls for the
+ * same source input, e.g., in interactive MT or in KSR simulation. The TM query is
+ * run once per session, and the target-cardinality beams for the part of the
+ * prefix that did not change are restored instead of searched again.
+ *
+ * Pass an instance to the decoder with <code>InputProperty.PrefixDecodingContext</code>.
+ * A context is not threadsafe, and the model weights must not change while it is in use.
+ *
+ * Beam i is built from the rules of the prefix rule grid that end at target position i-1.
+ * The grid, including its synthetic rules, is rebuilt for each prefix since the alignment of
+ * the unchanged part of a prefix can change when the prefix grows. A beam is restored only if
+ * these rules, their scores, and the rules of all lower beams are the same as in the last call,
+ * so the restored beams are the beams that a new search would produce. Beams that recovery
+ * rebuilt with target insertion rules, and the last beam of a prefix, are never restored.
+ *
+ * @param <TK>
+ * @param <FV>
+ */
+public class PrefixDecodingContext<TK,FV> {
+
+  // Session key
+  private Sequence<TK> source;
+  private int sourceInputId = -1;
+  private Object foregroundTM;
+  private Object termbaseTM;
+
+  private PhraseQuery<TK,FV> phraseQuery;
+
+  // Beams from the last call, indexed by target cardinality
+  private Sequence<TK> prefix;
+  private List<List<Derivation<TK,FV>>> beams = Collections.emptyList();
+  private Map<Derivation<TK,FV>,List<Derivation<TK,FV>>> recombinations = Collections.emptyMap();
+
+  // Rules of the last prefix grid, indexed by target end position and then by start position
+  private List<List<List<ConcreteRule<TK,FV>>>> rules = Collections.emptyList();
+
+  private int numRestoredBeams = 0;
+  private int numSearchedBeams = 0;
+
+  /**
+   * Get the cached TM query for this source input. Returns null if the query must be run,
+   * and then resets the context if it was used for a different input.
+   *
+   * @param source
+   * @param sourceInputId
+   * @param inputProperties
+   * @return
+   */
+  public PhraseQuery<TK,FV> getRules(Sequence<TK> source, int sourceInputId,
+      InputProperties inputProperties) {
+    if (phraseQuery != null && sourceInputId == this.sourceInputId && source.equals(this.source)
+        && inputProperties.get(InputProperty.ForegroundTM) == foregroundTM
+        && inputProperties.get(InputProperty.TermbaseTM) == termbaseTM) {
+      return phraseQuery;
+    }
+    this.source = source;
+    this.sourceInputId = sourceInputId;
+    this.foregroundTM = inputProperties.get(InputProperty.ForegroundTM);
+    this.termbaseTM = inputProperties.get(InputProperty.TermbaseTM);
+    this.phraseQuery = null;
+    this.prefix = null;
+    this.beams = Collections.emptyList();
+    this.recombinations = Collections.emptyMap();
+    this.rules = Collections.emptyList();
+    return null;
+  }
+
+  /**
+   * Cache the TM query for the source input passed to the last call to
+   * <code>getRules()</code>.
+   *
+   * @param phraseQuery
+   */
+  public void setRules(PhraseQuery<TK,FV> phraseQuery) {
+    this.phraseQuery = phraseQuery;
+  }
+
+  /**
+   * Fill the target beams with the derivations from the last call that are consistent with
+   * <code>newPrefix</code> and <code>prefixGrid</code>. Returns the largest restored cardinality.
+   * Search must resume at the next cardinality. Must be called before the search adds rules
+   * to the grid.
+   *
+   * @param newPrefix
+   * @param prefixGrid
+   * @param tgtBeams
+   * @param recombinationHistory
+   * @return
+   */
+  public int restore(Sequence<TK> newPrefix, RuleGrid<TK,FV> prefixGrid,
+      List<Beam<Derivation<TK,FV>>> tgtBeams,
+      RecombinationHistory<Derivation<TK,FV>> recombinationHistory) {
+    final List<List<List<ConcreteRule<TK,FV>>>> oldRules = rules;
+    rules = new ArrayList<>(newPrefix.size() - 1);
+    for (int end = 0; end < newPrefix.size() - 1; ++end) {
+      List<List<ConcreteRule<TK,FV>>> cells = new ArrayList<>(end + 1);
+      for (int start = 0; start <= end; ++start) cells.add(new ArrayList<>(prefixGrid.get(start, end)));
+      rules.add(cells);
+    }
+    if (prefix == null) {
+      numSearchedBeams += newPrefix.size();
+      return 0;
+    }
+
+    // Beam i holds derivations of exactly i target tokens, except for the last
+    // beam, which also holds derivations that straddle the end of the prefix.
+    int commonLength = 0;
+    for (int sz = Math.min(prefix.size(), newPrefix.size()); commonLength < sz
+        && prefix.get(commonLength).equals(newPrefix.get(commonLength)); ++commonLength);
+    int maxCardinality = Math.min(commonLength, Math.min(beams.size() - 1, newPrefix.size() - 1));
+    for (int i = 1; i <= maxCardinality; ++i) {
+      if ( ! sameRules(oldRules.get(i - 1), rules.get(i - 1))) {
+        maxCardinality = i - 1;
+        break;
+      }
+    }
+
+    for (int i = 1; i <= maxCardinality; ++i) {
+      BundleBeam<TK,FV> beam = (BundleBeam<TK,FV>) tgtBeams.get(i);
+      for (Derivation<TK,FV> derivation : beams.get(i)) {
+        beam.put(derivation, false);
+        if (recombinationHistory != null) {
+          for (Derivation<TK,FV> discarded : recombinations.getOrDefault(derivation,
+              Collections.emptyList())) {
+            recombinationHistory.log(derivation, discarded);
+          }
+        }
+      }
+    }
+    int restored = Math.max(0, maxCardinality);
+    numRestoredBeams += restored;
+    numSearchedBeams += newPrefix.size() - restored;
+    return restored;
+  }
+
+  private static <TK,FV> boolean sameRules(List<List<ConcreteRule<TK,FV>>> cells,
+      List<List<ConcreteRule<TK,FV>>> otherCells) {
+    for (int start = 0; start < cells.size(); ++start) {
+      List<ConcreteRule<TK,FV>> cell = cells.get(start);
+      List<ConcreteRule<TK,FV>> otherCell = otherCells.get(start);
+      if (cell.size() != otherCell.size()) return false;
+      for (int k = 0; k < cell.size(); ++k) {
+        if ( ! sameRule(cell.get(k), otherCell.get(k))) return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Synthetic rules are created for each call, so compare the parts of the rules that
+   * the search uses. Alignments are compared by their string form, which is computed
+   * lazily for synthetic rules.
+   */
+  private static <TK,FV> boolean sameRule(ConcreteRule<TK,FV> rule, ConcreteRule<TK,FV> other) {
+    return rule == other || (rule.equals(other) && rule.isolationScore == other.isolationScore
+        && rule.abstractRule.id == other.abstractRule.id
+        && Arrays.equals(rule.abstractRule.scores, other.abstractRule.scores)
+        && String.valueOf(rule.abstractRule.alignment).equals(String.valueOf(other.abstractRule.alignment))
+        && Objects.equals(rule.cachedFeatureList, other.cachedFeatureList));
+  }
+
+  /**
+   * Save the target beams after prefix decoding. The last beam is not saved since
+   * it depends on the tokens that follow the prefix.
+   *
+   * @param prefix
+   * @param tgtBeams
+   * @param recombinationHistory
+   * @param recoveredCardinality If greater than zero, the cardinality from which recovery
+   *                             rebuilt the beams. These beams are not saved.
+   */
+  public void save(Sequence<TK> prefix, List<Beam<Derivation<TK,FV>>> tgtBeams,
+      RecombinationHistory<Derivation<TK,FV>> recombinationHistory, int recoveredCardinality) {
+    final int numBeams = recoveredCardinality > 0 ? Math.min(prefix.size(), recoveredCardinality) :
+      prefix.size();
+    this.prefix = prefix;
+    this.beams = new ArrayList<>(numBeams);
+    this.recombinations = new IdentityHashMap<>();
+    beams.add(Collections.emptyList());
+    for (int i = 1; i < numBeams; ++i) {
+      List<Derivation<TK,FV>> derivations = new ArrayList<>(tgtBeams.get(i).size());
+      for (Derivation<TK,FV> derivation : tgtBeams.get(i)) {
+        derivations.add(derivation);
+        if (recombinationHistory != null) {
+          List<Derivation<TK,FV>> discarded = recombinationHistory.recombinations(derivation);
+          if ( ! discarded.isEmpty()) recombinations.put(derivation, new ArrayList<>(discarded));
+        }
+      }
+      beams.add(derivations);
+    }
+  }
+
+  /**
+   * The number of target beams that were restored over all calls.
+   *
+   * @return
+   */
+  public int getNumRestoredBeams() {
+    return numRestoredBeams;
+  }
+
+  /**
+   * The number of target beams that were restored and searched over all calls.
+   *
+   * @return
+   */
+  public String statistics() {
+    return String.format("restored beams: %d  searched beams: %d", numRestoredBeams, numSearchedBeams);
+  }
+}
@@ -272,12 +272,13 @@ public class RuleGrid<TK,FV> implements Iterable<ConcreteRule<TK,FV>> {
       throw new ArrayIndexOutOfBoundsException("Span is out-of-bounds");
     }
     if (! isSorted.get(offset)) {
-      if (grid[offset] != null) {
-        Collections.sort(grid[offset]);
-        if (grid[offset].size() > ruleQueryLimit) grid[offset] = grid[offset].subList(0, ruleQueryLimit);
-      }
+      if (grid[offset] != null) Collections.sort(grid[offset]);
       isSorted.set(offset);
-    } 
+    }
+    // The limit can be lowered during search
+    if (grid[offset] != null && grid[offset].size() > ruleQueryLimit) {
+      grid[offset] = grid[offset].subList(0, ruleQueryLimit);
+    }
     return grid[offset] == null ? Collections.emptyList() : grid[offset];
   }
 
@@ -0,0 +1,183 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stanford.nlp.mt.decoder.AbstractInferer;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.DTURule;
+import edu.stanford.nlp.mt.tm.TranslationModel;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.InputProperty;
+import edu.stanford.nlp.mt.util.LRUCache;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * A bounded cache of translation model queries that is shared by all inferers
+ * of a decoder. Entries are keyed by the source input and the input properties
+ * that affect the query, and the least recently used entry is evicted. When the
+ * model weights change, cached rules are featurized and scored again instead of
+ * querying the translation model.
+ *
+ * Threadsafe.
+ *
+ * @param <TK>
+ * @param <FV>
+ */
+public class RuleQueryCache<TK,FV> {
+
+  // Marker for the foreground and termbase models configured in the inferer.
+  private static final Object DEFAULT_MODEL = new Object();
+
+  private final LRUCache<Key,Entry<TK,FV>> cache;
+
+  private final AtomicLong numHits = new AtomicLong();
+  private final AtomicLong numRescored = new AtomicLong();
+  private final AtomicLong numMisses = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize The maximum number of cached source inputs.
+   */
+  public RuleQueryCache(int maxSize) {
+    this.cache = new LRUCache<>(maxSize);
+  }
+
+  /**
+   * Query the translation model of the inferer, or return a copy of the cached rule list.
+   *
+   * @param inferer
+   * @param source
+   * @param sourceInputProperties
+   * @param sourceInputId
+   * @param scorer
+   * @return
+   */
+  public List<ConcreteRule<TK,FV>> getRules(AbstractInferer<TK,FV> inferer, Sequence<TK> source,
+      InputProperties sourceInputProperties, int sourceInputId, Scorer<FV> scorer) {
+    final Key key = new Key(source, sourceInputId, sourceInputProperties, inferer);
+    final long weightsVersion = scorer.weightsVersion();
+    Entry<TK,FV> entry = cache.get(key);
+    if (entry != null && entry.weightsVersion == weightsVersion) {
+      numHits.incrementAndGet();
+
+    } else if (entry != null) {
+      List<ConcreteRule<TK,FV>> ruleList = new ArrayList<>(entry.ruleList.size());
+      for (ConcreteRule<TK,FV> rule : entry.ruleList) {
+        ruleList.add(rule.abstractRule instanceof DTURule ?
+            new ConcreteRule<>(rule.abstractRule, rule.sourceCoverage, inferer.featurizer, scorer,
+                source, sourceInputId, true, sourceInputProperties) :
+            new ConcreteRule<>(rule.abstractRule, rule.sourceCoverage, inferer.featurizer, scorer,
+                source, sourceInputId, sourceInputProperties));
+      }
+      entry = new Entry<>(ruleList, weightsVersion);
+      cache.put(key, entry);
+      numRescored.incrementAndGet();
+
+    } else {
+      entry = new Entry<>(inferer.phraseGenerator.getRules(source, sourceInputProperties,
+          sourceInputId, scorer), weightsVersion);
+      cache.put(key, entry);
+      numMisses.incrementAndGet();
+    }
+    // Callers modify the rule list
+    return new ArrayList<>(entry.ruleList);
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear() { cache.clear(); }
+
+  /**
+   * The number of cached source inputs.
+   *
+   * @return
+   */
+  public int size() { return cache.size(); }
+
+  /**
+   * Fraction of queries that did not query the translation model.
+   *
+   * @return
+   */
+  public double hitRate() {
+    long hits = numHits.get() + numRescored.get();
+    long total = hits + numMisses.get();
+    return total == 0 ? 0.0 : hits / (double) total;
+  }
+
+  /**
+   * Query statistics (hits, rescored hits, misses).
+   *
+   * @return
+   */
+  public String statistics() {
+    return String.format("size: %d  hits: %d  rescored: %d  misses: %d  hit rate: %.3f", cache.size(),
+        numHits.get(), numRescored.get(), numMisses.get(), hitRate());
+  }
+
+  /**
+   * A cached rule list and the weights under which it was scored.
+   */
+  private static class Entry<TK,FV> {
+    final List<ConcreteRule<TK,FV>> ruleList;
+    final long weightsVersion;
+    Entry(List<ConcreteRule<TK,FV>> ruleList, long weightsVersion) {
+      this.ruleList = ruleList;
+      this.weightsVersion = weightsVersion;
+    }
+  }
+
+  /**
+   * The source input and the input properties that affect the rule query
+   * and rule features.
+   */
+  private static class Key {
+    private final Sequence<?> source;
+    private final int sourceInputId;
+    private final Object foregroundTM;
+    private final Object termbaseTM;
+    private final Object ruleFeatureIndex;
+    private final String[] domain;
+    private final int hashCode;
+
+    Key(Sequence<?> source, int sourceInputId, InputProperties inputProperties,
+        AbstractInferer<?,?> inferer) {
+      this.source = source;
+      this.sourceInputId = sourceInputId;
+      this.foregroundTM = modelKey(inputProperties.get(InputProperty.ForegroundTM), inferer.foregroundModel);
+      this.termbaseTM = modelKey(inputProperties.get(InputProperty.TermbaseTM), inferer.termbaseModel);
+      this.ruleFeatureIndex = inputProperties.get(InputProperty.RuleFeatureIndex);
+      this.domain = (String[]) inputProperties.get(InputProperty.Domain);
+      this.hashCode = Objects.hash(source, sourceInputId, System.identityHashCode(foregroundTM),
+          System.identityHashCode(termbaseTM), ruleFeatureIndex, Arrays.hashCode(domain));
+    }
+
+    private static Object modelKey(Object model, TranslationModel<?,?> defaultModel) {
+      return model != null && model == defaultModel ? DEFAULT_MODEL : model;
+    }
+
+    @Override
+    public int hashCode() { return hashCode; }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      } else if ( ! (o instanceof Key)) {
+        return false;
+      } else {
+        Key other = (Key) o;
+        return hashCode == other.hashCode && sourceInputId == other.sourceInputId
+            && foregroundTM == other.foregroundTM && termbaseTM == other.termbaseTM
+            && Objects.equals(ruleFeatureIndex, other.ruleFeatureIndex)
+            && Arrays.equals(domain, other.domain) && source.equals(other.source);
+      }
+    }
+  }
+}
@@ -16,6 +16,15 @@ public interface Scorer<FV> {
    * @return a score under the current weights for the specified set of features.
    */
   public double getIncrementalScore(Collection<FeatureValue<FV>> features);
+
+  /**
+   * Score a dense block of features. See <code>DenseFeaturizer</code>.
+   * 
+   * @param values
+   * @param featureNames Aligned with the values. May be longer than the values.
+   * @return a score under the current weights for the specified features.
+   */
+  public double getIncrementalScore(float[] values, FV[] featureNames);
   
   /**
    * Update the scorer weights.
@@ -36,4 +45,10 @@ public interface Scorer<FV> {
    * @return True if the scorer has any non-zero weights. False otherwise.
    */
   public boolean hasNonZeroWeight(FV featureName);
+  
+  /**
+   * @return An identifier of the current weights. Scorers that were updated with the
+   * same unchanged weight vector have the same version.
+   */
+  public long weightsVersion();
 }
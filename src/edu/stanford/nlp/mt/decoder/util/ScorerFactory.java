@@ -1,6 +1,11 @@
 package edu.stanford.nlp.mt.decoder.util;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.util.Index;
@@ -22,6 +27,11 @@ public class ScorerFactory {
   public static final String STATIC_SCORER_INLINE = "inline";
   public static final String STATIC_SCORER_FILE = "file";
 
+  // Versions of recently seen weight vectors, by identity
+  private static final int MAX_TRACKED_WEIGHTS = 16;
+  private static final AtomicLong versionCounter = new AtomicLong();
+  private static final List<TrackedWeights> trackedWeights = new ArrayList<>();
+
   private ScorerFactory() {}
 
   /**
@@ -45,4 +55,47 @@ public class ScorerFactory {
         scorerName));
   }
 
+  /**
+   * A version of a weight vector that is cheap to compute. Each weight vector object gets a
+   * new id from a monotonic counter the first time it is seen, so passing the same vector to
+   * updateWeights() again keeps the version. The size and total count of the vector are
+   * mixed in to detect most in-place changes. Vectors with equal weights in different objects
+   * have different versions.
+   * 
+   * @param weights
+   * @return
+   */
+  static long weightsVersion(Counter<String> weights) {
+    long id = -1;
+    synchronized (trackedWeights) {
+      for (Iterator<TrackedWeights> it = trackedWeights.iterator(); it.hasNext(); ) {
+        TrackedWeights tracked = it.next();
+        Counter<String> trackedCounter = tracked.weights.get();
+        if (trackedCounter == null) {
+          it.remove();
+        } else if (trackedCounter == weights) {
+          id = tracked.id;
+          break;
+        }
+      }
+      if (id < 0) {
+        id = versionCounter.incrementAndGet();
+        if (trackedWeights.size() == MAX_TRACKED_WEIGHTS) trackedWeights.remove(0);
+        trackedWeights.add(new TrackedWeights(weights, id));
+      }
+    }
+    long h = id * 0x9e3779b97f4a7c15L ^ weights.size();
+    h = (h ^ (h >>> 31)) * 0xc6a4a7935bd1e995L ^ Double.doubleToLongBits(weights.totalCount());
+    h *= 0xc6a4a7935bd1e995L;
+    return h ^ (h >>> 47);
+  }
+
+  private static class TrackedWeights {
+    final WeakReference<Counter<String>> weights;
+    final long id;
+    TrackedWeights(Counter<String> weights, long id) {
+      this.weights = new WeakReference<>(weights);
+      this.id = id;
+    }
+  }
 }
@@ -0,0 +1,520 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.stanford.nlp.math.SloppyMath;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
+import edu.stanford.nlp.mt.util.ArraySequence;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * The search graph of the decoder for one source input, extracted from the goal
+ * derivations and the <code>RecombinationHistory</code>.
+ *
+ * Nodes are the derivations that survived recombination, and each derivation (retained or
+ * discarded) is an edge from its parent to the derivation that it was recombined into. Each
+ * edge has one tail, so the graph is a lattice. The nodes are in topological order. The root
+ * (node 0) is the null hypothesis, and the goal (the last node) has one edge without features
+ * or words from each goal derivation.
+ *
+ * Each edge stores the local feature values and the target words of its derivation, preceded
+ * by up to <code>MAX_CONTEXT</code> words of context from the same derivation.
+ *
+ * Binary file format (big-endian):
+ * <pre>
+ *   int magic, int version
+ *   repeated: int source input id, int number of nodes, int number of edges,
+ *     int number of feature names, modified UTF-8 names, int vocabulary size, modified UTF-8 words,
+ *     for each edge: int tail, int head, int context length, int number of words, int[] words,
+ *     int number of features, (int feature, double value)[]
+ * </pre>
+ */
+public class SearchGraph {
+
+  private static final int MAGIC = 0x53475248;
+  private static final int VERSION = 1;
+
+  /**
+   * Maximum number of context words before the target words of an edge.
+   */
+  public static final int MAX_CONTEXT = 3;
+
+  public final int sourceInputId;
+  private final int numNodes;
+
+  // Edges sorted by head. The incoming edges of node v are [firstEdge[v], firstEdge[v+1])
+  private final int[] firstEdge;
+  private final int[] tails;
+  private final int[] heads;
+
+  // Local feature values of edge e are [featureOffsets[e], featureOffsets[e+1])
+  private final int[] featureOffsets;
+  private final int[] features;
+  private final double[] values;
+  private final String[] featureNames;
+
+  // Context and target words of edge e are [wordOffsets[e], wordOffsets[e+1])
+  private final int[] wordOffsets;
+  private final int[] contextLengths;
+  private final int[] words;
+  private final IString[] vocabulary;
+
+  private SearchGraph(int sourceInputId, int numNodes, int[] tails, int[] heads, int[] featureOffsets,
+      int[] features, double[] values, String[] featureNames, int[] wordOffsets, int[] contextLengths,
+      int[] words, String[] vocabulary) {
+    this.sourceInputId = sourceInputId;
+    this.numNodes = numNodes;
+    this.tails = tails;
+    this.heads = heads;
+    this.firstEdge = new int[numNodes + 1];
+    for (int e = 0; e < heads.length; ++e) {
+      if (tails[e] >= heads[e] || (e > 0 && heads[e] < heads[e-1])) {
+        throw new IllegalArgumentException("Edges are not in topological order");
+      }
+      ++firstEdge[heads[e] + 1];
+    }
+    for (int v = 0; v < numNodes; ++v) firstEdge[v+1] += firstEdge[v];
+    this.featureOffsets = featureOffsets;
+    this.features = features;
+    this.values = values;
+    this.featureNames = featureNames;
+    this.wordOffsets = wordOffsets;
+    this.contextLengths = contextLengths;
+    this.words = words;
+    this.vocabulary = new IString[vocabulary.length];
+    for (int i = 0; i < vocabulary.length; ++i) this.vocabulary[i] = new IString(vocabulary[i]);
+  }
+
+  /**
+   * Extract the search graph.
+   *
+   * @param sourceInputId
+   * @param goals The derivations in the final beam.
+   * @param recombinationHistory
+   * @return
+   */
+  public static <TK,FV> SearchGraph build(int sourceInputId, List<Derivation<TK,FV>> goals,
+      RecombinationHistory<Derivation<TK,FV>> recombinationHistory) {
+    // Find the nodes that are reachable from the goal
+    Map<Derivation<TK,FV>,Integer> nodeIds = new IdentityHashMap<>();
+    List<Derivation<TK,FV>> nodes = new ArrayList<>();
+    List<List<Derivation<TK,FV>>> inEdges = new ArrayList<>();
+    Deque<Derivation<TK,FV>> agenda = new ArrayDeque<>();
+    for (Derivation<TK,FV> goal : goals) {
+      if ( ! nodeIds.containsKey(goal)) {
+        nodeIds.put(goal, nodes.size());
+        nodes.add(goal);
+        inEdges.add(null);
+        agenda.push(goal);
+      }
+    }
+    while ( ! agenda.isEmpty()) {
+      Derivation<TK,FV> node = agenda.pop();
+      List<Derivation<TK,FV>> edges = new ArrayList<>();
+      if (node.parent != null) {
+        edges.add(node);
+        for (Derivation<TK,FV> recombined : recombinationHistory.recombinations(node)) {
+          if (recombined.parent != null) edges.add(recombined);
+        }
+      }
+      inEdges.set(nodeIds.get(node), edges);
+      for (Derivation<TK,FV> edge : edges) {
+        if ( ! nodeIds.containsKey(edge.parent)) {
+          nodeIds.put(edge.parent, nodes.size());
+          nodes.add(edge.parent);
+          inEdges.add(null);
+          agenda.push(edge.parent);
+        }
+      }
+    }
+
+    // Topological order
+    final int numNodes = nodes.size() + 1;
+    int[] numIncoming = new int[nodes.size()];
+    List<List<Integer>> outNodes = new ArrayList<>(nodes.size());
+    for (int v = 0; v < nodes.size(); ++v) outNodes.add(new ArrayList<>());
+    for (int v = 0; v < nodes.size(); ++v) {
+      for (Derivation<TK,FV> edge : inEdges.get(v)) {
+        outNodes.get(nodeIds.get(edge.parent)).add(v);
+        ++numIncoming[v];
+      }
+    }
+    int[] order = new int[nodes.size()];
+    Deque<Integer> queue = new ArrayDeque<>();
+    for (int v = 0; v < nodes.size(); ++v) if (numIncoming[v] == 0) queue.add(v);
+    if (queue.size() != 1) {
+      throw new IllegalStateException(String.format("Search graph %d has %d roots", sourceInputId, queue.size()));
+    }
+    int numSorted = 0;
+    while ( ! queue.isEmpty()) {
+      int v = queue.poll();
+      order[v] = numSorted++;
+      for (int w : outNodes.get(v)) if (--numIncoming[w] == 0) queue.add(w);
+    }
+    if (numSorted != nodes.size()) {
+      throw new IllegalStateException("Search graph has a cycle: " + sourceInputId);
+    }
+
+    // Edges sorted by head
+    List<int[]> edgeIds = new ArrayList<>();
+    for (int v = 0; v < nodes.size(); ++v) {
+      for (int i = 0; i < inEdges.get(v).size(); ++i) edgeIds.add(new int[] { v, i });
+    }
+    for (Derivation<TK,FV> goal : goals) edgeIds.add(new int[] { -1, nodeIds.get(goal) });
+    edgeIds.sort(Comparator.comparingInt((int[] id) -> id[0] < 0 ? numNodes - 1 : order[id[0]])
+        .thenComparingInt(id -> id[0] < 0 ? order[id[1]] : order[nodeIds.get(inEdges.get(id[0]).get(id[1]).parent)]));
+
+    final int numEdges = edgeIds.size();
+    int[] tails = new int[numEdges];
+    int[] heads = new int[numEdges];
+    int[] featureOffsets = new int[numEdges + 1];
+    int[] wordOffsets = new int[numEdges + 1];
+    int[] contextLengths = new int[numEdges];
+    List<FeatureValue<FV>> featureList = new ArrayList<>();
+    List<TK> wordList = new ArrayList<>();
+    for (int e = 0; e < numEdges; ++e) {
+      int[] id = edgeIds.get(e);
+      if (id[0] < 0) {
+        // Goal edge
+        tails[e] = order[id[1]];
+        heads[e] = numNodes - 1;
+      } else {
+        Derivation<TK,FV> edge = inEdges.get(id[0]).get(id[1]);
+        tails[e] = order[nodeIds.get(edge.parent)];
+        heads[e] = order[id[0]];
+        if (edge.features != null) featureList.addAll(edge.features);
+        Sequence<TK> prefix = edge.parent.targetSequence;
+        Sequence<TK> target = edge.targetSequence;
+        int start = Math.min(prefix.size(), target.size());
+        int contextStart = Math.max(0, start - MAX_CONTEXT);
+        contextLengths[e] = start - contextStart;
+        for (int i = contextStart; i < target.size(); ++i) wordList.add(target.get(i));
+      }
+      featureOffsets[e+1] = featureList.size();
+      wordOffsets[e+1] = wordList.size();
+    }
+
+    // String tables
+    Map<String,Integer> featureIndex = new HashMap<>();
+    int[] features = new int[featureList.size()];
+    double[] values = new double[featureList.size()];
+    for (int i = 0; i < features.length; ++i) {
+      FeatureValue<FV> f = featureList.get(i);
+      features[i] = featureIndex.computeIfAbsent(String.valueOf(f.name), k -> featureIndex.size());
+      values[i] = f.value;
+    }
+    Map<String,Integer> wordIndex = new HashMap<>();
+    int[] words = new int[wordList.size()];
+    for (int i = 0; i < words.length; ++i) {
+      words[i] = wordIndex.computeIfAbsent(String.valueOf(wordList.get(i)), k -> wordIndex.size());
+    }
+    return new SearchGraph(sourceInputId, numNodes, tails, heads, featureOffsets, features, values,
+        toArray(featureIndex), wordOffsets, contextLengths, words, toArray(wordIndex));
+  }
+
+  private static String[] toArray(Map<String,Integer> index) {
+    String[] strings = new String[index.size()];
+    for (Map.Entry<String,Integer> entry : index.entrySet()) strings[entry.getValue()] = entry.getKey();
+    return strings;
+  }
+
+  /**
+   * Number of nodes, including the root and the goal.
+   */
+  public int numNodes() { return numNodes; }
+
+  /**
+   * Number of edges.
+   */
+  public int numEdges() { return tails.length; }
+
+  /**
+   * The root node.
+   */
+  public int root() { return 0; }
+
+  /**
+   * The goal node.
+   */
+  public int goal() { return numNodes - 1; }
+
+  /**
+   * The first incoming edge of a node. The incoming edges of node <code>v</code> are
+   * <code>[firstEdge(v), firstEdge(v+1))</code>, and the edges of all nodes are in
+   * topological order.
+   *
+   * @param v
+   * @return
+   */
+  public int firstEdge(int v) { return firstEdge[v]; }
+
+  public int tail(int e) { return tails[e]; }
+
+  public int head(int e) { return heads[e]; }
+
+  /**
+   * The model score of each edge.
+   *
+   * @param weights
+   * @return
+   */
+  public double[] edgeScores(Counter<String> weights) {
+    double[] weightArray = new double[featureNames.length];
+    for (int i = 0; i < featureNames.length; ++i) weightArray[i] = weights.getCount(featureNames[i]);
+    double[] scores = new double[tails.length];
+    for (int e = 0; e < scores.length; ++e) {
+      for (int i = featureOffsets[e]; i < featureOffsets[e+1]; ++i) scores[e] += weightArray[features[i]] * values[i];
+    }
+    return scores;
+  }
+
+  /**
+   * Log inside scores of the nodes: the log sum of the scores of the paths from the root.
+   *
+   * @param edgeScores
+   * @return
+   */
+  public double[] insideScores(double[] edgeScores) {
+    double[] logAlpha = new double[numNodes];
+    Arrays.fill(logAlpha, Double.NEGATIVE_INFINITY);
+    logAlpha[root()] = 0.0;
+    for (int e = 0; e < tails.length; ++e) {
+      logAlpha[heads[e]] = SloppyMath.logAdd(logAlpha[heads[e]], logAlpha[tails[e]] + edgeScores[e]);
+    }
+    return logAlpha;
+  }
+
+  /**
+   * Log outside scores of the nodes: the log sum of the scores of the paths to the goal.
+   *
+   * @param edgeScores
+   * @return
+   */
+  public double[] outsideScores(double[] edgeScores) {
+    double[] logBeta = new double[numNodes];
+    Arrays.fill(logBeta, Double.NEGATIVE_INFINITY);
+    logBeta[goal()] = 0.0;
+    for (int e = tails.length - 1; e >= 0; --e) {
+      logBeta[tails[e]] = SloppyMath.logAdd(logBeta[tails[e]], edgeScores[e] + logBeta[heads[e]]);
+    }
+    return logBeta;
+  }
+
+  /**
+   * Posterior probabilities of the edges given the inside and outside scores.
+   *
+   * @param edgeScores
+   * @param logAlpha
+   * @param logBeta
+   * @return
+   */
+  public double[] edgePosteriors(double[] edgeScores, double[] logAlpha, double[] logBeta) {
+    final double logZ = logAlpha[goal()];
+    double[] posteriors = new double[tails.length];
+    for (int e = 0; e < posteriors.length; ++e) {
+      posteriors[e] = Math.exp(logAlpha[tails[e]] + edgeScores[e] + logBeta[heads[e]] - logZ);
+    }
+    return posteriors;
+  }
+
+  /**
+   * Number of local feature values of an edge.
+   */
+  public int numFeatures(int e) { return featureOffsets[e+1] - featureOffsets[e]; }
+
+  /**
+   * Name of the i-th local feature of an edge.
+   */
+  public String featureName(int e, int i) { return featureNames[features[featureOffsets[e] + i]]; }
+
+  /**
+   * Value of the i-th local feature of an edge.
+   */
+  public double featureValue(int e, int i) { return values[featureOffsets[e] + i]; }
+
+  /**
+   * The target words of an edge.
+   *
+   * @param e
+   * @return
+   */
+  public Sequence<IString> target(int e) {
+    return toSequence(wordOffsets[e] + contextLengths[e], wordOffsets[e+1]);
+  }
+
+  /**
+   * The target words of an edge preceded by their context in the derivation.
+   *
+   * @param e
+   * @return
+   */
+  public Sequence<IString> targetWithContext(int e) {
+    return toSequence(wordOffsets[e], wordOffsets[e+1]);
+  }
+
+  /**
+   * Number of context words before the target words of an edge.
+   */
+  public int contextLength(int e) { return contextLengths[e]; }
+
+  private Sequence<IString> toSequence(int start, int end) {
+    IString[] tokens = new IString[end - start];
+    for (int i = start; i < end; ++i) tokens[i - start] = vocabulary[words[i]];
+    return new ArraySequence<>(true, tokens);
+  }
+
+  private void write(DataOutputStream out) throws IOException {
+    out.writeInt(sourceInputId);
+    out.writeInt(numNodes);
+    out.writeInt(tails.length);
+    out.writeInt(featureNames.length);
+    for (String name : featureNames) out.writeUTF(name);
+    out.writeInt(vocabulary.length);
+    for (IString word : vocabulary) out.writeUTF(word.toString());
+    for (int e = 0; e < tails.length; ++e) {
+      out.writeInt(tails[e]);
+      out.writeInt(heads[e]);
+      out.writeInt(contextLengths[e]);
+      out.writeInt(wordOffsets[e+1] - wordOffsets[e]);
+      for (int i = wordOffsets[e]; i < wordOffsets[e+1]; ++i) out.writeInt(words[i]);
+      out.writeInt(featureOffsets[e+1] - featureOffsets[e]);
+      for (int i = featureOffsets[e]; i < featureOffsets[e+1]; ++i) {
+        out.writeInt(features[i]);
+        out.writeDouble(values[i]);
+      }
+    }
+  }
+
+  private static SearchGraph read(int sourceInputId, DataInputStream in) throws IOException {
+    final int numNodes = in.readInt();
+    final int numEdges = in.readInt();
+    String[] featureNames = new String[in.readInt()];
+    for (int i = 0; i < featureNames.length; ++i) featureNames[i] = in.readUTF();
+    String[] vocabulary = new String[in.readInt()];
+    for (int i = 0; i < vocabulary.length; ++i) vocabulary[i] = in.readUTF();
+    int[] tails = new int[numEdges];
+    int[] heads = new int[numEdges];
+    int[] contextLengths = new int[numEdges];
+    int[] wordOffsets = new int[numEdges + 1];
+    int[] featureOffsets = new int[numEdges + 1];
+    int[] words = new int[16];
+    int[] features = new int[16];
+    double[] values = new double[16];
+    for (int e = 0; e < numEdges; ++e) {
+      tails[e] = in.readInt();
+      heads[e] = in.readInt();
+      contextLengths[e] = in.readInt();
+      final int numWords = in.readInt();
+      wordOffsets[e+1] = wordOffsets[e] + numWords;
+      if (wordOffsets[e+1] > words.length) words = Arrays.copyOf(words, Math.max(2*words.length, wordOffsets[e+1]));
+      for (int i = wordOffsets[e]; i < wordOffsets[e+1]; ++i) words[i] = in.readInt();
+      final int numFeatures = in.readInt();
+      featureOffsets[e+1] = featureOffsets[e] + numFeatures;
+      if (featureOffsets[e+1] > features.length) {
+        features = Arrays.copyOf(features, Math.max(2*features.length, featureOffsets[e+1]));
+        values = Arrays.copyOf(values, features.length);
+      }
+      for (int i = featureOffsets[e]; i < featureOffsets[e+1]; ++i) {
+        features[i] = in.readInt();
+        values[i] = in.readDouble();
+      }
+    }
+    return new SearchGraph(sourceInputId, numNodes, tails, heads, featureOffsets,
+        Arrays.copyOf(features, featureOffsets[numEdges]), Arrays.copyOf(values, featureOffsets[numEdges]),
+        featureNames, wordOffsets, contextLengths, Arrays.copyOf(words, wordOffsets[numEdges]), vocabulary);
+  }
+
+  /**
+   * Load the search graphs in a file written by <code>Writer</code>.
+   *
+   * @param filename
+   * @return The graphs sorted by source input id.
+   * @throws IOException
+   */
+  public static List<SearchGraph> load(String filename) throws IOException {
+    InputStream inStream = new BufferedInputStream(new FileInputStream(filename));
+    if (filename.endsWith(".gz")) inStream = new GZIPInputStream(inStream);
+    List<SearchGraph> graphs = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(inStream)) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a search graph file: " + filename);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException(String.format("Unsupported search graph version %d: %s", version, filename));
+      }
+      while (true) {
+        int sourceInputId;
+        try {
+          sourceInputId = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        graphs.add(read(sourceInputId, in));
+      }
+    }
+    graphs.sort(Comparator.comparingInt(g -> g.sourceInputId));
+    return graphs;
+  }
+
+  /**
+   * Writes search graphs to a file. Pass an instance to the decoder with
+   * <code>InputProperty.SearchGraph</code>. This class is threadsafe.
+   */
+  public static class Writer implements Consumer<SearchGraph>, Closeable {
+    private final DataOutputStream out;
+
+    /**
+     * Constructor. The file is compressed if the name ends with .gz.
+     *
+     * @param filename
+     * @throws IOException
+     */
+    public Writer(String filename) throws IOException {
+      OutputStream outStream = new BufferedOutputStream(new FileOutputStream(filename));
+      if (filename.endsWith(".gz")) outStream = new GZIPOutputStream(outStream);
+      this.out = new DataOutputStream(outStream);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    }
+
+    @Override
+    public synchronized void accept(SearchGraph graph) {
+      try {
+        graph.write(out);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.close();
+    }
+  }
+}
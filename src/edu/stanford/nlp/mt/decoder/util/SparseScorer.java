@@ -3,6 +3,7 @@ package edu.stanford.nlp.mt.decoder.util;
 import java.io.IOException;
 import java.util.Collection;
 
+import edu.stanford.nlp.mt.util.AtomicWeightVector;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.stats.Counter;
@@ -12,7 +13,9 @@ import edu.stanford.nlp.util.Index;
  * A sparse scorer for high dimensional models.
  * 
  * NOTE: This class is not threadsafe, which is okay for the current implementation
- * in which each Inferer has its own scorer.
+ * in which each Inferer has its own scorer. Weights that change during online learning
+ * should be passed as an <code>AtomicWeightVector.Snapshot</code>, which is not copied
+ * and has a precomputed version.
  * 
  * @author Spence Green
  *
@@ -20,6 +23,7 @@ import edu.stanford.nlp.util.Index;
 public class SparseScorer implements Scorer<String> {
 
   private Counter<String> weights;
+  private long weightsVersion;
   
   public SparseScorer(Counter<String> featureWts) {
     this(featureWts, null);
@@ -44,10 +48,21 @@ public class SparseScorer implements Scorer<String> {
     return score;
   }
 
+  @Override
+  public double getIncrementalScore(float[] values, String[] featureNames) {
+    double score = 0.0;
+    for (int i = 0; i < values.length; ++i) {
+      score += values[i] * weights.getCount(featureNames[i]);
+    }
+    return score;
+  }
+
   @Override
   public void updateWeights(Counter<String> weights) {
     // Do not copy the weights vector.
     this.weights = weights;
+    this.weightsVersion = weights instanceof AtomicWeightVector.Snapshot ?
+        ((AtomicWeightVector.Snapshot) weights).version() : ScorerFactory.weightsVersion(weights);
   }
 
   @Override
@@ -60,4 +75,10 @@ public class SparseScorer implements Scorer<String> {
     // Axiomatic for sparse weight vectors
     return true;
   }
+
+  @Override
+  public long weightsVersion() {
+    // Changes to the weights vector after updateWeights() are not tracked
+    return weightsVersion;
+  }
 }
@@ -28,6 +28,15 @@ public class UniformScorer<T> implements Scorer<T> {
     return score;
   }
 
+  @Override
+  public double getIncrementalScore(float[] values, T[] featureNames) {
+    double score = 0.0;
+    for (float value : values) {
+      score += value;
+    }
+    return score;
+  }
+
   @Override
   public void saveWeights(String filename) throws IOException {
     throw new UnsupportedOperationException();
@@ -42,4 +51,9 @@ public class UniformScorer<T> implements Scorer<T> {
   public boolean hasNonZeroWeight(T featureName) {
     return true;
   }
+
+  @Override
+  public long weightsVersion() {
+    return 0;
+  }
 }
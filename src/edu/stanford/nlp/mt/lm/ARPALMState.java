@@ -12,44 +12,23 @@ import edu.stanford.nlp.mt.util.Sequence;
 public class ARPALMState extends LMState {
 
   private final Sequence<IString> state;
-  private final int hashCode;
 
   public ARPALMState(double score, Sequence<IString> state) {
     this.score = score;
     this.state = state;
-    this.hashCode = state.hashCode();
+    final int[] ids = new int[state.size()];
+    for (int i = 0; i < ids.length; ++i) ids[i] = state.get(i).id;
+    pack(ids, 0, ids.length);
   }
   
   public ARPALMState(double score, ARPALMState state) {
     this.score = score;
     this.state = state.state;
-    this.hashCode = state.hashCode;
+    pack(state);
   }
   
   public Sequence<IString> getState() { return state; }
 
-  @Override
-  public int hashCode() {
-    return hashCode;
-  }
-
-  @Override
-  public boolean equals(Object other) {
-    if (this == other) {
-      return true;
-    } else if ( ! (other instanceof ARPALMState)) {
-      return false;
-    } else {
-      ARPALMState otherState = (ARPALMState) other;
-      return this.state.equals(otherState.state);
-    }
-  }
-
-  @Override
-  public int length() {
-    return state.size();
-  }
-  
   @Override
   public String toString() {
     return String.format("%.6f ||| %s", score, state.toString());
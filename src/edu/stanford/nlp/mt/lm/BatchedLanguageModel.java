@@ -0,0 +1,30 @@
+package edu.stanford.nlp.mt.lm;
+
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * A language model that can score many queries in one batch. Queries are
+ * queued with the same arguments as a later call to <code>score()</code>.
+ * <code>flush()</code> executes all queued queries at once, after which
+ * the corresponding calls to <code>score()</code> are cache lookups.
+ * 
+ * Queues are thread-local.
+ * 
+ * @param <T>
+ */
+public interface BatchedLanguageModel<T> extends LanguageModel<T> {
+
+  /**
+   * Queue the queries needed to score a sequence.
+   * 
+   * @param sequence
+   * @param startOffsetIndex
+   * @param priorState
+   */
+  void queue(Sequence<T> sequence, int startOffsetIndex, LMState priorState);
+  
+  /**
+   * Score all queued queries in one batch.
+   */
+  void flush();
+}
@@ -1,12 +1,8 @@
 package edu.stanford.nlp.mt.lm;
 
-import java.util.Arrays;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import edu.stanford.nlp.mt.util.MurmurHash2;
-
 /**
  * Result of a KenLM query.
  * 
@@ -16,9 +12,6 @@ import edu.stanford.nlp.mt.util.MurmurHash2;
 public class KenLMState extends LMState {
 
   private static final Logger logger = LogManager.getLogger(KenLMState.class.getName());
-  
-  private final int[] state;
-  private final int hashCode;
 
   /**
    * Constructor.
@@ -29,16 +22,11 @@ public class KenLMState extends LMState {
    */
   public KenLMState(double score, int[] state, int stateLength) {
     this.score = score;
-    if (stateLength < state.length) {
-      this.state = new int[stateLength];
-      System.arraycopy(state, 0, this.state, 0, stateLength);
-    } else if (stateLength == state.length) {
-      this.state = state;
-    } else {
+    if (stateLength > state.length) {
       logger.error("State length mis-match: {} vs. {}", state.length, stateLength);
       throw new RuntimeException("Bad state length returned from KenLM query");
     }
-    this.hashCode = MurmurHash2.hash32(state, state.length, 1);
+    pack(state, 0, stateLength);
   }
   
   /**
@@ -46,40 +34,5 @@ public class KenLMState extends LMState {
    * 
    * @return
    */
-  public int[] getState() { return state; }
-  
-  @Override
-  public boolean equals(Object other) {
-    if (this == other) {
-      return true;
-    } else if ( ! (other instanceof KenLMState)) {
-      return false;
-    } else {
-      KenLMState otherState = (KenLMState) other;
-      if (this.state.length != otherState.state.length) {
-        return false;
-      }
-      for (int i = 0; i < this.state.length; ++i) {
-        if (state[i] != otherState.state[i]) {
-          return false;
-        }
-      }
-      return true;
-    }
-  }
-
-  @Override
-  public int hashCode() {
-    return hashCode;
-  }
-
-  @Override
-  public int length() {
-    return state.length;
-  }
-  
-  @Override
-  public String toString() {
-    return String.format("%.6f (%s)", score, Arrays.toString(state));
-  }
+  public int[] getState() { return contextIds(); }
 }
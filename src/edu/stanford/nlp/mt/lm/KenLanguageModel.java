@@ -148,7 +148,7 @@ public class KenLanguageModel implements LanguageModel<IString> {
     }
 
     // Extract prior state
-    final int[] state = priorState == null ? EMPTY_INT_ARRAY : ((KenLMState) priorState).getState();
+    final KenLMState state = priorState == null ? ZERO_LENGTH_STATE : (KenLMState) priorState;
     final int[] ngramIds = makeKenLMInput(sequence, state);
 
     if (sequence.size() == 1 && priorState == null && sequence.get(0).equals(TokenUtils.START_TOKEN)) {
@@ -158,7 +158,7 @@ public class KenLanguageModel implements LanguageModel<IString> {
     }
     
     // Reverse the start index for KenLM
-    final int kenLMStartIndex = ngramIds.length - state.length - startIndex - 1;
+    final int kenLMStartIndex = ngramIds.length - state.length() - startIndex - 1;
     assert kenLMStartIndex >= 0;
     
     // Execute the query (via JNI) and construct the return state
@@ -174,11 +174,11 @@ public class KenLanguageModel implements LanguageModel<IString> {
    * @param priorState
    * @return
    */
-  private int[] makeKenLMInput(Sequence<IString> sequence, int[] priorState) {
+  private int[] makeKenLMInput(Sequence<IString> sequence, KenLMState priorState) {
     final int sequenceSize = sequence.size();
-    int[] ngramIds = new int[sequenceSize + priorState.length];
-    if (priorState.length > 0) {
-      System.arraycopy(priorState, 0, ngramIds, sequenceSize, priorState.length);
+    int[] ngramIds = new int[sequenceSize + priorState.length()];
+    if (priorState.length() > 0) {
+      priorState.copyState(ngramIds, sequenceSize);
     }
     for (int i = 0; i < sequenceSize; i++) {
       // Notice: ngramids are in reverse order vv. the Sequence
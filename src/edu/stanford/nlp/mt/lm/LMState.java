@@ -1,19 +1,187 @@
 package edu.stanford.nlp.mt.lm;
 
+import java.util.Arrays;
+
 import edu.stanford.nlp.mt.decoder.feat.FeaturizerState;
+import edu.stanford.nlp.mt.util.MurmurHash2;
 
 /**
  * State returned by a language model query.
- * 
+ *
+ * The context is packed into two longs so that recombination compares primitives.
+ * Contexts of up to <code>MAX_PACKED_LENGTH</code> word ids (5-gram models) are
+ * stored exactly. Longer contexts are stored as two hashes and as an array of ids,
+ * which is compared when the hashes match.
+ *
  * @author Spence Green
  *
  * @param <TK>
  */
 public abstract class LMState extends FeaturizerState {
-  
+
+  public static final int MAX_PACKED_LENGTH = 4;
+
   protected double score;
-  
+
+  private long context0;
+  private long context1;
+  private int length;
+
+  // Only for contexts that are not packed
+  private int[] context;
+
   public double getScore() { return score; };
-  
-  public abstract int length();
+
+  /**
+   * Number of words in the context.
+   *
+   * @return
+   */
+  public int length() { return length; }
+
+  /**
+   * Pack a context. The array is not copied if it is exactly the context.
+   *
+   * @param ids
+   * @param offset
+   * @param length
+   */
+  protected void pack(int[] ids, int offset, int length) {
+    this.length = length;
+    if (length <= MAX_PACKED_LENGTH) {
+      long c0 = 0, c1 = 0;
+      for (int i = 0; i < length; ++i) {
+        final long id = ids[offset + i] & 0xffffffffL;
+        if (i < 2) {
+          c0 |= id << (32 * i);
+        } else {
+          c1 |= id << (32 * (i - 2));
+        }
+      }
+      context0 = c0;
+      context1 = c1;
+      context = null;
+
+    } else {
+      context = offset == 0 && length == ids.length ? ids :
+        Arrays.copyOfRange(ids, offset, offset + length);
+      context0 = MurmurHash2.hash64(context, length, 1);
+      context1 = MurmurHash2.hash64(context, length, 0x5bd1e995);
+    }
+  }
+
+  /**
+   * Copy the packed context of another state.
+   *
+   * @param other
+   */
+  protected void pack(LMState other) {
+    this.context0 = other.context0;
+    this.context1 = other.context1;
+    this.length = other.length;
+    this.context = other.context;
+  }
+
+  /**
+   * True if the context is stored exactly in the packed representation.
+   *
+   * @return
+   */
+  public boolean isPacked() { return length <= MAX_PACKED_LENGTH; }
+
+  /**
+   * The word id at position i of a packed context.
+   *
+   * @param i
+   * @return
+   */
+  protected int packedId(int i) {
+    assert i < length && isPacked();
+    final long context = i < 2 ? context0 : context1;
+    return (int) (context >>> (32 * (i & 1)));
+  }
+
+  /**
+   * The word ids of the context.
+   *
+   * @return
+   */
+  protected int[] contextIds() {
+    if (context != null) return context;
+    int[] ids = new int[length];
+    copyState(ids, 0);
+    return ids;
+  }
+
+  /**
+   * Copy the word ids of the context to an array.
+   *
+   * @param dest
+   * @param offset
+   */
+  public void copyState(int[] dest, int offset) {
+    if (context != null) {
+      System.arraycopy(context, 0, dest, offset, length);
+    } else {
+      for (int i = 0; i < length; ++i) dest[offset + i] = packedId(i);
+    }
+  }
+
+  /**
+   * Compare full contexts. Only called for contexts that are not packed and have
+   * equal hashes.
+   *
+   * @param other
+   * @return
+   */
+  protected boolean contextEquals(LMState other) {
+    return Arrays.equals(context, other.context);
+  }
+
+  /**
+   * True if the two states have the same context. The states must come from
+   * the same language model.
+   *
+   * @param other
+   * @return
+   */
+  public boolean sameContext(LMState other) {
+    return context0 == other.context0 && context1 == other.context1 && length == other.length
+        && (isPacked() || contextEquals(other));
+  }
+
+  /**
+   * 64-bit hash of the context.
+   *
+   * @return
+   */
+  public long longHashCode() {
+    // Final avalanche from MurmurHash3 (fmix64)
+    long h = context0 * 0x9e3779b97f4a7c15L + context1 + length;
+    h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+    h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    } else if (other == null || other.getClass() != getClass()) {
+      return false;
+    } else {
+      return sameContext((LMState) other);
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    final long h = longHashCode();
+    return (int) (h ^ (h >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%.6f (%s)", score, Arrays.toString(contextIds()));
+  }
 }
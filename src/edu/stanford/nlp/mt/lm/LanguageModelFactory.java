@@ -16,6 +16,7 @@ public final class LanguageModelFactory {
 
   // Supported language models
   public static final String KEN_LM_TAG = "kenlm:";
+  public static final String NPLM_TAG = "nplm:";
 
   public static final int MAX_NGRAM_ORDER = 10;
 
@@ -27,6 +28,10 @@ public final class LanguageModelFactory {
       String realFilename = filename.substring(KEN_LM_TAG.length());
       languageModel = new KenLanguageModel(realFilename);
 
+    } else if (filename.startsWith(NPLM_TAG)) {
+      String realFilename = filename.substring(NPLM_TAG.length());
+      languageModel = new NPLMLanguageModel(realFilename);
+
     } else {
       // Default Java LM data structure
       languageModel = new ARPALanguageModel(filename);
@@ -0,0 +1,45 @@
+package edu.stanford.nlp.mt.lm;
+
+/**
+ * Scores fixed-order n-grams of model word ids. Implemented by <code>NPLM</code>.
+ */
+interface NGramScorer {
+
+  /**
+   * The n-gram order.
+   *
+   * @return
+   */
+  public int order();
+
+  /**
+   * Maps a word to a model id.
+   *
+   * @param token
+   * @return
+   */
+  public int nplmIndex(String token);
+
+  /**
+   * The model id of the start symbol.
+   *
+   * @return
+   */
+  public int BeginSentence();
+
+  /**
+   * Score one n-gram.
+   *
+   * @param ngram
+   * @return
+   */
+  public double scoreNgram(int[] ngram);
+
+  /**
+   * Score many n-grams.
+   *
+   * @param ngrams
+   * @return
+   */
+  public double[] scoreNgrams(int[][] ngrams);
+}
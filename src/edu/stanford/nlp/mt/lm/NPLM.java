@@ -11,7 +11,7 @@ import java.util.List;
  * @author Thang Luong
  *
  */
-public class NPLM {
+public class NPLM implements NGramScorer {
 
   static {
     System.loadLibrary("PhrasalNPLM");
@@ -0,0 +1,276 @@
+package edu.stanford.nlp.mt.lm;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.MurmurHash2;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.TokenUtils;
+import edu.stanford.nlp.mt.util.Vocabulary;
+
+/**
+ * Decoder interface to the NPLM neural language model.
+ *
+ * Queries can be scored one n-gram at a time, or queued by the decoder and then
+ * scored in mini-batches with <code>NPLM.scoreNgrams()</code>. Scores are
+ * stored in a bounded thread-local cache that the regular <code>score()</code>
+ * path reads.
+ */
+public class NPLMLanguageModel implements BatchedLanguageModel<IString> {
+
+  private static final Logger logger = LogManager.getLogger(NPLMLanguageModel.class.getName());
+
+  public static final long DEFAULT_NPLM_CACHE_SIZE = 0;
+  public static final int DEFAULT_MINI_BATCH_SIZE = 1000;
+  public static final int DEFAULT_SCORE_CACHE_SIZE = 1 << 20;
+
+  private static final int HASH_SEED = 0x4e504c4d;
+  private static final NPLMState ZERO_LENGTH_STATE = new NPLMState(0.0, new int[0]);
+
+  private final NGramScorer model;
+  private final String name;
+  private final int order;
+  private final int scoreCacheSize;
+
+  private final AtomicReference<int[]> istringIdToNPLMId;
+
+  private final AtomicLong numBatches = new AtomicLong();
+  private final AtomicLong numBatchedQueries = new AtomicLong();
+  private final AtomicLong numSingleQueries = new AtomicLong();
+
+  /**
+   * Per-thread query cache and batch queue.
+   */
+  private static class QueryBuffer {
+    final Long2DoubleOpenHashMap scores;
+    final LongOpenHashSet queuedKeys = new LongOpenHashSet();
+    final List<int[]> queuedNgrams = new ArrayList<>();
+    final List<Long> queuedHashes = new ArrayList<>();
+    QueryBuffer(int expectedSize) {
+      this.scores = new Long2DoubleOpenHashMap(expectedSize);
+    }
+  }
+
+  private final ThreadLocal<QueryBuffer> queryBuffer;
+
+  /**
+   * Constructor.
+   *
+   * @param filename
+   */
+  public NPLMLanguageModel(String filename) {
+    this(filename, DEFAULT_NPLM_CACHE_SIZE, DEFAULT_MINI_BATCH_SIZE, DEFAULT_SCORE_CACHE_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param filename
+   * @param nplmCacheSize
+   * @param miniBatchSize
+   * @param scoreCacheSize
+   */
+  public NPLMLanguageModel(String filename, long nplmCacheSize, int miniBatchSize, int scoreCacheSize) {
+    this(new NPLM(filename, nplmCacheSize, miniBatchSize), String.format("NPLM(%s)", filename),
+        scoreCacheSize);
+    logger.info("Loaded {} order: {} mini-batch size: {}", name, order, miniBatchSize);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param model
+   * @param name
+   * @param scoreCacheSize
+   */
+  NPLMLanguageModel(NGramScorer model, String name, int scoreCacheSize) {
+    this.model = model;
+    this.name = name;
+    this.order = model.order();
+    this.scoreCacheSize = scoreCacheSize;
+    this.queryBuffer = ThreadLocal.withInitial(() -> new QueryBuffer(Math.min(scoreCacheSize, 1 << 16)));
+    int[] table = new int[Vocabulary.systemSize()];
+    for (int i = 0; i < table.length; ++i) {
+      table[i] = model.nplmIndex(Vocabulary.systemGet(i));
+    }
+    this.istringIdToNPLMId = new AtomicReference<>(table);
+  }
+
+  /**
+   * Maps the IString id to an NPLM id. If the IString id is out of range,
+   * update the mapping.
+   *
+   * @param token
+   * @return
+   */
+  private int toNPLMId(IString token) {
+    int[] map = istringIdToNPLMId.get();
+    if (token.id < map.length) {
+      return map[token.id];
+    }
+    synchronized(this) {
+      map = istringIdToNPLMId.get();
+      if (token.id < map.length) {
+        return map[token.id];
+      }
+      int[] newMap = new int[Vocabulary.systemSize()];
+      System.arraycopy(map, 0, newMap, 0, map.length);
+      for (int i = map.length; i < newMap.length; ++i) {
+        newMap[i] = model.nplmIndex(Vocabulary.systemGet(i));
+      }
+      istringIdToNPLMId.set(newMap);
+      return token.id < newMap.length ? newMap[token.id] : model.nplmIndex(token.toString());
+    }
+  }
+
+  /**
+   * The prior context followed by the sequence, converted to NPLM ids.
+   *
+   * @param sequence
+   * @param priorState
+   * @return
+   */
+  private int[] toHistory(Sequence<IString> sequence, LMState priorState) {
+    final NPLMState context = priorState == null ? ZERO_LENGTH_STATE : (NPLMState) priorState;
+    final int contextLength = context.length();
+    int[] history = new int[contextLength + sequence.size()];
+    context.copyState(history, 0);
+    for (int i = 0, sz = sequence.size(); i < sz; ++i) {
+      history[contextLength + i] = toNPLMId(sequence.get(i));
+    }
+    return history;
+  }
+
+  /**
+   * The n-gram ending at position pos of the history. Missing context is
+   * padded with the start symbol.
+   *
+   * @param history
+   * @param pos
+   * @return
+   */
+  private int[] ngramAt(int[] history, int pos) {
+    int[] ngram = new int[order];
+    for (int i = order - 1, j = pos; i >= 0; --i, --j) {
+      ngram[i] = j >= 0 ? history[j] : model.BeginSentence();
+    }
+    return ngram;
+  }
+
+  @Override
+  public LMState score(Sequence<IString> sequence, int startIndex, LMState priorState) {
+    if (sequence.size() == 0) {
+      // Source deletion rule
+      return priorState == null ? ZERO_LENGTH_STATE : priorState;
+    }
+
+    final int[] history = toHistory(sequence, priorState);
+    final int contextLength = history.length - sequence.size();
+    final QueryBuffer buffer = queryBuffer.get();
+    double score = 0.0;
+    for (int i = startIndex, sz = sequence.size(); i < sz; ++i) {
+      final int[] ngram = ngramAt(history, contextLength + i);
+      final long key = MurmurHash2.hash64(ngram, ngram.length, HASH_SEED);
+      if (buffer.scores.containsKey(key)) {
+        score += buffer.scores.get(key);
+      } else {
+        double ngramScore = model.scoreNgram(ngram);
+        numSingleQueries.incrementAndGet();
+        cache(buffer, key, ngramScore);
+        score += ngramScore;
+      }
+    }
+
+    final int stateLength = Math.min(order - 1, history.length);
+    int[] state = new int[stateLength];
+    System.arraycopy(history, history.length - stateLength, state, 0, stateLength);
+    return new NPLMState(score, state);
+  }
+
+  /**
+   * Insert into the thread-local score cache.
+   *
+   * @param buffer
+   * @param key
+   * @param score
+   */
+  private void cache(QueryBuffer buffer, long key, double score) {
+    if (buffer.scores.size() >= scoreCacheSize) buffer.scores.clear();
+    buffer.scores.put(key, score);
+  }
+
+  @Override
+  public void queue(Sequence<IString> sequence, int startIndex, LMState priorState) {
+    if (sequence.size() == 0) return;
+    final int[] history = toHistory(sequence, priorState);
+    final int contextLength = history.length - sequence.size();
+    final QueryBuffer buffer = queryBuffer.get();
+    for (int i = startIndex, sz = sequence.size(); i < sz; ++i) {
+      final int[] ngram = ngramAt(history, contextLength + i);
+      final long key = MurmurHash2.hash64(ngram, ngram.length, HASH_SEED);
+      if ( ! buffer.scores.containsKey(key) && buffer.queuedKeys.add(key)) {
+        buffer.queuedNgrams.add(ngram);
+        buffer.queuedHashes.add(key);
+      }
+    }
+  }
+
+  @Override
+  public void flush() {
+    final QueryBuffer buffer = queryBuffer.get();
+    final int numQueries = buffer.queuedNgrams.size();
+    if (numQueries == 0) return;
+
+    final int[][] ngrams = buffer.queuedNgrams.toArray(new int[numQueries][]);
+    final double[] scores = model.scoreNgrams(ngrams);
+    assert scores.length == numQueries;
+    if (buffer.scores.size() + numQueries > scoreCacheSize) buffer.scores.clear();
+    for (int i = 0; i < numQueries; ++i) {
+      buffer.scores.put(buffer.queuedHashes.get(i).longValue(), scores[i]);
+    }
+    buffer.queuedNgrams.clear();
+    buffer.queuedHashes.clear();
+    buffer.queuedKeys.clear();
+    numBatches.incrementAndGet();
+    numBatchedQueries.addAndGet(numQueries);
+  }
+
+  /**
+   * Query statistics (batches, batched n-grams, single n-gram queries).
+   *
+   * @return
+   */
+  public String statistics() {
+    return String.format("batches: %d  batched queries: %d  single queries: %d", numBatches.get(),
+        numBatchedQueries.get(), numSingleQueries.get());
+  }
+
+  @Override
+  public IString getStartToken() {
+    return TokenUtils.START_TOKEN;
+  }
+
+  @Override
+  public IString getEndToken() {
+    return TokenUtils.END_TOKEN;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int order() {
+    return order;
+  }
+}
@@ -0,0 +1,26 @@
+package edu.stanford.nlp.mt.lm;
+
+/**
+ * Result of an NPLMLanguageModel query. The state is the (at most order-1)
+ * NPLM ids of the most recent words in left-to-right order.
+ */
+public class NPLMState extends LMState {
+
+  /**
+   * Constructor.
+   * 
+   * @param score
+   * @param state
+   */
+  public NPLMState(double score, int[] state) {
+    this.score = score;
+    pack(state, 0, state.length);
+  }
+  
+  /**
+   * The context for the next query.
+   * 
+   * @return
+   */
+  public int[] getState() { return contextIds(); }
+}
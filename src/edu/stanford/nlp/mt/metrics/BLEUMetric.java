@@ -27,7 +27,7 @@ import static java.util.stream.Collectors.toList;
  *
  * @param <TK>
  */
-public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
+public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> implements SufficientStatisticsMetric<TK> {
   public static final int DEFAULT_MAX_NGRAM_ORDER = 4;
 
   public static final double LENGTH_BIAS = Double.parseDouble(System
@@ -238,6 +238,56 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
     return new BLEUIncrementalMetricRecombinationFilter<TK, FV>();
   }
 
+  /**
+   * Clipped n-gram matches, possible matches, the candidate length, and the effective
+   * reference length. For smoothed BLEU, the sentence-level score and a count.
+   */
+  @Override
+  public int numSufficientStatistics() {
+    return smooth ? 2 : 2*order + 2;
+  }
+
+  @Override
+  public double[] sufficientStatistics(int sourceId, Sequence<TK> translation) {
+    double[] stats = new double[numSufficientStatistics()];
+    if (translation == null) return stats;
+    if (smooth) {
+      stats[0] = getIncrementalMetric().computeLocalSmoothScore(translation, sourceId);
+      stats[1] = 1.0;
+    } else {
+      Counter<Sequence<TK>> candidateCounts = MetricUtils.getNGramCounts(translation, order);
+      MetricUtils.clipCounts(candidateCounts, maxReferenceCounts.get(sourceId));
+      double[] localCounts = localMatchCounts(candidateCounts, order);
+      final int seqSz = translation.size();
+      for (int i = 0; i < order; ++i) {
+        stats[i] = localCounts[i];
+        stats[order + i] = possibleMatchCounts(i, seqSz);
+      }
+      stats[2*order] = seqSz;
+      stats[2*order + 1] = bestMatchLength(refLengths[sourceId], seqSz);
+    }
+    return stats;
+  }
+
+  @Override
+  public double scoreSufficientStatistics(double[] statistics) {
+    double s;
+    if (smooth) {
+      s = statistics[0] / statistics[1];
+    } else {
+      double ngramPrecisionScore = 0;
+      double wt = 1.0 / order;
+      for (int i = 0; i < order; i++) {
+        ngramPrecisionScore += wt * Math.log(statistics[i] / statistics[order + i]);
+      }
+      double c = statistics[2*order];
+      double r = statistics[2*order + 1];
+      double logBrevityPenalty = c < r ? 1 - r / c : 0.0;
+      s = multiplier * Math.exp(logBrevityPenalty + ngramPrecisionScore);
+    }
+    return (Double.isNaN(s) ? 0 : s);
+  }
+
   private static int maxIncrementalId = 0;
 
   public class BLEUIncrementalMetric implements
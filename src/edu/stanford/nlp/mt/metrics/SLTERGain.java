@@ -3,13 +3,7 @@ package edu.stanford.nlp.mt.metrics;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-
-import com.bbn.mt.terp.TERalignment;
-import com.bbn.mt.terp.TERcalc;
-import com.bbn.mt.terp.TERcost;
 
 import edu.stanford.nlp.mt.tools.NISTTokenizer;
 import edu.stanford.nlp.mt.util.IString;
@@ -27,16 +21,15 @@ public class SLTERGain<TK,FV> implements SentenceLevelMetric<TK, FV> {
 
   public static final int DEFAULT_BEAM_SIZE = 20;
 
-  private final TERcost terCost = new TERcost();
-  private final int beamSize = DEFAULT_BEAM_SIZE;
+  private final ThreadLocal<TranslationEditRate> ter = ThreadLocal.withInitial(() ->
+      new TranslationEditRate(DEFAULT_BEAM_SIZE, TranslationEditRate.DEFAULT_MAX_SHIFT_SIZE,
+          TranslationEditRate.DEFAULT_MAX_SHIFT_DIST));
+  private final TranslationEditRate.ReferenceCache<TK> referenceCache = new TranslationEditRate.ReferenceCache<>();
   
   @Override
   public double score(int sourceId, Sequence<TK> source,
       List<Sequence<TK>> references, Sequence<TK> translation) {
 
-    // uniq references to prevent (expensive) redundant calculation.
-    Set<Sequence<TK>> uniqRefs = new HashSet<Sequence<TK>>(references);
-
     /**
      * This implements TER with length scaling per Chiang's standard
      * transformation of BLEU (see <code>BLEUGain</code>). We also follow
@@ -45,19 +38,14 @@ public class SLTERGain<TK,FV> implements SentenceLevelMetric<TK, FV> {
      * absolute edits is required. Combining these two recommendations amounts to
      * simply ignoring the denominator for the TER calculation.
      */
-    TERcalc terCalc = new TERcalc(terCost);
-    terCalc.BEAM_WIDTH = beamSize;
-    final String hyp = translation.toString();
+    final int[] hyp = TranslationEditRate.toIds(translation);
     double bestTER = Double.POSITIVE_INFINITY;
     int refLen = 0;
-    for (Sequence<TK> refSeq : uniqRefs) {
-      String ref = refSeq.toString();
-      TERalignment align = terCalc.TER(hyp, ref);
-      //        ter = align.numEdits / align.numWords;
-      double ter = align.numEdits;
+    for (TranslationEditRate.Reference ref : referenceCache.get(sourceId, references)) {
+      double ter = this.ter.get().edits(hyp, ref);
       if (ter < bestTER) {
         bestTER = ter;
-        refLen = refSeq.size();
+        refLen = ref.size();
       }
     }
     bestTER /= (double) refLen;
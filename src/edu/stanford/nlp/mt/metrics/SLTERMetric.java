@@ -1,19 +1,15 @@
 package edu.stanford.nlp.mt.metrics;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-
-import com.bbn.mt.terp.TERalignment;
-import com.bbn.mt.terp.TERcost;
-import com.bbn.mt.terp.TERcalc;
 
 import edu.stanford.nlp.mt.util.Sequence;
 
 /**
- * Sentence-level TER metric. Even though this package calls the TERp jar,
- * it is equiavalent to vanilla TER. We don't use the original TER jar, which
- * is not threadsafe.
+ * Sentence-level TER metric. Computes vanilla TER with the in-tree
+ * {@link TranslationEditRate}. Matching is case-insensitive, so the edit counts are the
+ * same as those of the TERp jar with its default normalization.
+ * References are compiled once per input, and each thread keeps its own
+ * dynamic programming buffers.
  *
  * @author danielcer
  * @author Spence Green
@@ -26,8 +22,8 @@ public class SLTERMetric<TK,FV> implements SentenceLevelMetric<TK, FV> {
   public static final int DEFAULT_BEAM_SIZE = 20;
   public static final boolean VERBOSE = false;
 
-  private final TERcost terCost;
-  private final int beamSize;
+  private final ThreadLocal<TranslationEditRate> ter;
+  private final TranslationEditRate.ReferenceCache<TK> referenceCache = new TranslationEditRate.ReferenceCache<>();
   
   /**
    * Constructor.
@@ -42,18 +38,12 @@ public class SLTERMetric<TK,FV> implements SentenceLevelMetric<TK, FV> {
    * @param beamSize
    */
   public SLTERMetric(int beamSize) {
-    terCost = new TERcost();
-    this.beamSize = beamSize; 
+    ter = ThreadLocal.withInitial(() -> new TranslationEditRate(beamSize,
+        TranslationEditRate.DEFAULT_MAX_SHIFT_SIZE, TranslationEditRate.DEFAULT_MAX_SHIFT_DIST));
   }
 
   @Override
   public double score(int sourceId, Sequence<TK> source, List<Sequence<TK>> references, Sequence<TK> translation) {
-    TERcalc terCalc = new TERcalc(terCost);
-    terCalc.BEAM_WIDTH = beamSize;
-    
-    // uniq references to prevent (expensive) redundant calculation.
-    Set<Sequence<TK>> uniqRefs = new HashSet<Sequence<TK>>(references);
-
     /**
      * This implements TERp with length scaling per Chiang's standard
      * transformation of BLEU (see <code>BLEUGain</code>). We also follow
@@ -62,20 +52,16 @@ public class SLTERMetric<TK,FV> implements SentenceLevelMetric<TK, FV> {
      * absolute edits is required. Combining these two recommendations amounts to
      * simply ignoring the denominator for the TER calculation.
      */
-    final String hyp = translation.toString();
+    final int[] hyp = TranslationEditRate.toIds(translation);
     double bestTER = Double.POSITIVE_INFINITY;
-    for (Sequence<TK> refSeq : uniqRefs) {
-      String ref = refSeq.toString();
-      TERalignment align = terCalc.TER(hyp, ref);
-      //        ter = align.numEdits / align.numWords;
-      double ter = align.numEdits;
+    for (TranslationEditRate.Reference ref : referenceCache.get(sourceId, references)) {
+      double ter = this.ter.get().edits(hyp, ref);
       if (ter < bestTER) {
         bestTER = ter;
       }
       if (VERBOSE) {
-        System.err.printf("ref: %s%n", ref);
-        System.err.printf("numEdits: %f%n", align.numEdits);
-        System.err.printf("numWords: %f%n", align.numWords);
+        System.err.printf("numEdits: %f%n", ter);
+        System.err.printf("numWords: %d%n", ref.size());
       }        
     }
     
@@ -0,0 +1,41 @@
+package edu.stanford.nlp.mt.metrics;
+
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * A corpus-level metric whose score is a function of the sum of per-sentence
+ * sufficient statistics (e.g., clipped n-gram matches and lengths for BLEU). Corpus
+ * scores of resampled or permuted test sets can then be computed with vector sums
+ * instead of re-running the metric.
+ *
+ * @param <TK>
+ */
+public interface SufficientStatisticsMetric<TK> {
+
+  /**
+   * The dimension of the sufficient statistics vector.
+   *
+   * @return
+   */
+  public int numSufficientStatistics();
+
+  /**
+   * The sufficient statistics of a translation of the source input with id
+   * <code>sourceId</code>. A null translation has all zero statistics.
+   *
+   * @param sourceId
+   * @param translation
+   * @return
+   */
+  public double[] sufficientStatistics(int sourceId, Sequence<TK> translation);
+
+  /**
+   * The corpus-level score given the sum of the sentence-level sufficient statistics.
+   *
+   * Implementations must be threadsafe.
+   *
+   * @param statistics
+   * @return
+   */
+  public double scoreSufficientStatistics(double[] statistics);
+}
@@ -28,7 +28,7 @@ import com.bbn.mt.terp.NormalizeText;
  * @param <TK>
  * @param <FV>
  */
-public class TERpMetric<TK, FV> extends AbstractMetric<TK, FV> {
+public class TERpMetric<TK, FV> extends AbstractMetric<TK, FV> implements SufficientStatisticsMetric<TK> {
   final List<List<Sequence<TK>>> referencesList;
 
   enum EditType {
@@ -144,6 +144,30 @@ public class TERpMetric<TK, FV> extends AbstractMetric<TK, FV> {
     return 0.0;
   }
 
+  /**
+   * The number of edits and the average reference length.
+   */
+  @Override
+  public int numSufficientStatistics() {
+    return 2;
+  }
+
+  @Override
+  public double[] sufficientStatistics(int sourceId, Sequence<TK> translation) {
+    double[] stats = new double[2];
+    if (translation != null) {
+      TERalignment align = calcTER(translation, sourceId, null);
+      stats[0] = align.numEdits;
+      stats[1] = align.numWords;
+    }
+    return stats;
+  }
+
+  @Override
+  public double scoreSufficientStatistics(double[] statistics) {
+    return -statistics[0] / statistics[1];
+  }
+
   PhraseTable phrasetable;
 
   TERcost costfunc = new TERcost();
@@ -0,0 +1,518 @@
+package edu.stanford.nlp.mt.metrics;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.util.Pair;
+
+/**
+ * Translation edit rate (Snover et al., 2006) over integer tokens. This is a port of the
+ * shift search of the TERp jar with unit edit costs and exact matching, which is what
+ * <code>TERcalc</code> computes with a default <code>TERcost</code>. The jar lowercases its
+ * input by default, and so does {@link #toIds(Sequence)}. With lowercased ids, the number
+ * of edits is identical to the jar for the same beam width and shift limits. The jar's other
+ * text normalization options (punctuation removal, number normalization, etc.) are off by
+ * default and are not supported.
+ *
+ * The dynamic programming buffers are reused across calls, so an instance is not threadsafe.
+ * Use one instance per thread. {@link Reference}s are immutable and can be shared.
+ */
+public class TranslationEditRate {
+
+  public static final int DEFAULT_BEAM_WIDTH = 20;
+  public static final int DEFAULT_MAX_SHIFT_SIZE = 10;
+  public static final int DEFAULT_MAX_SHIFT_DIST = 50;
+
+  private static final int INF = 999999;
+
+  // Backpointers of the edit distance
+  private static final byte NONE = 0;
+  private static final byte MATCH = 1;
+  private static final byte SUB = 2;
+  private static final byte INS = 3;
+  private static final byte DEL = 4;
+
+  // Shifts are packed as (start, end, newloc + 1) so that the natural order of the keys
+  // is the iteration order of the jar.
+  private static final int SHIFT_BITS = 21;
+  private static final long SHIFT_MASK = (1L << SHIFT_BITS) - 1;
+
+  private final int beamWidth;
+  private final int maxShiftSize;
+  private final int maxShiftDist;
+
+  // Reusable buffers
+  private int[] costs = new int[0];
+  private byte[] path = new byte[0];
+  private byte[] ops = new byte[0];
+  private int[] hyp = new int[0];
+  private int[] shifted = new int[0];
+  private int[] bestShifted = new int[0];
+  private boolean[] hypErr = new boolean[0];
+  private boolean[] refErr = new boolean[0];
+  private int[] refAlign = new int[0];
+  private final LongArrayList[] shifts;
+
+  /**
+   * Constructor.
+   */
+  public TranslationEditRate() {
+    this(DEFAULT_BEAM_WIDTH, DEFAULT_MAX_SHIFT_SIZE, DEFAULT_MAX_SHIFT_DIST);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param beamWidth
+   * @param maxShiftSize
+   * @param maxShiftDist
+   */
+  public TranslationEditRate(int beamWidth, int maxShiftSize, int maxShiftDist) {
+    this.beamWidth = beamWidth;
+    this.maxShiftSize = maxShiftSize;
+    this.maxShiftDist = maxShiftDist;
+    this.shifts = new LongArrayList[Math.max(0, maxShiftSize) + 1];
+    for (int i = 0; i < shifts.length; ++i) shifts[i] = new LongArrayList();
+  }
+
+  /**
+   * A reference with an index of the positions of each word.
+   */
+  public static class Reference {
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final int[] words;
+    private final Int2ObjectOpenHashMap<int[]> positions;
+
+    public Reference(int[] words) {
+      this.words = words;
+      Int2ObjectOpenHashMap<IntArrayList> index = new Int2ObjectOpenHashMap<>();
+      for (int i = 0; i < words.length; ++i) {
+        IntArrayList list = index.get(words[i]);
+        if (list == null) {
+          list = new IntArrayList(2);
+          index.put(words[i], list);
+        }
+        list.add(i);
+      }
+      this.positions = new Int2ObjectOpenHashMap<>(index.size());
+      for (Int2ObjectOpenHashMap.Entry<IntArrayList> entry : index.int2ObjectEntrySet()) {
+        positions.put(entry.getIntKey(), entry.getValue().toIntArray());
+      }
+    }
+
+    public <TK> Reference(Sequence<TK> words) {
+      this(toIds(words));
+    }
+
+    public <TK> Reference(Sequence<TK> words, boolean lowercase) {
+      this(toIds(words, lowercase));
+    }
+
+    public int size() { return words.length; }
+
+    private int[] positions(int word) {
+      int[] p = positions.get(word);
+      return p == null ? NO_POSITIONS : p;
+    }
+  }
+
+  /**
+   * Per-sentence cache of the distinct references of each input. This class is threadsafe.
+   *
+   * @param <TK>
+   */
+  public static class ReferenceCache<TK> {
+    private final ConcurrentHashMap<Integer, Pair<List<Sequence<TK>>, Reference[]>> cache =
+        new ConcurrentHashMap<>();
+    private final boolean lowercase;
+
+    /**
+     * Constructor for lowercased references.
+     */
+    public ReferenceCache() {
+      this(true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param lowercase Lowercase the references, as the TERp jar does by default.
+     */
+    public ReferenceCache(boolean lowercase) {
+      this.lowercase = lowercase;
+    }
+
+    /**
+     * The references of an input. The cached entry is rebuilt if the references change.
+     *
+     * @param sourceId
+     * @param references
+     * @return
+     */
+    public Reference[] get(int sourceId, List<Sequence<TK>> references) {
+      Pair<List<Sequence<TK>>, Reference[]> entry = sourceId < 0 ? null : cache.get(sourceId);
+      if (entry != null && (entry.first() == references || entry.first().equals(references))) {
+        return entry.second();
+      }
+      Set<Sequence<TK>> uniqRefs = new LinkedHashSet<>(references);
+      Reference[] compiled = new Reference[uniqRefs.size()];
+      int i = 0;
+      for (Sequence<TK> reference : uniqRefs) compiled[i++] = new Reference(reference, lowercase);
+      if (sourceId >= 0) cache.put(sourceId, new Pair<>(references, compiled));
+      return compiled;
+    }
+  }
+
+  // Lowercased word id + 1 of each IString id, or 0 if it is not known yet. Only grows.
+  private static volatile AtomicIntegerArray lowercaseIds = new AtomicIntegerArray(1 << 12);
+  private static final Object lowercaseLock = new Object();
+
+  /**
+   * The word id of a lowercased <code>IString</code>. The id is computed once per word type,
+   * so the lowercased forms are added to the vocabulary once.
+   *
+   * @param token
+   * @return
+   */
+  private static int lowercaseId(IString token) {
+    final int id = token.id;
+    AtomicIntegerArray table = lowercaseIds;
+    if (id < table.length()) {
+      final int lowerId = table.get(id);
+      if (lowerId > 0) return lowerId - 1;
+    }
+    String word = token.toString();
+    String lower = word.toLowerCase();
+    final int lowerId = lower.equals(word) ? id : new IString(lower).id;
+    synchronized (lowercaseLock) {
+      table = lowercaseIds;
+      if (id >= table.length()) {
+        AtomicIntegerArray newTable = new AtomicIntegerArray(Math.max(id + 1, 2 * table.length()));
+        for (int i = 0, sz = table.length(); i < sz; ++i) newTable.set(i, table.get(i));
+        lowercaseIds = table = newTable;
+      }
+      table.set(id, lowerId + 1);
+    }
+    return lowerId;
+  }
+
+  /**
+   * Word ids of a lowercased sequence, which match case-insensitively like the TERp jar.
+   *
+   * @param sequence
+   * @return
+   */
+  public static <TK> int[] toIds(Sequence<TK> sequence) {
+    return toIds(sequence, true);
+  }
+
+  /**
+   * Word ids of a sequence. Tokens other than <code>IString</code>s are mapped through their
+   * string form.
+   *
+   * @param sequence
+   * @param lowercase
+   * @return
+   */
+  public static <TK> int[] toIds(Sequence<TK> sequence, boolean lowercase) {
+    int[] ids = new int[sequence.size()];
+    for (int i = 0; i < ids.length; ++i) {
+      TK token = sequence.get(i);
+      if (token instanceof IString) {
+        ids[i] = lowercase ? lowercaseId((IString) token) : ((IString) token).id;
+      } else {
+        String word = token.toString();
+        ids[i] = new IString(lowercase ? word.toLowerCase() : word).id;
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * The number of edits, including shifts, that turn a hypothesis into a reference.
+   *
+   * @param hypothesis
+   * @param reference
+   * @return
+   */
+  public int edits(int[] hypothesis, Reference reference) {
+    final int hypLength = hypothesis.length;
+    final int refLength = reference.size();
+    if (hypLength == 0 || refLength == 0) return Math.max(hypLength, refLength);
+    ensureCapacity(hypLength, refLength);
+    System.arraycopy(hypothesis, 0, hyp, 0, hypLength);
+
+    int numShifts = 0;
+    int numEdits = align(hyp, hypLength, reference);
+    findAlignErr(hypLength, refLength);
+    while (bestShift(hypLength, reference, numEdits)) {
+      ++numShifts;
+      System.arraycopy(bestShifted, 0, hyp, 0, hypLength);
+      numEdits = align(hyp, hypLength, reference);
+      findAlignErr(hypLength, refLength);
+    }
+    return numEdits + numShifts;
+  }
+
+  /**
+   * The minimum number of edits against a set of references.
+   *
+   * @param hypothesis
+   * @param references
+   * @return
+   */
+  public int edits(int[] hypothesis, Reference[] references) {
+    int best = Integer.MAX_VALUE;
+    for (Reference reference : references) best = Math.min(best, edits(hypothesis, reference));
+    return best;
+  }
+
+  private void ensureCapacity(int hypLength, int refLength) {
+    final int size = (hypLength + 1) * (refLength + 1);
+    if (costs.length < size) {
+      costs = new int[size];
+      path = new byte[size];
+    }
+    if (ops.length < hypLength + refLength) ops = new byte[hypLength + refLength];
+    if (hyp.length < hypLength) {
+      hyp = new int[hypLength];
+      shifted = new int[hypLength];
+      bestShifted = new int[hypLength];
+      hypErr = new boolean[hypLength];
+    }
+    if (refErr.length < refLength) {
+      refErr = new boolean[refLength];
+      refAlign = new int[refLength];
+    }
+  }
+
+  /**
+   * Beam-limited edit distance with backpointers. Cell (i,j) is reference position i and
+   * hypothesis position j, stored column-major.
+   */
+  private int align(int[] hypothesis, int hypLength, Reference reference) {
+    final int[] ref = reference.words;
+    final int refLength = ref.length;
+    final int stride = refLength + 1;
+    Arrays.fill(costs, 0, stride * (hypLength + 1), -1);
+    Arrays.fill(path, 0, stride * (hypLength + 1), NONE);
+    costs[0] = 0;
+
+    int currentBest = INF;
+    int curFirstGood = 0;
+    int curLastGood = 0;
+    for (int j = 0; j <= hypLength; ++j) {
+      final int lastBest = currentBest;
+      currentBest = INF;
+      final int firstGood = curFirstGood;
+      curFirstGood = -1;
+      int lastGood = curLastGood;
+      curLastGood = -1;
+      final int column = j * stride;
+      for (int i = firstGood; i <= refLength; ++i) {
+        if (j != hypLength && i > lastGood) break;
+        final int score = costs[column + i];
+        if (score < 0) continue;
+        if (j < hypLength && score > lastBest + beamWidth) continue;
+        if (curFirstGood == -1) curFirstGood = i;
+
+        if (i < refLength && j < hypLength) {
+          final int diagonal = column + stride + i + 1;
+          if (ref[i] == hypothesis[j]) {
+            if (costs[diagonal] == -1 || score < costs[diagonal]) {
+              costs[diagonal] = score;
+              path[diagonal] = MATCH;
+            }
+            if (score < currentBest) currentBest = score;
+          } else {
+            final int cost = score + 1;
+            if (costs[diagonal] < 0 || cost < costs[diagonal]) {
+              costs[diagonal] = cost;
+              path[diagonal] = SUB;
+              if (cost < currentBest) currentBest = cost;
+            }
+          }
+        }
+        curLastGood = i + 1;
+
+        final int cost = score + 1;
+        if (j < hypLength) {
+          final int right = column + stride + i;
+          if (costs[right] < 0 || costs[right] > cost) {
+            costs[right] = cost;
+            path[right] = INS;
+          }
+        }
+        if (i < refLength) {
+          final int down = column + i + 1;
+          if (costs[down] < 0 || costs[down] > cost) {
+            costs[down] = cost;
+            path[down] = DEL;
+            if (i >= lastGood) lastGood = i + 1;
+          }
+        }
+      }
+    }
+    return costs[hypLength * stride + refLength];
+  }
+
+  /**
+   * Error flags and the alignment of the reference positions from the backpointers.
+   */
+  private void findAlignErr(int hypLength, int refLength) {
+    final int stride = refLength + 1;
+    int numOps = 0;
+    for (int i = refLength, j = hypLength; i > 0 || j > 0; ) {
+      byte op = path[j * stride + i];
+      ops[numOps++] = op;
+      if (op == MATCH || op == SUB) {
+        --i;
+        --j;
+      } else if (op == DEL) {
+        --i;
+      } else if (op == INS) {
+        --j;
+      } else {
+        throw new IllegalStateException("Invalid alignment path at " + i + "," + j);
+      }
+    }
+    int hpos = -1, rpos = -1;
+    for (int k = numOps - 1; k >= 0; --k) {
+      switch (ops[k]) {
+        case MATCH:
+        case SUB:
+          ++hpos;
+          ++rpos;
+          hypErr[hpos] = ops[k] == SUB;
+          refErr[rpos] = ops[k] == SUB;
+          refAlign[rpos] = hpos;
+          break;
+        case INS:
+          ++hpos;
+          hypErr[hpos] = true;
+          break;
+        case DEL:
+          ++rpos;
+          refErr[rpos] = true;
+          refAlign[rpos] = hpos;
+          break;
+      }
+    }
+  }
+
+  /**
+   * Candidate shifts of exactly matching phrases that fix at least one error, bucketed by size.
+   */
+  private void gatherShifts(int hypLength, Reference reference) {
+    for (LongArrayList bucket : shifts) bucket.clear();
+    if (maxShiftSize <= 0 || maxShiftDist <= 0) return;
+    final int[] ref = reference.words;
+    final int refLength = ref.length;
+    for (int hi = 0; hi < hypLength; ++hi) {
+      for (int rj : reference.positions(hyp[hi])) {
+        boolean anyHypErr = false, anyRefErr = false;
+        for (int len = 0; len < maxShiftSize; ++len) {
+          final int hp = hi + len, rp = rj + len;
+          if (hp >= hypLength || rp >= refLength || hyp[hp] != ref[rp]) break;
+          anyHypErr |= hypErr[hp];
+          anyRefErr |= refErr[rp];
+          if (!anyHypErr || !anyRefErr) continue;
+          final int moveto = refAlign[rj];
+          if (moveto >= hi && moveto <= hp) continue;
+          if (moveto - hi > maxShiftDist || hi - moveto > maxShiftDist) continue;
+          for (int roff = -1; roff <= hp - hi; ++roff) {
+            if (roff == -1 && rj == 0) {
+              shifts[len].add(shiftKey(hi, hp, -1));
+            } else if (rj + roff >= 0 && rj + roff < refLength && hi != refAlign[rj + roff]
+                && (roff == 0 || refAlign[rj + roff] != refAlign[rj])) {
+              shifts[len].add(shiftKey(hi, hp, refAlign[rj + roff]));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static long shiftKey(int start, int end, int newloc) {
+    return ((long) start << (2 * SHIFT_BITS)) | ((long) end << SHIFT_BITS) | (newloc + 1);
+  }
+
+  /**
+   * Find the shift with the largest reduction in edits and write the shifted hypothesis
+   * to <code>bestShifted</code>. Longer shifts are tried first.
+   */
+  private boolean bestShift(int hypLength, Reference reference, int numEdits) {
+    gatherShifts(hypLength, reference);
+    boolean anyGain = false;
+    int bestEdits = numEdits;
+    int bestCost = 0;
+    for (int i = shifts.length - 1; i >= 0; --i) {
+      final int maxFix = 2 * (1 + i);
+      int curFix = numEdits - (bestCost + bestEdits);
+      if (curFix > maxFix || (bestCost != 0 && curFix == maxFix)) break;
+      final LongArrayList bucket = shifts[i];
+      final long[] keys = bucket.elements();
+      final int size = bucket.size();
+      Arrays.sort(keys, 0, size);
+      for (int k = 0; k < size; ++k) {
+        if (k > 0 && keys[k] == keys[k-1]) continue;
+        curFix = numEdits - (bestCost + bestEdits);
+        if (curFix > maxFix || (bestCost != 0 && curFix == maxFix)) break;
+        final int start = (int) (keys[k] >>> (2 * SHIFT_BITS));
+        final int end = (int) ((keys[k] >>> SHIFT_BITS) & SHIFT_MASK);
+        final int newloc = (int) (keys[k] & SHIFT_MASK) - 1;
+        performShift(hyp, hypLength, start, end, newloc, shifted);
+        final int tryEdits = align(shifted, hypLength, reference);
+        final int gain = (bestEdits + bestCost) - (tryEdits + 1);
+        if (gain > 0 || (bestCost == 0 && gain == 0)) {
+          anyGain = true;
+          bestEdits = tryEdits;
+          bestCost = 1;
+          System.arraycopy(shifted, 0, bestShifted, 0, hypLength);
+        }
+      }
+    }
+    return anyGain;
+  }
+
+  /**
+   * Move the words <code>[start, end]</code> to after position <code>newloc</code>.
+   */
+  private static void performShift(int[] words, int length, int start, int end, int newloc, int[] out) {
+    int n = 0;
+    if (newloc == -1) {
+      for (int i = start; i <= end; ++i) out[n++] = words[i];
+      for (int i = 0; i < start; ++i) out[n++] = words[i];
+      for (int i = end + 1; i < length; ++i) out[n++] = words[i];
+    } else if (newloc < start) {
+      for (int i = 0; i <= newloc; ++i) out[n++] = words[i];
+      for (int i = start; i <= end; ++i) out[n++] = words[i];
+      for (int i = newloc + 1; i < start; ++i) out[n++] = words[i];
+      for (int i = end + 1; i < length; ++i) out[n++] = words[i];
+    } else if (newloc > end) {
+      for (int i = 0; i < start; ++i) out[n++] = words[i];
+      for (int i = end + 1; i <= newloc; ++i) out[n++] = words[i];
+      for (int i = start; i <= end; ++i) out[n++] = words[i];
+      for (int i = newloc + 1; i < length; ++i) out[n++] = words[i];
+    } else {
+      // The jar shifts a copy, so positions past the end keep their words
+      System.arraycopy(words, 0, out, 0, length);
+      final int offset = newloc - start;
+      for (int i = 0; i < start; ++i) out[n++] = words[i];
+      for (int i = end + 1; i < length && i <= end + offset; ++i) out[n++] = words[i];
+      for (int i = start; i <= end; ++i) out[n++] = words[i];
+      for (int i = end + offset + 1; i < length; ++i) out[n++] = words[i];
+    }
+  }
+}
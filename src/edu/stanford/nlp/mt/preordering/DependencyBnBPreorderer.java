@@ -1,5 +1,7 @@
 package edu.stanford.nlp.mt.preordering;
 
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -34,29 +36,83 @@ import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.trees.LabeledScoredTreeNode;
 import edu.stanford.nlp.trees.Tree;
 import edu.stanford.nlp.util.CollectionUtils;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.PropertiesUtils;
 import edu.stanford.nlp.util.StringUtils;
-
+import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
+import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
+
+/**
+ * Implements the dependency tree-based preordering method
+ * described by Jehl et al., EACL 2014.
+ * 
+ * Instances are threadsafe once the model has been loaded. Pairwise classifier 
+ * probabilities are computed once per pair of sibling nodes with int-indexed
+ * features, and then reused by the branch-and-bound search. The left-right cross
+ * features are looked up by the ids of their left and right parts.
+ * 
+ * @author Sebastian Schuster
+ */
 public class DependencyBnBPreorderer {
 
+  private static final double  REG_STRENGTH = 1.5;
   
-  private static Set<String> mostFrequentTokens;
+  // Permutation search is exponential in the number of children
+  private static final int MAX_SEARCH_CHILDREN = 8;
+  
+  private final AbstractWordClassMap classMap;
+
+  private Set<String> mostFrequentTokens;
 
-  private static LogisticClassifier<Integer, String> classifier;
+  private LogisticClassifier<Integer, String> classifier;
   
-  private static AbstractWordClassMap classMap;
+  // Int-indexed view of the classifier
+  private Index<String> featureIndex;
+  private double[] weights;
+  private double positiveSign;
   
-  private static final double  REG_STRENGTH = 1.5;
+  // Left and right parts of the cross features, and the cross feature id of each pair of parts
+  private Index<String> crossPartIndex;
+  private Long2IntOpenHashMap crossFeatureIds;
   
+  /**
+   * Constructor for training.
+   * 
+   * @param classMap
+   */
+  private DependencyBnBPreorderer(AbstractWordClassMap classMap) {
+    this.classMap = classMap;
+  }
   
   /**
-   * Implements the dependency tree-based preordering method
-   * described by Jehl et al., EACL 2014.
+   * Constructor. Loads a trained model.
    * 
-   * @author Sebastian Schuster
+   * @param modelFile
+   * @param classMapFile
+   * @throws IOException
+   * @throws ClassNotFoundException
    */
+  public DependencyBnBPreorderer(String modelFile, String classMapFile) throws IOException, ClassNotFoundException {
+    this.classMap = new LocalWordClassMap();
+    this.classMap.load(classMapFile);
+    loadModel(modelFile);
+  }
   
+  /**
+   * Constructor for a trained classifier.
+   * 
+   * @param classMap
+   * @param mostFrequentTokens
+   * @param classifier
+   */
+  DependencyBnBPreorderer(AbstractWordClassMap classMap, Set<String> mostFrequentTokens,
+      LogisticClassifier<Integer, String> classifier) {
+    this.classMap = classMap;
+    this.mostFrequentTokens = mostFrequentTokens;
+    if (classifier != null) setClassifier(classifier);
+  }
   
   /**
    * 
@@ -155,7 +211,60 @@ public class DependencyBnBPreorderer {
     
   }
   
-  private static String preorder(Tree tree) {
+  /**
+   * Preorder a source sentence given its dependency parse (as returned by
+   * <code>DependencyUtils.getDependenciesFromCoNLLFileReader</code> with one-indexed
+   * tokens). Returns the preordered sentence.
+   * 
+   * @param dependencies
+   * @return
+   */
+  public String preorder(HashMap<Integer, Pair<IndexedWord, List<Integer>>> dependencies) {
+    return preorder(generateShallowTree(dependencies));
+  }
+  
+  /**
+   * Preorder a batch of source sentences in parallel. The output is in input order.
+   * 
+   * @param batch
+   * @param numThreads
+   * @return
+   */
+  public List<String> preorder(List<HashMap<Integer, Pair<IndexedWord, List<Integer>>>> batch, int numThreads) {
+    MulticoreWrapper<HashMap<Integer, Pair<IndexedWord, List<Integer>>>, String> wrapper = 
+        new MulticoreWrapper<>(numThreads, new Processor(this), true);
+    List<String> preorderedSentences = new ArrayList<>(batch.size());
+    for (HashMap<Integer, Pair<IndexedWord, List<Integer>>> dependencies : batch) {
+      wrapper.put(dependencies);
+      while (wrapper.peek()) preorderedSentences.add(wrapper.poll());
+    }
+    wrapper.join();
+    while (wrapper.peek()) preorderedSentences.add(wrapper.poll());
+    return preorderedSentences;
+  }
+  
+  /**
+   * Wrapper for parallel preordering.
+   */
+  private static class Processor implements ThreadsafeProcessor<HashMap<Integer, Pair<IndexedWord, List<Integer>>>, String> {
+    private final DependencyBnBPreorderer preorderer;
+    
+    public Processor(DependencyBnBPreorderer preorderer) {
+      this.preorderer = preorderer;
+    }
+    
+    @Override
+    public String process(HashMap<Integer, Pair<IndexedWord, List<Integer>>> dependencies) {
+      return preorderer.preorder(dependencies);
+    }
+
+    @Override
+    public ThreadsafeProcessor<HashMap<Integer, Pair<IndexedWord, List<Integer>>>, String> newInstance() {
+      return this;
+    }
+  }
+  
+  private String preorder(Tree tree) {
     
     List<Tree> queue = new LinkedList<>();
     queue.add(tree);
@@ -169,19 +278,15 @@ public class DependencyBnBPreorderer {
       
       Tree children[] = currentNode.children();
       int childCount = children.length;
-      IndexedWord hw = (IndexedWord) currentNode.label();
-      List<FeatureNode> featureNodes = new ArrayList<>(childCount);
       for (int i = 0; i < childCount; i++) {
-        featureNodes.add(new FeatureNode(children[i], hw));
         queue.add(children[i]);
       }
-      if (childCount < 8) {
-        Pair<Double, List<Integer>> result = search(featureNodes, new LinkedList<Integer>(), Double.NEGATIVE_INFINITY);
-        if (result != null) {
-          List<Integer> permutation = result.second;
+      if (childCount < MAX_SEARCH_CHILDREN) {
+        int[] permutation = permutation(currentNode);
+        if (permutation != null) {
           List<Tree> newChildren = new ArrayList<>(Arrays.asList(children));
           for (int i = 0; i < childCount; i++) {
-            int idx = permutation.get(i);
+            int idx = permutation[i];
             newChildren.set(idx, children[i]);
           }
           currentNode.setChildren(newChildren);
@@ -194,8 +299,92 @@ public class DependencyBnBPreorderer {
     return StringUtils.join(tree.yieldWords());
   }
   
-
-  private static List<TrainingExample> generateTrainingExamples(Tree tree, SymmetricalWordAlignment alignment) {
+  /**
+   * The best permutation of the children of a node, or null if no permutation has a
+   * finite score.
+   * 
+   * @param node
+   * @return
+   */
+  int[] permutation(Tree node) {
+    Tree children[] = node.children();
+    IndexedWord hw = (IndexedWord) node.label();
+    List<FeatureNode> featureNodes = new ArrayList<>(children.length);
+    for (Tree child : children) featureNodes.add(new FeatureNode(child, hw));
+    return search(pairScores(featureNodes));
+  }
+  
+  /**
+   * The classifier probability of label 1 for placing node a before its sibling b.
+   * 
+   * @param a
+   * @param b
+   * @param hw The head word.
+   * @return
+   */
+  double probabilityOfSwap(Tree a, Tree b, IndexedWord hw) {
+    return probabilityOfSwap(new FeatureNode(a, hw), new FeatureNode(b, hw));
+  }
+  
+  /**
+   * The classifier features for placing node a before its sibling b.
+   * 
+   * @param a
+   * @param b
+   * @param hw The head word.
+   * @return
+   */
+  List<String> pairFeatures(Tree a, Tree b, IndexedWord hw) {
+    return new TrainingExample(new FeatureNode(a, hw), new FeatureNode(b, hw), 0).extractFeatures();
+  }
+  
+  /**
+   * Computes the score of placing node i before node j for every pair
+   * of sibling nodes.
+   * 
+   * @param nodes
+   * @return
+   */
+  private double[][] pairScores(List<FeatureNode> nodes) {
+    final int size = nodes.size();
+    double[][] scores = new double[size][size];
+    for (int i = 0; i < size; ++i) {
+      FeatureNode fn1 = nodes.get(i);
+      for (int j = 0; j < size; ++j) {
+        if (i == j) continue;
+        FeatureNode fn2 = nodes.get(j);
+        double p = probabilityOfSwap(fn1, fn2);
+        scores[i][j] = i > j ? Math.log(p) : Math.log(1 - p);
+      }
+    }
+    return scores;
+  }
+  
+  /**
+   * The classifier probability of label 1 for an ordered pair of nodes. Equivalent to 
+   * <code>classifier.probabilityOf(new TrainingExample(a, b, 0).extractFeatures(), 1)</code>.
+   * 
+   * @param a
+   * @param b
+   * @return
+   */
+  private double probabilityOfSwap(FeatureNode a, FeatureNode b) {
+    double score = 0.0;
+    for (int id : a.leftFeatureIds) if (id >= 0) score += weights[id];
+    for (int id : b.rightFeatureIds) if (id >= 0) score += weights[id];
+    for (int l : a.leftCrossPartIds) {
+      if (l < 0) continue;
+      final long key = ((long) l) << 32;
+      for (int r : b.rightCrossPartIds) {
+        if (r < 0) continue;
+        int id = crossFeatureIds.get(key | r);
+        if (id >= 0) score += weights[id];
+      }
+    }
+    return 1.0 / (1.0 + Math.exp(positiveSign * score));
+  }
+  
+  private List<TrainingExample> generateTrainingExamples(Tree tree, SymmetricalWordAlignment alignment) {
     List<TrainingExample> examples = new LinkedList<>();
     
     if (tree.isLeaf()) return examples;
@@ -229,7 +418,7 @@ public class DependencyBnBPreorderer {
   }
   
   
-  private static Tree generateShallowTree(HashMap<Integer, Pair<IndexedWord, List<Integer>>> dependencies) {
+  static Tree generateShallowTree(HashMap<Integer, Pair<IndexedWord, List<Integer>>> dependencies) {
     
     if (dependencies.get(0) == null || dependencies.get(0).second.isEmpty()) {
       return new LabeledScoredTreeNode();
@@ -261,96 +450,47 @@ public class DependencyBnBPreorderer {
     return mostFrequentTokens;
   }
   
-  private static Pair<Double, List<Integer>> search(List<FeatureNode> nodes, List<Integer> partialPermutation, double bound) {
-    
-    double score = scorePermutation(nodes, partialPermutation);
-    List<Integer> bestPath = null;
-    if (score > bound) {
-      if (nodes.size() == partialPermutation.size()) {
-        bound = score;
-        bestPath = partialPermutation;
-        return new Pair<Double, List<Integer>>(score, bestPath);
-      } else {
-        int size = nodes.size();
-        Set<Integer> fixedPositions = new HashSet<>(partialPermutation);
-        Pair<Double, List<Integer>> retValue = null;
-        for (int i = 0; i < size; i++) {
-          if ( ! fixedPositions.contains(i)) {
-            List<Integer> perm = new LinkedList<>(partialPermutation);
-            perm.add(i);
-            Pair<Double, List<Integer>> result = search(nodes, perm, bound);
-            if (result != null) {
-              bound = result.first;
-              bestPath = result.second;
-              retValue = result;
-            }
-          }
-        }
-        if (retValue != null)
-          return retValue;
-      }
-    }
-    return null;
+  /**
+   * Branch-and-bound search for the best permutation given memoized pairwise
+   * scores. Returns null if no permutation has a finite score.
+   * 
+   * @param pairScores
+   * @return
+   */
+  private static int[] search(double[][] pairScores) {
+    final int size = pairScores.length;
+    SearchResult result = new SearchResult();
+    search(pairScores, new int[size], 0, new boolean[size], 0.0, result);
+    return result.permutation;
   }
   
-  
-  private static double scorePermutation(List<FeatureNode> nodes, List<Integer> permutation) {
-    
-    int size = permutation.size();
-    
-    assert size <= nodes.size();
-    
-    double score = 0.0;
-    for (int i = 0; i < size; i++) {
-      FeatureNode fn1 = nodes.get(permutation.get(i));
-      for (int j = i + 1; j < size; j++) {
-       FeatureNode fn2 = nodes.get(permutation.get(j));
-       
-       TrainingExample example = new TrainingExample(fn1, fn2, 0);
-       List<String> features = example.extractFeatures();
-       double p = classifier.probabilityOf(features, 1);
-       double p_inv = 1 - p;
-       if (permutation.get(i) > permutation.get(j)) {
-         score += Math.log(p);
-       } else {
-         score += Math.log(p_inv);
-       }
+  private static void search(double[][] pairScores, int[] partialPermutation, int length, 
+      boolean[] fixedPositions, double score, SearchResult result) {
+    if (score <= result.bound) return;
+    if (length == partialPermutation.length) {
+      result.bound = score;
+      result.permutation = partialPermutation.clone();
+      return;
+    }
+    for (int i = 0; i < partialPermutation.length; ++i) {
+      if (fixedPositions[i]) continue;
+      double extendedScore = score;
+      for (int k = 0; k < length; ++k) {
+        extendedScore += pairScores[partialPermutation[k]][i];
       }
+      partialPermutation[length] = i;
+      fixedPositions[i] = true;
+      search(pairScores, partialPermutation, length + 1, fixedPositions, extendedScore, result);
+      fixedPositions[i] = false;
     }
-    return score;
   }
   
-  
-  
-  private static double scorePartialPermuation(List<FeatureNode> nodes, List<Integer> partialPermutation, int i) {
-    Set<Integer> fixedPositions = new HashSet<>(partialPermutation);
-    
-    int childCount = nodes.size();
-    
-    FeatureNode fn1 = nodes.get(i);
-    
-    double score = 0.0;
-
-    for (int j = 0; j < childCount; j++) {
-      if (i == j || fixedPositions.contains(j))
-        continue;
-      FeatureNode fn2 = nodes.get(j);
-      TrainingExample example = new TrainingExample(fn1, fn2, 0);
-      List<String> features = example.extractFeatures();
-      double p = classifier.probabilityOf(features, 1);
-      double p_inv = 1 - p;
-
-      if (i > j) {
-        score += Math.log(p);
-      } else {
-        score += Math.log(p_inv);
-      }
-    }
-    
-    return score;
+  private static class SearchResult {
+    double bound = Double.NEGATIVE_INFINITY;
+    int[] permutation = null;
   }
   
-  private static void saveModel(String path) throws IOException {
+  private void saveModel(String path) throws IOException {
     
     Model model = new Model(classifier, mostFrequentTokens);
     
@@ -362,16 +502,38 @@ public class DependencyBnBPreorderer {
   }
   
   
-  private static void loadModel(String path) throws IOException, ClassNotFoundException {
+  private void loadModel(String path) throws IOException, ClassNotFoundException {
     FileInputStream fis = new FileInputStream(path);
     ObjectInputStream ois = new ObjectInputStream(fis);
     Model model = (Model) ois.readObject();
-    classifier = model.classifier;
+    setClassifier(model.classifier);
     mostFrequentTokens = model.mostFrequentTokens;
     ois.close();
     fis.close();
   }
   
+  private void setClassifier(LogisticClassifier<Integer, String> classifier) {
+    this.classifier = classifier;
+    this.featureIndex = classifier.getFeatureIndex();
+    this.weights = classifier.getWeights();
+    this.positiveSign = Integer.valueOf(1).equals(classifier.getLabelForInternalNegativeClass()) ? 1.0 : -1.0;
+    
+    // Split each cross feature l_r into its parts. Feature values may contain the
+    // separator, so every split is indexed. All splits concatenate to the feature.
+    this.crossPartIndex = new HashIndex<>();
+    this.crossFeatureIds = new Long2IntOpenHashMap();
+    crossFeatureIds.defaultReturnValue(-1);
+    for (int id = 0, sz = featureIndex.size(); id < sz; ++id) {
+      String feature = featureIndex.get(id);
+      if ( ! feature.startsWith("l:")) continue;
+      for (int i = feature.indexOf("_r:"); i >= 0; i = feature.indexOf("_r:", i + 1)) {
+        long l = crossPartIndex.addToIndex(feature.substring(0, i));
+        int r = crossPartIndex.addToIndex(feature.substring(i + 1));
+        crossFeatureIds.put((l << 32) | r, id);
+      }
+    }
+  }
+  
   
   /**
    * Command-line option specification.
@@ -389,6 +551,7 @@ public class DependencyBnBPreorderer {
     optionArgDefs.put("devTargetSentences", 1);
     optionArgDefs.put("devAlignment", 1);
     optionArgDefs.put("devDependencies", 1);
+    optionArgDefs.put("threads", 1);
 
     return optionArgDefs;
   }
@@ -406,7 +569,7 @@ public class DependencyBnBPreorderer {
 
     
     if (dependencyFile == null || modelFile == null || classMapFile == null) {
-      System.err.println("Usage: java " + DependencyBnBPreorderer.class.getName() + " -dependencies path_to_conll_file -model file  -classMap file [-train -sourceSentences file -targetSentences file -alignment file -devSourceSentences file -devTargetSentences file -devAlignment file -devDependencies file]");
+      System.err.println("Usage: java " + DependencyBnBPreorderer.class.getName() + " -dependencies path_to_conll_file -model file  -classMap file [-threads num] [-train -sourceSentences file -targetSentences file -alignment file -devSourceSentences file -devTargetSentences file -devAlignment file -devDependencies file]");
       return;
     }
     
@@ -416,9 +579,6 @@ public class DependencyBnBPreorderer {
     
     HashMap<Integer, Pair<IndexedWord, List<Integer>>> dependencies = null;
    
-    
-    classMap = new LocalWordClassMap();
-    classMap.load(classMapFile);
 
     
     if (train) {
@@ -437,10 +597,14 @@ public class DependencyBnBPreorderer {
         return;
       }
       
+      AbstractWordClassMap classMap = new LocalWordClassMap();
+      classMap.load(classMapFile);
+      DependencyBnBPreorderer preorderer = new DependencyBnBPreorderer(classMap);
+      
       LineNumberReader sourceTokenReader = IOTools.getReaderFromFile(sourceTokenFile);
       
       /* Compute most frequent tokens and reset sourceTokenReader */
-      mostFrequentTokens = getMostFrequentTokens(sourceTokenReader);
+      preorderer.mostFrequentTokens = getMostFrequentTokens(sourceTokenReader);
           
       sourceTokenReader.close();   
       
@@ -497,7 +661,7 @@ public class DependencyBnBPreorderer {
         
         //System.err.println(tree.yield());
         
-        List<TrainingExample> trainingExamples = generateTrainingExamples(tree, alignment);
+        List<TrainingExample> trainingExamples = preorderer.generateTrainingExamples(tree, alignment);
         
         
         for (TrainingExample ex : trainingExamples) {
@@ -523,7 +687,7 @@ public class DependencyBnBPreorderer {
         
         //System.err.println(tree.yield());
         
-        List<TrainingExample> trainingExamples = generateTrainingExamples(tree, alignment);
+        List<TrainingExample> trainingExamples = preorderer.generateTrainingExamples(tree, alignment);
         
         for (TrainingExample ex : trainingExamples) {
           //System.err.println(ex.label);
@@ -537,10 +701,10 @@ public class DependencyBnBPreorderer {
       
       LogisticClassifierFactory<Integer,String> lcf = new LogisticClassifierFactory<Integer,String>();
       
-      classifier = lcf.trainClassifier(dataset, REG_STRENGTH);
-
+      LogisticClassifier<Integer, String> classifier = lcf.trainClassifier(dataset, REG_STRENGTH);
+      preorderer.setClassifier(classifier);
       
-      saveModel(modelFile);
+      preorderer.saveModel(modelFile);
       
       int correct = 0;
       int count = 0;
@@ -629,7 +793,7 @@ public class DependencyBnBPreorderer {
         //System.out.println("Original: " + tree.yieldWords());
         int OCS = computeCrossingLinks(tree.yield(), alignment);
         //System.out.println("Reordered: " + preorder(tree));
-        preorder(tree);
+        preorderer.preorder(tree);
         int PCS = computeCrossingLinks(tree.yield(), alignment);
         //System.out.println("Crossing score, before: " + OCS + ", after: " + PCS);
         totalOriginalCrossingScore += OCS;
@@ -646,18 +810,17 @@ public class DependencyBnBPreorderer {
       // load model
       // reorder trees and print them
       System.err.println("Loading model from " + modelFile);
-      loadModel(modelFile);
+      DependencyBnBPreorderer preorderer = new DependencyBnBPreorderer(modelFile, classMapFile);
+      int numThreads = PropertiesUtils.getInt(options, "threads", 1);
       
+      MulticoreWrapper<HashMap<Integer, Pair<IndexedWord, List<Integer>>>, String> wrapper = 
+          new MulticoreWrapper<>(numThreads, new Processor(preorderer), true);
       while ((dependencies = DependencyUtils.getDependenciesFromCoNLLFileReader(dependencyReader, false, false)) != null) {
-
-        Tree tree = generateShallowTree(dependencies);
-        //tree.pennPrint(System.err);
-        
-        //System.err.println(tree.yield());
-        
-        
-        System.out.println(preorder(tree));
-      }  
+        wrapper.put(dependencies);
+        while (wrapper.peek()) System.out.println(wrapper.poll());
+      }
+      wrapper.join();
+      while (wrapper.peek()) System.out.println(wrapper.poll());
      
       
     }
@@ -683,8 +846,8 @@ public class DependencyBnBPreorderer {
     List<String> extractFeatures() {
       List<String> features = new LinkedList<>();
       
-      List<String> leftFeatures = a.extractFeatures("l");
-      List<String> rightFeatures = b.extractFeatures("r");
+      List<String> leftFeatures = a.leftFeatures;
+      List<String> rightFeatures = b.rightFeatures;
       
 //      for (int i = 0, lfc = leftFeatures.size(); i < lfc; i++) {
 //        for (int j = i + 1; j < lfc; j++) {
@@ -711,7 +874,7 @@ public class DependencyBnBPreorderer {
     
   }
   
-  private static class FeatureNode {
+  private class FeatureNode {
     
     IndexedWord word;
     
@@ -727,27 +890,48 @@ public class DependencyBnBPreorderer {
     /* Distance between the word and the head. */
     int dst;
     
+    /* Features of this node in the left and right positions. */
+    final List<String> leftFeatures;
+    final List<String> rightFeatures;
+    final int[] leftFeatureIds;
+    final int[] rightFeatureIds;
+    final int[] leftCrossPartIds;
+    final int[] rightCrossPartIds;
+    
     FeatureNode(IndexedWord word, IndexedWord hw, IndexedWord lm, IndexedWord rm, int dst) {
       this.word = word;
       this.hw = hw;
       this.lm = lm;
       this.rm = rm;
       this.dst = dst;
+      this.leftFeatures = extractFeatures("l");
+      this.rightFeatures = extractFeatures("r");
+      this.leftFeatureIds = indexFeatures(leftFeatures, featureIndex);
+      this.rightFeatureIds = indexFeatures(rightFeatures, featureIndex);
+      this.leftCrossPartIds = indexFeatures(leftFeatures, crossPartIndex);
+      this.rightCrossPartIds = indexFeatures(rightFeatures, crossPartIndex);
     }
     
     FeatureNode(Tree node, IndexedWord hw) {
-      
-      List<Label> yield = node.yield();
-      
-      this.word = (IndexedWord) node.label();
-      this.hw = hw;
-      this.lm = (IndexedWord) yield.get(0);
-      this.rm = (IndexedWord) yield.get(yield.size() - 1);
-      this.dst = hw.index() - this.word.index();
+      this(node, node.yield(), hw);
+    }
+    
+    private FeatureNode(Tree node, List<Label> yield, IndexedWord hw) {
+      this((IndexedWord) node.label(), hw, (IndexedWord) yield.get(0), 
+          (IndexedWord) yield.get(yield.size() - 1), hw.index() - ((IndexedWord) node.label()).index());
+    }
+    
+    /* Feature ids, or -1 for unknown features. Null during training. */
+    private int[] indexFeatures(List<String> features, Index<String> index) {
+      if (index == null) return null;
+      int[] ids = new int[features.size()];
+      int i = 0;
+      for (String f : features) ids[i++] = index.indexOf(f);
+      return ids;
     }
     
     List<String> extractFeatures(String prefix) {
-      List<String> features = new LinkedList<>();
+      List<String> features = new ArrayList<>(9);
       //dependency label
       features.add(prefix + ":l:" + this.word.lemma());
       //POS tag
@@ -2,11 +2,14 @@ package edu.stanford.nlp.mt.tm;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.util.CoverageSet;
 import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.InputProperty;
 import edu.stanford.nlp.mt.util.Sequence;
 
 
@@ -42,24 +45,53 @@ abstract public class AbstractPhraseGenerator<TK, FV> implements
       Sequence<TK> source, InputProperties sourceInputProperties, int sourceInputId, 
       Scorer<FV> scorer) {
     if (source == null || source.size() == 0) return new ArrayList<>(0);
-    List<ConcreteRule<TK,FV>> concreteRules = new ArrayList<>(source.size() * source.size() * 100);
     int longestSourcePhrase = this.maxLengthSource();
     if (longestSourcePhrase < 0)
       longestSourcePhrase = -longestSourcePhrase;
+    final int maxLength = longestSourcePhrase;
+    
+    if (sourceInputProperties != null && 
+        sourceInputProperties.containsKey(InputProperty.ParallelRuleQuery) &&
+        (boolean) sourceInputProperties.get(InputProperty.ParallelRuleQuery)) {
+      // One task per start position. Same rule order as the serial query.
+      return IntStream.range(0, source.size()).parallel().mapToObj(i -> 
+        getRules(source, i, maxLength, sourceInputProperties, sourceInputId, scorer))
+          .flatMap(List::stream).collect(Collectors.toList());
+    }
+    
+    List<ConcreteRule<TK,FV>> concreteRules = new ArrayList<>(source.size() * source.size() * 100);
     for (int i = 0, sz = source.size(); i < sz; i++) {
-      for (int len = 1; len <= longestSourcePhrase; len++) {
-        final int j = i + len;
-        if (j > sz)
-          break;
-        CoverageSet sourceCoverage = new CoverageSet(sz);
-        sourceCoverage.set(i, j);
-        Sequence<TK> sourcePhrase = source.subsequence(i, j);
-        List<Rule<TK>> rules = this.query(sourcePhrase);
-        if (rules != null) {
-          for (Rule<TK> ruleOpt : rules) {
-            concreteRules.add(new ConcreteRule<TK,FV>(ruleOpt, 
-                sourceCoverage, phraseFeaturizer, scorer, source, sourceInputId, sourceInputProperties));
-          }
+      concreteRules.addAll(getRules(source, i, maxLength, sourceInputProperties, sourceInputId, scorer));
+    }
+    return concreteRules;
+  }
+  
+  /**
+   * Query the rules for the source spans that start at position i.
+   * 
+   * @param source
+   * @param i
+   * @param longestSourcePhrase
+   * @param sourceInputProperties
+   * @param sourceInputId
+   * @param scorer
+   * @return
+   */
+  private List<ConcreteRule<TK,FV>> getRules(Sequence<TK> source, int i, int longestSourcePhrase,
+      InputProperties sourceInputProperties, int sourceInputId, Scorer<FV> scorer) {
+    List<ConcreteRule<TK,FV>> concreteRules = new ArrayList<>();
+    for (int len = 1, sz = source.size(); len <= longestSourcePhrase; len++) {
+      final int j = i + len;
+      if (j > sz)
+        break;
+      CoverageSet sourceCoverage = new CoverageSet(sz);
+      sourceCoverage.set(i, j);
+      Sequence<TK> sourcePhrase = source.subsequence(i, j);
+      List<Rule<TK>> rules = this.query(sourcePhrase);
+      if (rules != null) {
+        for (Rule<TK> ruleOpt : rules) {
+          concreteRules.add(new ConcreteRule<TK,FV>(ruleOpt, 
+              sourceCoverage, phraseFeaturizer, scorer, source, sourceInputId, sourceInputProperties));
         }
       }
     }
@@ -6,7 +6,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
@@ -25,6 +28,8 @@ import edu.stanford.nlp.mt.util.Sequence;
  */
 public class CombinedTranslationModel<TK,FV> implements TranslationModel<TK,FV> {
 
+  private static final Logger logger = LogManager.getLogger(CombinedTranslationModel.class);
+
   // Moses default
   static public final int DEFAULT_PHRASE_LIMIT = 20;
 
@@ -76,25 +81,6 @@ public class CombinedTranslationModel<TK,FV> implements TranslationModel<TK,FV>
     return super.clone();
   }
 
-  /**
-   * Add to the rule list that is being constructed during a query
-   * 
-   * @param rule
-   * @param ruleLists
-   * @param modelId 
-   */
-  private void addToRuleList(ConcreteRule<TK,FV> rule,
-      Map<CoverageSet, List<List<ConcreteRule<TK, FV>>>> ruleLists, int modelId) {
-    List<List<ConcreteRule<TK, FV>>> ruleList = ruleLists.computeIfAbsent(rule.sourceCoverage, 
-        k -> new ArrayList<>());
-    if (modelId >= ruleList.size()) {
-      for (int i = 0; i <= modelId; ++i) {
-        ruleList.add(new ArrayList<>());
-      }
-    }
-    ruleList.get(modelId).add(rule);
-  }
-  
   @Override
   public List<String> getFeatureNames() {
     List<String> featureNames = new ArrayList<>();
@@ -105,33 +91,58 @@ public class CombinedTranslationModel<TK,FV> implements TranslationModel<TK,FV>
   }
   
   /**
-   * Queue item for merging multiple query lists.
-   * 
+   * The top-k rules of one source span across all models. The heap holds the best rules
+   * seen so far with the k-th best at the head. Once the heap is full, the head is the
+   * threshold that a rule must beat, and worse rules are rejected in constant time.
+   *
    * @author Spence Green
    *
    * @param <TK>
    * @param <FV>
    */
-  protected static class Item<TK,FV> implements Comparable<Item<TK,FV>> {
-    public final ConcreteRule<TK,FV> rule;
-    public final List<ConcreteRule<TK,FV>> list;
-
-    public Item(ConcreteRule<TK,FV> rule, List<ConcreteRule<TK,FV>> list) {
-      this.rule = rule;
-      this.list = list;
+  protected static class TopRules<TK,FV> {
+    private final int k;
+    private final PriorityQueue<ConcreteRule<TK,FV>> heap;
+    private int numRejected = 0;
+
+    public TopRules(int k) {
+      this.k = k;
+      this.heap = new PriorityQueue<>(Math.min(k, 32), Collections.reverseOrder());
     }
 
-    @Override
-    public int compareTo(Item<TK,FV> o) {
-      if (rule == null && o.rule == null) {
-        return 0;
-      } else if (rule == null) {
-        return -1;
-      } else if (o.rule == null) {
-        return 1;
+    /**
+     * Offer a rule.
+     *
+     * @param rule
+     */
+    public void add(ConcreteRule<TK,FV> rule) {
+      if (heap.size() < k) {
+        heap.add(rule);
+      } else if (rule.compareTo(heap.peek()) < 0) {
+        heap.poll();
+        heap.add(rule);
+      } else {
+        ++numRejected;
       }
-      return this.rule.compareTo(o.rule);
     }
+
+    /**
+     * Add the selected rules in sorted order.
+     *
+     * @param mergedList
+     */
+    public void addTo(List<ConcreteRule<TK,FV>> mergedList) {
+      final int start = mergedList.size();
+      mergedList.addAll(heap);
+      Collections.sort(mergedList.subList(start, mergedList.size()));
+    }
+
+    /**
+     * Number of rules that were rejected at the threshold.
+     *
+     * @return
+     */
+    public int numRejected() { return numRejected; }
   }
 
   @Override
@@ -193,39 +204,32 @@ public class CombinedTranslationModel<TK,FV> implements TranslationModel<TK,FV>
     }
     
     
-    final Map<CoverageSet, List<List<ConcreteRule<TK,FV>>>> ruleLists = 
-        new HashMap<>(source.size() * source.size());
-
-    int modelNumber = 0;
-    for (TranslationModel<TK,FV> model : translationModels) {
-      for (ConcreteRule<TK,FV> rule : model.getRules(source, sourceInputProperties, sourceInputId, 
-          scorer)) {
-        addToRuleList(rule, ruleLists, modelNumber);
-      }
-      ++modelNumber;
-    }
-
+    // Query the models concurrently. The model order is preserved.
+    final List<List<ConcreteRule<TK,FV>>> modelRules = translationModels.size() == 1 ?
+        Collections.singletonList(translationModels.get(0).getRules(source, sourceInputProperties,
+            sourceInputId, scorer)) :
+        translationModels.parallelStream().map(m -> m.getRules(source, sourceInputProperties,
+            sourceInputId, scorer)).collect(Collectors.toList());
+
+    // Select the top rules of each span across all models
     List<ConcreteRule<TK, FV>> mergedList = new ArrayList<>();
-    for (CoverageSet coverage : ruleLists.keySet()) {
-      List<List<ConcreteRule<TK,FV>>> ruleList = ruleLists.get(coverage);
-
-      // Effectively cube pruning!
-      Queue<Item<TK,FV>> pq = new PriorityQueue<Item<TK,FV>>(3);
-      for (List<ConcreteRule<TK,FV>> list : ruleList) {
-        if (list.size() > 0) {
-          Collections.sort(list);
-          pq.add(new Item<TK,FV>(list.remove(0), list));
-        }
-      }
-      int numSelectedRules = 0;
-      while (numSelectedRules < ruleQueryLimit && ! pq.isEmpty()) {
-        Item<TK, FV> item = pq.poll();
-        mergedList.add(item.rule);
-        ++numSelectedRules;
-        if (item.list.size() > 0) {
-          pq.add(new Item<TK,FV>(item.list.remove(0), item.list));
-        }
+    if (ruleQueryLimit <= 0) return mergedList;
+    final Map<CoverageSet, TopRules<TK,FV>> spanRules = new HashMap<>(source.size() * source.size());
+    int numRules = 0;
+    for (List<ConcreteRule<TK,FV>> rules : modelRules) {
+      for (ConcreteRule<TK,FV> rule : rules) {
+        spanRules.computeIfAbsent(rule.sourceCoverage, k -> new TopRules<>(ruleQueryLimit)).add(rule);
       }
+      numRules += rules.size();
+    }
+    int numRejected = 0;
+    for (TopRules<TK,FV> topRules : spanRules.values()) {
+      topRules.addTo(mergedList);
+      numRejected += topRules.numRejected();
+    }
+    if (translationModels.size() > 1) {
+      logger.info("input {}: {} rules from {} models, kept {} ({} rejected at the threshold)",
+          sourceInputId, numRules, translationModels.size(), mergedList.size(), numRejected);
     }
     return mergedList;
   }
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -13,6 +14,7 @@ import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
 import edu.stanford.nlp.mt.util.IntegerArrayIndex;
 import edu.stanford.nlp.mt.util.IntegerArrayRawIndex;
+import edu.stanford.nlp.mt.util.LRUCache;
 import edu.stanford.nlp.mt.util.PhraseAlignment;
 import edu.stanford.nlp.mt.util.ProbingIntegerArrayIndex;
 import edu.stanford.nlp.mt.util.ProbingIntegerArrayRawIndex;
@@ -34,6 +36,9 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
 
   private static final int INITIAL_CAPACITY = 50000;
 
+  // Maximum number of source phrases in the rule cache
+  private static final int MAX_CACHED_SOURCES = 1 << 14;
+
   public static final String FIELD_DELIM = "|||";
   public static final String DEFAULT_FEATURE_PREFIX = "FPT";
 
@@ -48,8 +53,14 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
   protected String name;
   protected final List<List<PhraseTableEntry>> ruleLists;
 
+  // Rules are shared across queries so that static rule features are only
+  // extracted once. See StaticRuleFeaturizer. The rules of the least recently
+  // queried source phrases are evicted.
+  protected final LRUCache<Integer,List<Rule<IString>>> ruleCache = new LRUCache<>(MAX_CACHED_SOURCES);
+
   protected int longestSourcePhrase = -1;
   protected int longestTargetPhrase = -1;
+  protected long signature;
 
   /**
    * Constructor.
@@ -115,6 +126,26 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
     }
     intTransOpts.add(new PhraseTableEntry(ruleIdCounter.getAndIncrement(),
         targetIndex.get(eIndex), scores, alignment));
+    signature = updateSignature(signature, sourceSequence, targetSequence);
+  }
+
+  /**
+   * Add a rule to the signature of a phrase table. The signature depends on the words of
+   * the rules and on their order, which determines the rule ids.
+   * 
+   * @param signature
+   * @param sourceSequence
+   * @param targetSequence
+   * @return
+   */
+  static long updateSignature(long signature, Sequence<IString> sourceSequence,
+      Sequence<IString> targetSequence) {
+    long h = signature;
+    for (IString word : sourceSequence) h = h * 0x100000001b3L + word.toString().hashCode();
+    h = h * 0x100000001b3L + 0x7c7c7c;
+    for (IString word : targetSequence) h = h * 0x100000001b3L + word.toString().hashCode();
+    h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+    return h ^ (h >>> 33);
   }
 
   @Override
@@ -211,18 +242,24 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
     int fIndex = sourceToRuleIndex.getIndex(sourceArray);
     if (fIndex == -1 || fIndex >= ruleLists.size())
       return null;
+    List<Rule<IString>> ruleList = ruleCache.get(fIndex);
+    if (ruleList != null)
+      return ruleList;
     List<PhraseTableEntry> hits = ruleLists.get(fIndex);
     if (hits == null)
       return null;
-    List<Rule<IString>> ruleList = new ArrayList<>(hits.size());
+    // Do not keep a reference to the source input
+    Sequence<IString> source = IStrings.toIStringSequence(sourceArray);
+    ruleList = new ArrayList<>(hits.size());
     for (PhraseTableEntry hit : hits) {
       Sequence<IString> targetSequence = IStrings.toIStringSequence(
           hit.targetArray);
       ruleList.add(new Rule<IString>(hit.id,
-          hit.scores, scoreNames, targetSequence, sourceSequence,
+          hit.scores, scoreNames, targetSequence, source,
           hit.alignment, name));
     }
-    return ruleList;
+    // The list is shared by all queries of this source phrase
+    return ruleCache.putIfAbsent(fIndex, Collections.unmodifiableList(ruleList));
   }
 
   @Override
@@ -262,9 +299,17 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
   public int minRuleIndex() {
     return minRuleIndex;
   }
+
+  @Override
+  public long signature() {
+    return signature;
+  }
   
   @Override
-  public void setName(String name) { this.name = name; }
+  public void setName(String name) {
+    this.name = name;
+    ruleCache.clear();
+  }
   
   /**
    *
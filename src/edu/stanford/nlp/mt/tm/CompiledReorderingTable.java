@@ -0,0 +1,229 @@
+package edu.stanford.nlp.mt.tm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+
+/**
+ * Lexicalized reordering scores stored in one float matrix that is indexed by the ids of the
+ * rules in the phrase table. Lookups need no string keys and no per-rule objects. The matrix
+ * can be saved and memory-mapped, which avoids parsing the text reordering table at startup.
+ * The ids are those assigned by the phrase table, so a compiled table must be used with the
+ * phrase table from which it was compiled, loaded first. The signature of that phrase table is
+ * saved with the scores and checked when the table is loaded.
+ *
+ * Binary format (big-endian):
+ * <pre>
+ *   int magic, int version, long phrase table signature, modified UTF-8 file type
+ *   int number of scores per rule d, int number of rules n
+ *   float[n*d] scores (NaN in the first score of a rule without an entry)
+ * </pre>
+ */
+public class CompiledReorderingTable {
+
+  private static final int MAGIC = 0x4c524f54;
+  private static final int VERSION = 2;
+
+  // Maximum size of a single memory-mapped segment
+  private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+  public final String filetype;
+  public final int numScores;
+  private final long signature;
+  private final int minRuleIndex;
+  private final int numRules;
+  private final FloatBuffer scores;
+
+  /**
+   * Constructor for an empty table for the rules of a phrase table.
+   *
+   * @param filetype
+   * @param numScores
+   * @param phraseTable
+   */
+  public CompiledReorderingTable(String filetype, int numScores, PhraseTable<IString> phraseTable) {
+    this.filetype = filetype;
+    this.numScores = numScores;
+    this.signature = phraseTable.signature();
+    this.minRuleIndex = phraseTable.minRuleIndex();
+    this.numRules = phraseTable.size() - minRuleIndex;
+    if ((long) numRules * numScores * Float.BYTES > MAX_SEGMENT_SIZE) {
+      throw new IllegalArgumentException(String.format("Too many reordering scores: %d rules x %d",
+          numRules, numScores));
+    }
+    float[] scoreArray = new float[numRules * numScores];
+    Arrays.fill(scoreArray, Float.NaN);
+    this.scores = FloatBuffer.wrap(scoreArray);
+  }
+
+  /**
+   * Constructor for a compiled file.
+   *
+   * @param filename
+   * @param phraseTable
+   * @throws IOException
+   */
+  private CompiledReorderingTable(String filename, PhraseTable<IString> phraseTable) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+      if (file.readInt() != MAGIC) {
+        throw new IOException("Not a compiled reordering table: " + filename);
+      }
+      int version = file.readInt();
+      if (version != VERSION) {
+        throw new IOException(String.format("Unsupported reordering table version %d: %s", version, filename));
+      }
+      this.signature = file.readLong();
+      if (signature != phraseTable.signature()) {
+        throw new IOException(String.format("Reordering table %s was compiled for a different phrase table than %s",
+            filename, phraseTable.getName()));
+      }
+      this.filetype = file.readUTF();
+      this.numScores = file.readInt();
+      this.numRules = file.readInt();
+      this.minRuleIndex = phraseTable.minRuleIndex();
+      if (numRules > phraseTable.size() - minRuleIndex) {
+        throw new IOException(String.format("Reordering table %s has %d rules, but the phrase table has %d",
+            filename, numRules, phraseTable.size() - minRuleIndex));
+      }
+      // Mappings remain valid after the channel is closed.
+      this.scores = file.getChannel().map(FileChannel.MapMode.READ_ONLY, file.getFilePointer(),
+          (long) numRules * numScores * Float.BYTES).asFloatBuffer();
+    }
+  }
+
+  /**
+   * Memory-map a compiled table.
+   *
+   * @param filename
+   * @param phraseTable The phrase table from which the table was compiled.
+   * @return
+   * @throws IOException
+   */
+  public static CompiledReorderingTable load(String filename, PhraseTable<IString> phraseTable)
+      throws IOException {
+    return new CompiledReorderingTable(filename, phraseTable);
+  }
+
+  /**
+   * True if the file is a compiled reordering table.
+   *
+   * @param filename
+   * @return
+   */
+  public static boolean isCompiled(String filename) {
+    try (RandomAccessFile f = new RandomAccessFile(filename, "r")) {
+      return f.length() >= Integer.BYTES && f.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Set the scores of a rule.
+   *
+   * @param ruleId
+   * @param values
+   * @return false if the rule already has scores.
+   */
+  public boolean set(int ruleId, float[] values) {
+    if (values.length != numScores) throw new IllegalArgumentException();
+    final int offset = (ruleId - minRuleIndex) * numScores;
+    if ( ! Float.isNaN(scores.get(offset))) return false;
+    for (int i = 0; i < numScores; ++i) scores.put(offset + i, values[i]);
+    return true;
+  }
+
+  /**
+   * The index of the scores of a rule.
+   *
+   * @param rule
+   * @return The index, or -1 if the rule has no scores.
+   */
+  public int index(Rule<IString> rule) {
+    final int index = rule.id - minRuleIndex;
+    return index >= 0 && index < numRules && ! Float.isNaN(scores.get(index * numScores)) ? index : -1;
+  }
+
+  /**
+   * The i-th score at an index returned by <code>index()</code>.
+   *
+   * @param index
+   * @param i
+   * @return
+   */
+  public float get(int index, int i) {
+    return scores.get(index * numScores + i);
+  }
+
+  /**
+   * A copy of the scores of a rule. Allocates, so decoders should use <code>index()</code>
+   * and <code>get(int,int)</code> instead.
+   *
+   * @param rule
+   * @return The scores, or null if the rule has no scores.
+   */
+  public float[] get(Rule<IString> rule) {
+    final int index = index(rule);
+    if (index < 0) return null;
+    float[] values = new float[numScores];
+    for (int i = 0; i < numScores; ++i) values[i] = get(index, i);
+    return values;
+  }
+
+  /**
+   * Save the table.
+   *
+   * @param filename
+   * @throws IOException
+   */
+  public void save(String filename) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(signature);
+      out.writeUTF(filetype);
+      out.writeInt(numScores);
+      out.writeInt(numRules);
+      for (int i = 0, sz = numRules * numScores; i < sz; ++i) out.writeFloat(scores.get(i));
+    }
+  }
+
+  /**
+   * Compile a text reordering table.
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 5) {
+      System.err.printf("Usage: java %s (classic|hierarchical) pt_file reordering_file type out_file%n",
+          CompiledReorderingTable.class.getName());
+      System.exit(-1);
+    }
+    final String modelType = args[0];
+    TimeKeeper timer = TimingUtils.start();
+    CompiledPhraseTable<String> phraseTable = new CompiledPhraseTable<>(args[1]);
+    timer.mark("Phrase table");
+    CompiledReorderingTable table;
+    if (modelType.equals("classic")) {
+      table = new LexicalReorderingTable(args[2], phraseTable, args[3]).getCompiledTable();
+    } else if (modelType.equals("hierarchical")) {
+      table = new ExtendedLexicalReorderingTable(args[2], phraseTable, args[3]).getCompiledTable();
+    } else {
+      throw new IllegalArgumentException("Unsupported reordering model type: " + modelType);
+    }
+    timer.mark("Reordering table");
+    table.save(args[4]);
+    timer.mark("Save");
+    System.out.printf("Timing: %s%n", timer);
+  }
+}
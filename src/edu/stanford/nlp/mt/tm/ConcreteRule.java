@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.util.CoverageSet;
@@ -87,8 +88,17 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
     // Extract rule features
     Featurizable<TK, FV> f = new Featurizable<>(sourceSequence, sourceInputProperties, this,
         sourceInputId);
-    List<FeatureValue<FV>> features = phraseFeaturizer == null ? 
-        Collections.emptyList() : phraseFeaturizer.ruleFeaturize(f);
+    final List<FeatureValue<FV>> features;
+    final double score;
+    if (phraseFeaturizer instanceof FeatureExtractor && scorer != null) {
+      // Score dense feature blocks without feature lookups
+      features = new ArrayList<>();
+      score = ((FeatureExtractor<TK,FV>) phraseFeaturizer).ruleFeaturize(f, scorer, features);
+    } else {
+      features = phraseFeaturizer == null ? 
+          Collections.emptyList() : phraseFeaturizer.ruleFeaturize(f);
+      score = scorer == null ? -199.0 : scorer.getIncrementalScore(features);
+    }
     
     // Cache selected features
     cachedFeatureList = new ArrayList<>(features.size());
@@ -97,7 +107,7 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
         cachedFeatureList.add(feature);
       }
     }
-    this.isolationScore = scorer == null ? -199.0 : scorer.getIncrementalScore(features);
+    this.isolationScore = score;
   }
 
   /**
@@ -3,7 +3,6 @@ package edu.stanford.nlp.mt.tm;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.Arrays;
 import java.io.IOException;
 import java.io.File;
@@ -23,6 +22,7 @@ import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.ArraySequence;
 import edu.stanford.nlp.mt.util.TrieIntegerArrayIndex;
 import edu.stanford.nlp.util.StringUtils;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 
 /**
  * Phrase table with gaps.
@@ -48,6 +48,10 @@ implements PhraseTable<IString> {
 
   public IntegerArrayIndex sourceIndex;
   public IntegerArrayIndex ruleIndex;
+
+  // Source pattern automaton compiled from the source trie
+  private Long2IntOpenHashMap transitions;
+  private int[] gapSuccessors;
   public final List<List<PhraseTableEntry>> translations;
   protected String name;
   private int numRules = 0;
@@ -56,6 +60,7 @@ implements PhraseTable<IString> {
   
   protected int longestSourcePhrase = -1;
   protected int longestTargetPhrase = -1;
+  protected long signature;
   
   public static int maxPhraseSpan = 12;
   public static int maxNumberTargetSegments = 2;
@@ -93,6 +98,27 @@ implements PhraseTable<IString> {
     for (int i = 0; i < countScores; i++) {
       scoreNames[i] = String.format("%s.%d", CompiledPhraseTable.DEFAULT_FEATURE_PREFIX, i);
     }
+    compile();
+  }
+
+  /**
+   * Compile the source trie into a primitive transition table and a table of gap
+   * successors. The trie is locked since no more patterns are added.
+   */
+  private void compile() {
+    TrieIntegerArrayIndex trieIndex = (TrieIntegerArrayIndex) sourceIndex;
+    trieIndex.lock();
+    transitions = new Long2IntOpenHashMap(trieIndex.map.size());
+    transitions.defaultReturnValue(TrieIntegerArrayIndex.IDX_NOSUCCESSOR);
+    trieIndex.map.forEach((k,v) -> transitions.put(k.longValue(), v.intValue()));
+    gapSuccessors = new int[trieIndex.size()];
+    for (int state = 0; state < gapSuccessors.length; ++state) {
+      gapSuccessors[state] = successor(state, GAP_STR.id);
+    }
+  }
+
+  private int successor(int state, int input) {
+    return transitions.get(((TrieIntegerArrayIndex) sourceIndex).getTransition(state, input));
   }
   
   /**
@@ -171,22 +197,16 @@ implements PhraseTable<IString> {
     return numScores;
   }
 
-  static class MatchState {
-    final int state;
-    final int pos;
-    final CoverageSet coverage;
-    final IString[] foreign;
-
-    MatchState(int state, int pos) {
-      this.state = state;
-      this.pos = pos;
-      coverage = new CoverageSet();
-      foreign = new IString[0];
-    }
+  /**
+   * A source pattern that matches a sentence.
+   */
+  public static class Match {
+    public final int state;
+    public final CoverageSet coverage;
+    public final IString[] foreign;
 
-    MatchState(int state, int pos, CoverageSet coverage, IString[] foreign) {
+    Match(int state, CoverageSet coverage, IString[] foreign) {
       this.state = state;
-      this.pos = pos;
       this.coverage = coverage;
       this.foreign = foreign;
     }
@@ -195,144 +215,142 @@ implements PhraseTable<IString> {
     public String toString() {
       StringBuilder sb = new StringBuilder();
       sb.append("state=").append(state).append(" ");
-      sb.append("pos=").append(pos).append(" ");
       sb.append("cs=").append(coverage).append(" ");
       sb.append("foreign=").append(Arrays.toString(foreign));
       return sb.toString();
     }
+  }
 
-    @Override
-    public boolean equals(Object o) {
-      assert (o instanceof MatchState);
-      MatchState s = (MatchState) o;
-      return state == s.state && pos == s.pos && coverage.equals(s.coverage)
-          && (Arrays.equals(foreign, s.foreign));
-    }
-
-    @Override
-    public int hashCode() {
-      return Arrays.hashCode(new int[] { state, pos, coverage.hashCode(),
-          Arrays.hashCode(foreign) });
+  /**
+   * Partial matches in breadth-first order. Entry i is a trie state, the next sentence
+   * position, the entry that it extends, and the sentence position that it matched. The
+   * coverage set and the source phrase are only built for complete matches.
+   */
+  private static class MatchQueue {
+    int[] states = new int[64];
+    int[] positions = new int[64];
+    int[] parents = new int[64];
+    int[] words = new int[64];
+    boolean[] gaps = new boolean[64];
+    int size = 0;
+
+    void add(int state, int pos, int parent, int word, boolean gap) {
+      if (size == states.length) {
+        final int capacity = 2 * size;
+        states = Arrays.copyOf(states, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        words = Arrays.copyOf(words, capacity);
+        gaps = Arrays.copyOf(gaps, capacity);
+      }
+      states[size] = state;
+      positions[size] = pos;
+      parents[size] = parent;
+      words[size] = word;
+      gaps[size++] = gap;
     }
   }
 
-  @Override
-  @SuppressWarnings("unchecked")
-  public List<ConcreteRule<IString,FV>> getRules(
-      Sequence<IString> sequence, InputProperties sourceInputProperties, int sourceInputId,
-      Scorer<FV> scorer) {
-
-    List<ConcreteRule<IString,FV>> opts = new LinkedList<>();
-    int sequenceSz = sequence.size();
-    // System.err.println("Seq to match: "+sequence);
-
-    assert (sourceIndex instanceof TrieIntegerArrayIndex);
-    TrieIntegerArrayIndex trieIndex = (TrieIntegerArrayIndex) sourceIndex;
-
+  /**
+   * Find all source patterns with at least one rule that match a sentence. Patterns
+   * are matched by one breadth-first walk of the compiled automaton per start position.
+   *
+   * @param sequence
+   * @return
+   */
+  public List<Match> match(Sequence<IString> sequence) {
+    final List<Match> matches = new ArrayList<>();
+    final int sequenceSz = sequence.size();
+    final MatchQueue queue = new MatchQueue();
     for (int startIdx = 0; startIdx < sequenceSz; startIdx++) {
-      // System.err.println("startIdx: "+startIdx);
-      Deque<MatchState> deque = new LinkedList<MatchState>();
-      deque.add(new MatchState(TrieIntegerArrayIndex.IDX_ROOT, startIdx));
-
-      while (!deque.isEmpty()) {
-
-        MatchState s = deque.pop();
-        // System.err.println("Current state: "+s);
-
-        if (translations.get(s.state) != null) {
-
-          // Final state:
-          List<PhraseTableEntry> intTransOpts = translations
-              .get(s.state);
-          if (intTransOpts != null) {
-            // System.err.printf("Full match: %s\n",s);
-            List<Rule<IString>> transOpts = new ArrayList<Rule<IString>>(
-                intTransOpts.size());
-            for (PhraseTableEntry intTransOpt : intTransOpts) {
-              if (intTransOpt instanceof DTUIntArrayTranslationOption) {
-                // Gaps in target:
-                DTUIntArrayTranslationOption multiIntTransOpt = (DTUIntArrayTranslationOption) intTransOpt;
-                Sequence<IString>[] dtus = new ArraySequence[multiIntTransOpt.dtus.length];
-                for (int i = 0; i < multiIntTransOpt.dtus.length; ++i) {
-                  dtus[i] = IStrings.toIStringSequence(multiIntTransOpt.dtus[i]);
-                }
-                transOpts.add(new DTURule<IString>(intTransOpt.id,
-                    intTransOpt.scores, scoreNames, dtus, new ArraySequence<IString>(
-                        s.foreign), intTransOpt.alignment, name));
-              } else {
-                // No gaps in target:
-                Sequence<IString> translation = IStrings.toIStringSequence(
-                    intTransOpt.targetArray);
-                transOpts.add(new Rule<IString>(intTransOpt.id,
-                    intTransOpt.scores, scoreNames, translation,
-                    new ArraySequence<IString>(s.foreign), intTransOpt.alignment, name));
-              }
-            }
-
-            for (Rule<IString> abstractOpt : transOpts) {
-              if (abstractOpt instanceof DTURule)
-                opts.add(new ConcreteRule<IString,FV>(abstractOpt,
-                    s.coverage, phraseFeaturizer, scorer, sequence, sourceInputId, true, sourceInputProperties));
-              else
-                opts.add(new ConcreteRule<IString,FV>(abstractOpt,
-                    s.coverage, phraseFeaturizer, scorer, sequence, sourceInputId, sourceInputProperties));
-            }
-          }
+      queue.size = 0;
+      queue.add(TrieIntegerArrayIndex.IDX_ROOT, startIdx, -1, -1, false);
+      for (int head = 0; head < queue.size; ++head) {
+        final int state = queue.states[head];
+        final int pos = queue.positions[head];
+        if (state < translations.size() && translations.get(state) != null) {
+          matches.add(toMatch(queue, head, sequence));
         }
 
-        // Match the next word at s.pos:
-        if (s.pos < sequence.size()) {
-          long terminalTransition = trieIndex.getTransition(s.state,
-              sequence.get(s.pos).id);
-          // System.err.printf("Trying to match word: %s [%d,%d]\n",sequence.get(s.pos),
-          // s.state, sequence.get(s.pos).id);
-          int nextState = trieIndex.map.get(terminalTransition);
+        // Match the next word at pos:
+        if (pos < sequenceSz) {
+          int nextState = successor(state, sequence.get(pos).id);
           if (nextState != TrieIntegerArrayIndex.IDX_NOSUCCESSOR) {
-            CoverageSet coverage = s.coverage.clone();
-            coverage.set(s.pos);
-            IString[] foreign = new IString[s.foreign.length + 1];
-            System.arraycopy(s.foreign, 0, foreign, 0, s.foreign.length);
-            foreign[foreign.length - 1] = sequence.get(s.pos);
-            MatchState newS = new MatchState(nextState, s.pos + 1, coverage,
-                foreign);
-            deque.add(newS);
-            // System.err.printf("Matched word: %s\n",newS);
-          } else {
-            // System.err.printf("Unable to match word: %s\n",
-            // sequence.get(s.pos));
+            queue.add(nextState, pos + 1, head, pos, false);
           }
         }
 
-        // Match an X at s.pos:
-        if (s.pos > startIdx && s.pos + 1 < sequence.size()) {
-          long nonterminalTransition = trieIndex.getTransition(s.state,
-              GAP_STR.id);
-          int nextState = trieIndex.map.get(nonterminalTransition);
+        // Match an X at pos:
+        if (pos > startIdx && pos + 1 < sequenceSz) {
+          int nextState = gapSuccessors[state];
           if (nextState != TrieIntegerArrayIndex.IDX_NOSUCCESSOR) {
             // Starting a gap, now must determine how long:
-            for (int afterX = s.pos + MIN_GAP_SIZE; afterX <= startIdx
-                + maxPhraseSpan
-                && afterX < sequence.size(); ++afterX) {
-              long terminalTransition = trieIndex.getTransition(nextState,
-                  sequence.get(afterX).id);
-              int next2State = trieIndex.map.get(terminalTransition);
+            for (int afterX = pos + MIN_GAP_SIZE; afterX <= startIdx + maxPhraseSpan
+                && afterX < sequenceSz; ++afterX) {
+              int next2State = successor(nextState, sequence.get(afterX).id);
               if (next2State != TrieIntegerArrayIndex.IDX_NOSUCCESSOR) {
-                CoverageSet coverage = s.coverage.clone();
-                coverage.set(afterX);
-                IString[] foreign = new IString[s.foreign.length + 2];
-                System.arraycopy(s.foreign, 0, foreign, 0, s.foreign.length);
-                foreign[foreign.length - 2] = GAP_STR;
-                foreign[foreign.length - 1] = sequence.get(afterX);
-                MatchState newS = new MatchState(next2State, afterX + 1,
-                    coverage, foreign);
-                deque.add(newS);
-                // System.err.printf("Matched gap: %s\n",newS);
+                queue.add(next2State, afterX + 1, head, afterX, true);
               }
             }
           }
         }
       }
     }
+    return matches;
+  }
+
+  /**
+   * Build the coverage set and the source phrase of a complete match.
+   */
+  private static Match toMatch(MatchQueue queue, int entry, Sequence<IString> sequence) {
+    int length = 0;
+    for (int i = entry; queue.parents[i] >= 0; i = queue.parents[i]) {
+      length += queue.gaps[i] ? 2 : 1;
+    }
+    final CoverageSet coverage = new CoverageSet();
+    final IString[] foreign = new IString[length];
+    for (int i = entry; queue.parents[i] >= 0; i = queue.parents[i]) {
+      coverage.set(queue.words[i]);
+      foreign[--length] = sequence.get(queue.words[i]);
+      if (queue.gaps[i]) foreign[--length] = GAP_STR;
+    }
+    return new Match(queue.states[entry], coverage, foreign);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<ConcreteRule<IString,FV>> getRules(
+      Sequence<IString> sequence, InputProperties sourceInputProperties, int sourceInputId,
+      Scorer<FV> scorer) {
+
+    List<ConcreteRule<IString,FV>> opts = new ArrayList<>();
+    for (Match s : match(sequence)) {
+      List<PhraseTableEntry> intTransOpts = translations.get(s.state);
+      for (PhraseTableEntry intTransOpt : intTransOpts) {
+        if (intTransOpt instanceof DTUIntArrayTranslationOption) {
+          // Gaps in target:
+          DTUIntArrayTranslationOption multiIntTransOpt = (DTUIntArrayTranslationOption) intTransOpt;
+          Sequence<IString>[] dtus = new ArraySequence[multiIntTransOpt.dtus.length];
+          for (int i = 0; i < multiIntTransOpt.dtus.length; ++i) {
+            dtus[i] = IStrings.toIStringSequence(multiIntTransOpt.dtus[i]);
+          }
+          Rule<IString> abstractOpt = new DTURule<IString>(intTransOpt.id,
+              intTransOpt.scores, scoreNames, dtus, new ArraySequence<IString>(
+                  s.foreign), intTransOpt.alignment, name);
+          opts.add(new ConcreteRule<IString,FV>(abstractOpt,
+              s.coverage, phraseFeaturizer, scorer, sequence, sourceInputId, true, sourceInputProperties));
+        } else {
+          // No gaps in target:
+          Sequence<IString> translation = IStrings.toIStringSequence(
+              intTransOpt.targetArray);
+          Rule<IString> abstractOpt = new Rule<IString>(intTransOpt.id,
+              intTransOpt.scores, scoreNames, translation,
+              new ArraySequence<IString>(s.foreign), intTransOpt.alignment, name);
+          opts.add(new ConcreteRule<IString,FV>(abstractOpt,
+              s.coverage, phraseFeaturizer, scorer, sequence, sourceInputId, sourceInputProperties));
+        }
+      }
+    }
     return opts;
   }
 
@@ -389,6 +407,7 @@ implements PhraseTable<IString> {
   protected void addEntry(Sequence<IString> sourceSequence,
       Sequence<IString> targetSequence, PhraseAlignment alignment,
       float[] scores) {
+    signature = CompiledPhraseTable.updateSignature(signature, sourceSequence, targetSequence);
     int[] foreignInts = toWordIndexArray(sourceSequence);
     int[] translationInts = toWordIndexArray(targetSequence);
     int fIndex = sourceIndex.indexOf(foreignInts, true);
@@ -514,6 +533,11 @@ implements PhraseTable<IString> {
     return 0;
   }
 
+  @Override
+  public long signature() {
+    return signature;
+  }
+
   @Override
   public void setName(String name) { this.name = name; }
 }
@@ -1,5 +1,6 @@
 package edu.stanford.nlp.mt.tm;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
@@ -42,6 +43,7 @@ import edu.stanford.nlp.mt.util.MurmurHash2;
 import edu.stanford.nlp.mt.util.ParallelSuffixArrayEntry;
 import edu.stanford.nlp.mt.util.PhraseAlignment;
 import edu.stanford.nlp.mt.util.ParallelSuffixArray;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray.SamplePlanner;
 import edu.stanford.nlp.mt.util.ParallelSuffixArray.SentencePair;
 import edu.stanford.nlp.mt.util.ParallelSuffixArray.Span;
 import edu.stanford.nlp.mt.util.ParallelSuffixArray.SuffixArraySample;
@@ -55,8 +57,6 @@ import edu.stanford.nlp.mt.util.Vocabulary;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
-import it.unimi.dsi.fastutil.longs.Long2IntMap;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 
 /**
  * A dynamic translation model backed by a suffix array.
@@ -75,6 +75,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   private static final int RULE_CACHE_THRESHOLD = 10000;
   private static final double MIN_LEX_PROB = 1e-5;
   private static final int MAX_FERTILITY = 5;
+  private static final String COOC_FILE_EXTENSION = ".cooc";
   
   /**
    * Parallelize TM queries. 
@@ -233,7 +234,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     timer.mark("Vocabulary setup");
     
     // Lex cache must be created before any rules can be scored.
-    tm.createLexCoocTable(tm.sa.getVocabulary().size());
+    tm.loadLexCoocTable(filename);
     timer.mark("Cooc table");
 
     logger.info("Timing: {}", timer);
@@ -254,7 +255,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     timer.mark("Vocabulary setup");
     
     // Lex cache must be created before any rules can be scored.
-    createLexCoocTable(sa.getVocabulary().size());
+    createLexCoocTable();
     timer.mark("Cooc table");
 
     logger.info("Timing: {}", timer);
@@ -295,7 +296,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     timer.mark("Id arrays");
     
     // Lex cache must be created before any rules can be scored.
-    createLexCoocTable(sa.getVocabulary().size());
+    createLexCoocTable();
     timer.mark("Cooc table");
     
     createQueryCache(t);
@@ -319,7 +320,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     
     createIdArrays();
     timer.mark("Id arrays");
-    createLexCoocTable(sa.getVocabulary().size());
+    createLexCoocTable();
     timer.mark("Cooc table");
     logger.info("Timing results: {}", timer);
   }
@@ -384,40 +385,51 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   /**
    * Setup cache for lexical translations by iterating over every alignment point
    * in the underlying corpus.
-   * @param vocabSize 
-   * @param vocabSize 
    */
-  private void createLexCoocTable(int vocabSize) {
+  private void createLexCoocTable() {
     logger.info("Creating lexical cooc table");
-    // Constant chosen empirically
-    coocTable = new LexCoocTable(10*vocabSize);
-    // Iterate over every (symmetric) alignment point in parallel
-    sa.stream().forEach(s -> {
-      for(int i = 0, sz = s.sourceLength(); i < sz; ++i) {
-        final int srcId = s.source(i);
-        if (s.isSourceUnaligned(i)) {
-          coocTable.addCooc(srcId, LexCoocTable.NULL_ID);
-        } else {
-          // Don't discriminate among alignment links.
-          // See {@link edu.stanford.nlp.mt.train.MosesPharoahFeatureExtractor#FeaturizeSentence}
-          // TODO(spenceg) Maybe we should discriminate? Will greatly increase the size of the
-          // of the cooc table.
-          int[] tgtAlign = s.f2e(i);
-          for (int j : tgtAlign) {
-            int tgtId = s.target(j);
-            coocTable.addCooc(srcId, tgtId);
-          }
-        }
-      }
-      // Look for unaligned target words that were skipped in the loop
-      // above.
-      for(int i = 0, sz = s.targetLength(); i < sz; ++i) {
-        if (s.isTargetUnaligned(i)) {
-          int tgtId = s.target(i);
-          coocTable.addCooc(LexCoocTable.NULL_ID, tgtId);
-        }
+    coocTable = LexCoocTable.build(sa);
+  }
+
+  /**
+   * Map the lexical cooc table saved next to the model file, or create and save it if
+   * it is missing or was saved for a different model.
+   * 
+   * @param filename
+   */
+  private void loadLexCoocTable(String filename) {
+    final String coocFile = filename + COOC_FILE_EXTENSION;
+    final long signature = coocSignature(filename);
+    try {
+      coocTable = LexCoocTable.load(coocFile, signature);
+      if (coocTable != null) {
+        logger.info("Loaded lexical cooc table: {}", coocFile);
+        return;
       }
-    });
+    } catch (IOException e) {
+      logger.warn("Unable to load lexical cooc table: " + coocFile, e);
+    }
+    createLexCoocTable();
+    try {
+      coocTable.save(coocFile, signature);
+    } catch (IOException e) {
+      logger.warn("Unable to save lexical cooc table: " + coocFile, e);
+    }
+  }
+
+  /**
+   * Identifies the serialized model for which a cooc table was saved.
+   * 
+   * @param filename
+   * @return
+   */
+  private long coocSignature(String filename) {
+    File file = new File(filename);
+    final long length = file.length();
+    final long lastModified = file.lastModified();
+    int[] fields = new int[] { (int) length, (int) (length >>> 32), (int) lastModified,
+        (int) (lastModified >>> 32), sa.numSentences(), sa.getVocabulary().size() };
+    return MurmurHash2.hash64(fields, fields.length, 1);
   }
 
   /**
@@ -594,12 +606,13 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     // Zhang and Vogel (2005) trick -- prune higher-order queries using lower-order misses
     final boolean[][] misses = new boolean[source.size()][source.size()+1];
     
-    // Speed up higher-order queries with bounds from lower-order queries
-    final int[][][] searchBounds = new int[source.size()][source.size()+1][];
-    
     final ExecutorCompletionService<QueryResult<FV>> workQueue = 
         new ExecutorCompletionService<>(threadPool);
     
+    // Share samples and sentence bounds among overlapping spans. Higher-order
+    // queries search within the bounds of their prefixes.
+    final SamplePlanner planner = sa.samplePlanner(sourceArray, sampleSize);
+    
     // Iterate over source span lengths
 //    TimeKeeper timer = TimingUtils.start();
     for (int len = 1, longestSourcePhrase = Math.min(maxSourcePhrase, source.size()); 
@@ -617,9 +630,8 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
         if (miss) {
           misses[i][j] = true;
         } else {
-          final int[] prefixBounds = (len > 1 && searchBounds[i][j-1] != null) ? searchBounds[i][j-1] : null;
           workQueue.submit(new ExtractionTask(i, j, source, sourceInputProperties, 
-              sourceInputId, scorer, sourceArray, prefixBounds));
+              sourceInputId, scorer, planner));
           ++numTasks;
         }
       }
@@ -638,7 +650,6 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
             int i = result.i;
             int j = result.j;
             misses[i][j] = result.miss;
-            searchBounds[i][j] = result.searchBounds;
             concreteRules.addAll(result.ruleList);
           }
         }
@@ -651,6 +662,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     }
     
 //    logger.info("input {}: TM timing {}", sourceInputId, timer);
+    if (planner.numSentencePairs() > 0) logger.info("input {}: {} samples: {}", sourceInputId, name, planner);
     
     // Concatenate foreground model rules
     boolean foreground = sourceInputProperties.containsKey(InputProperty.ForegroundTM);
@@ -705,19 +717,17 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     private InputProperties sourceInputProperties;
     private int sourceInputId;
     private Scorer<FV> scorer;
-    private int[] sourceArray;
-    private int[] prefixBounds;
+    private SamplePlanner planner;
 
     public ExtractionTask(int i, int j, Sequence<IString> source, InputProperties sourceInputProperties, 
-        int sourceInputId, Scorer<FV> scorer, int[] sourceArray, int[] prefixBounds) {
+        int sourceInputId, Scorer<FV> scorer, SamplePlanner planner) {
       this.i = i;
       this.j = j;
       this.source = source;
       this.sourceInputProperties = sourceInputProperties;
       this.sourceInputId = sourceInputId;
       this.scorer = scorer;
-      this.sourceArray = sourceArray;
-      this.prefixBounds = prefixBounds;
+      this.planner = planner;
     }
 
     @Override
@@ -732,16 +742,13 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       List<Rule<IString>> rules = ruleCache == null ? null : ruleCache.get(sourceSpan);
       if (rules == null) {
         // Sample from the suffix array
-        final int[] sourcePhrase = Arrays.copyOfRange(sourceArray, i, j);
-        final SuffixArraySample corpusSample = prefixBounds == null ? sa.sample(sourcePhrase, sampleSize)
-            : sa.sample(sourcePhrase, sampleSize, prefixBounds[0], prefixBounds[1]);
+        final SuffixArraySample corpusSample = planner.sample(i, j);
         if (corpusSample.size() == 0) {
           // This span is not present in the training data.
           rules = Collections.emptyList();
           result.miss = true;
           
         } else {
-          result.searchBounds = new int[]{corpusSample.lb, corpusSample.ub};
           final int numHits = corpusSample.ub - corpusSample.lb + 1;
           final double sampleRate = corpusSample.size() / (double) numHits;
           rules = samplesToRules(corpusSample.samples, order, sampleRate, sourceSpan);
@@ -761,7 +768,6 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     public final int i;
     public final int j;
     public List<ConcreteRule<IString,FV>> ruleList;
-    public int[] searchBounds;
     public boolean miss = false;
     public QueryResult(int i, int j) {
       this.i = i;
@@ -1218,95 +1224,6 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     rule.lex_f_e = lex_f_e;
   }
 
-  /**
-   * A hash-based lexical co-occurrence table.
-   * 
-   * NOTE: This class is not threadsafe.
-   * 
-   * @author Spence Green
-   *
-   */
-  private static class LexCoocTable {
-
-    public static final int NULL_ID = Integer.MIN_VALUE + 1;
-    private static final int MARGINALIZE = Integer.MIN_VALUE;
-    
-    // Use primitive long->int map to avoid boxing/unboxing costs.
-    private final Long2IntMap counts;
-    
-    /**
-     * Constructor.
-     * 
-     * @param initialCapacity
-     */
-    public LexCoocTable(int initialCapacity) {
-      counts = new Long2IntOpenHashMap(initialCapacity);
-      counts.defaultReturnValue(0);
-    }
-    
-    /**
-     * Add a word-word cooccurrence.
-     * 
-     * @param srcId
-     * @param tgtId
-     */
-    public void addCooc(int srcId, int tgtId) {
-      increment(pack(srcId, tgtId));
-      increment(pack(MARGINALIZE, tgtId));
-      increment(pack(srcId, MARGINALIZE));
-    }
-    
-    private void increment(long key) {
-      counts.put(key, counts.get(key) + 1);
-    }
-
-    /**
-     * Source marginal count.
-     * 
-     * @param srcId
-     * @return
-     */
-    public int getSrcMarginal(int srcId) { return getJointCount(srcId, MARGINALIZE); }
-    
-    /**
-     * Target marginal count.
-     * 
-     * @param tgtId
-     * @return
-     */
-    public int getTgtMarginal(int tgtId) { return getJointCount(MARGINALIZE, tgtId); }
-    
-    /**
-     * Joint count.
-     * 
-     * @param srcId
-     * @param tgtId
-     * @return
-     */
-    public int getJointCount(int srcId, int tgtId) { 
-      return counts.get(pack(srcId, tgtId));
-    }
-    
-    /**
-     * Number of entries in the table.
-     * 
-     * @return
-     */
-    public int size() { return counts.size(); }
-    
-    /**
-     * Merge two interger ids into an unsigned long value. This is two unwrapped calls
-     * to Integer.toUnsignedLong().
-     * 
-     * @param srcId
-     * @param tgtId
-     * @return
-     */
-    public long pack(int srcId, int tgtId) {
-      return ((((long) srcId) & 0xffffffffL) << 32) | ((long) tgtId) & 0xffffffffL;
-    }
-  }
-  
   /**
    * Extract admissible phrase pairs from the sampled sentence.
    * This is the "pattern matching" algorithm of Lopez (2008).
@@ -2,7 +2,6 @@ package edu.stanford.nlp.mt.tm;
 
 import java.io.IOException;
 import java.io.LineNumberReader;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -154,28 +153,60 @@ public class ExtendedLexicalReorderingTable {
   }
 
   public final String filetype;
-  private final List<float[]> reorderingScores;
-  private final PhraseTable<IString> phraseTable;
+  private final CompiledReorderingTable table;
 
   public final ReorderingTypes[] positionalMapping;
   public final ConditionTypes conditionType;
 
+  /**
+   * A copy of the scores of a rule.
+   *
+   * @param rule
+   * @return The scores, or null if the rule has no entry in the table.
+   */
   public float[] getReorderingScores(Rule<IString> rule) {
-    int reorderingId = -1;
-    if (conditionType == ConditionTypes.fe) {
-      reorderingId = rule.id;
-    }
-    reorderingId -= phraseTable.minRuleIndex();
-    return reorderingId >= 0 && reorderingId < reorderingScores.size() ? reorderingScores.get(reorderingId) : null;
+    return conditionType == ConditionTypes.fe ? table.get(rule) : null;
+  }
+
+  /**
+   * The index of the scores of a rule for <code>getReorderingScore()</code>.
+   *
+   * @param rule
+   * @return The index, or -1 if the rule has no entry in the table.
+   */
+  public int getReorderingIndex(Rule<IString> rule) {
+    return conditionType == ConditionTypes.fe ? table.index(rule) : -1;
+  }
+
+  /**
+   * The i-th score at an index returned by <code>getReorderingIndex()</code>.
+   *
+   * @param index
+   * @param i
+   * @return
+   */
+  public float getReorderingScore(int index, int i) {
+    return table.get(index, i);
+  }
+
+  /**
+   * The scores indexed by rule id, which can be saved with <code>CompiledReorderingTable.save()</code>.
+   *
+   * @return
+   */
+  public CompiledReorderingTable getCompiledTable() {
+    return table;
   }
 
   public ExtendedLexicalReorderingTable(String filename, PhraseTable<IString> phraseTable, String desiredFileType)
       throws IOException {
-    this.phraseTable = phraseTable;
-    this.reorderingScores = new ArrayList<>(phraseTable.size());
-    for (int i = 0, sz = phraseTable.size(); i < sz; ++i) this.reorderingScores.add(null);
-
-    String filetype = init(filename, desiredFileType);
+    if (CompiledReorderingTable.isCompiled(filename)) {
+      System.err.printf("Mapping compiled reordering table: %s%n", filename);
+      this.table = CompiledReorderingTable.load(filename, phraseTable);
+    } else {
+      this.table = init(filename, phraseTable, desiredFileType);
+    }
+    String filetype = table.filetype;
     if (!desiredFileType.equals(filetype)) {
       throw new RuntimeException(String.format(
           "Reordering file '%s' of type %s not %s", filename, filetype,
@@ -186,9 +217,14 @@ public class ExtendedLexicalReorderingTable {
     this.positionalMapping = (ReorderingTypes[]) fileTypeToReorderingType
         .get(filetype);
     this.conditionType = fileTypeToConditionType.get(filetype);    
+    if (positionalMapping.length != table.numScores) {
+      throw new RuntimeException(String.format("Reordering file '%s' has %d scores per entry, not %d",
+          filename, table.numScores, positionalMapping.length));
+    }
   }
 
-  private String init(String filename, String type) throws IOException {
+  private static CompiledReorderingTable init(String filename, PhraseTable<IString> phraseTable, String type)
+      throws IOException {
     boolean withGaps = Phrasal.withGaps;
     Runtime rt = Runtime.getRuntime();
     long preTableLoadMemUsed = rt.totalMemory() - rt.freeMemory();
@@ -221,6 +257,8 @@ public class ExtendedLexicalReorderingTable {
           filename));
     }
 
+    CompiledReorderingTable table = new CompiledReorderingTable(selectedFiletype, positionalMapping.length,
+        phraseTable);
     LineNumberReader reader = IOTools.getReaderFromFile(filename);
     for (String line; (line = reader.readLine()) != null; ) {
       final List<List<String>> fields = StringUtils.splitFieldsFast(line, AlignmentTemplate.DELIM);
@@ -254,7 +292,7 @@ public class ExtendedLexicalReorderingTable {
             String
                 .format(
                     "File type '%s' requires that %d scores be provided for each entry, however only %d were found (line %d)",
-                    filetype, positionalMapping.length, scoreList.size(),
+                    selectedFiletype, positionalMapping.length, scoreList.size(),
                     reader.getLineNumber()));
       }
       
@@ -280,12 +318,9 @@ public class ExtendedLexicalReorderingTable {
       if (idx < 0) {
         throw new RuntimeException(String.format("Phrase %d not in phrase table", reader.getLineNumber()));
       }
-      if (reorderingScores.get(idx) != null) {
+      if ( ! table.set(idx, IOTools.stringListToNumeric(scoreList))) {
         throw new RuntimeException(String.format("Duplicate phrase %d in phrase table", reader.getLineNumber()));
       }
-      float[] scores = IOTools.stringListToNumeric(scoreList);
-      idx -= phraseTable.minRuleIndex();
-      reorderingScores.set(idx, scores);
     }
     reader.close();
     
@@ -296,6 +331,6 @@ public class ExtendedLexicalReorderingTable {
         filename, (postTableLoadMemUsed - preTableLoadMemUsed) / (1024 * 1024),
         elapsedTime);
 
-    return selectedFiletype;
+    return table;
   }
 }
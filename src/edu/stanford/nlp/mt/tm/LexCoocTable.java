@@ -0,0 +1,399 @@
+package edu.stanford.nlp.mt.tm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.ParallelSuffixArray;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray.SentencePair;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * Lexical co-occurrence counts over the alignment links of a bitext.
+ *
+ * The counts are stored as a sorted array of packed (source, target) keys and a parallel
+ * array of counts. Keys with the same source id form a row, and an index of row offsets
+ * reduces a lookup to a binary search over the targets of one source id. The table is
+ * immutable and threadsafe.
+ *
+ * The table can be saved and then memory-mapped on the next load, which skips the pass
+ * over the bitext. The keys and counts are mapped in segments, so the size of a table is not
+ * limited by the 2GB limit of a single mapping. Binary format (big-endian):
+ * <pre>
+ *   int magic, int version, long signature
+ *   int number of rows r, int number of keys n
+ *   int[r+1] row offsets, long[n] keys, int[n] counts
+ * </pre>
+ */
+public class LexCoocTable {
+
+  private static final Logger logger = LogManager.getLogger(LexCoocTable.class);
+
+  public static final int NULL_ID = Integer.MIN_VALUE + 1;
+  private static final int MARGINALIZE = Integer.MIN_VALUE;
+
+  private static final int MAGIC = 0x4c434f43;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 * Integer.BYTES + Long.BYTES;
+
+  // Entries per segment of the keys and counts. A segment of keys is 1GB.
+  static final int DEFAULT_SEGMENT_BITS = 27;
+
+  private final int numRows;
+  private final int numKeys;
+  private final int segmentBits;
+  private final int segmentMask;
+  private final IntBuffer rowStarts;
+  private final LongBuffer[] keys;
+  private final IntBuffer[] counts;
+
+  /**
+   * Constructor.
+   *
+   * @param rowStarts
+   * @param numKeys
+   * @param segmentBits
+   * @param keys
+   * @param counts
+   */
+  private LexCoocTable(IntBuffer rowStarts, int numKeys, int segmentBits, LongBuffer[] keys,
+      IntBuffer[] counts) {
+    this.numRows = rowStarts.capacity() - 1;
+    this.numKeys = numKeys;
+    this.segmentBits = segmentBits;
+    this.segmentMask = (1 << segmentBits) - 1;
+    this.rowStarts = rowStarts;
+    this.keys = keys;
+    this.counts = counts;
+  }
+
+  /**
+   * Number of segments of <code>n</code> entries.
+   */
+  private static int numSegments(int n, int segmentBits) {
+    return (int) ((n + (1L << segmentBits) - 1) >>> segmentBits);
+  }
+
+  private long key(int i) {
+    return keys[i >>> segmentBits].get(i & segmentMask);
+  }
+
+  private int count(int i) {
+    return counts[i >>> segmentBits].get(i & segmentMask);
+  }
+
+  /**
+   * Count the co-occurrences of a bitext. Each thread counts into its own partial map.
+   * The partial maps are then sorted and merged in parallel.
+   *
+   * @param sa
+   * @return
+   */
+  public static LexCoocTable build(ParallelSuffixArray sa) {
+    final int initialCapacity = sa.getVocabulary().size();
+    final Map<Thread,Long2IntOpenHashMap> partials = new ConcurrentHashMap<>();
+    sa.parallelStream().forEach(s -> addCoocs(partials.computeIfAbsent(Thread.currentThread(),
+        t -> new Long2IntOpenHashMap(initialCapacity)), s));
+    final SortedCounts counts = partials.values().parallelStream().map(SortedCounts::new)
+        .reduce(SortedCounts::merge).orElse(new SortedCounts(new Long2IntOpenHashMap()));
+    return fromArrays(rowStarts(counts.keys), counts.keys, counts.counts, DEFAULT_SEGMENT_BITS);
+  }
+
+  /**
+   * A table over in-memory arrays, which are split into segments without copying.
+   */
+  static LexCoocTable fromArrays(int[] rowStarts, long[] keys, int[] counts, int segmentBits) {
+    final int numSegments = numSegments(keys.length, segmentBits);
+    LongBuffer[] keySegments = new LongBuffer[numSegments];
+    IntBuffer[] countSegments = new IntBuffer[numSegments];
+    for (int k = 0; k < numSegments; ++k) {
+      final int offset = k << segmentBits;
+      final int length = Math.min(1 << segmentBits, keys.length - offset);
+      keySegments[k] = LongBuffer.wrap(keys, offset, length).slice();
+      countSegments[k] = IntBuffer.wrap(counts, offset, length).slice();
+    }
+    return new LexCoocTable(IntBuffer.wrap(rowStarts), keys.length, segmentBits, keySegments, countSegments);
+  }
+
+  /**
+   * Add the co-occurrences of a sentence pair to a partial count map.
+   *
+   * @param map
+   * @param s
+   */
+  private static void addCoocs(Long2IntOpenHashMap map, SentencePair s) {
+    for(int i = 0, sz = s.sourceLength(); i < sz; ++i) {
+      final int srcId = s.source(i);
+      if (s.isSourceUnaligned(i)) {
+        addCooc(map, srcId, NULL_ID);
+      } else {
+        // Don't discriminate among alignment links.
+        // See {@link edu.stanford.nlp.mt.train.MosesPharoahFeatureExtractor#FeaturizeSentence}
+        // TODO(spenceg) Maybe we should discriminate? Will greatly increase the size of the
+        // of the cooc table.
+        for (int j : s.f2e(i)) {
+          addCooc(map, srcId, s.target(j));
+        }
+      }
+    }
+    // Look for unaligned target words that were skipped in the loop
+    // above.
+    for(int i = 0, sz = s.targetLength(); i < sz; ++i) {
+      if (s.isTargetUnaligned(i)) {
+        addCooc(map, NULL_ID, s.target(i));
+      }
+    }
+  }
+
+  private static void addCooc(Long2IntOpenHashMap map, int srcId, int tgtId) {
+    map.addTo(pack(srcId, tgtId), 1);
+    map.addTo(pack(MARGINALIZE, tgtId), 1);
+    map.addTo(pack(srcId, MARGINALIZE), 1);
+  }
+
+  /**
+   * Partial counts sorted by key.
+   */
+  private static class SortedCounts {
+    final long[] keys;
+    final int[] counts;
+
+    SortedCounts(Long2IntOpenHashMap map) {
+      keys = map.keySet().toLongArray();
+      Arrays.sort(keys);
+      counts = new int[keys.length];
+      for (int i = 0; i < keys.length; ++i) counts[i] = map.get(keys[i]);
+    }
+
+    SortedCounts(long[] keys, int[] counts) {
+      this.keys = keys;
+      this.counts = counts;
+    }
+
+    /**
+     * Merge two sorted count lists.
+     */
+    static SortedCounts merge(SortedCounts a, SortedCounts b) {
+      long[] keys = new long[a.keys.length + b.keys.length];
+      int[] counts = new int[keys.length];
+      int i = 0, j = 0, n = 0;
+      while (i < a.keys.length && j < b.keys.length) {
+        if (a.keys[i] < b.keys[j]) {
+          keys[n] = a.keys[i];
+          counts[n++] = a.counts[i++];
+        } else if (a.keys[i] > b.keys[j]) {
+          keys[n] = b.keys[j];
+          counts[n++] = b.counts[j++];
+        } else {
+          keys[n] = a.keys[i];
+          counts[n++] = a.counts[i++] + b.counts[j++];
+        }
+      }
+      for (; i < a.keys.length; ++i, ++n) {
+        keys[n] = a.keys[i];
+        counts[n] = a.counts[i];
+      }
+      for (; j < b.keys.length; ++j, ++n) {
+        keys[n] = b.keys[j];
+        counts[n] = b.counts[j];
+      }
+      return n == keys.length ? new SortedCounts(keys, counts) :
+        new SortedCounts(Arrays.copyOf(keys, n), Arrays.copyOf(counts, n));
+    }
+  }
+
+  /**
+   * Row offsets of sorted keys. Row r starts at offset r and ends at offset r+1.
+   *
+   * @param keys
+   * @return
+   */
+  private static int[] rowStarts(long[] keys) {
+    final int numRows = keys.length == 0 ? 0 : row(source(keys[keys.length - 1])) + 1;
+    final int[] rowStarts = new int[numRows + 1];
+    int r = 0;
+    for (int i = 0; i < keys.length; ++i) {
+      final int row = row(source(keys[i]));
+      while (r <= row) rowStarts[r++] = i;
+    }
+    while (r <= numRows) rowStarts[r++] = keys.length;
+    return rowStarts;
+  }
+
+  /**
+   * The row of a source id. Rows follow the signed order of the keys: the marginals,
+   * then the null word, then the vocabulary.
+   *
+   * @param srcId
+   * @return -1 if the source id cannot occur in the table.
+   */
+  private static int row(int srcId) {
+    return srcId >= 0 ? srcId + 2 : srcId == MARGINALIZE ? 0 : srcId == NULL_ID ? 1 : -1;
+  }
+
+  private static int source(long key) {
+    return (int) (key >> 32);
+  }
+
+  /**
+   * Source marginal count.
+   *
+   * @param srcId
+   * @return
+   */
+  public int getSrcMarginal(int srcId) { return getJointCount(srcId, MARGINALIZE); }
+
+  /**
+   * Target marginal count.
+   *
+   * @param tgtId
+   * @return
+   */
+  public int getTgtMarginal(int tgtId) { return getJointCount(MARGINALIZE, tgtId); }
+
+  /**
+   * Joint count.
+   *
+   * @param srcId
+   * @param tgtId
+   * @return
+   */
+  public int getJointCount(int srcId, int tgtId) {
+    final int row = row(srcId);
+    if (row < 0 || row >= numRows) return 0;
+    final long key = pack(srcId, tgtId);
+    int lo = rowStarts.get(row);
+    int hi = rowStarts.get(row + 1) - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final long midKey = key(mid);
+      if (midKey < key) {
+        lo = mid + 1;
+      } else if (midKey > key) {
+        hi = mid - 1;
+      } else {
+        return count(mid);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Number of entries in the table.
+   *
+   * @return
+   */
+  public int size() { return numKeys; }
+
+  /**
+   * Merge two interger ids into an unsigned long value. This is two unwrapped calls
+   * to Integer.toUnsignedLong().
+   *
+   * @param srcId
+   * @param tgtId
+   * @return
+   */
+  public static long pack(int srcId, int tgtId) {
+    return ((((long) srcId) & 0xffffffffL) << 32) | ((long) tgtId) & 0xffffffffL;
+  }
+
+  /**
+   * Save the table. The signature identifies the bitext and is checked by
+   * <code>load()</code>. The file is written under a temporary name and then
+   * renamed so that concurrent loaders never see a partial file.
+   *
+   * @param filename
+   * @param signature
+   * @throws IOException
+   */
+  public void save(String filename, long signature) throws IOException {
+    File tmpFile = new File(filename + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(signature);
+      out.writeInt(numRows);
+      out.writeInt(size());
+      for (int i = 0; i <= numRows; ++i) out.writeInt(rowStarts.get(i));
+      for (int i = 0, sz = size(); i < sz; ++i) out.writeLong(key(i));
+      for (int i = 0, sz = size(); i < sz; ++i) out.writeInt(count(i));
+    }
+    Files.move(tmpFile.toPath(), new File(filename).toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Memory-map a saved table.
+   *
+   * @param filename
+   * @param signature
+   * @return The table, or null if the file does not exist or was saved for a different bitext.
+   * @throws IOException
+   */
+  public static LexCoocTable load(String filename, long signature) throws IOException {
+    return load(filename, signature, DEFAULT_SEGMENT_BITS);
+  }
+
+  /**
+   * Memory-map a saved table with segments of <code>2^segmentBits</code> entries.
+   *
+   * @param filename
+   * @param signature
+   * @param segmentBits
+   * @return
+   * @throws IOException
+   */
+  static LexCoocTable load(String filename, long signature, int segmentBits) throws IOException {
+    if ( ! new File(filename).exists()) return null;
+    try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+      if (file.length() < HEADER_BYTES || file.readInt() != MAGIC || file.readInt() != VERSION) {
+        logger.warn("Not a cooc table: {}", filename);
+        return null;
+      }
+      if (file.readLong() != signature) {
+        logger.warn("Cooc table was saved for a different bitext: {}", filename);
+        return null;
+      }
+      final int numRows = file.readInt();
+      final int numKeys = file.readInt();
+      final long rowBytes = (numRows + 1L) * Integer.BYTES;
+      final long keyBytes = (long) numKeys * Long.BYTES;
+      final long countBytes = (long) numKeys * Integer.BYTES;
+      if (file.length() != HEADER_BYTES + rowBytes + keyBytes + countBytes) {
+        logger.warn("Truncated cooc table: {}", filename);
+        return null;
+      }
+      // Mappings remain valid after the channel is closed.
+      final FileChannel channel = file.getChannel();
+      long position = HEADER_BYTES;
+      IntBuffer rowStarts = channel.map(FileChannel.MapMode.READ_ONLY, position, rowBytes).asIntBuffer();
+      position += rowBytes;
+      final int numSegments = numSegments(numKeys, segmentBits);
+      LongBuffer[] keys = new LongBuffer[numSegments];
+      IntBuffer[] counts = new IntBuffer[numSegments];
+      for (int k = 0; k < numSegments; ++k) {
+        final long offset = (long) k << segmentBits;
+        final long length = Math.min(1L << segmentBits, numKeys - offset);
+        keys[k] = channel.map(FileChannel.MapMode.READ_ONLY, position + offset * Long.BYTES,
+            length * Long.BYTES).asLongBuffer();
+        counts[k] = channel.map(FileChannel.MapMode.READ_ONLY, position + keyBytes + offset * Integer.BYTES,
+            length * Integer.BYTES).asIntBuffer();
+      }
+      return new LexCoocTable(rowStarts, numKeys, segmentBits, keys, counts);
+    }
+  }
+}
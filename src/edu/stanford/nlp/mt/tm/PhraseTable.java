@@ -59,4 +59,12 @@ public interface PhraseTable<T> {
    * @return
    */
   int minRuleIndex();
+
+  /**
+   * A hash of the rules and their order in the phrase table. Tables that are indexed by rule
+   * id check it to detect a different phrase table.
+   * 
+   * @return
+   */
+  long signature();
 }
@@ -58,6 +58,12 @@ public class Rule<T> implements Comparable<Rule<T>>{
   public float[] reoderingScores;
   public ReorderingTypes forwardOrientation;
   public ReorderingTypes backwardOrientation;
+
+  /**
+   * The features of the static rule featurizers and their score. Cached
+   * by <code>FeatureExtractor</code>.
+   */
+  public volatile Object staticFeatures;
   
   /**
    * Constructor for synthetic rules, which typically are generated at runtime
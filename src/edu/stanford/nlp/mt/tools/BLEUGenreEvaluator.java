@@ -91,7 +91,7 @@ public class BLEUGenreEvaluator {
       Sequence<IString> translation = IStrings.tokenize(line);
       ScoredFeaturizedTranslation<IString, String> tran = new ScoredFeaturizedTranslation<IString, String>(
           translation, null, 0);
-      String genre = inputProperties.get(sourceId).containsKey(InputProperty.Domain) ? (String) inputProperties.get(sourceId).get(InputProperty.Domain)
+      String genre = inputProperties.get(sourceId).containsKey(InputProperty.Domain) ? ((String[]) inputProperties.get(sourceId).get(InputProperty.Domain))[0]
           : DEFAULT_GENRE;
       metrics.get(genre).add(tran);
       ++sourceId;
@@ -1,18 +1,31 @@
 package edu.stanford.nlp.mt.tools;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.LineNumberReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Properties;
 import java.util.Set;
 
+import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.LineIndexedCorpus;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.Pair;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringUtils;
 import edu.stanford.nlp.util.Triple;
+import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
+import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 
 /**
  * Feature Decay Algorithm (FDA) bi-text selection.
@@ -21,6 +34,11 @@ import edu.stanford.nlp.util.Triple;
  * "Instance Selection for Machine Translation using feature Decay Algorithms" 
  * (WMT2011)  
  * 
+ * For very large candidate pools, the <code>-pool</code> option first streams the pool
+ * and keeps the segments with the best initial (undecayed) scores, which are computed
+ * in parallel. The greedy feature decay selection is then run on that subset with
+ * feature counts from the full pool.
+ * 
  * @author daniel cer (http://dmcer.net)
  *
  */
@@ -35,7 +53,7 @@ public class FDACorpusSelection {
    final Set<String> F;
    final Counter<String> cntfU;
    final Counter<String> cntfL;
-   final int sizeU;
+   final long sizeU;
    final PriorityQueue<Integer> Q;
    final double score[];
    final Counter<String> fvalue;
@@ -46,7 +64,11 @@ public class FDACorpusSelection {
    private boolean isMono = false; // Thang Aug13: handle monolingual data
    
    static public void usage() {
-      System.err.printf("Usage: java %s selection_size bitext_tgt bitext_src test_src selected_tgt selected_src [selected_lines]%n", FDACorpusSelection.class.getName());
+      System.err.printf("Usage: java %s [options] selection_size bitext_tgt bitext_src test_src selected_tgt selected_src [selected_lines]%n", FDACorpusSelection.class.getName());
+      System.err.println("Options:");
+      System.err.println("  -pool num: stream the bitext and run FDA on the num segments with the best initial scores");
+      System.err.println("  -threads num: number of threads for pool scoring (default=1)");
+      System.err.println("  -checkpoint file: periodically save the pool selection state to file, and resume from it if it exists");
    }
    
    class SentenceScoreComparator implements Comparator<Integer> {
@@ -60,6 +82,10 @@ public class FDACorpusSelection {
    // improved run time performance by decreasing the number of tied segment 
    // scores
    private double init(String f) {
+      return init(f, cntfU, sizeU);
+   }
+   
+   private static double init(String f, Counter<String> cntfU, long sizeU) {
       return Math.log(sizeU) - Math.log(cntfU.getCount(f));  
    }
    
@@ -71,43 +97,45 @@ public class FDACorpusSelection {
    
    public FDACorpusSelection(LineIndexedCorpus bitextEn, LineIndexedCorpus 
      bitextFr, LineIndexedCorpus testFr) {
+      this(bitextEn, bitextFr, testFeatures(testFr), null, 0);
+   }
+   
+   /**
+    * Constructor for selection from a subset of the candidate pool U. The 
+    * features F, cnt(f,U), and |U| are computed with <code>testFeatures()</code>
+    * and <code>poolCounts()</code>.
+    */
+   public FDACorpusSelection(LineIndexedCorpus bitextEn, LineIndexedCorpus 
+       bitextFr, Set<String> F, Counter<String> cntfU, long sizeU) {
       this.bitextEn = bitextEn;
       this.bitextFr = bitextFr;      
+      this.F = F;
       
       if (bitextEn==null) { isMono = true; } // Thang Aug13: handle mono
       rejectedCount = 0;
       
-      // construct F
-      if (VERBOSE>=1) { System.err.println("# Constructing test set features ..."); }
-      Counter<String> testFrNgramCounts = new ClassicCounter<String>();
-      for (String line : testFr) {
-         if (VERBOSE>=2) {
-            System.err.println("test line:" + line);
-         }
-         CoverageChecker.countNgrams(line, testFrNgramCounts, null, NGRAM_ORDER);
-      }
-      F = new HashSet<String>(testFrNgramCounts.keySet());
-      if (VERBOSE>=1) { System.err.println("Done. Feature size = " + F.size()); }
-      
-      // collect cnt(f,U) values and |U|
-      if (VERBOSE>=1) { System.err.println("# Collecting cnt(f,U) values and |U| ..."); }
-      cntfU = new ClassicCounter<String>();
-      int sizeU = 0;
-      int numLines = 0;
-      for (String line : bitextFr) {
-         CoverageChecker.countNgrams(line, cntfU, F, NGRAM_ORDER);
-         sizeU += line.split("\\s+").length;
-         
-         if(VERBOSE>=1){
-           numLines++;
-           if(numLines%100000==0){
-             System.err.print(" (" + numLines/1000 + "K) ");
-           }
+      if (cntfU == null) {
+         // collect cnt(f,U) values and |U|
+         if (VERBOSE>=1) { System.err.println("# Collecting cnt(f,U) values and |U| ..."); }
+         cntfU = new ClassicCounter<String>();
+         sizeU = 0;
+         int numLines = 0;
+         for (String line : bitextFr) {
+            CoverageChecker.countNgrams(line, cntfU, F, NGRAM_ORDER);
+            sizeU += line.split("\\s+").length;
+            
+            if(VERBOSE>=1){
+              numLines++;
+              if(numLines%100000==0){
+                System.err.print(" (" + numLines/1000 + "K) ");
+              }
+            }
          }
+         if (VERBOSE>=1) { System.err.println("Done. Num lines = " + numLines + ". Num distinct ngrams = " + cntfU.size() + 
+             ". Num total tokens = " + sizeU + "."); }
       }
+      this.cntfU = cntfU;
       this.sizeU = sizeU;
-      if (VERBOSE>=1) { System.err.println("Done. Num lines = " + numLines + ". Num distinct ngrams = " + cntfU.size() + 
-          ". Num total tokens = " + sizeU + "."); }
       
       // initial feature weights
       fvalue = new ClassicCounter<String>();
@@ -122,7 +150,7 @@ public class FDACorpusSelection {
       // score sentences using initial feature weights and place them in the PriorityQueue
       score = new double[bitextFr.size()];
       Q = new PriorityQueue<Integer>(bitextFr.size(), new SentenceScoreComparator());
-      numLines = 0; 
+      int numLines = 0; 
       if (VERBOSE>=1) { System.err.println("# Computing sent scores and adding to a priority queue ..."); }
       for (int i = 0; i < score.length; i++) {
          Counter<String> lineNgramCounts = new ClassicCounter<String>();
@@ -152,6 +180,105 @@ public class FDACorpusSelection {
       cntfL = new ClassicCounter<String>();
    }
    
+   /**
+    * The test set features F.
+    */
+   public static Set<String> testFeatures(Iterable<String> testFr) {
+      if (VERBOSE>=1) { System.err.println("# Constructing test set features ..."); }
+      Counter<String> testFrNgramCounts = new ClassicCounter<String>();
+      for (String line : testFr) {
+         if (VERBOSE>=2) {
+            System.err.println("test line:" + line);
+         }
+         CoverageChecker.countNgrams(line, testFrNgramCounts, null, NGRAM_ORDER);
+      }
+      Set<String> F = new HashSet<String>(testFrNgramCounts.keySet());
+      if (VERBOSE>=1) { System.err.println("Done. Feature size = " + F.size()); }
+      return F;
+   }
+   
+   /**
+    * Stream the candidate pool U and collect cnt(f,U) and |U| in parallel.
+    */
+   public static Pair<Counter<String>,Long> poolCounts(String bitextFrFn, Set<String> F, 
+       int numThreads) throws IOException {
+      if (VERBOSE>=1) { System.err.println("# Collecting cnt(f,U) values and |U| ..."); }
+      MulticoreWrapper<List<String>,Pair<Counter<String>,Long>> wrapper = 
+        new MulticoreWrapper<>(numThreads, new ThreadsafeProcessor<List<String>,Pair<Counter<String>,Long>>() {
+           @Override
+           public Pair<Counter<String>,Long> process(List<String> lines) {
+              Counter<String> counts = new ClassicCounter<String>();
+              long size = 0;
+              for (String line : lines) {
+                 CoverageChecker.countNgrams(line, counts, F, NGRAM_ORDER);
+                 size += line.split("\\s+").length;
+              }
+              return new Pair<>(counts, size);
+           }
+           @Override
+           public ThreadsafeProcessor<List<String>,Pair<Counter<String>,Long>> newInstance() {
+              return this;
+           }
+        }, false);
+      
+      Counter<String> cntfU = new ClassicCounter<String>();
+      long sizeU = 0;
+      int numLines = 0;
+      LineNumberReader reader = IOTools.getReaderFromFile(bitextFrFn);
+      List<String> lines = new ArrayList<>(StreamingCorpusSelection.DEFAULT_CHUNK_SIZE);
+      for (String line; (line = reader.readLine()) != null; ) {
+         lines.add(line);
+         if (lines.size() == StreamingCorpusSelection.DEFAULT_CHUNK_SIZE) {
+            wrapper.put(lines);
+            lines = new ArrayList<>(StreamingCorpusSelection.DEFAULT_CHUNK_SIZE);
+         }
+         while (wrapper.peek()) {
+            Pair<Counter<String>,Long> counts = wrapper.poll();
+            cntfU.addAll(counts.first());
+            sizeU += counts.second();
+         }
+         if(VERBOSE>=1){
+           numLines++;
+           if(numLines%1000000==0){
+             System.err.print(" (" + numLines/1000000 + "M) ");
+           }
+         }
+      }
+      reader.close();
+      if (lines.size() > 0) wrapper.put(lines);
+      wrapper.join();
+      while (wrapper.peek()) {
+         Pair<Counter<String>,Long> counts = wrapper.poll();
+         cntfU.addAll(counts.first());
+         sizeU += counts.second();
+      }
+      if (VERBOSE>=1) { System.err.println("Done. Num lines = " + numLines + ". Num distinct ngrams = " + cntfU.size() + 
+          ". Num total tokens = " + sizeU + "."); }
+      return new Pair<>(cntfU, sizeU);
+   }
+   
+   /**
+    * Threadsafe scorer for the initial (undecayed) segment scores. The source 
+    * segment is the first field of the record.
+    */
+   public static StreamingCorpusSelection.Scorer initialScorer(Set<String> F, Counter<String> cntfU, long sizeU) {
+      final Map<String,Double> fvalue = new HashMap<>(F.size());
+      for (String f : F) fvalue.put(f, init(f, cntfU, sizeU));
+      return record -> {
+         Counter<String> lineNgramCounts = new ClassicCounter<String>();
+         String line = record[0];
+         CoverageChecker.countNgrams(line, lineNgramCounts, F, NGRAM_ORDER);
+         double score = 0.0;
+         for (String f : lineNgramCounts.keySet()) {
+            score += fvalue.get(f)*lineNgramCounts.getCount(f);
+         }
+         if (LENGTH_NORM) {
+            score /= line.split("\\s+").length;
+         }
+         return score;
+      };
+   }
+   
    public Triple<String,String,Integer> getNextBest() {
       while (true) {
          if (Q.size() == 0) return null;
@@ -224,7 +351,18 @@ public class FDACorpusSelection {
       }
    }
    
+   private static Map<String,Integer> argDefs() {
+      Map<String,Integer> argDefs = new HashMap<>();
+      argDefs.put("pool", 1);
+      argDefs.put("threads", 1);
+      argDefs.put("checkpoint", 1);
+      return argDefs;
+   }
+   
    static public void main(String[] args) throws IOException {
+      Properties options = StringUtils.argsToProperties(args, argDefs());
+      // Thang Aug13: the tgt bitext could be "" for monolingual
+      args = options.getProperty("", "").split(" ", -1);
       if (args.length != 7 && args.length != 6) {
          usage();
          System.exit(-1);
@@ -237,19 +375,51 @@ public class FDACorpusSelection {
       String selectedEnFn = args[4]; // Thang Aug13: could be "" for monolingual
       String selectedFrFn = args[5];
       String selectedLines = (args.length == 7 ? args[6] : null);
-       
-      // src bitext
-      System.err.printf("# Opening %s\n", bitextFrFn);
-      LineIndexedCorpus bitextFr = new LineIndexedCorpus(bitextFrFn);
+      int poolSize = PropertiesUtils.getInt(options, "pool", 0);
+      int numThreads = PropertiesUtils.getInt(options, "threads", 1);
+      boolean isMono = bitextEnFn.equals(""); 
       
       // src test
       System.err.printf("# Opening %s\n", testFn);
       LineIndexedCorpus testFr = new LineIndexedCorpus(testFn);
       
+      // Stream the bitext and keep the best segments according to the initial scores
+      Set<String> F = null;
+      Pair<Counter<String>,Long> poolCounts = null;
+      String[] poolFiles = null;
+      long[] poolLineIds = null;
+      if (poolSize > 0) {
+         F = testFeatures(testFr);
+         poolCounts = poolCounts(bitextFrFn, F, numThreads);
+         String[] inputFiles = isMono ? new String[] { bitextFrFn } : new String[] { bitextFrFn, bitextEnFn };
+         poolFiles = isMono ? new String[] { selectedFrFn + ".pool", selectedFrFn + ".pool.line" } :
+           new String[] { selectedFrFn + ".pool", selectedEnFn + ".pool", selectedFrFn + ".pool.line" };
+         StreamingCorpusSelection selection = new StreamingCorpusSelection(
+             initialScorer(F, poolCounts.first(), poolCounts.second()), false, numThreads);
+         if (options.containsKey("checkpoint")) {
+            selection.setCheckpoint(options.getProperty("checkpoint"), StreamingCorpusSelection.DEFAULT_CHECKPOINT_INTERVAL);
+         }
+         if (VERBOSE>=1) { System.err.println("# Selecting a pool of " + poolSize + " segments ..."); }
+         long numSelected = selection.selectTopK(inputFiles, poolSize, 
+             isMono ? new String[] { poolFiles[0] } : new String[] { poolFiles[0], poolFiles[1] }, 
+             null, poolFiles[poolFiles.length-1]);
+         poolLineIds = new long[(int) numSelected];
+         LineNumberReader reader = IOTools.getReaderFromFile(poolFiles[poolFiles.length-1]);
+         for (int i = 0; i < poolLineIds.length; ++i) {
+            poolLineIds[i] = Long.parseLong(reader.readLine());
+         }
+         reader.close();
+         bitextFrFn = poolFiles[0];
+         if (!isMono) bitextEnFn = poolFiles[1];
+      }
+       
+      // src bitext
+      System.err.printf("# Opening %s\n", bitextFrFn);
+      LineIndexedCorpus bitextFr = new LineIndexedCorpus(bitextFrFn);
+      
       // Thang Aug13: handle "" tgt bitext
       LineIndexedCorpus bitextEn = null;
       PrintWriter selectedEn = null;
-      boolean isMono = bitextEnFn.equals(""); 
       if(!isMono){ 
         // tgt bitext
         System.err.printf("Opening %s\n", bitextEnFn);
@@ -276,14 +446,15 @@ public class FDACorpusSelection {
       PrintWriter selectedLn = (selectedLines == null ? null : 
         new PrintWriter(new OutputStreamWriter(new FileOutputStream(
             selectedLines), "UTF-8")));
-      FDACorpusSelection fsacs = new FDACorpusSelection(bitextEn, bitextFr, 
-         testFr);
+      FDACorpusSelection fsacs = poolSize > 0 ? 
+         new FDACorpusSelection(bitextEn, bitextFr, F, poolCounts.first(), poolCounts.second()) : 
+         new FDACorpusSelection(bitextEn, bitextFr, testFr);
       if (VERBOSE>=1) { System.err.println("# Start selecting training instances ..."); }
       for (int n = 0; n < selectionSize; n++) {
          Triple<String,String,Integer> frEn = fsacs.getNextBest();
          selectedFr.println(frEn.first());
          if (!isMono) { selectedEn.println(frEn.second()); } // Thang Aug13: handle mono
-         if (selectedLn != null) selectedLn.println(frEn.third());
+         if (selectedLn != null) selectedLn.println(poolLineIds == null ? frEn.third() : poolLineIds[frEn.third()]);
          
          if(VERBOSE>=1 && ((n+1)%1000==0)){ System.err.print(" (" + (n+1)/1000 + "K, rejected=" + 
              fsacs.rejectedCount + ")"); }
@@ -294,5 +465,8 @@ public class FDACorpusSelection {
       selectedFr.close();
       if (!isMono) { selectedEn.close(); } // Thang Aug13: handle mono     
       if (selectedLn != null) selectedLn.close();
+      if (poolFiles != null) {
+         for (String poolFile : poolFiles) new File(poolFile).delete();
+      }
    }
 }
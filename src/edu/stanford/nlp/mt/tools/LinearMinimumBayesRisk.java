@@ -0,0 +1,165 @@
+package edu.stanford.nlp.mt.tools;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import edu.stanford.nlp.math.SloppyMath;
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
+import edu.stanford.nlp.mt.util.ArraySequence;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Minimum Bayes risk decoding with the linear approximation to BLEU of Tromble et al. (2008).
+ * The gain of a hypothesis E' is
+ *
+ *   theta_0 |E'| + sum_w theta_|w| #_w(E') p(w)
+ *
+ * where p(w) is the posterior probability that the n-gram w appears in a translation. The
+ * posteriors are collected in one pass over the evidence, so decoding is linear in the size of
+ * an n-best list instead of quadratic. N-grams are keyed by 64-bit hashes of the word ids;
+ * collisions are ignored.
+ *
+ * Over a search graph, the posterior of an n-gram is approximated by the sum of the posteriors
+ * of the edges that produce it (capped at 1), and the gain, which decomposes over the edges, is
+ * maximized with the Viterbi algorithm.
+ *
+ * This class is threadsafe.
+ */
+public class LinearMinimumBayesRisk {
+
+  public static final int ORDER = 4;
+  public static final double DEFAULT_PRECISION = 0.85;
+  public static final double DEFAULT_RATIO = 0.7;
+
+  private static final long SEED = 0xcbf29ce484222325L;
+
+  private final double scale;
+  // theta[0] is the length penalty and theta[n] is the gain of an n-gram match
+  private final double[] theta;
+
+  /**
+   * Constructor.
+   *
+   * @param scale Scale of the model scores in the posterior distribution.
+   * @param precision Unigram precision of the evidence.
+   * @param ratio Decay of the precision with the n-gram order.
+   */
+  public LinearMinimumBayesRisk(double scale, double precision, double ratio) {
+    this.scale = scale;
+    this.theta = new double[ORDER + 1];
+    theta[0] = -1.0;
+    for (int n = 1; n <= ORDER; ++n) {
+      theta[n] = 1.0 / (ORDER * precision * Math.pow(ratio, n - 1));
+    }
+  }
+
+  /**
+   * Extend the hash of an n-gram by one word to the left.
+   */
+  private static long extend(long hash, int id) {
+    hash = (hash ^ id) * 0x9e3779b97f4a7c15L;
+    return hash ^ (hash >>> 32);
+  }
+
+  /**
+   * Add the posterior of each distinct n-gram that ends at a position in <code>[start, size)</code>.
+   */
+  private static void addNGrams(Sequence<IString> sequence, int start, double posterior,
+      Long2DoubleOpenHashMap posteriors) {
+    LongOpenHashSet seen = new LongOpenHashSet();
+    for (int j = start, sz = sequence.size(); j < sz; ++j) {
+      long hash = SEED;
+      for (int n = 1; n <= ORDER && j - n + 1 >= 0; ++n) {
+        hash = extend(hash, sequence.get(j - n + 1).id);
+        if (seen.add(hash)) posteriors.addTo(hash, posterior);
+      }
+    }
+  }
+
+  /**
+   * Gain of the words of a sequence at the positions <code>[start, size)</code>.
+   */
+  private double gain(Sequence<IString> sequence, int start, Long2DoubleOpenHashMap posteriors) {
+    double gain = theta[0] * (sequence.size() - start);
+    for (int j = start, sz = sequence.size(); j < sz; ++j) {
+      long hash = SEED;
+      for (int n = 1; n <= ORDER && j - n + 1 >= 0; ++n) {
+        hash = extend(hash, sequence.get(j - n + 1).id);
+        gain += theta[n] * Math.min(1.0, posteriors.get(hash));
+      }
+    }
+    return gain;
+  }
+
+  /**
+   * Expected linear BLEU gain of each entry of an n-best list.
+   *
+   * @param translations
+   * @param modelScores
+   * @return
+   */
+  public double[] expectedGains(List<Sequence<IString>> translations, double[] modelScores) {
+    final int size = translations.size();
+    double logZ = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < size; ++i) logZ = SloppyMath.logAdd(logZ, scale * modelScores[i]);
+    Long2DoubleOpenHashMap posteriors = new Long2DoubleOpenHashMap();
+    for (int i = 0; i < size; ++i) {
+      addNGrams(translations.get(i), 0, Math.exp(scale * modelScores[i] - logZ), posteriors);
+    }
+    double[] gains = new double[size];
+    for (int i = 0; i < size; ++i) gains[i] = gain(translations.get(i), 0, posteriors);
+    return gains;
+  }
+
+  /**
+   * The path through a search graph with the maximum linear BLEU gain.
+   *
+   * @param graph
+   * @param weights
+   * @return
+   */
+  public Sequence<IString> decode(SearchGraph graph, Counter<String> weights) {
+    final int numEdges = graph.numEdges();
+    final double[] scores = graph.edgeScores(weights);
+    for (int e = 0; e < numEdges; ++e) scores[e] *= scale;
+    final double[] posteriors = graph.edgePosteriors(scores, graph.insideScores(scores),
+        graph.outsideScores(scores));
+
+    Long2DoubleOpenHashMap ngramPosteriors = new Long2DoubleOpenHashMap();
+    for (int e = 0; e < numEdges; ++e) {
+      addNGrams(graph.targetWithContext(e), graph.contextLength(e), posteriors[e], ngramPosteriors);
+    }
+
+    // Viterbi
+    final double[] best = new double[graph.numNodes()];
+    final int[] backpointers = new int[graph.numNodes()];
+    Arrays.fill(best, Double.NEGATIVE_INFINITY);
+    best[graph.root()] = 0.0;
+    for (int v = graph.root() + 1; v < graph.numNodes(); ++v) {
+      for (int e = graph.firstEdge(v); e < graph.firstEdge(v+1); ++e) {
+        double score = best[graph.tail(e)] + gain(graph.targetWithContext(e), graph.contextLength(e), ngramPosteriors);
+        if (score > best[v]) {
+          best[v] = score;
+          backpointers[v] = e;
+        }
+      }
+    }
+    List<Sequence<IString>> phrases = new ArrayList<>();
+    for (int v = graph.goal(); v != graph.root(); v = graph.tail(backpointers[v])) {
+      phrases.add(graph.target(backpointers[v]));
+    }
+    Collections.reverse(phrases);
+    List<IString> tokens = new ArrayList<>();
+    for (Sequence<IString> phrase : phrases) {
+      for (IString token : phrase) tokens.add(token);
+    }
+    return new ArraySequence<>(tokens);
+  }
+}
@@ -9,21 +9,27 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
 import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.PropertiesUtils;
 import edu.stanford.nlp.util.StringUtils;
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
 import edu.stanford.nlp.mt.metrics.EvaluationMetric;
 import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
 import edu.stanford.nlp.mt.util.BasicNBestList;
 import edu.stanford.nlp.mt.util.BasicNBestEntry;
+import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 
 /**
- * Minimum Bayes Risk decoding.
+ * Minimum Bayes Risk decoding. By default the expected gain of each n-best entry is computed
+ * from pairwise sentence-level metric scores, which is quadratic in the size of the n-best list.
+ * The <code>-l</code> and <code>-g</code> options use the linear approximation to BLEU in
+ * {@link LinearMinimumBayesRisk} over n-best lists and decoder search graphs.
  *
  * @author danielcer
  *
@@ -43,7 +49,12 @@ public class MinimumBayesRisk {
     .append(" Options:").append(nl)
     .append("   -o str     : Orientation of the scores [risk|utility] (default: utility)").append(nl)
     .append("   -m str     : Metric (default: ").append(DEFAULT_METRIC).append(")").append(nl)
-    .append("   -s num     : Scale parameter (default: ").append(DEFAULT_SCALE).append(")").append(nl);
+    .append("   -s num     : Scale parameter (default: ").append(DEFAULT_SCALE).append(")").append(nl)
+    .append("   -l         : Linear BLEU gain with n-gram posteriors (linear time; ignores -m)").append(nl)
+    .append("   -p num     : Unigram precision for -l (default: ").append(LinearMinimumBayesRisk.DEFAULT_PRECISION).append(")").append(nl)
+    .append("   -r num     : Precision ratio for -l (default: ").append(LinearMinimumBayesRisk.DEFAULT_RATIO).append(")").append(nl)
+    .append("   -g file    : Input is a search graph file; decode with -l and these weights").append(nl)
+    .append("   -t num     : Number of threads (default: all cores)").append(nl);
     return sb.toString();
   }
 
@@ -52,6 +63,11 @@ public class MinimumBayesRisk {
     argDefs.put("o", 1);
     argDefs.put("m", 1);
     argDefs.put("s", 1);
+    argDefs.put("l", 0);
+    argDefs.put("p", 1);
+    argDefs.put("r", 1);
+    argDefs.put("g", 1);
+    argDefs.put("t", 1);
     return argDefs;
   }
 
@@ -59,11 +75,13 @@ public class MinimumBayesRisk {
     private final String metricName;
     private final boolean risk;
     private final double scale;
+    private final LinearMinimumBayesRisk linear;
 
-    Processor(String in_metricName, boolean in_risk, double in_scale) {
+    Processor(String in_metricName, boolean in_risk, double in_scale, LinearMinimumBayesRisk in_linear) {
       metricName = in_metricName;
       risk = in_risk;
       scale = in_scale;
+      linear = in_linear;
     }
 
     // Class is threadsafe for concurrent calls.
@@ -72,6 +90,36 @@ public class MinimumBayesRisk {
     }
 
     public List<Pair<Double, String>> process(List<BasicNBestEntry> nbestlist) {
+      double[] nbestScores = linear == null ? pairwiseScores(nbestlist) : linearScores(nbestlist);
+      int hypI = -1;
+      List<Pair<Double,String>>
+      rescoredNBestList = new ArrayList<Pair<Double,String>>(nbestlist.size());
+      for (BasicNBestEntry hyp : nbestlist) {
+        hypI++;
+        rescoredNBestList.add(new Pair<Double,String>(nbestScores[hypI], hyp.getLine()));
+      }
+      Collections.sort(rescoredNBestList);
+      if (!risk) {
+        Collections.reverse(rescoredNBestList);
+      }
+      return rescoredNBestList;
+    }
+
+    private double[] linearScores(List<BasicNBestEntry> nbestlist) {
+      List<Sequence<IString>> translations = new ArrayList<>(nbestlist.size());
+      double[] modelScores = new double[nbestlist.size()];
+      for (BasicNBestEntry hyp : nbestlist) {
+        modelScores[translations.size()] = hyp.getScore();
+        translations.add(hyp.getTokens());
+      }
+      double[] nbestScores = linear.expectedGains(translations, modelScores);
+      if (risk) {
+        for (int i = 0; i < nbestScores.length; ++i) nbestScores[i] = -nbestScores[i];
+      }
+      return nbestScores;
+    }
+
+    private double[] pairwiseScores(List<BasicNBestEntry> nbestlist) {
       double[] nbestScores = new double[nbestlist.size()];
 
       for (BasicNBestEntry refTrans : nbestlist) 
@@ -100,18 +148,26 @@ public class MinimumBayesRisk {
         }
         }
       }
-      int hypI = -1;
-      List<Pair<Double,String>>
-      rescoredNBestList = new ArrayList<Pair<Double,String>>(nbestlist.size());
-      for (BasicNBestEntry hyp : nbestlist) {
-        hypI++;
-        rescoredNBestList.add(new Pair<Double,String>(nbestScores[hypI], hyp.getLine()));
-      }
-      Collections.sort(rescoredNBestList);
-      if (!risk) {
-        Collections.reverse(rescoredNBestList);
-      }
-      return rescoredNBestList;
+      return nbestScores;
+    }
+  }
+
+  private static class LatticeProcessor implements ThreadsafeProcessor<SearchGraph, Pair<Integer, String>> {
+    private final LinearMinimumBayesRisk linear;
+    private final Counter<String> weights;
+
+    LatticeProcessor(LinearMinimumBayesRisk linear, Counter<String> weights) {
+      this.linear = linear;
+      this.weights = weights;
+    }
+
+    // Class is threadsafe for concurrent calls.
+    public ThreadsafeProcessor<SearchGraph, Pair<Integer, String>> newInstance() {
+      return this;
+    }
+
+    public Pair<Integer, String> process(SearchGraph graph) {
+      return new Pair<>(graph.sourceInputId, linear.decode(graph, weights).toString());
     }
   }
 
@@ -131,11 +187,21 @@ public class MinimumBayesRisk {
     final String orientation = options.getProperty("o", "utility");
     final boolean risk = "risk".equals(orientation);
     final String metricName = options.getProperty("m", DEFAULT_METRIC);
+    final String weightsFile = options.getProperty("g", null);
+    final int nThreads = PropertiesUtils.getInt(options, "t", 0);
+    final LinearMinimumBayesRisk linear = options.containsKey("l") || weightsFile != null ?
+        new LinearMinimumBayesRisk(scale,
+            PropertiesUtils.getDouble(options, "p", LinearMinimumBayesRisk.DEFAULT_PRECISION),
+            PropertiesUtils.getDouble(options, "r", LinearMinimumBayesRisk.DEFAULT_RATIO)) : null;
 
     final String filename = options.getProperty("");
+    if (weightsFile != null) {
+      decodeSearchGraphs(filename, IOTools.readWeights(weightsFile), linear, nThreads);
+      return;
+    }
     BasicNBestList nbestlists = new BasicNBestList(filename);
     MulticoreWrapper<List<BasicNBestEntry>, List<Pair<Double, String>>> wrapper = 
-      new MulticoreWrapper<List<BasicNBestEntry>, List<Pair<Double, String>>>(0, new Processor(metricName, risk, scale), true);
+      new MulticoreWrapper<List<BasicNBestEntry>, List<Pair<Double, String>>>(nThreads, new Processor(metricName, risk, scale, linear), true);
     for (List<BasicNBestEntry> nbestlist : nbestlists) {
       wrapper.put(nbestlist);
       while (wrapper.peek()) {
@@ -148,6 +214,34 @@ public class MinimumBayesRisk {
     }
   }
 
+  /**
+   * Print the MBR translation of each search graph, and an empty line for inputs without one.
+   */
+  private static void decodeSearchGraphs(String filename, Counter<String> weights,
+      LinearMinimumBayesRisk linear, int nThreads) throws IOException {
+    MulticoreWrapper<SearchGraph, Pair<Integer, String>> wrapper =
+        new MulticoreWrapper<>(nThreads, new LatticeProcessor(linear, weights), true);
+    int nextId = 0;
+    for (SearchGraph graph : SearchGraph.load(filename)) {
+      wrapper.put(graph);
+      while (wrapper.peek()) {
+        nextId = DumpTranslation(wrapper.poll(), nextId);
+      }
+    }
+    wrapper.join();
+    while (wrapper.peek()) {
+      nextId = DumpTranslation(wrapper.poll(), nextId);
+    }
+  }
+
+  private static int DumpTranslation(Pair<Integer, String> translation, int nextId) {
+    for (; nextId < translation.first(); ++nextId) {
+      System.out.println();
+    }
+    System.out.println(translation.second());
+    return nextId + 1;
+  }
+
   private static void DumpRescored(List<Pair<Double, String>> rescoredNBestList) {
     for (Pair<Double,String> entry : rescoredNBestList) {
       System.out.println(entry.second());
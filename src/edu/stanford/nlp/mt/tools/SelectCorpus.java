@@ -2,17 +2,22 @@ package edu.stanford.nlp.mt.tools;
 
 import static java.lang.System.*;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
 import java.io.BufferedReader;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.LineNumberReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 
-import edu.stanford.nlp.mt.util.LineIndexedCorpus;
+import edu.stanford.nlp.mt.util.IOTools;
 
 /**
- * Select a subset of lines from a corpus.
+ * Select a subset of lines from a corpus. The corpus is streamed, so only the
+ * selected lines are held in memory.
  *   
  * @author Thang Luong <lmthang@stanford.edu>
  *
@@ -34,20 +39,37 @@ public class SelectCorpus {
       String outCorpusFn = args[2];
       int offset = (args.length==4) ? Integer.parseInt(args[3]) : 0;
       
+      // selected line ids
+      IntArrayList lineIds = new IntArrayList();
+      Int2ObjectOpenHashMap<String> selectedLines = new Int2ObjectOpenHashMap<>();
+      BufferedReader br = new BufferedReader(new FileReader(lineFn));
+      String line;
+      while ((line=br.readLine())!=null){
+        int lineId = Integer.parseInt(line.trim())-offset;
+        lineIds.add(lineId);
+        selectedLines.put(lineId, null);
+      }
+      br.close();
+      
       // in corpus
-      err.printf("# Opening %s\n", inCorpusFn);
-      LineIndexedCorpus inCorpus = new LineIndexedCorpus(inCorpusFn);
+      err.printf("# Streaming %s\n", inCorpusFn);
+      LineNumberReader inCorpus = IOTools.getReaderFromFile(inCorpusFn);
+      for (int lineId = 0; (line=inCorpus.readLine())!=null; ++lineId) {
+        if (selectedLines.containsKey(lineId)) selectedLines.put(lineId, line.trim());
+      }
+      inCorpus.close();
       
       // out corpus
       PrintWriter outPW = new PrintWriter(new OutputStreamWriter(
         new FileOutputStream(outCorpusFn), "UTF-8"));
-      
-      BufferedReader br = new BufferedReader(new FileReader(lineFn));
-      String line;
-      while ((line=br.readLine())!=null){
-        outPW.write(inCorpus.get(Integer.parseInt(line)-offset) + "\n");
+      for (int i = 0, sz = lineIds.size(); i < sz; ++i) {
+        String selectedLine = selectedLines.get(lineIds.getInt(i));
+        if (selectedLine == null) {
+          outPW.close();
+          throw new IndexOutOfBoundsException("Line id out of range: " + (lineIds.getInt(i)+offset));
+        }
+        outPW.write(selectedLine + "\n");
       }
-      br.close();
       outPW.close();
    }
 }
@@ -1,35 +1,63 @@
 package edu.stanford.nlp.mt.tools;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
 
 import edu.stanford.nlp.mt.metrics.EvaluationMetric;
 import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
 import edu.stanford.nlp.mt.metrics.IncrementalEvaluationMetric;
 import edu.stanford.nlp.mt.metrics.MetricUtils;
+import edu.stanford.nlp.mt.metrics.SufficientStatisticsMetric;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
 import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.util.Pair;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringUtils;
+import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
+import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 
 
 /**
  * Approximate Randomization Test for Statistical Significance Testing.
- * 
- * See Riezler &amp; Maxwell's 2005 paper: On Some Pitfalls in Automatic 
- * Evaluation and Significance Testing for MT, in the Workshop on Intrinsic 
+ *
+ * See Riezler &amp; Maxwell's 2005 paper: On Some Pitfalls in Automatic
+ * Evaluation and Significance Testing for MT, in the Workshop on Intrinsic
  * and Extrinsic Evaluation Measures for Machine Translation
- * 
+ *
+ * Also supports paired bootstrap resampling (Koehn, 2004). Each system is compared
+ * to the first (baseline) system.
+ *
+ * For metrics that implement {@link SufficientStatisticsMetric}, per-sentence sufficient
+ * statistics are computed once, and each sample is scored with vector sums. Samples are
+ * drawn in blocks on multiple threads. Each block has its own random stream split from a
+ * single seed, so the results do not depend on the number of threads.
+ *
  * @author danielcer
- * 
+ *
  */
 public class SignificanceTest {
-  
+
   // Smallest possible p-value is 1/5000, which is well below p<0.001
   static public final int SAMPLES = 5000;
 
+  static public final long DEFAULT_SEED = 8682522807148012L;
+
+  // Number of samples drawn by each job
+  private static final int BLOCK_SIZE = 100;
+
+  // Tolerance for comparisons of sampled and observed differences
+  private static final double EPSILON = 1e-9;
+
   static double scoreList(List<Sequence<IString>> transList,
       EvaluationMetric<IString, String> eval) {
     IncrementalEvaluationMetric<IString, String> incEval = eval
@@ -42,53 +70,220 @@ public class SignificanceTest {
   }
 
   /**
-   * Runs the significance test, applying NIST tokenization to the input.
-   * 
-   * @param args
-   * @throws Exception
+   * Per-sentence sufficient statistics of a system output.
+   *
+   * @param transList
+   * @param metric
+   * @return
    */
-  static public void main(String[] args) throws Exception {
-    if (args.length != 4) {
-      System.err
-          .printf("Usage: java %s metric_name reference_prefix system1 system2%n", SignificanceTest.class.getName());
-      System.exit(-1);
+  public static double[][] sufficientStatistics(List<Sequence<IString>> transList,
+      SufficientStatisticsMetric<IString> metric) {
+    double[][] stats = new double[transList.size()][];
+    for (int i = 0; i < stats.length; ++i) {
+      stats[i] = metric.sufficientStatistics(i, transList.get(i));
     }
-    String evalMetricName = args[0];
-    String referencePrefix = args[1];
-    String system1TransFilename = args[2];
-    String system2TransFilename = args[3];
+    return stats;
+  }
 
-    // Load everything we need
-    boolean doNIST = true;
-    List<List<Sequence<IString>>> references = MetricUtils.readReferences(IOTools.fileNamesFromPathPrefix(referencePrefix), doNIST);
-    EvaluationMetric<IString, String> eval = CorpusLevelMetricFactory.newMetric(evalMetricName, references);
-    List<Sequence<IString>> system1Trans = IStrings.tokenizeFile(system1TransFilename, doNIST);
-    List<Sequence<IString>> system2Trans = IStrings.tokenizeFile(system2TransFilename, doNIST);
+  /**
+   * Sum of the sentence-level statistics.
+   *
+   * @param stats
+   * @return
+   */
+  public static double[] sum(double[][] stats) {
+    double[] sum = new double[stats.length == 0 ? 0 : stats[0].length];
+    for (double[] s : stats) addTo(sum, s);
+    return sum;
+  }
 
-    if (system1Trans.size() != system2Trans.size()) {
-      System.err
-          .printf(
-              "Warning: %s contains %d translations while %s contains %d translations%n",
-              system1TransFilename, system1Trans.size(), system2TransFilename,
-              system2Trans.size());
-      int min = Math.min(system1Trans.size(), system2Trans.size());
-      System.err.printf("Truncating both to %d translations%n", min);
-      system1Trans = system1Trans.subList(0, min);
-      system2Trans = system2Trans.subList(0, min);
+  private static void addTo(double[] a, double[] b) {
+    for (int i = 0; i < a.length; ++i) a[i] += b[i];
+  }
+
+  /**
+   * Approximate randomization test of each system against the baseline. Returns the number
+   * of samples in which the absolute score difference matched or exceeded the observed
+   * difference.
+   *
+   * @param metric
+   * @param baseline Sentence-level statistics of the baseline.
+   * @param systems Sentence-level statistics of each system.
+   * @param samples
+   * @param seed
+   * @param numThreads
+   * @return
+   */
+  public static int[] approximateRandomization(SufficientStatisticsMetric<IString> metric,
+      double[][] baseline, List<double[][]> systems, int samples, long seed, int numThreads) {
+    final int numSystems = systems.size();
+    final double[] baselineSum = sum(baseline);
+    final double[][] systemSums = new double[numSystems][];
+    final double[][][] deltas = new double[numSystems][baseline.length][];
+    final double[] observedDiffs = new double[numSystems];
+    for (int s = 0; s < numSystems; ++s) {
+      double[][] system = systems.get(s);
+      systemSums[s] = sum(system);
+      observedDiffs[s] = Math.abs(metric.scoreSufficientStatistics(systemSums[s])
+          - metric.scoreSufficientStatistics(baselineSum));
+      for (int i = 0; i < baseline.length; ++i) {
+        deltas[s][i] = new double[baselineSum.length];
+        for (int j = 0; j < baselineSum.length; ++j) deltas[s][i][j] = system[i][j] - baseline[i][j];
+      }
+    }
+
+    int[] matchedOrExceededDiffs = new int[numSystems];
+    runBlocks(samples, seed, numThreads, (numSamples, random) -> {
+      int[] counts = new int[numSystems];
+      boolean[] swap = new boolean[baseline.length];
+      double[] sample1 = new double[baselineSum.length];
+      double[] sample2 = new double[baselineSum.length];
+      for (int n = 0; n < numSamples; ++n) {
+        // The same shuffle is applied to every pair of systems
+        for (int i = 0; i < swap.length; ++i) swap[i] = random.nextBoolean();
+        for (int s = 0; s < numSystems; ++s) {
+          System.arraycopy(baselineSum, 0, sample1, 0, sample1.length);
+          for (int i = 0; i < swap.length; ++i) {
+            if (swap[i]) addTo(sample1, deltas[s][i]);
+          }
+          for (int j = 0; j < sample2.length; ++j) {
+            sample2[j] = baselineSum[j] + systemSums[s][j] - sample1[j];
+          }
+          double sampleDiff = Math.abs(metric.scoreSufficientStatistics(sample1)
+              - metric.scoreSufficientStatistics(sample2));
+          if (sampleDiff + EPSILON >= observedDiffs[s]) ++counts[s];
+        }
+      }
+      return counts;
+    }, counts -> {
+      for (int s = 0; s < numSystems; ++s) matchedOrExceededDiffs[s] += counts[s];
+    });
+    return matchedOrExceededDiffs;
+  }
+
+  /**
+   * Paired bootstrap resampling. Returns the sampled corpus scores of the baseline
+   * (index 0) and each system (index 1 to n) in sample order.
+   *
+   * @param metric
+   * @param baseline Sentence-level statistics of the baseline.
+   * @param systems Sentence-level statistics of each system.
+   * @param samples
+   * @param seed
+   * @param numThreads
+   * @return
+   */
+  public static double[][] pairedBootstrap(SufficientStatisticsMetric<IString> metric,
+      double[][] baseline, List<double[][]> systems, int samples, long seed, int numThreads) {
+    final List<double[][]> allSystems = new ArrayList<>(systems.size() + 1);
+    allSystems.add(baseline);
+    allSystems.addAll(systems);
+    final int numSentences = baseline.length;
+    final int dimension = baseline.length == 0 ? 0 : baseline[0].length;
+
+    final List<double[][]> blocks = new ArrayList<>();
+    runBlocks(samples, seed, numThreads, (numSamples, random) -> {
+      double[][] scores = new double[allSystems.size()][numSamples];
+      int[] sampleIds = new int[numSentences];
+      double[] sample = new double[dimension];
+      for (int n = 0; n < numSamples; ++n) {
+        // The same resample is scored for every system
+        for (int i = 0; i < numSentences; ++i) sampleIds[i] = random.nextInt(numSentences);
+        for (int s = 0; s < scores.length; ++s) {
+          double[][] system = allSystems.get(s);
+          Arrays.fill(sample, 0.0);
+          for (int i : sampleIds) addTo(sample, system[i]);
+          scores[s][n] = metric.scoreSufficientStatistics(sample);
+        }
+      }
+      return scores;
+    }, blocks::add);
+
+    double[][] scores = new double[allSystems.size()][samples];
+    int offset = 0;
+    for (double[][] block : blocks) {
+      for (int s = 0; s < scores.length; ++s) {
+        System.arraycopy(block[s], 0, scores[s], offset, block[s].length);
+      }
+      offset += block[0].length;
+    }
+    return scores;
+  }
+
+  /**
+   * A block of samples.
+   */
+  @FunctionalInterface
+  static interface SampleBlock<T> {
+    T run(int numSamples, SplittableRandom random);
+  }
+
+  /**
+   * Draw samples in blocks of <code>BLOCK_SIZE</code>. Each block gets its own random
+   * stream, and block results are returned in block order.
+   */
+  static <T> void runBlocks(int samples, long seed, int numThreads, SampleBlock<T> block,
+      Consumer<T> consumer) {
+    final SplittableRandom random = new SplittableRandom(seed);
+    MulticoreWrapper<Pair<Integer,SplittableRandom>, T> wrapper = new MulticoreWrapper<>(numThreads,
+        new ThreadsafeProcessor<Pair<Integer,SplittableRandom>, T>() {
+      @Override
+      public T process(Pair<Integer,SplittableRandom> input) {
+        return block.run(input.first, input.second);
+      }
+      @Override
+      public ThreadsafeProcessor<Pair<Integer,SplittableRandom>, T> newInstance() {
+        return this;
+      }
+    }, true);
+    for (int start = 0; start < samples; start += BLOCK_SIZE) {
+      wrapper.put(new Pair<>(Math.min(BLOCK_SIZE, samples - start), random.split()));
+      while (wrapper.peek()) consumer.accept(wrapper.poll());
     }
+    wrapper.join();
+    while (wrapper.peek()) consumer.accept(wrapper.poll());
+  }
 
-    // Compute the given metric for both system outputs
-    double system1Eval = scoreList(system1Trans, eval);
-    double system2Eval = scoreList(system2Trans, eval);
+  /**
+   * Fraction of bootstrap samples in which the system did not score higher
+   * than the baseline.
+   *
+   * @param baselineScores
+   * @param systemScores
+   * @return
+   */
+  public static double bootstrapPValue(double[] baselineScores, double[] systemScores) {
+    int notBetter = 0;
+    for (int i = 0; i < baselineScores.length; ++i) {
+      if (systemScores[i] <= baselineScores[i]) ++notBetter;
+    }
+    return notBetter / (double) baselineScores.length;
+  }
 
-    double trueSystemDiff = Math.abs(system1Eval - system2Eval);
+  /**
+   * Percentile of sampled scores.
+   *
+   * @param scores
+   * @param percentile
+   * @return
+   */
+  private static double percentile(double[] scores, double percentile) {
+    double[] sorted = scores.clone();
+    Arrays.sort(sorted);
+    int index = (int) Math.round(percentile * (sorted.length - 1));
+    return sorted[index];
+  }
 
-    System.out.printf("System1 Eval: %f System2 Eval: %f abs(Diff): %f%n",
-        system1Eval, system2Eval, trueSystemDiff);
-    System.out.printf("Sampling...");
-    Random r = new Random(8682522807148012L);
+  /**
+   * Approximate randomization test for metrics without sufficient statistics, which
+   * recomputes the metric for each sample.
+   */
+  private static int approximateRandomization(EvaluationMetric<IString, String> eval,
+      List<Sequence<IString>> system1Trans, List<Sequence<IString>> system2Trans,
+      double trueSystemDiff, int samples, long seed) {
+    Random r = new Random(seed);
     int matchedOrExceededDiffs = 0;
-    for (int i = 0; i < SAMPLES; i++) {
+    for (int i = 0; i < samples; i++) {
       if ((i % 10) == 0)
         System.out.printf(".");
       List<Sequence<IString>> sample1Trans = new ArrayList<>(system1Trans.size());
@@ -109,8 +304,109 @@ public class SignificanceTest {
       if (sampleDiff >= trueSystemDiff)
         matchedOrExceededDiffs++;
     }
-    double p = (matchedOrExceededDiffs + 1.0) / (SAMPLES + 1.0);
-    System.out.printf("%np = %f (%d+1)/(%d+1)%n", p, matchedOrExceededDiffs,
-        SAMPLES);
+    System.out.println();
+    return matchedOrExceededDiffs;
+  }
+
+  private static Map<String,Integer> argDefs() {
+    Map<String,Integer> argDefs = new HashMap<>();
+    argDefs.put("samples", 1);
+    argDefs.put("threads", 1);
+    argDefs.put("seed", 1);
+    argDefs.put("bootstrap", 0);
+    return argDefs;
+  }
+
+  /**
+   * Runs the significance test, applying NIST tokenization to the input.
+   *
+   * @param args
+   * @throws Exception
+   */
+  static public void main(String[] args) throws Exception {
+    Properties options = StringUtils.argsToProperties(args, argDefs());
+    String[] parameters = options.getProperty("", "").trim().split("\\s+");
+    if (parameters.length < 4) {
+      System.err
+          .printf("Usage: java %s [-samples n] [-threads n] [-seed n] [-bootstrap] metric_name reference_prefix system1 system2 [system3 ...]%n", SignificanceTest.class.getName());
+      System.exit(-1);
+    }
+    String evalMetricName = parameters[0];
+    String referencePrefix = parameters[1];
+    final int samples = PropertiesUtils.getInt(options, "samples", SAMPLES);
+    final int numThreads = PropertiesUtils.getInt(options, "threads", 1);
+    final long seed = PropertiesUtils.getLong(options, "seed", DEFAULT_SEED);
+    final boolean doBootstrap = PropertiesUtils.getBool(options, "bootstrap", false);
+
+    // Load everything we need
+    boolean doNIST = true;
+    List<List<Sequence<IString>>> references = MetricUtils.readReferences(IOTools.fileNamesFromPathPrefix(referencePrefix), doNIST);
+    EvaluationMetric<IString, String> eval = CorpusLevelMetricFactory.newMetric(evalMetricName, references);
+    List<String> systemFilenames = Arrays.asList(parameters).subList(2, parameters.length);
+    List<List<Sequence<IString>>> systemTrans = new ArrayList<>(systemFilenames.size());
+    int min = Integer.MAX_VALUE;
+    for (String filename : systemFilenames) {
+      List<Sequence<IString>> trans = IStrings.tokenizeFile(filename, doNIST);
+      systemTrans.add(trans);
+      min = Math.min(min, trans.size());
+    }
+    for (int s = 0; s < systemTrans.size(); ++s) {
+      if (systemTrans.get(s).size() != min) {
+        System.err
+            .printf("Warning: %s contains %d translations. Truncating all systems to %d translations%n",
+                systemFilenames.get(s), systemTrans.get(s).size(), min);
+        systemTrans.set(s, systemTrans.get(s).subList(0, min));
+      }
+    }
+
+    // Compute the given metric for all system outputs
+    double[] systemEvals = new double[systemTrans.size()];
+    for (int s = 0; s < systemEvals.length; ++s) {
+      systemEvals[s] = scoreList(systemTrans.get(s), eval);
+      System.out.printf("System%d Eval: %f (%s)%n", s+1, systemEvals[s], systemFilenames.get(s));
+    }
+
+    if ( ! (eval instanceof SufficientStatisticsMetric)) {
+      if (doBootstrap) System.err.printf("Bootstrap resampling is not supported for %s%n", evalMetricName);
+      for (int s = 1; s < systemEvals.length; ++s) {
+        double trueSystemDiff = Math.abs(systemEvals[0] - systemEvals[s]);
+        System.out.printf("System1 vs. System%d abs(Diff): %f%n", s+1, trueSystemDiff);
+        System.out.printf("Sampling...");
+        int matchedOrExceededDiffs = approximateRandomization(eval, systemTrans.get(0),
+            systemTrans.get(s), trueSystemDiff, samples, seed);
+        double p = (matchedOrExceededDiffs + 1.0) / (samples + 1.0);
+        System.out.printf("p = %f (%d+1)/(%d+1)%n", p, matchedOrExceededDiffs, samples);
+      }
+      return;
+    }
+
+    @SuppressWarnings("unchecked")
+    SufficientStatisticsMetric<IString> metric = (SufficientStatisticsMetric<IString>) eval;
+    double[][] baseline = sufficientStatistics(systemTrans.get(0), metric);
+    List<double[][]> systems = new ArrayList<>(systemTrans.size() - 1);
+    for (int s = 1; s < systemTrans.size(); ++s) {
+      systems.add(sufficientStatistics(systemTrans.get(s), metric));
+    }
+
+    System.out.printf("Approximate randomization (%d samples)...%n", samples);
+    int[] matchedOrExceededDiffs = approximateRandomization(metric, baseline, systems, samples, seed, numThreads);
+    for (int s = 0; s < systems.size(); ++s) {
+      double p = (matchedOrExceededDiffs[s] + 1.0) / (samples + 1.0);
+      System.out.printf("System1 vs. System%d abs(Diff): %f p = %f (%d+1)/(%d+1)%n", s+2,
+          Math.abs(systemEvals[0] - systemEvals[s+1]), p, matchedOrExceededDiffs[s], samples);
+    }
+
+    if (doBootstrap) {
+      System.out.printf("Paired bootstrap resampling (%d samples)...%n", samples);
+      double[][] scores = pairedBootstrap(metric, baseline, systems, samples, seed, numThreads);
+      for (int s = 0; s < scores.length; ++s) {
+        System.out.printf("System%d 95%% CI: [%f, %f]", s+1, percentile(scores[s], 0.025),
+            percentile(scores[s], 0.975));
+        if (s > 0) {
+          System.out.printf(" p(not better than System1) = %f", bootstrapPValue(scores[0], scores[s]));
+        }
+        System.out.println();
+      }
+    }
   }
 }
@@ -0,0 +1,613 @@
+package edu.stanford.nlp.mt.tools;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IOTools.SerializationMode;
+import edu.stanford.nlp.mt.util.MurmurHash2;
+import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
+import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
+
+/**
+ * Multi-threaded, streaming corpus selection. The candidate pool is read in chunks
+ * from one or more parallel files (e.g., the source and target sides of a bitext),
+ * each chunk is scored on a worker thread, and the scored records are merged in
+ * input order. Memory is bounded by the selection size rather than the pool size.
+ *
+ * Two selection modes are supported:
+ * <ul>
+ *  <li>top-k: keep the k best records in a bounded heap and write them best first.
+ *  <li>threshold: write every record that scores at least as well as a threshold, in
+ *  input order.
+ * </ul>
+ *
+ * If a checkpoint file is set, the selection state is written periodically so that
+ * an interrupted job can be restarted with the same arguments and resume from the
+ * last checkpoint.
+ */
+public class StreamingCorpusSelection {
+
+  private static final Logger logger = LogManager.getLogger(StreamingCorpusSelection.class.getName());
+
+  public static final int DEFAULT_CHUNK_SIZE = 10000;
+  public static final long DEFAULT_CHECKPOINT_INTERVAL = 10000000;
+
+  /**
+   * Scores a record from the candidate pool. Implementations must be threadsafe.
+   */
+  @FunctionalInterface
+  public static interface Scorer {
+    /**
+     * Score a record, which has one line from each input file. Return
+     * <code>Double.NaN</code> to reject the record.
+     *
+     * @param record
+     * @return
+     */
+    public double score(String[] record);
+  }
+
+  private final Scorer scorer;
+  private final boolean lowerIsBetter;
+  private final int numThreads;
+
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private boolean removeRepetition = false;
+  private String checkpointFile;
+  private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+  /**
+   * Constructor.
+   *
+   * @param scorer
+   * @param lowerIsBetter True if lower scores are better (e.g., cross-entropy difference).
+   * @param numThreads
+   */
+  public StreamingCorpusSelection(Scorer scorer, boolean lowerIsBetter, int numThreads) {
+    this.scorer = scorer;
+    this.lowerIsBetter = lowerIsBetter;
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * Set the number of records scored by each job.
+   *
+   * @param chunkSize
+   */
+  public void setChunkSize(int chunkSize) {
+    if (chunkSize <= 0) throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * If true, only the first of a set of identical records is selected.
+   *
+   * @param removeRepetition
+   */
+  public void setRemoveRepetition(boolean removeRepetition) {
+    this.removeRepetition = removeRepetition;
+  }
+
+  /**
+   * Write the selection state to <code>filename</code> about every <code>interval</code>
+   * input lines. If the file exists when selection starts, selection resumes from it.
+   *
+   * @param filename
+   * @param interval
+   */
+  public void setCheckpoint(String filename, long interval) {
+    this.checkpointFile = filename;
+    this.checkpointInterval = interval;
+  }
+
+  /**
+   * Select the k best records from the input files.
+   *
+   * @param inputFiles
+   * @param k
+   * @param outputFiles One output file per input file.
+   * @param scoreFile Scores of the selected records (or null).
+   * @param lineFile 0-based line numbers of the selected records (or null).
+   * @return The number of selected records.
+   * @throws IOException
+   */
+  public long selectTopK(String[] inputFiles, int k, String[] outputFiles, String scoreFile,
+      String lineFile) throws IOException {
+    if (k < 0) throw new IllegalArgumentException("Invalid selection size: " + k);
+    return select(inputFiles, new TopKSelector(k, outputFiles, scoreFile, lineFile), "topk:" + k);
+  }
+
+  /**
+   * Select all records from the input files that score at least as well as
+   * <code>threshold</code>.
+   *
+   * @param inputFiles
+   * @param threshold
+   * @param outputFiles One output file per input file.
+   * @param scoreFile Scores of the selected records (or null).
+   * @param lineFile 0-based line numbers of the selected records (or null).
+   * @return The number of selected records.
+   * @throws IOException
+   */
+  public long selectThreshold(String[] inputFiles, double threshold, String[] outputFiles,
+      String scoreFile, String lineFile) throws IOException {
+    return select(inputFiles, new ThresholdSelector(threshold, outputFiles, scoreFile, lineFile),
+        "threshold:" + threshold);
+  }
+
+  /**
+   * Run the selection.
+   *
+   * @param inputFiles
+   * @param selector
+   * @param mode
+   * @return
+   * @throws IOException
+   */
+  private long select(String[] inputFiles, Selector selector, String mode) throws IOException {
+    if (inputFiles.length == 0) throw new IllegalArgumentException("No input files");
+    final String signature = mode + " " + String.join(" ", inputFiles);
+
+    LineNumberReader[] readers = new LineNumberReader[inputFiles.length];
+    for (int i = 0; i < readers.length; ++i) {
+      readers[i] = IOTools.getReaderFromFile(inputFiles[i]);
+    }
+
+    // Resume from a checkpoint
+    long linesRead = 0;
+    Checkpoint checkpoint = checkpointFile == null ? null :
+      IOTools.deserialize(checkpointFile, Checkpoint.class, SerializationMode.DEFAULT_GZ);
+    if (checkpoint != null) {
+      if ( ! signature.equals(checkpoint.signature)) {
+        throw new IllegalStateException(String.format("Checkpoint %s does not match this job: %s",
+            checkpointFile, checkpoint.signature));
+      }
+      logger.info("Resuming from checkpoint {} at line {}", checkpointFile, checkpoint.linesProcessed);
+      for (; linesRead < checkpoint.linesProcessed; ++linesRead) {
+        for (LineNumberReader reader : readers) {
+          if (reader.readLine() == null) throw new IllegalStateException("Input is shorter than checkpoint");
+        }
+      }
+    }
+    selector.open(checkpoint);
+
+    MulticoreWrapper<Chunk,Chunk> wrapper = new MulticoreWrapper<>(numThreads, new ChunkScorer(scorer), true);
+    long lastCheckpoint = linesRead;
+    long linesProcessed = linesRead;
+    Chunk chunk;
+    while ((chunk = readChunk(readers, linesRead)) != null) {
+      linesRead += chunk.records.length;
+      wrapper.put(chunk);
+      while (wrapper.peek()) {
+        linesProcessed = merge(wrapper, selector);
+      }
+      if (checkpointFile != null && linesProcessed - lastCheckpoint >= checkpointInterval) {
+        writeCheckpoint(selector.checkpoint(linesProcessed, signature));
+        lastCheckpoint = linesProcessed;
+        logger.info("Wrote checkpoint at line {}", linesProcessed);
+      }
+    }
+    wrapper.join();
+    while (wrapper.peek()) {
+      linesProcessed = merge(wrapper, selector);
+    }
+    for (LineNumberReader reader : readers) reader.close();
+
+    long numSelected = selector.close();
+    if (checkpointFile != null) Files.deleteIfExists(new File(checkpointFile).toPath());
+    logger.info("Processed {} lines. Selected {} records.", linesProcessed, numSelected);
+    return numSelected;
+  }
+
+  /**
+   * Merge the next scored chunk. Scoring errors are rethrown on the calling thread
+   * so that the job stops at the last checkpoint.
+   *
+   * @param wrapper
+   * @param selector
+   * @return
+   */
+  private static long merge(MulticoreWrapper<Chunk,Chunk> wrapper, Selector selector) {
+    Chunk chunk = wrapper.poll();
+    if (chunk.error != null) {
+      wrapper.join();
+      throw chunk.error;
+    }
+    return selector.merge(chunk);
+  }
+
+  /**
+   * Read the next chunk of parallel records. Returns null at the end of the shortest input.
+   *
+   * @param readers
+   * @param firstLine
+   * @return
+   * @throws IOException
+   */
+  private Chunk readChunk(LineNumberReader[] readers, long firstLine) throws IOException {
+    List<String[]> records = new ArrayList<>(chunkSize);
+    while (records.size() < chunkSize) {
+      String[] record = new String[readers.length];
+      for (int i = 0; i < readers.length; ++i) {
+        record[i] = readers[i].readLine();
+        if (record[i] == null) {
+          if (i > 0) logger.warn("Input files differ in length. Stopping at line {}", firstLine + records.size());
+          return records.isEmpty() ? null : new Chunk(firstLine, records.toArray(new String[records.size()][]));
+        }
+      }
+      records.add(record);
+    }
+    return new Chunk(firstLine, records.toArray(new String[records.size()][]));
+  }
+
+  /**
+   * Atomically replace the checkpoint file.
+   *
+   * @param checkpoint
+   * @throws IOException
+   */
+  private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+    File tmpFile = new File(checkpointFile + ".tmp");
+    IOTools.serialize(tmpFile.getPath(), checkpoint, SerializationMode.DEFAULT_GZ);
+    Files.move(tmpFile.toPath(), new File(checkpointFile).toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * True if score a is better than score b.
+   *
+   * @param a
+   * @param b
+   * @return
+   */
+  private boolean isBetter(double a, double b) {
+    return lowerIsBetter ? a < b : a > b;
+  }
+
+  /**
+   * Identity of a record for repetition removal.
+   *
+   * @param record
+   * @return
+   */
+  private static long hash(String[] record) {
+    return MurmurHash2.hash64(String.join("\t", record));
+  }
+
+  /**
+   * A block of consecutive records from the input.
+   */
+  private static class Chunk {
+    final long firstLine;
+    final String[][] records;
+    final double[] scores;
+    RuntimeException error;
+    Chunk(long firstLine, String[][] records) {
+      this.firstLine = firstLine;
+      this.records = records;
+      this.scores = new double[records.length];
+    }
+  }
+
+  /**
+   * Scores a chunk on a worker thread.
+   */
+  private static class ChunkScorer implements ThreadsafeProcessor<Chunk,Chunk> {
+    private final Scorer scorer;
+    public ChunkScorer(Scorer scorer) {
+      this.scorer = scorer;
+    }
+    @Override
+    public Chunk process(Chunk chunk) {
+      try {
+        for (int i = 0; i < chunk.records.length; ++i) {
+          chunk.scores[i] = scorer.score(chunk.records[i]);
+        }
+      } catch (RuntimeException e) {
+        chunk.error = e;
+      }
+      return chunk;
+    }
+    @Override
+    public ThreadsafeProcessor<Chunk, Chunk> newInstance() {
+      return this;
+    }
+  }
+
+  /**
+   * Serialized selection state.
+   */
+  private static class Checkpoint implements Serializable {
+    private static final long serialVersionUID = 7213046510553211862L;
+
+    String signature;
+    long linesProcessed;
+    long numSelected;
+
+    // Top-k state
+    long[] lineIds;
+    double[] scores;
+    String[][] records;
+
+    // Threshold state
+    long[] outputLengths;
+    long[] hashes;
+  }
+
+  /**
+   * A selection strategy.
+   */
+  private static interface Selector {
+    /**
+     * Open the output, restoring the state from the checkpoint (if not null).
+     */
+    void open(Checkpoint checkpoint) throws IOException;
+
+    /**
+     * Merge a scored chunk. Returns the number of input lines processed.
+     */
+    long merge(Chunk chunk);
+
+    /**
+     * Take a snapshot of the selection state.
+     */
+    Checkpoint checkpoint(long linesProcessed, String signature) throws IOException;
+
+    /**
+     * Finish the output. Returns the number of selected records.
+     */
+    long close() throws IOException;
+  }
+
+  /**
+   * A scored record.
+   */
+  private static class Entry {
+    final long lineId;
+    final double score;
+    final String[] record;
+    final long hash;
+    Entry(long lineId, double score, String[] record, long hash) {
+      this.lineId = lineId;
+      this.score = score;
+      this.record = record;
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * Keeps the k best records in a heap whose head is the worst selected record. Ties
+   * are broken in favor of earlier records.
+   */
+  private class TopKSelector implements Selector {
+    private final int k;
+    private final String[] outputFiles;
+    private final String scoreFile;
+    private final String lineFile;
+    private final Comparator<Entry> bestFirst;
+    private PriorityQueue<Entry> heap;
+    private LongOpenHashSet selectedHashes;
+    private long linesProcessed;
+
+    TopKSelector(int k, String[] outputFiles, String scoreFile, String lineFile) {
+      this.k = k;
+      this.outputFiles = outputFiles;
+      this.scoreFile = scoreFile;
+      this.lineFile = lineFile;
+      this.bestFirst = (a, b) -> {
+        if (isBetter(a.score, b.score)) return -1;
+        if (isBetter(b.score, a.score)) return 1;
+        return Long.compare(a.lineId, b.lineId);
+      };
+    }
+
+    @Override
+    public void open(Checkpoint checkpoint) {
+      heap = new PriorityQueue<>(Math.max(1, Math.min(k, 1 << 20)), Collections.reverseOrder(bestFirst));
+      selectedHashes = new LongOpenHashSet();
+      if (checkpoint != null) {
+        linesProcessed = checkpoint.linesProcessed;
+        for (int i = 0; i < checkpoint.lineIds.length; ++i) {
+          add(new Entry(checkpoint.lineIds[i], checkpoint.scores[i], checkpoint.records[i],
+              removeRepetition ? hash(checkpoint.records[i]) : 0L));
+        }
+      }
+    }
+
+    private void add(Entry entry) {
+      heap.add(entry);
+      if (removeRepetition) selectedHashes.add(entry.hash);
+    }
+
+    @Override
+    public long merge(Chunk chunk) {
+      for (int i = 0; i < chunk.records.length; ++i) {
+        final double score = chunk.scores[i];
+        if (Double.isNaN(score) || k == 0) continue;
+        if (heap.size() == k && ! isBetter(score, heap.peek().score)) continue;
+        long hash = 0L;
+        if (removeRepetition) {
+          // An identical record was selected earlier with the same score
+          hash = hash(chunk.records[i]);
+          if (selectedHashes.contains(hash)) continue;
+        }
+        if (heap.size() == k) {
+          Entry worst = heap.poll();
+          if (removeRepetition) selectedHashes.remove(worst.hash);
+        }
+        add(new Entry(chunk.firstLine + i, score, chunk.records[i], hash));
+      }
+      linesProcessed = chunk.firstLine + chunk.records.length;
+      return linesProcessed;
+    }
+
+    @Override
+    public Checkpoint checkpoint(long linesProcessed, String signature) {
+      Checkpoint checkpoint = new Checkpoint();
+      checkpoint.signature = signature;
+      checkpoint.linesProcessed = linesProcessed;
+      checkpoint.numSelected = heap.size();
+      checkpoint.lineIds = new long[heap.size()];
+      checkpoint.scores = new double[heap.size()];
+      checkpoint.records = new String[heap.size()][];
+      int i = 0;
+      for (Entry entry : heap) {
+        checkpoint.lineIds[i] = entry.lineId;
+        checkpoint.scores[i] = entry.score;
+        checkpoint.records[i++] = entry.record;
+      }
+      return checkpoint;
+    }
+
+    @Override
+    public long close() throws IOException {
+      List<Entry> selected = new ArrayList<>(heap);
+      heap = null;
+      Collections.sort(selected, bestFirst);
+      Output output = new Output(outputFiles, scoreFile, lineFile, null);
+      for (Entry entry : selected) {
+        output.write(entry.lineId, entry.score, entry.record);
+      }
+      output.close();
+      return selected.size();
+    }
+  }
+
+  /**
+   * Streams records that score at least as well as the threshold to the output.
+   */
+  private class ThresholdSelector implements Selector {
+    private final double threshold;
+    private final String[] outputFiles;
+    private final String scoreFile;
+    private final String lineFile;
+    private Output output;
+    private LongOpenHashSet selectedHashes;
+    private long numSelected;
+
+    ThresholdSelector(double threshold, String[] outputFiles, String scoreFile, String lineFile) {
+      this.threshold = threshold;
+      this.outputFiles = outputFiles;
+      this.scoreFile = scoreFile;
+      this.lineFile = lineFile;
+    }
+
+    @Override
+    public void open(Checkpoint checkpoint) throws IOException {
+      output = new Output(outputFiles, scoreFile, lineFile, checkpoint == null ? null : checkpoint.outputLengths);
+      selectedHashes = checkpoint == null || checkpoint.hashes == null ? new LongOpenHashSet() :
+        new LongOpenHashSet(checkpoint.hashes);
+      numSelected = checkpoint == null ? 0 : checkpoint.numSelected;
+    }
+
+    @Override
+    public long merge(Chunk chunk) {
+      for (int i = 0; i < chunk.records.length; ++i) {
+        final double score = chunk.scores[i];
+        if (Double.isNaN(score) || isBetter(threshold, score)) continue;
+        if (removeRepetition && ! selectedHashes.add(hash(chunk.records[i]))) continue;
+        output.write(chunk.firstLine + i, score, chunk.records[i]);
+        ++numSelected;
+      }
+      return chunk.firstLine + chunk.records.length;
+    }
+
+    @Override
+    public Checkpoint checkpoint(long linesProcessed, String signature) throws IOException {
+      Checkpoint checkpoint = new Checkpoint();
+      checkpoint.signature = signature;
+      checkpoint.linesProcessed = linesProcessed;
+      checkpoint.numSelected = numSelected;
+      checkpoint.outputLengths = output.flush();
+      checkpoint.hashes = removeRepetition ? selectedHashes.toLongArray() : null;
+      return checkpoint;
+    }
+
+    @Override
+    public long close() throws IOException {
+      output.close();
+      return numSelected;
+    }
+  }
+
+  /**
+   * The selected records, their scores, and their line numbers.
+   */
+  private static class Output {
+    private final List<FileOutputStream> files = new ArrayList<>();
+    private final List<PrintStream> writers = new ArrayList<>();
+    private final int numRecordFiles;
+    private final PrintStream scoreWriter;
+    private final PrintStream lineWriter;
+
+    /**
+     * Constructor. If <code>lengths</code> is not null, then the output files are truncated to
+     * these lengths and then appended.
+     */
+    Output(String[] outputFiles, String scoreFile, String lineFile, long[] lengths) throws IOException {
+      List<String> filenames = new ArrayList<>(Arrays.asList(outputFiles));
+      if (scoreFile != null) filenames.add(scoreFile);
+      if (lineFile != null) filenames.add(lineFile);
+      if (lengths != null && lengths.length != filenames.size()) {
+        throw new IllegalStateException("Checkpoint does not match the output files");
+      }
+      for (int i = 0; i < filenames.size(); ++i) {
+        if (lengths != null) {
+          try (RandomAccessFile raf = new RandomAccessFile(filenames.get(i), "rw")) {
+            raf.setLength(lengths[i]);
+          }
+        }
+        FileOutputStream fos = new FileOutputStream(filenames.get(i), lengths != null);
+        files.add(fos);
+        writers.add(new PrintStream(new BufferedOutputStream(fos), false, IOTools.DEFAULT_ENCODING));
+      }
+      this.numRecordFiles = outputFiles.length;
+      this.scoreWriter = scoreFile == null ? null : writers.get(numRecordFiles);
+      this.lineWriter = lineFile == null ? null : writers.get(writers.size() - 1);
+    }
+
+    void write(long lineId, double score, String[] record) {
+      for (int i = 0; i < numRecordFiles; ++i) {
+        writers.get(i).println(record[i]);
+      }
+      if (scoreWriter != null) scoreWriter.println(score);
+      if (lineWriter != null) lineWriter.println(lineId);
+    }
+
+    /**
+     * Flush all files and return their lengths.
+     */
+    long[] flush() throws IOException {
+      long[] lengths = new long[files.size()];
+      for (int i = 0; i < lengths.length; ++i) {
+        writers.get(i).flush();
+        lengths[i] = files.get(i).getChannel().size();
+      }
+      return lengths;
+    }
+
+    void close() {
+      for (PrintStream writer : writers) writer.close();
+    }
+  }
+}
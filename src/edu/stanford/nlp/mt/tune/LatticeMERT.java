@@ -0,0 +1,232 @@
+package edu.stanford.nlp.mt.tune;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
+import edu.stanford.nlp.mt.metrics.EvaluationMetric;
+import edu.stanford.nlp.mt.metrics.IncrementalEvaluationMetric;
+import edu.stanford.nlp.mt.util.ArraySequence;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Line search over decoder search graphs (Macherey et al., 2008). The upper envelope of the
+ * model scores of all paths along a direction is computed for each node in topological order,
+ * so the search considers every translation in the graph instead of an n-best list.
+ */
+public final class LatticeMERT {
+
+  private LatticeMERT() {}
+
+  /**
+   * The upper envelope of the lines <code>intercept + x * slope</code> of the paths to a node.
+   * Line i is maximal in <code>[left[i], left[i+1])</code>.
+   */
+  public static class Envelope {
+    public final double[] slopes;
+    public final double[] intercepts;
+    public final double[] left;
+    // Backpointers: the last edge of the path and its line in the envelope of the tail
+    private final int[] edges;
+    private final int[] previous;
+
+    private Envelope(double[] slopes, double[] intercepts, double[] left, int[] edges, int[] previous) {
+      this.slopes = slopes;
+      this.intercepts = intercepts;
+      this.left = left;
+      this.edges = edges;
+      this.previous = previous;
+    }
+
+    public int size() { return slopes.length; }
+  }
+
+  /**
+   * The envelopes of all nodes of a search graph.
+   *
+   * @param graph
+   * @param weights
+   * @param direction
+   * @return
+   */
+  public static Envelope[] envelopes(SearchGraph graph, Counter<String> weights, Counter<String> direction) {
+    final double[] edgeIntercepts = graph.edgeScores(weights);
+    final double[] edgeSlopes = graph.edgeScores(direction);
+    Envelope[] envelopes = new Envelope[graph.numNodes()];
+    envelopes[graph.root()] = new Envelope(new double[1], new double[1],
+        new double[] { Double.NEGATIVE_INFINITY }, new int[] { -1 }, new int[] { -1 });
+    for (int v = graph.root() + 1; v < graph.numNodes(); ++v) {
+      // Candidate lines
+      int numLines = 0;
+      for (int e = graph.firstEdge(v); e < graph.firstEdge(v+1); ++e) numLines += envelopes[graph.tail(e)].size();
+      final double[] slopes = new double[numLines];
+      final double[] intercepts = new double[numLines];
+      final int[] edges = new int[numLines];
+      final int[] previous = new int[numLines];
+      int n = 0;
+      for (int e = graph.firstEdge(v); e < graph.firstEdge(v+1); ++e) {
+        Envelope tail = envelopes[graph.tail(e)];
+        for (int i = 0; i < tail.size(); ++i, ++n) {
+          slopes[n] = tail.slopes[i] + edgeSlopes[e];
+          intercepts[n] = tail.intercepts[i] + edgeIntercepts[e];
+          edges[n] = e;
+          previous[n] = i;
+        }
+      }
+      int[] order = new int[numLines];
+      for (int i = 0; i < numLines; ++i) order[i] = i;
+      IntArrays.quickSort(order, new AbstractIntComparator() {
+        private static final long serialVersionUID = 1L;
+        @Override
+        public int compare(int a, int b) {
+          int c = Double.compare(slopes[a], slopes[b]);
+          return c == 0 ? Double.compare(intercepts[b], intercepts[a]) : c;
+        }
+      });
+
+      // Sweep from -infinity
+      int[] hull = new int[numLines];
+      double[] left = new double[numLines];
+      int size = 0;
+      for (int i : order) {
+        if (size > 0 && slopes[hull[size-1]] == slopes[i]) continue;
+        double x = Double.NEGATIVE_INFINITY;
+        while (size > 0) {
+          int top = hull[size-1];
+          x = (intercepts[top] - intercepts[i]) / (slopes[i] - slopes[top]);
+          if (x > left[size-1]) break;
+          --size;
+          x = Double.NEGATIVE_INFINITY;
+        }
+        hull[size] = i;
+        left[size++] = x;
+      }
+      double[] envSlopes = new double[size];
+      double[] envIntercepts = new double[size];
+      int[] envEdges = new int[size];
+      int[] envPrevious = new int[size];
+      for (int i = 0; i < size; ++i) {
+        envSlopes[i] = slopes[hull[i]];
+        envIntercepts[i] = intercepts[hull[i]];
+        envEdges[i] = edges[hull[i]];
+        envPrevious[i] = previous[hull[i]];
+      }
+      envelopes[v] = new Envelope(envSlopes, envIntercepts, Arrays.copyOf(left, size), envEdges, envPrevious);
+    }
+    return envelopes;
+  }
+
+  /**
+   * The translation of a line in the envelope of the goal node.
+   *
+   * @param graph
+   * @param envelopes
+   * @param line
+   * @return
+   */
+  public static Sequence<IString> translation(SearchGraph graph, Envelope[] envelopes, int line) {
+    List<Sequence<IString>> phrases = new ArrayList<>();
+    int v = graph.goal();
+    while (v != graph.root()) {
+      int e = envelopes[v].edges[line];
+      line = envelopes[v].previous[line];
+      phrases.add(graph.target(e));
+      v = graph.tail(e);
+    }
+    Collections.reverse(phrases);
+    List<IString> tokens = new ArrayList<>();
+    for (Sequence<IString> phrase : phrases) {
+      for (IString token : phrase) tokens.add(token);
+    }
+    return new ArraySequence<>(tokens);
+  }
+
+  /**
+   * The intervals of a line search. The metric score is <code>evals[i]</code> at
+   * <code>checkpoints[i]</code> and in the interval that contains it.
+   */
+  public static class Intervals {
+    public final double[] checkpoints;
+    public final double[] evals;
+
+    private Intervals(double[] checkpoints, double[] evals) {
+      this.checkpoints = checkpoints;
+      this.evals = evals;
+    }
+  }
+
+  /**
+   * Evaluate the translations of the search graphs in every interval of the line
+   * <code>weights + x * direction</code> in which the argmax translations do not change.
+   *
+   * @param graphs Graphs indexed by the <code>sourceInputId</code>s of the references of the metric.
+   * @param weights
+   * @param direction
+   * @param emetric
+   * @param numSentences Number of references of the metric.
+   * @return
+   */
+  public static Intervals lineSearch(List<SearchGraph> graphs, Counter<String> weights,
+      Counter<String> direction, EvaluationMetric<IString, String> emetric, int numSentences) {
+    // Breakpoints of all graphs: {x, graph, line}
+    List<double[]> breakpoints = new ArrayList<>();
+    List<List<ScoredFeaturizedTranslation<IString, String>>> translations = new ArrayList<>(graphs.size());
+    IncrementalEvaluationMetric<IString, String> incEval = emetric.getIncrementalMetric();
+    final ScoredFeaturizedTranslation<IString, String> noTranslation = null;
+    for (int i = 0; i < numSentences; ++i) incEval.add(noTranslation);
+    for (int g = 0; g < graphs.size(); ++g) {
+      SearchGraph graph = graphs.get(g);
+      Envelope[] envelopes = envelopes(graph, weights, direction);
+      Envelope goal = envelopes[graph.goal()];
+      List<ScoredFeaturizedTranslation<IString, String>> graphTranslations = new ArrayList<>(goal.size());
+      for (int i = 0; i < goal.size(); ++i) {
+        graphTranslations.add(new ScoredFeaturizedTranslation<>(translation(graph, envelopes, i), null, 0.0));
+        if (i > 0) breakpoints.add(new double[] { goal.left[i], g, i });
+      }
+      translations.add(graphTranslations);
+      if (goal.size() > 0) incEval.replace(graph.sourceInputId, graphTranslations.get(0));
+    }
+    breakpoints.sort((a, b) -> Double.compare(a[0], b[0]));
+
+    // Sweep the breakpoints
+    List<Double> starts = new ArrayList<>();
+    List<Double> evals = new ArrayList<>();
+    starts.add(Double.NEGATIVE_INFINITY);
+    evals.add(incEval.score());
+    for (int i = 0; i < breakpoints.size();) {
+      final double x = breakpoints.get(i)[0];
+      for (; i < breakpoints.size() && breakpoints.get(i)[0] == x; ++i) {
+        int g = (int) breakpoints.get(i)[1];
+        incEval.replace(graphs.get(g).sourceInputId, translations.get(g).get((int) breakpoints.get(i)[2]));
+      }
+      starts.add(x);
+      evals.add(incEval.score());
+    }
+
+    double[] checkpoints = new double[starts.size()];
+    double[] evalArray = new double[starts.size()];
+    for (int i = 0; i < checkpoints.length; ++i) {
+      double start = starts.get(i);
+      double end = i + 1 < starts.size() ? starts.get(i + 1) : Double.POSITIVE_INFINITY;
+      if (start < 0 && end > 0) {
+        checkpoints[i] = 0.0;
+      } else if (start == Double.NEGATIVE_INFINITY) {
+        checkpoints[i] = end - 1.0;
+      } else if (end == Double.POSITIVE_INFINITY) {
+        checkpoints[i] = start + 1.0;
+      } else {
+        checkpoints[i] = (start + end) / 2.0;
+      }
+      evalArray[i] = evals.get(i);
+    }
+    return new Intervals(checkpoints, evalArray);
+  }
+}
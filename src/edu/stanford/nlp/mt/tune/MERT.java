@@ -13,6 +13,7 @@ import edu.stanford.nlp.util.Pair;
 
 import edu.stanford.nlp.mt.decoder.util.DenseScorer;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
 import edu.stanford.nlp.mt.metrics.MetricUtils;
 import edu.stanford.nlp.mt.metrics.EvaluationMetric;
 import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
@@ -283,6 +284,15 @@ public class MERT extends Thread {
       initialWts.addAll(fixedWts);
     }
 
+    if (searchGraphs != null) {
+      LatticeMERT.Intervals intervals = LatticeMERT.lineSearch(searchGraphs, initialWts, direction, emetric,
+          nbest.nbestLists().size());
+      if (intervals.checkpoints.length == 1)
+        return initialWts;
+      System.out.printf("Checking %d points", intervals.checkpoints.length - 1);
+      return bestPoint(initialWts, direction, intervals.checkpoints, intervals.evals);
+    }
+
     Scorer<String> currentScorer = new DenseScorer(initialWts, featureIndex);
     Scorer<String> slopScorer = new DenseScorer(direction, featureIndex);
     ArrayList<Double> intercepts = new ArrayList<Double>();
@@ -397,7 +407,15 @@ public class MERT extends Thread {
             bestEval);
       }
     }
+    return bestPoint(initialWts, direction, chkpts, evals);
+  }
 
+  /**
+   * The weights at the check point with the best smoothed evaluation score.
+   */
+  private Counter<String> bestPoint(Counter<String> initialWts, Counter<String> direction,
+      double[] chkpts, double[] evals) {
+    double bestEval = Double.NEGATIVE_INFINITY;
     int bestPt = -1;
     for (int i = 0; i < evals.length; i++) {
       double eval = windowSmooth(evals, i, SEARCH_WINDOW);
@@ -630,6 +648,7 @@ public class MERT extends Thread {
   final static Queue<Counter<String>> startingPoints = new LinkedList<Counter<String>>();
 
   public static FlatNBestList nbest;
+  public static List<SearchGraph> searchGraphs;
   static long startTime;
 
   static Counter<String> initialWts;
@@ -1019,6 +1038,11 @@ public class MERT extends Thread {
         case "-t":
           nThreads = Integer.parseInt(args[++argi]);
           break;
+        case "-g":
+          String searchGraphFile = args[++argi];
+          System.err.printf("Loading search graphs: %s\n", searchGraphFile);
+          searchGraphs = SearchGraph.load(searchGraphFile);
+          break;
         default:
           throw new UnsupportedOperationException("Unknown flag: " + arg);
       }
@@ -1040,6 +1064,7 @@ public class MERT extends Thread {
       System.err.println("-p <N>: number of starting points.");
       System.err.println("-o <N>: search algorithm.");
       System.err.println("-t <N>: number of threads.");
+      System.err.println("-g <file>: search graphs from the decoder. Line searches use the lattice envelope.");
       System.err.println("-F: filter unreachable.");
       System.err.println("-T: filter strictly unreachable.");
       System.err.println("-S: tune using sentence-level BLEU (smoothed).");
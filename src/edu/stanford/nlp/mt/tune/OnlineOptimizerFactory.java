@@ -2,6 +2,7 @@ package edu.stanford.nlp.mt.tune;
 
 import edu.stanford.nlp.mt.tune.optimizers.CrossEntropyOptimizer;
 import edu.stanford.nlp.mt.tune.optimizers.ExpectedBLEUOptimizer;
+import edu.stanford.nlp.mt.tune.optimizers.LatticeExpectedBLEUOptimizer;
 import edu.stanford.nlp.mt.tune.optimizers.MIRA1BestHopeFearOptimizer;
 import edu.stanford.nlp.mt.tune.optimizers.PairwiseRankingOptimizerSGD;
 import edu.stanford.nlp.mt.util.IString;
@@ -41,6 +42,9 @@ public final class OnlineOptimizerFactory {
     case "expectedBLEU":
       return new ExpectedBLEUOptimizer(tuneSetSize, expectedNumFeatures, optimizerFlags);
 
+    case "expectedBLEU-lattice":
+      return new LatticeExpectedBLEUOptimizer(tuneSetSize, expectedNumFeatures, optimizerFlags);
+
     case "crossentropy":
       return new CrossEntropyOptimizer(tuneSetSize, expectedNumFeatures, optimizerFlags);
 
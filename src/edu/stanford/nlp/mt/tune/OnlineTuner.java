@@ -18,6 +18,7 @@ import java.util.TreeMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
@@ -28,6 +29,7 @@ import edu.stanford.nlp.mt.Phrasal;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
 import edu.stanford.nlp.mt.decoder.feat.base.NGramLanguageModelFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.base.WordPenaltyFeaturizer;
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
 import edu.stanford.nlp.mt.metrics.BLEUMetric;
 import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
 import edu.stanford.nlp.mt.metrics.EvaluationMetric;
@@ -41,7 +43,9 @@ import edu.stanford.nlp.mt.tm.TranslationModel;
 import edu.stanford.nlp.mt.train.DynamicTMBuilder;
 import edu.stanford.nlp.mt.train.SymmetricalWordAlignment;
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule.UpdaterState;
+import edu.stanford.nlp.mt.tune.optimizers.LatticeExpectedBLEUOptimizer;
 import edu.stanford.nlp.mt.tune.optimizers.OptimizerUtils;
+import edu.stanford.nlp.mt.util.AtomicWeightVector;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.FlatNBestList;
 import edu.stanford.nlp.mt.util.IOTools;
@@ -406,9 +410,8 @@ public final class OnlineTuner {
       this.translationIds = translationIds;
       this.references = references;
       this.inputId = inputId;
-      // Copy here for thread safety. DO NOT change this unless you know
-      // what you're doing....
-      this.weights = new ClassicCounter<String>(weights);
+      // Immutable snapshot of the weights, which are updated concurrently.
+      this.weights = weights;
       this.localTM = localTM;
       this.createForcedAlignment = createForcedAlignment;
       this.additionalPrefixDecoding = additionalPrefixDecoding;
@@ -473,6 +476,8 @@ public final class OnlineTuner {
                                                       new ArrayList<>(input.translationIds.length) : null;
       List<RichTranslation<IString,String>> prefixDecodingResult = input.additionalPrefixDecoding ? 
                                                                    new ArrayList<>(input.translationIds.length) : null;
+      List<SearchGraph> searchGraphs = optimizer instanceof LatticeExpectedBLEUOptimizer ?
+                                       new ArrayList<>(input.translationIds.length) : null;
       for (int i = 0; i < batchSize; ++i) {
         final int sourceId = input.translationIds[i];
         
@@ -490,8 +495,16 @@ public final class OnlineTuner {
         }
         
         // Decode
+        final SearchGraph[] searchGraph = new SearchGraph[1];
+        if (searchGraphs != null) {
+          inputProperties.put(InputProperty.SearchGraph, (Consumer<SearchGraph>) g -> searchGraph[0] = g);
+        }
         List<RichTranslation<IString,String>> nbestList = decoder.decode(input.source.get(i), sourceId, 
             threadId, decoder.getNbestListSize(), targets, inputProperties);
+        if (searchGraphs != null) {
+          inputProperties.remove(InputProperty.SearchGraph);
+          searchGraphs.add(searchGraph[0]);
+        }
         
         if(input.additionalPrefixDecoding) {
           inputProperties.put(InputProperty.TargetPrefix, true);
@@ -526,7 +539,10 @@ public final class OnlineTuner {
       }
 
       // Compute gradient
-      Counter<String> gradient = batchSize == 1 ?
+      Counter<String> gradient = searchGraphs != null ?
+        ((LatticeExpectedBLEUOptimizer) optimizer).getBatchGradient(input.weights, searchGraphs, input.references) :
+
+        batchSize == 1 ?
         optimizer.getGradient(input.weights, input.source.get(0), 
             input.translationIds[0], nbestLists.get(0), input.references.get(0), 
             referenceWeights, scoreMetric) :
@@ -555,7 +571,7 @@ public final class OnlineTuner {
   /**
    * Asynchronous template from Langford et al. (2009). Get gradients from the threadpool and update the weight vector.
    */
-  private int update(Counter<String> currentWts, 
+  private int update(AtomicWeightVector currentWts, 
       int updateStep, MulticoreWrapper<ProcessorInput,ProcessorOutput> threadpool, 
       OnlineUpdateRule<String> updater, Map<Integer, Sequence<IString>> nbestLists, 
       boolean endOfEpoch, ParallelCorpus localTmTrainingData,
@@ -571,19 +587,24 @@ public final class OnlineTuner {
 
       logger.info("Update {} gradient cardinality: {}", updateStep, result.gradient.keySet().size());
       
-      // Update rule. 
-      updater.update(currentWts, result.gradient, updateStep, isEndOfEpoch);
+      // Update rule. Decoders do not see partial updates.
+      currentWts.beginUpdate();
+      try {
+        updater.update(currentWts, result.gradient, updateStep, isEndOfEpoch);
+      } finally {
+        currentWts.endUpdate();
+      }
 
       // Debug info
       logger.info("Update {} with gradient from input step {} (diff: {})", 
           updateStep, result.inputId, result.inputId - updateStep);
       logger.info("Update {} approximate L2 ||w'-w|| {}", updateStep, Counters.L2Norm(result.gradient));
-      logger.info("Update {} cardinality: {}", updateStep, currentWts.keySet().size());
+      logger.info("Update {} cardinality: {}", updateStep, currentWts.size());
       ++updateStep;
 
       // Accumulate intermediate weights for parameter averaging
       if (doParameterAveraging) {
-        wtsAccumulator.addAll(currentWts);
+        wtsAccumulator.addAll(currentWts.snapshot());
       }
       
       // Do something with the n-best lists before dumping them?
@@ -640,7 +661,7 @@ public final class OnlineTuner {
     // Initialize weight vector(s) for the decoder
     // currentWts will be used in every round; wts will accumulate weight vectors
     final int numThreads = decoder.getNumThreads();
-    Counter<String> currentWts = new ClassicCounter<>(wtsAccumulator);
+    AtomicWeightVector currentWts = new AtomicWeightVector(wtsAccumulator);
     // Clear the accumulator, which we will use for parameter averaging.
     wtsAccumulator.clear();
     
@@ -702,7 +723,7 @@ public final class OnlineTuner {
         
         if((t+1) % weightWriteOutInterval == 0) {
           String filename = String.format("%s.%d.%d%s", outputWeightPrefix, epoch, t, IOTools.WEIGHTS_FILE_EXTENSION);
-          IOTools.writeWeights(filename, currentWts);
+          IOTools.writeWeights(filename, currentWts.toCounter());
         }
       }
       
@@ -713,13 +734,14 @@ public final class OnlineTuner {
       
       // Compute (averaged) intermediate weights for next epoch, and write to file.
       if (doParameterAveraging) {
-        currentWts = new ClassicCounter<String>(wtsAccumulator);
-        Counters.divideInPlace(currentWts, (epoch+1)*numBatches);
+        Counter<String> averagedWts = new ClassicCounter<String>(wtsAccumulator);
+        Counters.divideInPlace(averagedWts, (epoch+1)*numBatches);
+        currentWts = new AtomicWeightVector(averagedWts);
       }
       
       // Write the intermediate state for this epoch
       String epochFilePrefix = String.format("%s.%d", outputWeightPrefix, epoch);
-      IOTools.writeWeights(epochFilePrefix + IOTools.WEIGHTS_FILE_EXTENSION, currentWts);
+      IOTools.writeWeights(epochFilePrefix + IOTools.WEIGHTS_FILE_EXTENSION, currentWts.toCounter());
       IOTools.serialize( epochFilePrefix + STATE_FILE_EXTENSION, updater.getState(), SerializationMode.BIN_GZ);
       
       if(outputSingleBest) {
@@ -747,7 +769,7 @@ public final class OnlineTuner {
       }
     }
     
-    saveFinalWeights(currentWts, maxObjectiveEpoch, numEpochs);
+    saveFinalWeights(currentWts.toCounter(), maxObjectiveEpoch, numEpochs);
   }
   
   private TranslationModel<IString,String> getLocalTM(ParallelCorpus corpus, DynamicTranslationModel<String> backgroundTM) {
@@ -846,7 +868,7 @@ public final class OnlineTuner {
   /**
    * Make a ProcessorInput object for the thread pool from this mini batch.
    */
-  private ProcessorInput makeInput(int[] batch, int inputId, Counter<String> weights, 
+  private ProcessorInput makeInput(int[] batch, int inputId, AtomicWeightVector weights, 
       TranslationModel<IString,String> localTM) {
     List<Sequence<IString>> sourceList = new ArrayList<Sequence<IString>>(batch.length);
     List<List<Sequence<IString>>> referenceList = new ArrayList<List<Sequence<IString>>>(batch.length);
@@ -860,7 +882,7 @@ public final class OnlineTuner {
         referenceList.add(references.get(sourceId));
       }
     }
-    return new ProcessorInput(sourceList, referenceList, weights, batch, inputId, localTM, localTMTraining, outputPrefixDecoding);
+    return new ProcessorInput(sourceList, referenceList, weights.snapshot(), batch, inputId, localTM, localTMTraining, outputPrefixDecoding);
   }
 
   /**
@@ -1019,7 +1041,7 @@ public final class OnlineTuner {
       .append("   -uw        : Uniform weight initialization (default: false)").append(nl)
       .append("   -rw        : Randomize starting weights at the start of each epoch").append(nl)
       .append("   -e num     : Number of online epochs").append(nl)
-      .append("   -o str     : Optimizer: [pro-sgd,mira-1best]").append(nl)
+      .append("   -o str     : Optimizer: [pro-sgd,mira-1best,expectedBLEU,expectedBLEU-lattice,crossentropy]").append(nl)
       .append("   -of str    : Optimizer flags (format: CSV list)").append(nl)
       .append("   -m str     : Gold scoring metric for the tuning algorithm (default: bleu-smooth)").append(nl)
       .append("   -mf str    : Gold scoring metric flags (format: CSV list)").append(nl)
@@ -161,19 +161,28 @@ abstract public class AbstractOnlineOptimizer implements OnlineOptimizer<IString
       }
     }
 
-    // Add L2 regularization directly into the derivative
+    addL2Regularization(batchGradient, weights, sourceIds.length);
+    return batchGradient;
+  }
+
+  /**
+   * Add L2 regularization directly into the derivative.
+   * 
+   * @param gradient
+   * @param weights
+   * @param batchSize
+   */
+  protected void addL2Regularization(Counter<String> gradient, Counter<String> weights, int batchSize) {
     if (this.l2Regularization) {
       final Set<String> features = new HashSet<String>(weights.keySet());
       features.addAll(weights.keySet());
-      final double dataFraction = sourceIds.length /(double) tuneSetSize;
+      final double dataFraction = batchSize /(double) tuneSetSize;
       final double scaledInvSigmaSquared = dataFraction/(2*sigmaSq);
       for (String key : features) {
         double x = weights.getCount(key);
-        batchGradient.incrementCount(key, x * scaledInvSigmaSquared);
+        gradient.incrementCount(key, x * scaledInvSigmaSquared);
       }
     }
-
-    return batchGradient;
   }
 
   abstract public Counter<String> getUnregularizedGradient(Counter<String> weights,
@@ -4,6 +4,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 
 /**
@@ -23,7 +24,7 @@ public class AdaGradUpdater implements OnlineUpdateRule<String> {
 
   public AdaGradUpdater(double initialRate, int expectedNumFeatures) {
     this.rate = initialRate;
-    //sumGradSquare = new OpenAddressCounter<String>(expectedNumFeatures, 1.0f);
+    sumGradSquare = new ClassicCounter<>(expectedNumFeatures);
   }
 
   @Override
@@ -0,0 +1,172 @@
+package edu.stanford.nlp.mt.tune.optimizers;
+
+import java.util.List;
+
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
+import edu.stanford.nlp.mt.metrics.MetricUtils;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.stats.Counters;
+
+/**
+ * Expected BLEU over the search graph of the decoder instead of an n-best list.
+ *
+ * The objective is sentence BLEU computed from the expected n-gram matches, n-gram counts,
+ * and length under p_w(y|x) (Rosti et al. 2011). The expectations and the gradient are
+ * computed with the inside-outside algorithm in time linear in the size of the graph.
+ * The statistics decompose over the edges: n-grams are counted with the context of the
+ * derivation of each edge, and matches are clipped within each edge. All counts are add-one
+ * smoothed.
+ *
+ * The online tuner passes the search graphs to <code>getBatchGradient()</code>. The n-best
+ * objective of the superclass is used for inputs without a search graph.
+ */
+public class LatticeExpectedBLEUOptimizer extends ExpectedBLEUOptimizer {
+
+  public static final int ORDER = 4;
+
+  public LatticeExpectedBLEUOptimizer(int tuneSetSize, int expectedNumFeatures, String[] args) {
+    super(tuneSetSize, expectedNumFeatures, args);
+  }
+
+  /**
+   * Regularized gradient of a mini-batch.
+   *
+   * @param weights
+   * @param graphs Null for a decoder failure.
+   * @param references
+   * @return
+   */
+  public Counter<String> getBatchGradient(Counter<String> weights, List<SearchGraph> graphs,
+      List<List<Sequence<IString>>> references) {
+    Counter<String> batchGradient = new ClassicCounter<String>();
+    for (int i = 0; i < graphs.size(); ++i) {
+      if (graphs.get(i) != null) {
+        batchGradient.addAll(getUnregularizedGradient(weights, graphs.get(i), references.get(i)));
+      }
+    }
+    addL2Regularization(batchGradient, weights, graphs.size());
+    return batchGradient;
+  }
+
+  /**
+   * Gradient of the expected BLEU loss of one search graph.
+   *
+   * @param weights
+   * @param graph
+   * @param references
+   * @return
+   */
+  public Counter<String> getUnregularizedGradient(Counter<String> weights, SearchGraph graph,
+      List<Sequence<IString>> references) {
+    Counter<String> gradient = new ClassicCounter<String>();
+    double objective = expectedBLEU(weights, graph, references, gradient);
+    if (VERBOSE) {
+      System.err.printf("Input %d: expected BLEU: %.4f%n", graph.sourceInputId, objective);
+    }
+    Counters.multiplyInPlace(gradient, -1);
+    return gradient;
+  }
+
+  /**
+   * BLEU of the expected sufficient statistics of a search graph.
+   *
+   * @param weights
+   * @param graph
+   * @param references
+   * @param gradient If not null, the gradient of the objective is added to it.
+   * @return
+   */
+  public static double expectedBLEU(Counter<String> weights, SearchGraph graph,
+      List<Sequence<IString>> references, Counter<String> gradient) {
+    final int numNodes = graph.numNodes();
+    final int numEdges = graph.numEdges();
+    final double[] scores = graph.edgeScores(weights);
+
+    // Inside and outside scores
+    final double[] logAlpha = graph.insideScores(scores);
+    final double[] logBeta = graph.outsideScores(scores);
+    final double[] posteriors = graph.edgePosteriors(scores, logAlpha, logBeta);
+
+    // Expected statistics: matches and counts for each order
+    final Counter<Sequence<IString>> referenceCounts = MetricUtils.getMaxNGramCounts(references, ORDER);
+    final double[][] edgeStatistics = new double[numEdges][];
+    final double[] statistics = new double[2 * ORDER];
+    for (int e = 0; e < numEdges; ++e) {
+      edgeStatistics[e] = statistics(graph.targetWithContext(e), graph.contextLength(e), referenceCounts);
+      for (int k = 0; k < statistics.length; ++k) statistics[k] += posteriors[e] * edgeStatistics[e][k];
+    }
+    final double length = statistics[1];
+    if (length == 0.0) return 0.0;
+    double referenceLength = references.get(0).size();
+    for (Sequence<IString> reference : references) {
+      if (Math.abs(reference.size() - length) < Math.abs(referenceLength - length)) {
+        referenceLength = reference.size();
+      }
+    }
+    double logBLEU = length < referenceLength ? 1.0 - referenceLength / length : 0.0;
+    for (int n = 0; n < ORDER; ++n) {
+      logBLEU += Math.log((statistics[2*n] + 1.0) / (statistics[2*n+1] + 1.0)) / ORDER;
+    }
+    final double bleu = Math.exp(logBLEU);
+    if (gradient == null) return bleu;
+
+    // Derivative of BLEU with respect to the statistics
+    final double[] dStatistics = new double[2 * ORDER];
+    for (int n = 0; n < ORDER; ++n) {
+      dStatistics[2*n] = bleu / (ORDER * (statistics[2*n] + 1.0));
+      dStatistics[2*n+1] = -bleu / (ORDER * (statistics[2*n+1] + 1.0));
+    }
+    if (length < referenceLength) dStatistics[1] += bleu * referenceLength / (length * length);
+
+    // Expected linearized loss of the paths to and from each node
+    final double[] losses = new double[numEdges];
+    for (int e = 0; e < numEdges; ++e) {
+      for (int k = 0; k < dStatistics.length; ++k) losses[e] += dStatistics[k] * edgeStatistics[e][k];
+    }
+    final double[] prefixLoss = new double[numNodes];
+    final double[] suffixLoss = new double[numNodes];
+    for (int e = 0; e < numEdges; ++e) {
+      int tail = graph.tail(e), head = graph.head(e);
+      double p = Math.exp(logAlpha[tail] + scores[e] - logAlpha[head]);
+      prefixLoss[head] += p * (prefixLoss[tail] + losses[e]);
+    }
+    for (int e = numEdges - 1; e >= 0; --e) {
+      int tail = graph.tail(e), head = graph.head(e);
+      double p = Math.exp(scores[e] + logBeta[head] - logBeta[tail]);
+      suffixLoss[tail] += p * (losses[e] + suffixLoss[head]);
+    }
+
+    // Gradient: E[loss * f] - E[loss] E[f]
+    final double expectedLoss = prefixLoss[graph.goal()];
+    for (int e = 0; e < numEdges; ++e) {
+      double weight = posteriors[e] * (prefixLoss[graph.tail(e)] + losses[e] + suffixLoss[graph.head(e)] - expectedLoss);
+      if (weight == 0.0) continue;
+      for (int i = 0, sz = graph.numFeatures(e); i < sz; ++i) {
+        gradient.incrementCount(graph.featureName(e, i), weight * graph.featureValue(e, i));
+      }
+    }
+    return bleu;
+  }
+
+  /**
+   * Clipped n-gram matches and n-gram counts of the target words of an edge.
+   */
+  private static double[] statistics(Sequence<IString> words, int contextLength,
+      Counter<Sequence<IString>> referenceCounts) {
+    double[] statistics = new double[2 * ORDER];
+    Counter<Sequence<IString>> counts = new ClassicCounter<>();
+    for (int j = contextLength; j < words.size(); ++j) {
+      for (int n = 1; n <= ORDER && j - n + 1 >= 0; ++n) {
+        counts.incrementCount(words.subsequence(j - n + 1, j + 1));
+        statistics[2*(n-1)+1] += 1.0;
+      }
+    }
+    for (Sequence<IString> ngram : counts.keySet()) {
+      statistics[2*(ngram.size()-1)] += Math.min(counts.getCount(ngram), referenceCounts.getCount(ngram));
+    }
+    return statistics;
+  }
+}
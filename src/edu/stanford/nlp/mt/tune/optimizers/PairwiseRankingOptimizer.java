@@ -1,19 +1,20 @@
 package edu.stanford.nlp.mt.tune.optimizers;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import edu.stanford.nlp.classify.LogPrior;
 import edu.stanford.nlp.classify.LogisticClassifier;
 import edu.stanford.nlp.classify.LogisticClassifierFactory;
 import edu.stanford.nlp.classify.RVFDataset;
-import edu.stanford.nlp.ling.RVFDatum;
 import edu.stanford.nlp.mt.metrics.EvaluationMetric;
 import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
 import edu.stanford.nlp.mt.tune.MERT;
+import edu.stanford.nlp.mt.tune.optimizers.PairwiseRankingSampler.SparseVector;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.stats.ClassicCounter;
@@ -21,7 +22,7 @@ import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.util.HashIndex;
 import edu.stanford.nlp.util.Index;
-import edu.stanford.nlp.util.Pair;
+import edu.stanford.nlp.util.concurrent.ConcurrentHashIndex;
 
 /**
  * Pairwise Ranking Optimization
@@ -102,6 +103,11 @@ public class PairwiseRankingOptimizer extends AbstractBatchOptimizer {
      return getSamples(random, new HashIndex<String>());
   }
   
+  /**
+   * Sample the n-best lists in parallel. Each list has its own random number generator seeded
+   * from <code>random</code>, so the samples do not depend on the number of threads. Features
+   * are added to <code>featureIndex</code> in the order of the samples.
+   */
   RVFDataset<String, String> getSamples(Random random, Index<String> featureIndex) {
     List<List<ScoredFeaturizedTranslation<IString, String>>> nbestlists = MERT.nbest.nbestLists();
     Set<String> featureWhiteList = OptimizerUtils.featureWhiteList(MERT.nbest, minFeatureSegmentCount);
@@ -110,65 +116,62 @@ public class PairwiseRankingOptimizer extends AbstractBatchOptimizer {
     System.err.printf("White List Features:\n%s\n", featureWhiteList);
     Index<String> labelIndex = new HashIndex<String>();
     labelIndex.add("0");
-    labelIndex.add("1");    
-    RVFDataset<String,String> dataset = new RVFDataset<String, String>(xi*nbestlists.size(), featureIndex, labelIndex);
-    
-    for (int i = 0; i < nbestlists.size(); i++) {
-      List<Pair<Double, Pair<Integer, Integer>>> v = new ArrayList<Pair<Double, Pair<Integer, Integer>>>();
-      
-      System.err.printf("Creating Eval Metric for list %d...\n", i);
-      
+    labelIndex.add("1");
+
+    final long seed = random.nextLong();
+    // Ids of the parallel sampling step, which depend on the thread schedule
+    final Index<String> sampleIndex = new ConcurrentHashIndex<>();
+    List<SparseVector[]> samples = IntStream.range(0, nbestlists.size()).parallel().mapToObj(i -> {
+      List<ScoredFeaturizedTranslation<IString, String>> nbestlist = nbestlists.get(i);
       EvaluationMetric<IString, String> evalMetric = 
           CorpusLevelMetricFactory.newMetric(mert.evalMetric, mert.references.subList(i, i+1));
-      
-      System.err.printf("Sampling n-best list: %d\n", i);
-      
-      for (int g = 0; g < gamma; g++) {
-          int jMax   = nbestlists.get(i).size();  
-          int j      = random.nextInt(jMax); 
-          int jPrime = random.nextInt(jMax);
-          
-          // sentence level evaluation metric
-          double gJ = evalMetric.score(nbestlists.get(i).subList(j, j+1));
-          double gJPrime = evalMetric.score(nbestlists.get(i).subList(jPrime, jPrime+1));
-          double absDiff = Math.abs(gJ-gJPrime);
-          if (absDiff >= nThreshold) {
-            if (gJ > gJPrime) {
-              v.add(new Pair<Double, Pair<Integer,Integer>>(absDiff, new Pair<Integer,Integer>(j, jPrime)));
-            } else {
-              v.add(new Pair<Double, Pair<Integer,Integer>>(absDiff, new Pair<Integer,Integer>(jPrime, j)));
-            }
-          }
-      }
-      Collections.sort(v);
-      Collections.reverse(v);
-      List<Pair<Double, Pair<Integer, Integer>>> selectedV = v.subList(0, Math.min(xi, v.size()));
 
-      System.err.printf("\taccepted samples: %d\n", selectedV.size());
-      
-      for (Pair<Double, Pair<Integer, Integer>> selectedPair : selectedV) {
-        Counter<String> plusFeatures = OptimizerUtils.featureValueCollectionToCounter(
-            nbestlists.get(i).get(selectedPair.second.first).features);
-        Counter<String> minusFeatures = OptimizerUtils.featureValueCollectionToCounter(
-            nbestlists.get(i).get(selectedPair.second.second).features);
-        Counter<String> gtVector = new ClassicCounter<String>(plusFeatures);
-        Counters.subtractInPlace(gtVector, minusFeatures);
-        
-        Counters.retainKeys(gtVector, featureWhiteList);
-        RVFDatum<String, String> datumGt = new RVFDatum<String, String>(gtVector, "1");
-        
-        Counter<String> ltVector = new ClassicCounter<String>(minusFeatures);
-        Counters.subtractInPlace(ltVector, plusFeatures);
+      // Sentence level evaluation metric, computed at most once per hypothesis
+      double[] scores = new double[nbestlist.size()];
+      Arrays.fill(scores, Double.NaN);
+      int[][] pairs = PairwiseRankingSampler.sample(nbestlist.size(), j -> {
+        if (Double.isNaN(scores[j])) scores[j] = evalMetric.score(nbestlist.subList(j, j+1));
+        return scores[j];
+      }, gamma, xi, nThreshold, new Random(PairwiseRankingSampler.seed(seed, i, 0)));
 
-        Counters.retainKeys(ltVector, featureWhiteList);
-        RVFDatum<String, String> datumLt = new RVFDatum<String, String>(ltVector, "0");
-        dataset.add(datumGt);
-        dataset.add(datumLt);
+      SparseVector[] differences = new SparseVector[pairs.length];
+      for (int k = 0; k < pairs.length; ++k) {
+        differences[k] = PairwiseRankingSampler.difference(nbestlist.get(pairs[k][0]).features,
+            nbestlist.get(pairs[k][1]).features, featureWhiteList, sampleIndex::addToIndex);
+      }
+      return differences;
+    }).collect(Collectors.toList());
+
+    // Each pair yields a positive datum and its negation
+    int numData = 2 * samples.stream().mapToInt(v -> v.length).sum();
+    int[] labels = new int[numData];
+    int[][] data = new int[numData][];
+    double[][] values = new double[numData][];
+    int[] sampleToFeature = new int[sampleIndex.size()];
+    Arrays.fill(sampleToFeature, -1);
+    int n = 0;
+    for (int i = 0; i < samples.size(); i++) {
+      System.err.printf("Sampled n-best list %d: accepted samples: %d\n", i, samples.get(i).length);
+      for (SparseVector gtVector : samples.get(i)) {
+        int[] features = new int[gtVector.size()];
+        double[] ltValues = new double[gtVector.size()];
+        for (int k = 0; k < features.length; ++k) {
+          int id = gtVector.features[k];
+          if (sampleToFeature[id] < 0) sampleToFeature[id] = featureIndex.addToIndex(sampleIndex.get(id));
+          features[k] = sampleToFeature[id];
+          ltValues[k] = -gtVector.values[k];
+        }
+        labels[n] = labelIndex.indexOf("1");
+        data[n] = features;
+        values[n++] = gtVector.values;
+        labels[n] = labelIndex.indexOf("0");
+        data[n] = features;
+        values[n++] = ltValues;
       }
     }
-    
-    return dataset;
+    return new RVFDataset<String, String>(labelIndex, labels, featureIndex, data, values);
   }
+
   @Override
   public Counter<String> optimize(Counter<String> initialWts) {
     Counter<String> wts = new ClassicCounter<String>(initialWts);
@@ -1,15 +1,20 @@
 package edu.stanford.nlp.mt.tune.optimizers;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -17,18 +22,25 @@ import org.apache.logging.log4j.Logger;
 import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
 import edu.stanford.nlp.mt.tune.OnlineOptimizer;
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.tune.optimizers.PairwiseRankingSampler.SparseVector;
+import edu.stanford.nlp.mt.util.AtomicWeightVector;
+import edu.stanford.nlp.mt.util.AtomicWeightVector.Snapshot;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
-import edu.stanford.nlp.util.Triple;
 
 /**
  * Online variant of the PRO objective (Hopkins and May, 2011).
  *
+ * Features are interned to the ids of the weight vector once per batch, and the gradient is
+ * computed over ids. With the optional Hogwild! mode (Recht et al., 2011), the loss gradient
+ * of each sample is added to the shared weight vector without locks as soon as it is computed.
+ * Hogwild! updates are not reproducible since they depend on the thread schedule, and the
+ * minimum feature count of the tuner does not apply to them.
+ *
  * @author Spence Green
  *
  */
@@ -48,11 +60,10 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
   public static final double DEFAULT_RATE = 0.1;
   public static final String DEFAULT_UPDATER = "sgd";
   public static final double DEFAULT_L1 = 0;
+  public static final long DEFAULT_SEED = 8682522807148012L;
+  public static final boolean DEFAULT_HOGWILD = false;
   public static final boolean VERBOSE = false;
   
-  // Logistic classifier labels
-  private static enum Label {POSITIVE, NEGATIVE}
-
   // PRO sampling and feature filtering
   private final int gamma;
   private final int xi;
@@ -60,8 +71,14 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
   private final int minFeatureSegmentCount;
   private final int tuneSetSize;
 
+  // Reproducible sampling. The seed of each n-best list depends on the number of
+  // times that the source has been sampled.
+  private final long seed;
+  private final AtomicIntegerArray sampleRounds;
+
   private final double learningRate;
   private final String updaterType;
+  private final boolean hogwild;
 
   // Regularization fields
   private final double L1lambda;
@@ -81,7 +98,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
   public PairwiseRankingOptimizerSGD(int tuneSetSize, int expectedNumFeatures) {
     this(tuneSetSize, expectedNumFeatures, DEFAULT_MIN_FEATURE_SEGMENT_COUNT,
         DEFAULT_GAMMA, DEFAULT_XI, DEFAULT_N_THRESHOLD, DEFAULT_SIGMA, DEFAULT_RATE, 
-        DEFAULT_UPDATER, DEFAULT_L1, null, null);
+        DEFAULT_UPDATER, DEFAULT_L1, null, null, DEFAULT_SEED, DEFAULT_HOGWILD);
   }
 
   /**
@@ -102,7 +119,9 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
         args != null && args.length > 6 ? args[6] : DEFAULT_UPDATER,
         args != null && args.length > 7 ? Double.parseDouble(args[7]) : DEFAULT_L1,
         args != null && args.length > 8 ? args[8] : null,
-        args != null && args.length > 9 ? args[9] : null);
+        args != null && args.length > 9 ? args[9] : null,
+        args != null && args.length > 10 ? Long.parseLong(args[10]) : DEFAULT_SEED,
+        args != null && args.length > 11 ? Boolean.parseBoolean(args[11]) : DEFAULT_HOGWILD);
   }
 
   /**
@@ -120,14 +139,20 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
    * @param L1lambda
    * @param regconfig
    * @param fixedFeaturesFile
+   * @param seed
+   * @param hogwild Lock-free, non-deterministic updates of the loss gradient. Requires the sgd updater.
    */
   public PairwiseRankingOptimizerSGD(int tuneSetSize, int expectedNumFeatures,
       int minFeatureSegmentCount, int gamma, int xi, double nThreshold, double sigma, double rate, 
-      String updaterType, double L1lambda, String regconfig, String fixedFeaturesFile) {
+      String updaterType, double L1lambda, String regconfig, String fixedFeaturesFile, long seed,
+      boolean hogwild) {
     if (minFeatureSegmentCount < 1) throw new RuntimeException("Feature segment count must be >= 1: " + minFeatureSegmentCount);
     if (gamma <= 0) throw new RuntimeException("Gamma must be > 0: " + gamma);
     if (xi <= 0) throw new RuntimeException("Xi must be > 0: " + xi);
     if (nThreshold < 0.0) throw new RuntimeException("Threshold must >= 0:" + nThreshold);
+    if (hogwild && ! DEFAULT_UPDATER.equalsIgnoreCase(updaterType)) {
+      throw new RuntimeException("Hogwild updates require the sgd updater: " + updaterType);
+    }
 
     this.expectedNumFeatures = expectedNumFeatures;
     this.gamma = gamma;
@@ -137,6 +162,9 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
     this.tuneSetSize = tuneSetSize;
     this.learningRate = rate;
     this.updaterType = updaterType;
+    this.seed = seed;
+    this.hogwild = hogwild;
+    this.sampleRounds = new AtomicIntegerArray(Math.max(0, tuneSetSize));
 
     // L1 regularization
     this.L1lambda = L1lambda;
@@ -151,7 +179,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
   /**
    * Select PRO samples from a single instance.
    */
-  private List<Datum> sampleNbestList(int sourceId,
+  private List<SparseVector> sampleNbestList(int sourceId, AtomicWeightVector index,
       Sequence<IString> source, SentenceLevelMetric<IString, String> scoreMetric,
       List<RichTranslation<IString, String>> translations,
       List<Sequence<IString>> references) {
@@ -163,108 +191,79 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
     translationList.add(translations);
     List<List<Sequence<IString>>> referenceList = new ArrayList<List<Sequence<IString>>>(1);
     referenceList.add(references);
-    return sampleNbestLists(sourceIds, sources, scoreMetric, translationList, referenceList);
+    return sampleNbestLists(sourceIds, index, sources, scoreMetric, translationList, referenceList);
   }
 
   /**
-   * Select PRO samples from a batch.
+   * Select PRO samples from a batch. Each pair yields a positive datum, which is stored, and
+   * its negation.
+   * 
+   * The n-best lists are scored sequentially since the metric is stateful; the entries of each
+   * list are scored in parallel if the metric is threadsafe. Pair sampling and the difference
+   * vectors are computed in parallel. Features are interned to the ids of <code>index</code>.
    */
-  private List<Datum> sampleNbestLists(int[] sourceIds, List<Sequence<IString>> sources,
+  private List<SparseVector> sampleNbestLists(int[] sourceIds, AtomicWeightVector index, List<Sequence<IString>> sources,
       SentenceLevelMetric<IString, String> scoreMetric, List<List<RichTranslation<IString, String>>> translationList, List<List<Sequence<IString>>> referenceList) {
     assert sourceIds != null;
     assert scoreMetric != null;
     assert sourceIds.length == translationList.size();
     assert translationList.size() == referenceList.size();
 
-    List<Datum> dataset = new ArrayList<Datum>(2*xi);
-
+    final double[][] scores = new double[sourceIds.length][];
+    final long[] seeds = new long[sourceIds.length];
     for (int i = 0; i < sourceIds.length; ++i) {
       int sourceId = sourceIds[i];
       List<RichTranslation<IString, String>> translations = translationList.get(i);
       List<Sequence<IString>> references = referenceList.get(i);
       Sequence<IString> source = sources.get(i);
+      if (translations.isEmpty()) {
+        logger.warn("No translations for input sentence #{}", sourceId);
+      }
       
-      // Sample from this n-best list
       // Loss function is not threadsafe
-      List<Triple<Double, Integer, Integer>> v;
       if (scoreMetric.isThreadsafe()) {
-        v = sample(translations, references, sourceId, source, scoreMetric);
-        if (translations.size() > 0) {
-          scoreMetric.update(sourceId, references, translations.get(0).translation);
-        }
-
+        scores[i] = score(translations, references, sourceId, source, scoreMetric);
       } else {
         synchronized(scoreMetric) {
-          v = sample(translations, references, sourceId, source, scoreMetric);
-          if (translations.size() > 0) {
-            scoreMetric.update(sourceId, references, translations.get(0).translation);
-          }
+          scores[i] = score(translations, references, sourceId, source, scoreMetric);
         }
       }
+      int round = sourceId >= 0 && sourceId < sampleRounds.length() ? sampleRounds.getAndIncrement(sourceId) : 0;
+      seeds[i] = PairwiseRankingSampler.seed(seed, sourceId, round);
+    }
 
-      // Get the max-margin pairs
-      Collections.sort(v);
-      Collections.reverse(v);
-      List<Triple<Double, Integer, Integer>> selectedV = v.subList(0, Math.min(xi, v.size()));
-
-      // Add selectedV to RVFDataset
-      for (Triple<Double, Integer, Integer> selectedPair : selectedV) {
-        Counter<String> plusFeatures = OptimizerUtils.featureValueCollectionToCounter(
-            translations.get(selectedPair.second()).features);
-        Counter<String> minusFeatures = OptimizerUtils.featureValueCollectionToCounter(
-            translations.get(selectedPair.third()).features);
-        Counter<String> gtVector = new ClassicCounter<String>(plusFeatures);
-        Counters.subtractInPlace(gtVector, minusFeatures);
-
-        dataset.add(new Datum(Label.POSITIVE, gtVector));
-
-        Counter<String> ltVector = new ClassicCounter<String>(minusFeatures);
-        Counters.subtractInPlace(ltVector, plusFeatures);
-
-        dataset.add(new Datum(Label.NEGATIVE, ltVector));
+    IntStream indices = IntStream.range(0, sourceIds.length);
+    if (sourceIds.length > 1) indices = indices.parallel();
+    return indices.mapToObj(i -> {
+      List<RichTranslation<IString, String>> translations = translationList.get(i);
+      int[][] pairs = PairwiseRankingSampler.sample(translations.size(), j -> scores[i][j], gamma, xi,
+          nThreshold, new Random(seeds[i]));
+      List<SparseVector> data = new ArrayList<>(pairs.length);
+      for (int[] pair : pairs) {
+        data.add(PairwiseRankingSampler.difference(translations.get(pair[0]).features,
+            translations.get(pair[1]).features, null, index::indexOf));
       }
-    }
-    return dataset;
+      return data;
+    }).flatMap(List::stream).collect(Collectors.toList());
   }
 
   /**
-   * Sampling algorithm of Hopkins and May (2011).
-   * 
    * Make one pass through the n-best list to score the translations since e.g. TER-based
-   * metrics are very slow.
+   * metrics are very slow. Then update the metric with the one-best translation.
    */
-  private List<Triple<Double, Integer, Integer>> sample(List<RichTranslation<IString, String>> translations,
+  private static double[] score(List<RichTranslation<IString, String>> translations,
       List<Sequence<IString>> references, int sourceId, Sequence<IString> source, SentenceLevelMetric<IString, String> scoreMetric) {
     double[] tgtToScore = new double[translations.size()];
-    for (int i = 0, max = translations.size(); i < max; ++i) {
-      // Cache the scoring metric values.
+    IntStream indices = IntStream.range(0, translations.size());
+    if (scoreMetric.isThreadsafe()) indices = indices.parallel();
+    indices.forEach(i -> {
       Sequence<IString> nBestItem = translations.get(i).translation;
       tgtToScore[i] = scoreMetric.score(sourceId, source, references, nBestItem);
+    });
+    if (translations.size() > 0) {
+      scoreMetric.update(sourceId, references, translations.get(0).translation);
     }
-    List<Triple<Double, Integer, Integer>> v =
-        new ArrayList<Triple<Double, Integer, Integer>>(gamma);
-    final int jMax   = translations.size();
-    
-    if (jMax == 0) {
-      System.err.println("No translations for input sentence #" + sourceId) ;
-      return v;
-    }
-
-    for (int g = 0; g < gamma; g++) {
-      int j      = ThreadLocalRandom.current().nextInt(jMax);
-      int jPrime = ThreadLocalRandom.current().nextInt(jMax);
-      double gJ = tgtToScore[j];
-      double gJPrime = tgtToScore[jPrime];
-      double absDiff = Math.abs(gJ-gJPrime);
-      if (absDiff >= nThreshold) {
-        if (gJ > gJPrime) {
-          v.add(new Triple<Double, Integer,Integer>(absDiff, j, jPrime));
-        } else {
-          v.add(new Triple<Double, Integer,Integer>(absDiff, jPrime, j));
-        }
-      }
-    }
-    return v;
+    return tgtToScore;
   }
 
   /**
@@ -281,8 +280,9 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
     assert references.size() > 0;
 
     // Sample from the n-best list
-    List<Datum> dataset = sampleNbestList(sourceId, source, scoreMetric, translations, references);
-    Counter<String> gradient = computeGradient(dataset, weights, 1);
+    Snapshot snapshot = snapshot(weights);
+    List<SparseVector> dataset = sampleNbestList(sourceId, snapshot.vector(), source, scoreMetric, translations, references);
+    Counter<String> gradient = computeGradient(dataset, snapshot, 1);
     if (dataset.isEmpty()) {
       logger.warn("Null gradient for sourceId: {}", sourceId);
     }
@@ -311,8 +311,9 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
     assert references.size() > 0;
     assert scoreMetric != null;
 
-    List<Datum> dataset = sampleNbestLists(sourceIds, sources, scoreMetric, translations, references);
-    Counter<String> gradient = computeGradient(dataset, weights, sourceIds.length);
+    Snapshot snapshot = snapshot(weights);
+    List<SparseVector> dataset = sampleNbestLists(sourceIds, snapshot.vector(), sources, scoreMetric, translations, references);
+    Counter<String> gradient = computeGradient(dataset, snapshot, sourceIds.length);
     if (dataset.isEmpty()) {
       logger.warn("Null gradient for mini-batch: {}", Arrays.toString(sourceIds));
     }
@@ -322,7 +323,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
        for (int i = 0; i < translations.size(); i++) {
           System.err.printf(" %d: %d\n", i, translations.get(i).size());
        }
-       System.err.printf("Data set size: %d\n", dataset.size());
+       System.err.printf("Data set size: %d\n", 2*dataset.size());
        System.err.println("Batch gradient");
        displayGradient(gradient);
     }
@@ -335,59 +336,72 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
      System.err.println(gradient);
   }
   
+  /**
+   * The weights as a snapshot of a weight vector. The tuner passes snapshots of the weights
+   * that it updates; other counters are copied.
+   */
+  private Snapshot snapshot(Counter<String> weights) {
+    if (weights instanceof Snapshot) return (Snapshot) weights;
+    if (hogwild) throw new IllegalArgumentException("Hogwild updates require a snapshot of the shared weights");
+    if (weights instanceof AtomicWeightVector) return ((AtomicWeightVector) weights).snapshot();
+    return new AtomicWeightVector(weights).snapshot();
+  }
+
   /**
    * Compute the gradient for the specified set of PRO samples.
+   * 
+   * The negative datum of a pair is the negation of the positive datum, and both have the same
+   * gradient. So each positive datum is counted twice.
+   *
+   * With Hogwild! updates, each datum is scored with the current shared weights, and its loss
+   * gradient is added to them with the learning rate. The decoders do not see part of a batch.
+   * The returned gradient only contains the regularization term.
    */
-  private Counter<String> computeGradient(List<Datum> dataset, Counter<String> weights,
+  Counter<String> computeGradient(List<SparseVector> dataset, Snapshot weights,
       int batchSize) {
+    final AtomicWeightVector vector = weights.vector();
+    final Int2DoubleLinkedOpenHashMap gradient = new Int2DoubleLinkedOpenHashMap();
+
+    if (hogwild) vector.beginUpdate();
+    try {
+      for (SparseVector datum : dataset) {
+        double sum = 0;
+        for (int i = 0, sz = datum.size(); i < sz; ++i) {
+          double w = hogwild ? vector.get(datum.features[i]) : weights.get(datum.features[i]);
+          sum += w*datum.values[i];
+        }
 
-    Counter<String> gradient = new ClassicCounter<String>(weights.keySet().size());
-
-    for (Datum datum : dataset) {
-      double sum = 0;
-      for (String feature : datum.vX.keySet()) {
-        sum += weights.getCount(feature)*datum.vX.getCount(feature);
-      }
-
-      double expSum, derivativeIncrement;
+        double expSum = Math.exp(-sum);
+        double derivativeIncrement = -1.0 / (1.0 + (1.0 / expSum));
 
-      if (datum.label == Label.NEGATIVE) {
-        expSum = Math.exp(sum);
-        derivativeIncrement = 1.0 / (1.0 + (1.0 / expSum));
-      } else {
-        expSum = Math.exp(-sum);
-        derivativeIncrement = -1.0 / (1.0 + (1.0 / expSum));
-      }
-
-      for (String feature : datum.vX.keySet()) {
-        double g = datum.vX.getCount(feature)*derivativeIncrement;
-        gradient.incrementCount(feature, g);
+        for (int i = 0, sz = datum.size(); i < sz; ++i) {
+          double g = datum.values[i]*derivativeIncrement;
+          if (hogwild) {
+            vector.add(datum.features[i], -learningRate*2.0*g);
+          } else {
+            gradient.addTo(datum.features[i], 2.0*g);
+          }
+        }
       }
+    } finally {
+      if (hogwild) vector.endUpdate();
     }
 
     // Add L2 regularization directly into the derivative
     if (this.l2Regularization && dataset.size() > 0) {
-      final Set<String> features = new HashSet<String>(weights.keySet());
-      features.addAll(gradient.keySet());
-      final double dataFraction = dataset.size() / ((double) 2*xi*tuneSetSize);
+      final double dataFraction = 2*dataset.size() / ((double) 2*xi*tuneSetSize);
       final double scaledSigmaSquared = sigmaSq / dataFraction;
-      for (String key : features) {
-        double x = weights.getCount(key);
-        gradient.incrementCount(key, x / scaledSigmaSquared);
+      for (int id = 0, sz = weights.dimension(); id < sz; ++id) {
+        double x = weights.get(id);
+        if (x != 0.0) gradient.addTo(id, x / scaledSigmaSquared);
       }
     }
 
-    return gradient;
-  }
-
-
-  private static class Datum {
-    public Label label;
-    public Counter<String> vX;
-    public Datum(Label label, Counter<String> vX) {
-      this.label = label;
-      this.vX = vX;
+    Counter<String> counter = new ClassicCounter<String>(gradient.size());
+    for (Int2DoubleMap.Entry entry : gradient.int2DoubleEntrySet()) {
+      counter.setCount(vector.feature(entry.getIntKey()), entry.getDoubleValue());
     }
+    return counter;
   }
 
   @Override
@@ -440,7 +454,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
 
   @Override
   public String toString() {
-    return String.format("%s gamma: %d xi: %d threshold: %.2f feature-filter: %d updater: %s", this.getClass().getSimpleName(),
-        this.gamma, this.xi, this.nThreshold, this.minFeatureSegmentCount, this.updaterType);
+    return String.format("%s gamma: %d xi: %d threshold: %.2f feature-filter: %d updater: %s seed: %d hogwild: %b", this.getClass().getSimpleName(),
+        this.gamma, this.xi, this.nThreshold, this.minFeatureSegmentCount, this.updaterType, this.seed, this.hogwild);
   }
 }
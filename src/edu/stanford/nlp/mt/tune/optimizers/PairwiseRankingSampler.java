@@ -0,0 +1,140 @@
+package edu.stanford.nlp.mt.tune.optimizers;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.Int2DoubleLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+import edu.stanford.nlp.mt.util.FeatureValue;
+
+/**
+ * Pair sampling algorithm of Hopkins and May (2011) for the PRO optimizers. Sampled pairs
+ * and feature difference vectors are stored in primitive arrays.
+ *
+ * The methods are stateless, so n-best lists can be sampled in parallel. Each list should be
+ * sampled with its own <code>Random</code> created from <code>seed()</code> so that the samples
+ * do not depend on the number of threads.
+ */
+public final class PairwiseRankingSampler {
+
+  private PairwiseRankingSampler() {}
+
+  /**
+   * The seed of the random number generator for one n-best list.
+   *
+   * @param seed
+   * @param listId
+   * @param round The number of times that the list has been sampled before.
+   * @return
+   */
+  public static long seed(long seed, int listId, int round) {
+    long h = seed ^ (listId * 0x9E3779B97F4A7C15L) ^ (round * 0xC2B2AE3D27D4EB4FL);
+    h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+    return h ^ (h >>> 33);
+  }
+
+  /**
+   * Sample <code>gamma</code> pairs of hypotheses and return the <code>xi</code> pairs with the
+   * largest score differences of at least <code>nThreshold</code>. Ties are broken by the
+   * hypothesis indices.
+   *
+   * @param numHypotheses The size of the n-best list.
+   * @param score Metric score of a hypothesis. Called at most twice per sample.
+   * @param gamma
+   * @param xi
+   * @param nThreshold
+   * @param random
+   * @return [plus, minus] hypothesis indices, where plus has the higher score, in descending
+   *          order of the score difference.
+   */
+  public static int[][] sample(int numHypotheses, IntToDoubleFunction score, int gamma, int xi,
+      double nThreshold, Random random) {
+    if (numHypotheses == 0) return new int[0][];
+    final double[] margins = new double[gamma];
+    final int[] plus = new int[gamma];
+    final int[] minus = new int[gamma];
+    int numSamples = 0;
+    for (int g = 0; g < gamma; ++g) {
+      int j = random.nextInt(numHypotheses);
+      int jPrime = random.nextInt(numHypotheses);
+      double gJ = score.applyAsDouble(j);
+      double gJPrime = score.applyAsDouble(jPrime);
+      double absDiff = Math.abs(gJ - gJPrime);
+      if (absDiff >= nThreshold) {
+        margins[numSamples] = absDiff;
+        plus[numSamples] = gJ > gJPrime ? j : jPrime;
+        minus[numSamples] = gJ > gJPrime ? jPrime : j;
+        ++numSamples;
+      }
+    }
+
+    // Max-margin pairs
+    int[] order = new int[numSamples];
+    for (int i = 0; i < numSamples; ++i) order[i] = i;
+    IntArrays.quickSort(order, new AbstractIntComparator() {
+      private static final long serialVersionUID = 1L;
+      @Override
+      public int compare(int a, int b) {
+        int c = Double.compare(margins[b], margins[a]);
+        if (c == 0) c = Integer.compare(plus[b], plus[a]);
+        return c == 0 ? Integer.compare(minus[b], minus[a]) : c;
+      }
+    });
+    int[][] pairs = new int[Math.min(xi, numSamples)][];
+    for (int i = 0; i < pairs.length; ++i) {
+      pairs[i] = new int[] { plus[order[i]], minus[order[i]] };
+    }
+    return pairs;
+  }
+
+  /**
+   * A sparse feature vector over feature ids.
+   */
+  public static class SparseVector {
+    public final int[] features;
+    public final double[] values;
+
+    public SparseVector(int[] features, double[] values) {
+      this.features = features;
+      this.values = values;
+    }
+
+    public int size() { return features.length; }
+  }
+
+  /**
+   * The difference <code>plus - minus</code> of two feature vectors. Features that occur in either
+   * vector are kept even when the difference is zero. Features are listed in the order in which
+   * they first occur, so the vector does not depend on the order in which ids were assigned.
+   *
+   * @param plus
+   * @param minus
+   * @param whiteList If not null, only these features are kept.
+   * @param index The id of a feature. Must be threadsafe if lists are sampled in parallel.
+   * @return
+   */
+  public static SparseVector difference(Collection<FeatureValue<String>> plus,
+      Collection<FeatureValue<String>> minus, Set<String> whiteList, ToIntFunction<String> index) {
+    Int2DoubleLinkedOpenHashMap vector = new Int2DoubleLinkedOpenHashMap(plus.size() + minus.size());
+    for (FeatureValue<String> f : plus) {
+      if (whiteList == null || whiteList.contains(f.name)) vector.addTo(index.applyAsInt(f.name), f.value);
+    }
+    for (FeatureValue<String> f : minus) {
+      if (whiteList == null || whiteList.contains(f.name)) vector.addTo(index.applyAsInt(f.name), -f.value);
+    }
+    int[] features = new int[vector.size()];
+    double[] values = new double[vector.size()];
+    int i = 0;
+    for (Int2DoubleMap.Entry entry : vector.int2DoubleEntrySet()) {
+      features[i] = entry.getIntKey();
+      values[i++] = entry.getDoubleValue();
+    }
+    return new SparseVector(features, values);
+  }
+}
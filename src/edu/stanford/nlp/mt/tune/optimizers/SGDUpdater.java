@@ -2,7 +2,6 @@ package edu.stanford.nlp.mt.tune.optimizers;
 
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
 import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
 
 /**
  * Basic Stochastic Gradient Descent update rule.
@@ -25,10 +24,12 @@ public class SGDUpdater implements OnlineUpdateRule<String> {
     final double nu = rate * (double) (1.0/((timeStep/10.0)+1.0));
     
     // w_{t+1} := w_t - nu*g_t
-    Counters.addInPlace(weights, gradient, -nu);
-    
-    // Filter zeros
-    Counters.retainNonZeros(weights);
+    // Sparse update of the coordinates in the gradient. Filter zeros.
+    for (String feature : gradient.keySet()) {
+      if (weights.incrementCount(feature, -nu * gradient.getCount(feature)) == 0.0) {
+        weights.remove(feature);
+      }
+    }
   }
 
   @Override
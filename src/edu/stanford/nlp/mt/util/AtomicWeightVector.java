@@ -0,0 +1,523 @@
+package edu.stanford.nlp.mt.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.stanford.nlp.stats.AbstractCounter;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.stats.Counters;
+import edu.stanford.nlp.util.Factory;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.concurrent.ConcurrentHashIndex;
+import edu.stanford.nlp.util.logging.PrettyLogger;
+import edu.stanford.nlp.util.logging.Redwood.RedwoodChannels;
+
+/**
+ * A threadsafe weight vector for online learning. Weights are stored in segments of
+ * atomic arrays that are indexed by a feature index, which can grow. Reads do not lock,
+ * and updates to a coordinate are atomic.
+ *
+ * Decoders should score with a <code>Snapshot</code>, which is an immutable copy of the
+ * vector. Updates that are bracketed by <code>beginUpdate()</code> and <code>endUpdate()</code>
+ * are either entirely absent from a snapshot or entirely present.
+ *
+ * The <code>Counter</code> interface is provided for the update rules and for the tuning code.
+ * Zero weights are not keys of the vector. The collection views (e.g., <code>keySet()</code>)
+ * read the current weights without waiting for updates in progress, so an update rule may
+ * call them inside a group of updates. The views copy the vector, but <code>size()</code>
+ * and <code>totalCount()</code> do not.
+ */
+public class AtomicWeightVector extends AbstractCounter<String> {
+
+  private static final int SEGMENT_BITS = 12;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private static final int INITIAL_CAPACITY = 1000;
+
+  private final Index<String> featureIndex;
+  private volatile AtomicLongArray[] segments;
+  private final AtomicInteger numNonZero = new AtomicInteger();
+
+  // Versioning for consistent snapshots
+  private final long nonce;
+  private final AtomicLong numUpdates = new AtomicLong();
+  private final AtomicInteger numWriters = new AtomicInteger();
+  private volatile Snapshot lastSnapshot;
+
+  /**
+   * Constructor for an empty vector.
+   */
+  public AtomicWeightVector() {
+    this.featureIndex = new ConcurrentHashIndex<>(INITIAL_CAPACITY);
+    this.segments = new AtomicLongArray[0];
+    this.nonce = ThreadLocalRandom.current().nextLong();
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param weights The initial weights.
+   */
+  public AtomicWeightVector(Counter<String> weights) {
+    this();
+    for (String feature : weights.keySet()) {
+      // Null keys occur in some weight files
+      if (feature != null) setCount(feature, weights.getCount(feature));
+    }
+  }
+
+  /**
+   * The index of a feature. Adds the feature to the index if necessary.
+   *
+   * @param feature
+   * @return
+   */
+  public int indexOf(String feature) {
+    int id = featureIndex.addToIndex(feature);
+    if (id >= segments.length * SEGMENT_SIZE) grow(id);
+    return id;
+  }
+
+  /**
+   * The feature of an id.
+   *
+   * @param id
+   * @return
+   */
+  public String feature(int id) {
+    return featureIndex.get(id);
+  }
+
+  private synchronized void grow(int id) {
+    AtomicLongArray[] oldSegments = segments;
+    final int numSegments = (id >>> SEGMENT_BITS) + 1;
+    if (numSegments <= oldSegments.length) return;
+    AtomicLongArray[] newSegments = new AtomicLongArray[Math.max(numSegments, 2 * oldSegments.length)];
+    System.arraycopy(oldSegments, 0, newSegments, 0, oldSegments.length);
+    for (int i = oldSegments.length; i < newSegments.length; ++i) {
+      newSegments[i] = new AtomicLongArray(SEGMENT_SIZE);
+    }
+    segments = newSegments;
+  }
+
+  /**
+   * The weight of a feature id.
+   *
+   * @param id
+   * @return
+   */
+  public double get(int id) {
+    final AtomicLongArray[] segments = this.segments;
+    final int segment = id >>> SEGMENT_BITS;
+    return id < 0 || segment >= segments.length ? 0.0 :
+      Double.longBitsToDouble(segments[segment].get(id & SEGMENT_MASK));
+  }
+
+  /**
+   * Set the weight of a feature id.
+   *
+   * @param id
+   * @param value
+   */
+  public void set(int id, double value) {
+    beginUpdate();
+    try {
+      long bits = segments[id >>> SEGMENT_BITS].getAndSet(id & SEGMENT_MASK, Double.doubleToRawLongBits(value));
+      countNonZero(Double.longBitsToDouble(bits), value);
+    } finally {
+      endUpdate();
+    }
+  }
+
+  /**
+   * Atomically add to the weight of a feature id.
+   *
+   * @param id
+   * @param delta
+   * @return The new weight.
+   */
+  public double add(int id, double delta) {
+    beginUpdate();
+    try {
+      final AtomicLongArray segment = segments[id >>> SEGMENT_BITS];
+      final int offset = id & SEGMENT_MASK;
+      while (true) {
+        long bits = segment.get(offset);
+        double value = Double.longBitsToDouble(bits) + delta;
+        if (segment.compareAndSet(offset, bits, Double.doubleToRawLongBits(value))) {
+          countNonZero(Double.longBitsToDouble(bits), value);
+          return value;
+        }
+      }
+    } finally {
+      endUpdate();
+    }
+  }
+
+  private void countNonZero(double oldValue, double newValue) {
+    if (oldValue == 0.0 && newValue != 0.0) {
+      numNonZero.incrementAndGet();
+    } else if (oldValue != 0.0 && newValue == 0.0) {
+      numNonZero.decrementAndGet();
+    }
+  }
+
+  /**
+   * Start a group of updates that snapshots will not see partially. Must be followed
+   * by <code>endUpdate()</code>. Groups may be nested and may run concurrently.
+   */
+  public void beginUpdate() {
+    numWriters.incrementAndGet();
+  }
+
+  /**
+   * End a group of updates.
+   */
+  public void endUpdate() {
+    numUpdates.incrementAndGet();
+    numWriters.decrementAndGet();
+  }
+
+  /**
+   * An immutable copy of the vector. Waits for updates in progress to finish, so it must not
+   * be called by a thread inside <code>beginUpdate()</code> and <code>endUpdate()</code>.
+   *
+   * @return
+   */
+  public Snapshot snapshot() {
+    while (true) {
+      final long updates = numUpdates.get();
+      if (numWriters.get() == 0) {
+        Snapshot snapshot = lastSnapshot;
+        if (snapshot != null && snapshot.numUpdates == updates) return snapshot;
+        double[] weights = copy();
+        if (numWriters.get() == 0 && numUpdates.get() == updates) {
+          snapshot = new Snapshot(this, weights, updates, nonce + updates * 0x9e3779b97f4a7c15L);
+          lastSnapshot = snapshot;
+          return snapshot;
+        }
+      }
+      Thread.yield();
+    }
+  }
+
+  /**
+   * A copy of the current weights that does not wait for updates in progress. It may include
+   * part of a group of updates.
+   */
+  private Snapshot current() {
+    final long updates = numUpdates.get();
+    Snapshot snapshot = lastSnapshot;
+    if (numWriters.get() == 0 && snapshot != null && snapshot.numUpdates == updates) return snapshot;
+    return new Snapshot(this, copy(), -1, 0);
+  }
+
+  private double[] copy() {
+    final AtomicLongArray[] segments = this.segments;
+    final int size = Math.min(featureIndex.size(), segments.length * SEGMENT_SIZE);
+    double[] weights = new double[size];
+    for (int i = 0; i < size; ++i) {
+      weights[i] = Double.longBitsToDouble(segments[i >>> SEGMENT_BITS].get(i & SEGMENT_MASK));
+    }
+    return weights;
+  }
+
+  /**
+   * A copy of the non-zero weights, e.g., for serialization.
+   *
+   * @return
+   */
+  public Counter<String> toCounter() {
+    return snapshot().toCounter();
+  }
+
+  @Override
+  public double getCount(Object key) {
+    return key instanceof String ? get(featureIndex.indexOf((String) key)) : 0.0;
+  }
+
+  @Override
+  public void setCount(String key, double value) {
+    set(indexOf(key), value);
+  }
+
+  @Override
+  public double incrementCount(String key, double value) {
+    return add(indexOf(key), value);
+  }
+
+  @Override
+  public double incrementCount(String key) {
+    return incrementCount(key, 1.0);
+  }
+
+  @Override
+  public double decrementCount(String key, double value) {
+    return incrementCount(key, -value);
+  }
+
+  @Override
+  public double decrementCount(String key) {
+    return incrementCount(key, -1.0);
+  }
+
+  @Override
+  public double logIncrementCount(String key, double value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public double remove(String key) {
+    final int id = featureIndex.indexOf(key);
+    if (id < 0) return 0.0;
+    double value = get(id);
+    set(id, 0.0);
+    return value;
+  }
+
+  @Override
+  public boolean containsKey(String key) {
+    return getCount(key) != 0.0;
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return current().keySet();
+  }
+
+  @Override
+  public Collection<Double> values() {
+    return current().values();
+  }
+
+  @Override
+  public Set<Map.Entry<String, Double>> entrySet() {
+    return current().entrySet();
+  }
+
+  @Override
+  public void clear() {
+    beginUpdate();
+    try {
+      for (int i = 0, sz = featureIndex.size(); i < sz; ++i) set(i, 0.0);
+    } finally {
+      endUpdate();
+    }
+  }
+
+  @Override
+  public int size() {
+    return numNonZero.get();
+  }
+
+  @Override
+  public double totalCount() {
+    final AtomicLongArray[] segments = this.segments;
+    final int size = Math.min(featureIndex.size(), segments.length * SEGMENT_SIZE);
+    double sum = 0.0;
+    for (int i = 0; i < size; ++i) {
+      sum += Double.longBitsToDouble(segments[i >>> SEGMENT_BITS].get(i & SEGMENT_MASK));
+    }
+    return sum;
+  }
+
+  @Override
+  public Factory<Counter<String>> getFactory() {
+    return current().getFactory();
+  }
+
+  @Override
+  public void setDefaultReturnValue(double rv) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public double defaultReturnValue() {
+    return 0.0;
+  }
+
+  @Override
+  public void prettyLog(RedwoodChannels channels, String description) {
+    PrettyLogger.log(channels, description, Counters.asMap(this));
+  }
+
+  @Override
+  public String toString() {
+    return current().toCounter().toString();
+  }
+
+  /**
+   * An immutable copy of an <code>AtomicWeightVector</code>.
+   */
+  public static class Snapshot extends AbstractCounter<String> {
+    private final AtomicWeightVector vector;
+    private final Index<String> featureIndex;
+    private final double[] weights;
+    private final long numUpdates;
+    private final long version;
+    private volatile Set<String> keySet;
+
+    private Snapshot(AtomicWeightVector vector, double[] weights, long numUpdates, long version) {
+      this.vector = vector;
+      this.featureIndex = vector.featureIndex;
+      this.weights = weights;
+      this.numUpdates = numUpdates;
+      this.version = version;
+    }
+
+    /**
+     * An identifier of the weights. Snapshots with the same version have the same weights.
+     *
+     * @return
+     */
+    public long version() { return version; }
+
+    /**
+     * The vector that this snapshot was copied from. Its feature ids are the ids of the snapshot.
+     *
+     * @return
+     */
+    public AtomicWeightVector vector() { return vector; }
+
+    /**
+     * The number of feature ids in the snapshot. Larger ids have zero weight.
+     *
+     * @return
+     */
+    public int dimension() { return weights.length; }
+
+    /**
+     * The weight of a feature id.
+     *
+     * @param id
+     * @return
+     */
+    public double get(int id) {
+      return id >= 0 && id < weights.length ? weights[id] : 0.0;
+    }
+
+    /**
+     * The id of a feature, or -1 if the feature has no weight.
+     *
+     * @param feature
+     * @return
+     */
+    public int indexOf(String feature) {
+      return featureIndex.indexOf(feature);
+    }
+
+    /**
+     * A copy of the non-zero weights.
+     *
+     * @return
+     */
+    public Counter<String> toCounter() {
+      Counter<String> counter = new ClassicCounter<>(size());
+      for (int i = 0; i < weights.length; ++i) {
+        if (weights[i] != 0.0) counter.setCount(featureIndex.get(i), weights[i]);
+      }
+      return counter;
+    }
+
+    @Override
+    public double getCount(Object key) {
+      return key instanceof String ? get(featureIndex.indexOf((String) key)) : 0.0;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+      return getCount(key) != 0.0;
+    }
+
+    @Override
+    public Set<String> keySet() {
+      if (keySet == null) {
+        Set<String> features = new HashSet<>();
+        for (int i = 0; i < weights.length; ++i) {
+          if (weights[i] != 0.0) features.add(featureIndex.get(i));
+        }
+        keySet = Collections.unmodifiableSet(features);
+      }
+      return keySet;
+    }
+
+    @Override
+    public Collection<Double> values() {
+      List<Double> values = new ArrayList<>();
+      for (double w : weights) if (w != 0.0) values.add(w);
+      return values;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Double>> entrySet() {
+      Set<Map.Entry<String, Double>> entries = new HashSet<>();
+      for (int i = 0; i < weights.length; ++i) {
+        if (weights[i] != 0.0) entries.add(new AbstractMap.SimpleImmutableEntry<>(featureIndex.get(i), weights[i]));
+      }
+      return entries;
+    }
+
+    @Override
+    public int size() {
+      return keySet().size();
+    }
+
+    @Override
+    public double totalCount() {
+      double sum = 0.0;
+      for (double w : weights) sum += w;
+      return sum;
+    }
+
+    @Override
+    public Factory<Counter<String>> getFactory() {
+      return new Factory<Counter<String>>() {
+        private static final long serialVersionUID = 1L;
+        @Override
+        public Counter<String> create() {
+          return new ClassicCounter<>();
+        }
+      };
+    }
+
+    @Override
+    public double defaultReturnValue() {
+      return 0.0;
+    }
+
+    @Override
+    public void prettyLog(RedwoodChannels channels, String description) {
+      PrettyLogger.log(channels, description, Counters.asMap(this));
+    }
+
+    @Override
+    public String toString() {
+      return toCounter().toString();
+    }
+
+    @Override
+    public void setDefaultReturnValue(double rv) { throw new UnsupportedOperationException(); }
+    @Override
+    public void setCount(String key, double value) { throw new UnsupportedOperationException(); }
+    @Override
+    public double incrementCount(String key, double value) { throw new UnsupportedOperationException(); }
+    @Override
+    public double logIncrementCount(String key, double value) { throw new UnsupportedOperationException(); }
+    @Override
+    public double remove(String key) { throw new UnsupportedOperationException(); }
+    @Override
+    public void clear() { throw new UnsupportedOperationException(); }
+  }
+}
@@ -12,6 +12,9 @@ import edu.stanford.nlp.util.CoreMap;
  * Cache Stanford CoreNLP annotations for lookup by source input id. Obviously,
  * this cache is only useful for fixed-size source inputs.
  * 
+ * Featurizers that only need source dependency parses should use
+ * {@link SourceAnnotationStore}, which is much more compact.
+ * 
  * @author Spence Green
  *
  */
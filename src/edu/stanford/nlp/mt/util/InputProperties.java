@@ -8,6 +8,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import edu.stanford.nlp.mt.decoder.util.DecodingBudget;
+
 /**
  * Specify properties of the segment input. The string format is
  * key/value pairs (separated by <code>KEY_VALUE_DELIMITER</code>) separated
@@ -86,6 +88,9 @@ public class InputProperties extends HashMap<InputProperty, Object> {
         } else if (inputProperty == InputProperty.BeamSize) {
           inputProperties.put(inputProperty, Integer.valueOf(value));
           
+        } else if (inputProperty == InputProperty.DecodingBudget) {
+          inputProperties.put(inputProperty, DecodingBudget.fromString(value));
+          
         } else {
           // Leave as a string
           inputProperties.put(inputProperty, value);
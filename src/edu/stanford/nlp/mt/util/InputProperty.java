@@ -64,6 +64,26 @@ public enum InputProperty {
   
   //Sentence based beam size
   // Type: Integer
-  BeamSize
+  BeamSize,
+  
+  // Search state shared by successive prefix decoding calls for the same input
+  // Type: PrefixDecodingContext
+  PrefixDecodingContext,
+  
+  // Query the translation model for the source spans in parallel
+  // Type: Boolean
+  ParallelRuleQuery,
+  
+  // Resource budget for decoding this input
+  // Type: DecodingBudget
+  DecodingBudget,
+  
+  // Set by the decoder: steps taken to stay within the decoding budget
+  // Type: List<DecodingBudget.Degradation>
+  DecodingDegradations,
+  
+  // Receives the search graph of the decoder for this input
+  // Type: Consumer<SearchGraph>
+  SearchGraph
   
 }
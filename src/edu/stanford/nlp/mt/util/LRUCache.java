@@ -0,0 +1,129 @@
+package edu.stanford.nlp.mt.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache that evicts the least recently used entry. The cache is split into
+ * segments by key hash, and each segment is an access-ordered <code>LinkedHashMap</code>
+ * that is locked for every operation. Eviction happens inside the insert, so a segment
+ * never exceeds its capacity. Recency is tracked per segment, so the eviction order is
+ * approximately LRU for the whole cache.
+ *
+ * Threadsafe.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class LRUCache<K,V> {
+
+  private static final int MAX_SEGMENTS = 16;
+
+  private final Segment<K,V>[] segments;
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize The maximum number of entries.
+   */
+  @SuppressWarnings({"rawtypes","unchecked"})
+  public LRUCache(int maxSize) {
+    if (maxSize <= 0) throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+    final int numSegments = Math.max(1, Math.min(MAX_SEGMENTS, maxSize / 1024));
+    this.segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      int capacity = maxSize / numSegments + (i < maxSize % numSegments ? 1 : 0);
+      segments[i] = new Segment<>(capacity);
+    }
+  }
+
+  private Segment<K,V> segment(Object key) {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    return segments[(h & 0x7fffffff) % segments.length];
+  }
+
+  /**
+   * The value of a key, or null. Marks the entry as recently used.
+   *
+   * @param key
+   * @return
+   */
+  public V get(K key) {
+    final Segment<K,V> segment = segment(key);
+    synchronized (segment) {
+      return segment.get(key);
+    }
+  }
+
+  /**
+   * Insert or replace the value of a key.
+   *
+   * @param key
+   * @param value
+   */
+  public void put(K key, V value) {
+    final Segment<K,V> segment = segment(key);
+    synchronized (segment) {
+      segment.put(key, value);
+    }
+  }
+
+  /**
+   * Insert a value if the key is absent.
+   *
+   * @param key
+   * @param value
+   * @return The value in the cache after the call.
+   */
+  public V putIfAbsent(K key, V value) {
+    final Segment<K,V> segment = segment(key);
+    synchronized (segment) {
+      V current = segment.get(key);
+      if (current != null) return current;
+      segment.put(key, value);
+      return value;
+    }
+  }
+
+  /**
+   * The number of entries.
+   *
+   * @return
+   */
+  public int size() {
+    int size = 0;
+    for (Segment<K,V> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear() {
+    for (Segment<K,V> segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  private static class Segment<K,V> extends LinkedHashMap<K,V> {
+    private static final long serialVersionUID = -4279637093735416245L;
+    private final int capacity;
+
+    Segment(int capacity) {
+      super(Math.min(capacity, 1 << 12), 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+      return size() > capacity;
+    }
+  }
+}
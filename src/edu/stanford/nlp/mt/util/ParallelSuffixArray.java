@@ -10,6 +10,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -38,6 +41,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
 
   private static final Logger logger = LogManager.getLogger(ParallelSuffixArray.class);
   
+  private static final int SAMPLE_SEED = 0x5a3b1c7d;
+  
   protected int[] srcBitext;
   protected int[] f2e;
   protected int[] tgtBitext;
@@ -724,23 +729,91 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @return
    */
   public SuffixArraySample sample(final int[] sourceQuery, int maxSamples, int minBound, int maxBound, boolean exactMatch) {
-    if (sourceQuery.length == 0) return new SuffixArraySample(Collections.emptyList(), -1, -1);
+    final int[] bounds = sourceBounds(sourceQuery, minBound, maxBound);
+    if (bounds == null) return new SuffixArraySample(Collections.emptyList(), -1, -1);
+    final int lb = bounds[0];
+    final int ub = bounds[1];
+    List<SentencePair> samples = new ArrayList<>(maxSamples);
+    if (exactMatch) {
+      // Scan through the list of positions until enough exact matches are found
+      int numHits = ub - lb + 1;
+      int stepSize = (numHits < maxSamples) ? 1 : numHits / maxSamples;
+      for (int i = lb; i <= ub && samples.size() < maxSamples; i += stepSize) {
+        SentencePair sp = new SentencePair(srcSuffixArray[i]);
+        if(sp.sourceLength() == sourceQuery.length) samples.add(sp);
+      }
+    } else {
+      for (int i : stratifiedSample(lb, ub, maxSamples, seed(sourceQuery), null)) {
+        samples.add(new SentencePair(srcSuffixArray[i]));
+      }
+    }
+    return new SuffixArraySample(samples, lb, ub);
+  }
+
+  /**
+   * Suffix array bounds of a source query.
+   * 
+   * @param sourceQuery
+   * @param minBound
+   * @param maxBound
+   * @return The inclusive bounds, or null if the query does not occur in the bitext.
+   */
+  private int[] sourceBounds(final int[] sourceQuery, int minBound, int maxBound) {
+    if (sourceQuery.length == 0) return null;
     int lb = maxBound > minBound ? findBound(sourceQuery, true, true, minBound, maxBound) :
       findBound(sourceQuery, true, true, minBound);
-    if (lb < 0) return new SuffixArraySample(Collections.emptyList(), -1, -1);
+    if (lb < 0) return null;
     int ub = maxBound > lb ? findBound(sourceQuery, true, false, lb, maxBound) :
       findBound(sourceQuery, true, false, lb);
     assert ub >= 0;
-    int numHits = ub - lb + 1;
-    int stepSize = (numHits < maxSamples) ? 1 : numHits / maxSamples;
-    assert stepSize > 0;
-    // Stratified sample through the list of positions
-    List<SentencePair> samples = new ArrayList<>(maxSamples);
-    for (int i = lb; i <= ub && samples.size() < maxSamples; i += stepSize) {
-      SentencePair sp = new SentencePair(srcSuffixArray[i]);
-      if(!exactMatch || sp.sourceLength() == sourceQuery.length) samples.add(sp);
+    return new int[] { lb, ub };
+  }
+
+  /**
+   * Seed of the sample of a query.
+   * 
+   * @param query
+   * @return
+   */
+  private static int seed(int[] query) {
+    return MurmurHash2.hash32(query, query.length, SAMPLE_SEED);
+  }
+
+  /**
+   * Deterministic stratified sample of the suffix array range [lb,ub]. The range is divided
+   * into maxSamples strata of (nearly) equal size, and each stratum contributes one index.
+   * If an index of <code>reuse</code> falls in the stratum, then it is chosen. Otherwise the
+   * offset in the stratum is a hash of the seed and the stratum.
+   * 
+   * @param lb
+   * @param ub
+   * @param maxSamples
+   * @param seed
+   * @param reuse Sorted indices to prefer, or null.
+   * @return Sorted suffix array indices.
+   */
+  static int[] stratifiedSample(int lb, int ub, int maxSamples, int seed, int[] reuse) {
+    final int numHits = ub - lb + 1;
+    if (numHits <= maxSamples) return IntStream.rangeClosed(lb, ub).toArray();
+    final int[] sample = new int[maxSamples];
+    for (int k = 0, r = 0; k < maxSamples; ++k) {
+      final int start = lb + (int) ((long) k * numHits / maxSamples);
+      final int end = lb + (int) ((long) (k + 1) * numHits / maxSamples);
+      if (reuse != null) {
+        while (r < reuse.length && reuse[r] < start) ++r;
+        if (r < reuse.length && reuse[r] < end) {
+          sample[k] = reuse[r++];
+          continue;
+        }
+      }
+      // Final avalanche from MurmurHash3 (fmix32)
+      int h = seed ^ (k * 0x9e3779b9);
+      h = (h ^ (h >>> 16)) * 0x85ebca6b;
+      h = (h ^ (h >>> 13)) * 0xc2b2ae35;
+      h ^= h >>> 16;
+      sample[k] = start + (int) ((h & 0xffffffffL) % (end - start));
     }
-    return new SuffixArraySample(samples, lb, ub);
+    return sample;
   }
   
   /**
@@ -759,12 +832,9 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     if (lb < 0) return new SuffixArraySample(Collections.emptyList(), -1, -1);
     int ub = findBound(targetQuery, false, false, lb);
     assert ub >= 0;
-    int numHits = ub - lb + 1;
-    int stepSize = (numHits < maxSamples) ? 1 : numHits / maxSamples;
-    assert stepSize > 0;
     // Stratified sample through the list of positions
     List<SentencePair> samples = new ArrayList<>(maxSamples);
-    for (int i = lb; i <= ub && samples.size() < maxSamples; i += stepSize) {
+    for (int i : stratifiedSample(lb, ub, maxSamples, seed(targetQuery), null)) {
       samples.add(new SentencePair(tgtSuffixArray[i], true));
     }
     return new SuffixArraySample(samples, lb, ub);
@@ -815,6 +885,15 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
       wordPosition = corpusPosition - srcStartInclusive;
     }
     
+    private SentencePair(int corpusPosition, SentenceBounds bounds) {
+      this.srcStartInclusive = bounds.srcStartInclusive;
+      this.srcEndExclusive = bounds.srcEndExclusive;
+      this.tgtStartInclusive = bounds.tgtStartInclusive;
+      this.tgtEndExclusive = bounds.tgtEndExclusive;
+      assert corpusPosition >= srcStartInclusive && corpusPosition < srcEndExclusive;
+      wordPosition = corpusPosition - srcStartInclusive;
+    }
+    
     // Actually, this always creates a sentence pair from a target example
     // But add the additional parameter so that there are two different constructors
     private SentencePair(int corpusPosition, boolean isTarget) {
@@ -913,6 +992,166 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     }
   }
   
+  /**
+   * The bounds of one sentence of the bitext.
+   */
+  private class SentenceBounds {
+    final int srcStartInclusive;
+    final int srcEndExclusive;
+    final int tgtStartInclusive;
+    final int tgtEndExclusive;
+
+    SentenceBounds(int srcEndExclusive) {
+      this.srcEndExclusive = srcEndExclusive;
+      int j = srcEndExclusive - 1;
+      while (j >= 0 && srcBitext[j] >= 0) j--;
+      srcStartInclusive = j + 1;
+      tgtStartInclusive = j == -1 ? 0 : fromSentenceOffset(srcBitext[j]) + 1;
+      tgtEndExclusive = fromSentenceOffset(srcBitext[srcEndExclusive]);
+    }
+  }
+  
+  /**
+   * Plans the samples of the source spans of one input sentence. The sample of a span prefers
+   * the sampled positions of its prefix span, which are a stratified sample of the span's
+   * range too. The prefix plan is computed on demand, so the sample of a span is a
+   * deterministic function of its words and does not depend on which spans were sampled
+   * before. The bounds of each sampled sentence in the bitext are found once and shared by
+   * all spans that sample the sentence. Memory is bounded by the number of spans of the input.
+   * 
+   * Threadsafe.
+   */
+  public class SamplePlanner {
+    private final int[] source;
+    private final int maxSamples;
+    // Plans by span, indexed by i * (source.length + 1) + j
+    private final AtomicReferenceArray<SpanPlan> plans;
+    // Sentences by the sentinel position that ends them
+    private final Map<Integer,SentenceBounds> sentences = new ConcurrentHashMap<>();
+    private final AtomicInteger numSentencePairs = new AtomicInteger();
+    private final AtomicInteger numReusedSamples = new AtomicInteger();
+
+    private SamplePlanner(int[] source, int maxSamples) {
+      this.source = source;
+      this.maxSamples = maxSamples;
+      this.plans = new AtomicReferenceArray<>(source.length * (source.length + 1));
+    }
+
+    /**
+     * Return a sample of sentences for the source span <code>[i,j)</code>.
+     * 
+     * @param i
+     * @param j
+     * @return
+     */
+    public SuffixArraySample sample(int i, int j) {
+      final SpanPlan plan = plan(i, j);
+      if (plan == MISS) return new SuffixArraySample(Collections.emptyList(), -1, -1);
+      List<SentencePair> sentencePairs = new ArrayList<>(plan.indices.length);
+      for (int k : plan.indices) {
+        final int corpusPosition = srcSuffixArray[k];
+        int end = corpusPosition;
+        while (srcBitext[end] >= 0) end++;
+        sentencePairs.add(new SentencePair(corpusPosition, sentences.computeIfAbsent(end, SentenceBounds::new)));
+      }
+      numSentencePairs.addAndGet(plan.indices.length);
+      numReusedSamples.addAndGet(plan.numReused);
+      return new SuffixArraySample(sentencePairs, plan.lb, plan.ub);
+    }
+
+    /**
+     * The plan of a span, which is computed from the plan of its prefix. Plans are pure
+     * functions of the span, so concurrent tasks that compute the same plan agree.
+     */
+    private SpanPlan plan(int i, int j) {
+      final int key = i * (source.length + 1) + j;
+      SpanPlan plan = plans.get(key);
+      if (plan != null) return plan;
+      final SpanPlan prefix = j - i > 1 ? plan(i, j - 1) : null;
+      final int[] query = Arrays.copyOfRange(source, i, j);
+      final int[] bounds = prefix == MISS || source[j - 1] < 0 ? null :
+        prefix == null ? sourceBounds(query, 0, -1) : sourceBounds(query, prefix.lb, prefix.ub);
+      if (bounds == null) {
+        plan = MISS;
+      } else {
+        final int[] reuse = prefix == null ? null : prefix.indices;
+        final int[] indices = stratifiedSample(bounds[0], bounds[1], maxSamples, seed(query), reuse);
+        plan = new SpanPlan(bounds[0], bounds[1], indices, reuse == null ? 0 : intersectionSize(indices, reuse));
+      }
+      plans.set(key, plan);
+      return plan;
+    }
+
+    private int intersectionSize(int[] a, int[] b) {
+      int n = 0;
+      for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+        if (a[i] < b[j]) {
+          ++i;
+        } else if (a[i] > b[j]) {
+          ++j;
+        } else {
+          ++n; ++i; ++j;
+        }
+      }
+      return n;
+    }
+
+    /**
+     * Number of sampled sentence pairs.
+     * 
+     * @return
+     */
+    public int numSentencePairs() { return numSentencePairs.get(); }
+
+    /**
+     * Number of distinct sampled sentences. Each sentence pair beyond the first one from
+     * a sentence reuses its bounds.
+     * 
+     * @return
+     */
+    public int numSentences() { return sentences.size(); }
+
+    /**
+     * Number of samples that were taken from the sample of the prefix span.
+     * 
+     * @return
+     */
+    public int numReusedSamples() { return numReusedSamples.get(); }
+
+    @Override
+    public String toString() {
+      return String.format("sentence pairs: %d  sentences: %d  reused samples: %d", numSentencePairs(),
+          numSentences(), numReusedSamples());
+    }
+  }
+
+  /**
+   * Suffix array bounds and sampled suffix array indices of a source span.
+   */
+  private static class SpanPlan {
+    final int lb;
+    final int ub;
+    final int[] indices;
+    final int numReused;
+    SpanPlan(int lb, int ub, int[] indices, int numReused) {
+      this.lb = lb;
+      this.ub = ub;
+      this.indices = indices;
+      this.numReused = numReused;
+    }
+  }
+
+  private static final SpanPlan MISS = new SpanPlan(-1, -1, new int[0], 0);
+  
+  /**
+   * Create a sample planner for the source spans of one input.
+   * 
+   * @param source The input as suffix array word ids.
+   * @param maxSamples The maximum sample size of a span.
+   * @return
+   */
+  public SamplePlanner samplePlanner(int[] source, int maxSamples) { return new SamplePlanner(source, maxSamples); }
+  
   /**
    * A struct to hold the result of a sample of a suffix array.
    * 
@@ -0,0 +1,408 @@
+package edu.stanford.nlp.mt.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.mt.tools.deplm.DependencyUtils;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations.BasicDependenciesAnnotation;
+import edu.stanford.nlp.trees.TypedDependency;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.Pair;
+
+/**
+ * Source-side dependency annotations keyed by source input id.
+ *
+ * The store can be backed by a compiled binary file, which is memory-mapped
+ * and decoded lazily one sentence at a time, or it can be filled in memory
+ * (e.g., from a CoNLL file or on the fly for service requests). Entries added
+ * with <code>put()</code> take precedence over the compiled file.
+ *
+ * Binary format (big-endian):
+ * <pre>
+ *   int magic, int version
+ *   int label block length, label block (count + modified UTF-8 strings)
+ *   int number of sentences n
+ *   long[n+1] record offsets (absolute, non-decreasing; empty record means no parse)
+ *   records: int length m, int[m] heads, int[m] labels, long[m*ceil(m/64)] reachability
+ * </pre>
+ */
+public class SourceAnnotationStore implements Closeable {
+
+  private static final int MAGIC = 0x50445053;
+  private static final int VERSION = 1;
+
+  // Maximum size of a single memory-mapped segment
+  private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+  private final Map<Integer,SourceDependencyParse> parses = new ConcurrentHashMap<>();
+
+  private final List<String> labels = new ArrayList<>();
+  private final Map<String,Integer> labelToId = new HashMap<>();
+
+  // Memory-mapped file (optional)
+  private final RandomAccessFile file;
+  private final int numCompiled;
+  private final LongBuffer offsets;
+  private final MappedByteBuffer[] segments;
+  private final long[] segmentStarts;
+
+  /**
+   * Constructor for an empty, in-memory store.
+   */
+  public SourceAnnotationStore() {
+    this.file = null;
+    this.numCompiled = 0;
+    this.offsets = null;
+    this.segments = null;
+    this.segmentStarts = null;
+  }
+
+  /**
+   * Constructor for a store backed by a compiled file.
+   *
+   * @param filename
+   * @throws IOException
+   */
+  private SourceAnnotationStore(String filename) throws IOException {
+    this.file = new RandomAccessFile(filename, "r");
+    if (file.readInt() != MAGIC) {
+      file.close();
+      throw new IOException("Not a compiled annotation store: " + filename);
+    }
+    int version = file.readInt();
+    if (version != VERSION) {
+      file.close();
+      throw new IOException(String.format("Unsupported annotation store version %d: %s", version, filename));
+    }
+    file.readInt(); // Label block length
+    int numLabels = file.readInt();
+    for (int i = 0; i < numLabels; ++i) labelId(file.readUTF());
+    this.numCompiled = file.readInt();
+
+    final FileChannel channel = file.getChannel();
+    this.offsets = channel.map(FileChannel.MapMode.READ_ONLY, file.getFilePointer(),
+        (numCompiled + 1L) * Long.BYTES).asLongBuffer();
+
+    // Pack contiguous records into segments so that no record straddles two buffers.
+    List<MappedByteBuffer> segmentList = new ArrayList<>();
+    List<Long> startList = new ArrayList<>();
+    long segmentStart = offsets.get(0);
+    long segmentEnd = segmentStart;
+    for (int i = 1; i <= numCompiled; ++i) {
+      long recordEnd = offsets.get(i);
+      if (recordEnd - segmentStart > MAX_SEGMENT_SIZE) {
+        segmentList.add(channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart));
+        startList.add(segmentStart);
+        segmentStart = segmentEnd;
+      }
+      segmentEnd = recordEnd;
+    }
+    segmentList.add(channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart));
+    startList.add(segmentStart);
+    this.segments = segmentList.toArray(new MappedByteBuffer[segmentList.size()]);
+    this.segmentStarts = startList.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  /**
+   * Load a store from either a compiled file or a CoNLL file.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static SourceAnnotationStore load(String filename) throws IOException {
+    return isCompiled(filename) ? new SourceAnnotationStore(filename) : fromCoNLL(filename);
+  }
+
+  /**
+   * True if the file is a compiled annotation store.
+   *
+   * @param filename
+   * @return
+   */
+  public static boolean isCompiled(String filename) {
+    try (RandomAccessFile f = new RandomAccessFile(filename, "r")) {
+      return f.length() >= Integer.BYTES && f.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Read an in-memory store from a CoNLL file. Sentence i of the file is stored
+   * with source input id i.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static SourceAnnotationStore fromCoNLL(String filename) throws IOException {
+    SourceAnnotationStore store = new SourceAnnotationStore();
+    LineNumberReader reader = IOTools.getReaderFromFile(filename);
+    HashMap<Integer, Pair<IndexedWord, List<Integer>>> deps;
+    for (int i = 0; (deps = DependencyUtils.getDependenciesFromCoNLLFileReader(reader, true, true)) != null; ++i) {
+      store.put(i, store.fromDependencies(deps));
+    }
+    reader.close();
+    return store;
+  }
+
+  /**
+   * Read an in-memory store from serialized CoreNLP annotations. Sentences are
+   * keyed by their (1-indexed) line number annotation minus one.
+   *
+   * @param filename
+   * @return
+   */
+  public static SourceAnnotationStore fromCoreNLP(String filename) {
+    SourceAnnotationStore store = new SourceAnnotationStore();
+    Annotation annotation = IOTools.deserialize(filename, Annotation.class);
+    List<CoreMap> sentenceList = annotation.get(CoreAnnotations.SentencesAnnotation.class);
+    if (sentenceList == null) {
+      throw new RuntimeException("Unusable annotation (no sentences) in " + filename);
+    }
+    for (CoreMap sentence : sentenceList) {
+      int lineId = sentence.get(CoreAnnotations.LineNumberAnnotation.class);
+      store.put(lineId - 1, sentence);
+    }
+    return store;
+  }
+
+  /**
+   * Convert the output of <code>DependencyUtils.getDependenciesFromCoNLLFileReader</code>
+   * to a parse. The arc label is stored as the lemma of the dependent.
+   *
+   * @param deps
+   * @return
+   */
+  private SourceDependencyParse fromDependencies(HashMap<Integer, Pair<IndexedWord, List<Integer>>> deps) {
+    int length = 0;
+    for (int i : deps.keySet()) length = Math.max(length, i + 1);
+    int[] heads = new int[length];
+    int[] labelIds = new int[length];
+    Arrays.fill(heads, SourceDependencyParse.NO_HEAD);
+    Arrays.fill(labelIds, SourceDependencyParse.NO_LABEL);
+    for (Map.Entry<Integer, Pair<IndexedWord, List<Integer>>> entry : deps.entrySet()) {
+      int gov = entry.getKey();
+      for (int dep : entry.getValue().second) {
+        heads[dep] = gov;
+        IndexedWord word = deps.get(dep).first;
+        if (word != null && word.lemma() != null) labelIds[dep] = labelId(word.lemma());
+      }
+    }
+    return new SourceDependencyParse(heads, labelIds);
+  }
+
+  /**
+   * Add the basic dependencies of a CoreNLP sentence annotation to the store.
+   * Follows the conventions of the CoNLL reader: root punctuation is skipped
+   * and fragments are attached to head -2.
+   *
+   * @param sourceInputId
+   * @param sentence
+   */
+  public void put(int sourceInputId, CoreMap sentence) {
+    SemanticGraph graph = sentence.get(BasicDependenciesAnnotation.class);
+    if (graph == null) throw new IllegalArgumentException("No basic dependencies for input " + sourceInputId);
+    int length = sentence.containsKey(CoreAnnotations.TokensAnnotation.class) ?
+        sentence.get(CoreAnnotations.TokensAnnotation.class).size() : 0;
+    for (IndexedWord word : graph.vertexSet()) length = Math.max(length, word.index());
+    int[] heads = new int[length];
+    int[] labelIds = new int[length];
+    Arrays.fill(heads, SourceDependencyParse.NO_HEAD);
+    Arrays.fill(labelIds, SourceDependencyParse.NO_LABEL);
+    for (TypedDependency dep : graph.typedDependencies()) {
+      int depIndex = dep.dep().index() - 1;
+      int govIndex = dep.gov().index() - 1;
+      String label = dep.reln().getShortName();
+      if (govIndex < 0) {
+        if (label.equals("punct") || label.equals("p")) continue;
+        if (label.equals("frag")) govIndex = -2;
+      }
+      heads[depIndex] = govIndex;
+      labelIds[depIndex] = labelId(label);
+    }
+    put(sourceInputId, new SourceDependencyParse(heads, labelIds));
+  }
+
+  /**
+   * Add a parse to the store. Overrides any compiled entry for the same id.
+   *
+   * @param sourceInputId
+   * @param parse
+   */
+  public void put(int sourceInputId, SourceDependencyParse parse) {
+    parses.put(sourceInputId, parse);
+  }
+
+  /**
+   * Remove an entry added with <code>put()</code>.
+   *
+   * @param sourceInputId
+   */
+  public void remove(int sourceInputId) {
+    parses.remove(sourceInputId);
+  }
+
+  /**
+   * Return the parse for a source input, or null if there is no parse.
+   *
+   * @param sourceInputId
+   * @return
+   */
+  public SourceDependencyParse get(int sourceInputId) {
+    SourceDependencyParse parse = parses.get(sourceInputId);
+    return parse == null ? decode(sourceInputId) : parse;
+  }
+
+  /**
+   * Decode a parse from the memory-mapped file.
+   *
+   * @param sourceInputId
+   * @return
+   */
+  private SourceDependencyParse decode(int sourceInputId) {
+    if (sourceInputId < 0 || sourceInputId >= numCompiled) return null;
+    final long start = offsets.get(sourceInputId);
+    if (offsets.get(sourceInputId + 1) == start) return null;
+    int s = Arrays.binarySearch(segmentStarts, start);
+    if (s < 0) s = -s - 2;
+    final ByteBuffer buffer = segments[s];
+    int pos = (int) (start - segmentStarts[s]);
+    final int length = buffer.getInt(pos);
+    pos += Integer.BYTES;
+    int[] heads = new int[length];
+    for (int i = 0; i < length; ++i, pos += Integer.BYTES) heads[i] = buffer.getInt(pos);
+    int[] labelIds = new int[length];
+    for (int i = 0; i < length; ++i, pos += Integer.BYTES) labelIds[i] = buffer.getInt(pos);
+    long[] reachable = new long[length * SourceDependencyParse.wordsPerRow(length)];
+    for (int i = 0; i < reachable.length; ++i, pos += Long.BYTES) reachable[i] = buffer.getLong(pos);
+    return new SourceDependencyParse(heads, labelIds, reachable);
+  }
+
+  /**
+   * The maximum source input id in the store plus one.
+   *
+   * @return
+   */
+  public int size() {
+    int size = numCompiled;
+    for (int i : parses.keySet()) size = Math.max(size, i + 1);
+    return size;
+  }
+
+  /**
+   * Map a label to its id.
+   *
+   * @param label
+   * @return
+   */
+  public synchronized int labelId(String label) {
+    Integer id = labelToId.get(label);
+    if (id == null) {
+      id = labels.size();
+      labels.add(label);
+      labelToId.put(label, id);
+    }
+    return id;
+  }
+
+  /**
+   * Map a label id to its string.
+   *
+   * @param id
+   * @return
+   */
+  public synchronized String label(int id) {
+    return id >= 0 && id < labels.size() ? labels.get(id) : null;
+  }
+
+  /**
+   * Write the store to a compiled file.
+   *
+   * @param filename
+   * @throws IOException
+   */
+  public void write(String filename) throws IOException {
+    final int numSentences = size();
+
+    ByteArrayOutputStream labelBytes = new ByteArrayOutputStream();
+    DataOutputStream labelOut = new DataOutputStream(labelBytes);
+    synchronized(this) {
+      labelOut.writeInt(labels.size());
+      for (String label : labels) labelOut.writeUTF(label);
+    }
+    labelOut.close();
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(labelBytes.size());
+      labelBytes.writeTo(out);
+      out.writeInt(numSentences);
+      long offset = 4L * Integer.BYTES + labelBytes.size() + (numSentences + 1L) * Long.BYTES;
+      out.writeLong(offset);
+      for (int i = 0; i < numSentences; ++i) {
+        SourceDependencyParse parse = get(i);
+        if (parse != null) {
+          int length = parse.size();
+          offset += Integer.BYTES + 2L * length * Integer.BYTES
+              + (long) length * SourceDependencyParse.wordsPerRow(length) * Long.BYTES;
+        }
+        out.writeLong(offset);
+      }
+      for (int i = 0; i < numSentences; ++i) {
+        SourceDependencyParse parse = get(i);
+        if (parse == null) continue;
+        out.writeInt(parse.size());
+        for (int head : parse.heads()) out.writeInt(head);
+        for (int label : parse.labels()) out.writeInt(label);
+        for (long word : parse.reachable()) out.writeLong(word);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (file != null) file.close();
+  }
+
+  /**
+   * Compile a CoNLL file or serialized CoreNLP annotations.
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.printf("Usage: java %s (file.conll|annotations.ser.gz) out_file%n",
+          SourceAnnotationStore.class.getName());
+      System.exit(-1);
+    }
+    String inFile = args[0];
+    SourceAnnotationStore store = inFile.endsWith(IOTools.DEFAULT_EXTENSION) ||
+        inFile.endsWith(IOTools.DEFAULT_GZ_EXTENSION) ? fromCoreNLP(inFile) : fromCoNLL(inFile);
+    store.write(args[1]);
+    System.err.printf("Wrote %d source parses to %s%n", store.size(), args[1]);
+  }
+}
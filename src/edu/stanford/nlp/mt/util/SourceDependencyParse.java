@@ -0,0 +1,190 @@
+package edu.stanford.nlp.mt.util;
+
+import java.util.Arrays;
+
+/**
+ * A compact dependency parse of a source input. Heads and labels are stored
+ * as int arrays indexed by (zero-indexed) source position. The transitive
+ * closure of the head relation is precomputed as one bitset per token.
+ *
+ * Root attachments have a negative head index. Tokens without an attachment
+ * (e.g., punctuation removed from the parse) have head <code>NO_HEAD</code>.
+ */
+public class SourceDependencyParse {
+
+  /**
+   * Head index of tokens that are not attached in the parse.
+   */
+  public static final int NO_HEAD = Integer.MIN_VALUE;
+
+  /**
+   * Label id of tokens that are not attached in the parse.
+   */
+  public static final int NO_LABEL = -1;
+
+  /**
+   * A parse with no tokens.
+   */
+  public static final SourceDependencyParse EMPTY = new SourceDependencyParse(new int[0], new int[0]);
+
+  private final int[] heads;
+  private final int[] labels;
+
+  // Row i is the set of tokens dominated by token i (including i)
+  private final long[] reachable;
+  private final int wordsPerRow;
+
+  /**
+   * Constructor.
+   *
+   * @param heads
+   * @param labels
+   */
+  public SourceDependencyParse(int[] heads, int[] labels) {
+    if (heads.length != labels.length) throw new IllegalArgumentException("Heads and labels differ in length");
+    this.heads = heads;
+    this.labels = labels;
+    this.wordsPerRow = wordsPerRow(heads.length);
+    this.reachable = new long[heads.length * wordsPerRow];
+    for (int j = 0; j < heads.length; ++j) {
+      // Walk up from j and mark j as reachable from every ancestor.
+      // The step limit guards against cyclic input.
+      for (int i = j, steps = 0; i >= 0 && i < heads.length && steps <= heads.length;
+          i = heads[i], ++steps) {
+        reachable[i*wordsPerRow + (j >>> 6)] |= 1L << j;
+      }
+    }
+  }
+
+  /**
+   * Constructor for deserialized parses.
+   *
+   * @param heads
+   * @param labels
+   * @param reachable
+   */
+  SourceDependencyParse(int[] heads, int[] labels, long[] reachable) {
+    this.heads = heads;
+    this.labels = labels;
+    this.wordsPerRow = wordsPerRow(heads.length);
+    this.reachable = reachable;
+    assert reachable.length == heads.length * wordsPerRow;
+  }
+
+  /**
+   * Number of 64-bit words in each row of the reachability matrix.
+   *
+   * @param length
+   * @return
+   */
+  static int wordsPerRow(int length) {
+    return (length + 63) >>> 6;
+  }
+
+  /**
+   * Number of tokens in the parse.
+   *
+   * @return
+   */
+  public int size() { return heads.length; }
+
+  /**
+   * The head of token i, a negative value for root attachments, or
+   * <code>NO_HEAD</code> if token i is not attached.
+   *
+   * @param i
+   * @return
+   */
+  public int head(int i) {
+    return i >= 0 && i < heads.length ? heads[i] : NO_HEAD;
+  }
+
+  /**
+   * The label id of the arc into token i, or <code>NO_LABEL</code>.
+   *
+   * @param i
+   * @return
+   */
+  public int label(int i) {
+    return i >= 0 && i < labels.length ? labels[i] : NO_LABEL;
+  }
+
+  /**
+   * True if token j is dominated by token i. Every token dominates itself.
+   *
+   * @param i
+   * @param j
+   * @return
+   */
+  public boolean isReachable(int i, int j) {
+    if (i < 0 || i >= heads.length || j < 0 || j >= heads.length) return false;
+    return (reachable[i*wordsPerRow + (j >>> 6)] & (1L << j)) != 0;
+  }
+
+  /**
+   * Returns the first token dominated by token i at or after fromIndex,
+   * or -1 if there is no such token.
+   *
+   * @param i
+   * @param fromIndex
+   * @return
+   */
+  public int nextReachable(int i, int fromIndex) {
+    if (i < 0 || i >= heads.length || fromIndex >= heads.length) return -1;
+    if (fromIndex < 0) fromIndex = 0;
+    final int rowStart = i*wordsPerRow;
+    int u = fromIndex >>> 6;
+    long word = reachable[rowStart + u] & (-1L << fromIndex);
+    while (true) {
+      if (word != 0) {
+        int j = (u << 6) + Long.numberOfTrailingZeros(word);
+        return j < heads.length ? j : -1;
+      }
+      if (++u == wordsPerRow) return -1;
+      word = reachable[rowStart + u];
+    }
+  }
+
+  /**
+   * Returns the first direct dependent of token i at or after fromIndex,
+   * or -1 if there is no such token.
+   *
+   * @param i
+   * @param fromIndex
+   * @return
+   */
+  public int nextChild(int i, int fromIndex) {
+    for (int j = Math.max(0, fromIndex); j < heads.length; ++j) {
+      if (heads[j] == i) return j;
+    }
+    return -1;
+  }
+
+  int[] heads() { return heads; }
+
+  int[] labels() { return labels; }
+
+  long[] reachable() { return reachable; }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(heads);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    } else if ( ! (o instanceof SourceDependencyParse)) {
+      return false;
+    } else {
+      SourceDependencyParse other = (SourceDependencyParse) o;
+      return Arrays.equals(heads, other.heads) && Arrays.equals(labels, other.labels);
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(heads) ^ Arrays.hashCode(labels);
+  }
+}
@@ -0,0 +1,288 @@
+package edu.stanford.nlp.mt.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+
+import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
+
+/**
+ * Runs inputs on a work-stealing thread pool and returns the outputs in input order.
+ * Inputs are buffered in windows, and each window is submitted in order of decreasing
+ * estimated cost so that long inputs do not start last and stall the output. The number of
+ * inputs between <code>put()</code> and <code>poll()</code> is bounded.
+ *
+ * Same usage as <code>MulticoreWrapper</code>: call <code>poll()</code> until it returns null
+ * after each <code>put()</code>, and then <code>join()</code> and drain the remaining
+ * outputs. A scheduler cannot be used after <code>join()</code>.
+ *
+ * Not threadsafe. The processors are called from the pool threads.
+ *
+ * @param <I>
+ * @param <O>
+ */
+public class WorkStealingScheduler<I,O> {
+
+  private final ToDoubleFunction<I> costFunction;
+  private final int windowSize;
+  private final int capacity;
+  private final double outlierFactor;
+  private final Consumer<I> outlierHandler;
+
+  private final ForkJoinPool threadPool;
+  private final List<Worker> workers;
+  private final BlockingQueue<Worker> idleWorkers;
+
+  // Inputs that have not been submitted
+  private final List<Item> window;
+
+  // Reorder buffer. Guarded by this lock.
+  private final Object lock = new Object();
+  private final Map<Integer,O> outputs = new HashMap<>();
+  private long[] latencies = new long[1024];
+  private int numCompleted = 0;
+  private RuntimeException failure = null;
+
+  private int numInputs = 0;
+  private int nextOutput = 0;
+  private int numOutliers = 0;
+  private long startTime = -1;
+  private long endTime = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param numThreads
+   * @param processor Calls to <code>newInstance()</code> create one processor per thread.
+   * @param costFunction Estimated cost of an input.
+   * @param windowSize Number of inputs that are sorted by cost before submission.
+   */
+  public WorkStealingScheduler(int numThreads, ThreadsafeProcessor<I,O> processor,
+      ToDoubleFunction<I> costFunction, int windowSize) {
+    this(numThreads, processor, costFunction, windowSize, 0.0, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param numThreads
+   * @param processor Calls to <code>newInstance()</code> create one processor per thread.
+   * @param costFunction Estimated cost of an input.
+   * @param windowSize Number of inputs that are sorted by cost before submission.
+   * @param outlierFactor Inputs that cost more than this factor times the median cost
+   *         of the window are passed to <code>outlierHandler</code> before submission.
+   *         Disabled if not positive.
+   * @param outlierHandler Prepares an input for intra-input parallelism, which runs
+   *         on the same work-stealing pool.
+   */
+  public WorkStealingScheduler(int numThreads, ThreadsafeProcessor<I,O> processor,
+      ToDoubleFunction<I> costFunction, int windowSize, double outlierFactor,
+      Consumer<I> outlierHandler) {
+    if (numThreads <= 0) throw new IllegalArgumentException("Invalid number of threads: " + numThreads);
+    if (windowSize <= 0) throw new IllegalArgumentException("Invalid window size: " + windowSize);
+    this.costFunction = costFunction;
+    this.windowSize = windowSize;
+    this.capacity = 2 * windowSize + numThreads;
+    this.outlierFactor = outlierHandler == null ? 0.0 : outlierFactor;
+    this.outlierHandler = outlierHandler;
+    this.threadPool = new ForkJoinPool(numThreads);
+    this.workers = new ArrayList<>(numThreads);
+    this.idleWorkers = new ArrayBlockingQueue<>(numThreads);
+    for (int i = 0; i < numThreads; ++i) {
+      Worker worker = new Worker(i == 0 ? processor : processor.newInstance());
+      workers.add(worker);
+      idleWorkers.add(worker);
+    }
+    this.window = new ArrayList<>(windowSize);
+  }
+
+  /**
+   * Schedule an input. Blocks if the reorder buffer is full until the next output
+   * in input order is available.
+   *
+   * @param input
+   */
+  public void put(I input) {
+    if (startTime < 0) startTime = System.nanoTime();
+    window.add(new Item(numInputs++, input, costFunction.applyAsDouble(input)));
+    final boolean full = numInputs - nextOutput >= capacity;
+    // If the buffer is full, then the next output may be in the window
+    if (full || window.size() >= windowSize) submitWindow();
+
+    synchronized(lock) {
+      while (full && failure == null && ! outputs.containsKey(nextOutput)) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * True if the next output in input order is available.
+   *
+   * @return
+   */
+  public boolean peek() {
+    synchronized(lock) {
+      if (failure != null) throw failure;
+      return outputs.containsKey(nextOutput);
+    }
+  }
+
+  /**
+   * Return the next output in input order, or null if it is not available.
+   *
+   * @return
+   */
+  public O poll() {
+    synchronized(lock) {
+      if (failure != null) throw failure;
+      if ( ! outputs.containsKey(nextOutput)) return null;
+      return outputs.remove(nextOutput++);
+    }
+  }
+
+  /**
+   * Submit the remaining inputs, wait for all of them to finish, and shut down the
+   * thread pool.
+   */
+  public void join() {
+    submitWindow();
+    synchronized(lock) {
+      while (failure == null && numCompleted < numInputs) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+    endTime = System.nanoTime();
+    threadPool.shutdown();
+    try {
+      threadPool.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Wall time, per-thread utilization, and latency percentiles. The latency of
+   * an input is the time from <code>put()</code> until its output is available.
+   *
+   * @return
+   */
+  public String statistics() {
+    final long wallTime = (endTime < 0 ? System.nanoTime() : endTime) - Math.max(0, startTime);
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format("inputs: %d  outliers: %d  wall time: %.3fs", numInputs, numOutliers,
+        wallTime / 1e9));
+    sb.append("  utilization:");
+    for (Worker worker : workers) {
+      sb.append(String.format(" %.2f", startTime < 0 ? 0.0 : worker.busyTime / (double) wallTime));
+    }
+    synchronized(lock) {
+      if (numCompleted > 0) {
+        long[] sorted = Arrays.copyOf(latencies, numCompleted);
+        Arrays.sort(sorted);
+        sb.append(String.format("  latency p50: %.3fs p90: %.3fs p99: %.3fs max: %.3fs",
+            percentile(sorted, 0.5) / 1e9, percentile(sorted, 0.9) / 1e9,
+            percentile(sorted, 0.99) / 1e9, sorted[sorted.length-1] / 1e9));
+      }
+    }
+    return sb.toString();
+  }
+
+  private static long percentile(long[] sorted, double p) {
+    int i = (int) Math.ceil(p * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+  }
+
+  /**
+   * Submit the buffered inputs in order of decreasing cost.
+   */
+  private void submitWindow() {
+    if (window.isEmpty()) return;
+    window.sort((a, b) -> Double.compare(b.cost, a.cost));
+    final double medianCost = window.get(window.size() / 2).cost;
+    for (Item item : window) {
+      if (outlierFactor > 0.0 && window.size() > 1 && item.cost > outlierFactor * medianCost) {
+        outlierHandler.accept(item.input);
+        ++numOutliers;
+      }
+      threadPool.execute(() -> run(item));
+    }
+    window.clear();
+  }
+
+  /**
+   * Process an input with an idle processor.
+   *
+   * @param item
+   */
+  private void run(Item item) {
+    O output = null;
+    RuntimeException exception = null;
+    try {
+      final Worker worker = idleWorkers.take();
+      try {
+        final long processStart = System.nanoTime();
+        output = worker.processor.process(item.input);
+        worker.busyTime += System.nanoTime() - processStart;
+      } finally {
+        idleWorkers.put(worker);
+      }
+    } catch (RuntimeException e) {
+      exception = e;
+    } catch (Throwable e) {
+      exception = new RuntimeException(e);
+    }
+
+    synchronized(lock) {
+      if (exception != null) {
+        failure = exception;
+      } else {
+        outputs.put(item.id, output);
+      }
+      if (numCompleted == latencies.length) latencies = Arrays.copyOf(latencies, 2 * numCompleted);
+      latencies[numCompleted++] = System.nanoTime() - item.submitTime;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * A processor and its busy time. Used by one thread at a time.
+   */
+  private class Worker {
+    final ThreadsafeProcessor<I,O> processor;
+    volatile long busyTime = 0;
+    Worker(ThreadsafeProcessor<I,O> processor) { this.processor = processor; }
+  }
+
+  /**
+   * An input and its position in the input order.
+   */
+  private class Item {
+    final int id;
+    final I input;
+    final double cost;
+    final long submitTime;
+    Item(int id, I input, double cost) {
+      this.id = id;
+      this.input = input;
+      this.cost = cost;
+      this.submitTime = System.nanoTime();
+    }
+  }
+}
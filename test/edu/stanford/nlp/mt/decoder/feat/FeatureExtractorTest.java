@@ -0,0 +1,389 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.CubePruningDecoder;
+import edu.stanford.nlp.mt.decoder.CubePruningDecoder.CubePruningDecoderBuilder;
+import edu.stanford.nlp.mt.decoder.Inferer;
+import edu.stanford.nlp.mt.decoder.feat.base.NGramLanguageModelFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.base.TranslationModelFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.sparse.PunctuationDifference;
+import edu.stanford.nlp.mt.decoder.h.HeuristicFactory;
+import edu.stanford.nlp.mt.decoder.h.SearchHeuristic;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilter;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilterFactory;
+import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.decoder.util.Scorer;
+import edu.stanford.nlp.mt.decoder.util.SparseScorer;
+import edu.stanford.nlp.mt.decoder.util.UnconstrainedOutputSpace;
+import edu.stanford.nlp.mt.lm.BatchedLanguageModel;
+import edu.stanford.nlp.mt.lm.KenLMState;
+import edu.stanford.nlp.mt.lm.LMState;
+import edu.stanford.nlp.mt.lm.LanguageModel;
+import edu.stanford.nlp.mt.tm.CompiledPhraseTable;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.Rule;
+import edu.stanford.nlp.mt.tm.TranslationModel;
+import edu.stanford.nlp.mt.tm.UnknownWordPhraseGenerator;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.Featurizable;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.InputProperty;
+import edu.stanford.nlp.mt.util.PhraseAlignment;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.TokenUtils;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class FeatureExtractorTest {
+
+  private static final String SCORE_NAME = CompiledPhraseTable.DEFAULT_FEATURE_PREFIX + ".0";
+
+  /**
+   * Featurizer that keeps per-source state in a field.
+   */
+  private static class CloneableFeaturizer extends DerivationFeaturizer<IString,String>
+      implements NeedsCloneable<IString,String> {
+    @Override
+    public void initialize(int sourceInputId, Sequence<IString> source) {}
+    @Override
+    public List<FeatureValue<String>> featurize(Featurizable<IString,String> f) { return null; }
+    @Override
+    public Object clone() throws CloneNotSupportedException { return super.clone(); }
+  }
+
+  /**
+   * Translation model with two rules per source token: the token itself and
+   * the token with a suffix. Punctuation is kept only by the first rule.
+   */
+  private static class TestModel implements TranslationModel<IString,String> {
+    RuleFeaturizer<IString,String> featurizer;
+
+    @Override
+    public List<ConcreteRule<IString,String>> getRules(Sequence<IString> source,
+        InputProperties sourceInputProperties, int sourceInputId, Scorer<String> scorer) {
+      List<ConcreteRule<IString,String>> ruleList = new ArrayList<>();
+      for (int i = 0; i < source.size(); ++i) {
+        CoverageSet coverage = new CoverageSet(source.size());
+        coverage.set(i);
+        Sequence<IString> sourcePhrase = source.subsequence(i, i+1);
+        for (Sequence<IString> target : Arrays.asList(sourcePhrase,
+            IStrings.tokenize(sourcePhrase.get(0).toString() + "x"))) {
+          Rule<IString> rule = new Rule<>(new float[] { target == sourcePhrase ? -1.0f : -0.5f },
+              new String[] { SCORE_NAME }, target, sourcePhrase,
+              PhraseAlignment.getPhraseAlignment("(0)"), "test");
+          ruleList.add(new ConcreteRule<>(rule, coverage, featurizer, scorer, source, sourceInputId,
+              sourceInputProperties));
+        }
+      }
+      return ruleList;
+    }
+    @Override
+    public Object clone() throws CloneNotSupportedException { return super.clone(); }
+    @Override
+    public int maxLengthSource() { return 1; }
+    @Override
+    public int maxLengthTarget() { return 1; }
+    @Override
+    public void setFeaturizer(RuleFeaturizer<IString,String> featurizer) { this.featurizer = featurizer; }
+    @Override
+    public List<String> getFeatureNames() { return Collections.singletonList(SCORE_NAME); }
+    @Override
+    public String getName() { return "test"; }
+    @Override
+    public void setName(String name) {}
+  }
+
+  /**
+   * Static rule featurizer that counts its calls.
+   */
+  private static class CountingFeaturizer implements StaticRuleFeaturizer<IString,String> {
+    int numCalls = 0;
+    @Override
+    public void initialize() {}
+    @Override
+    public List<FeatureValue<String>> ruleFeaturize(Featurizable<IString,String> f) {
+      ++numCalls;
+      return Collections.singletonList(new FeatureValue<>("STATIC", f.targetPhrase.size()));
+    }
+    @Override
+    public boolean isolationScoreOnly() { return false; }
+  }
+
+  /**
+   * Rule featurizer that depends on the source span.
+   */
+  private static class PositionFeaturizer implements RuleFeaturizer<IString,String> {
+    @Override
+    public void initialize() {}
+    @Override
+    public List<FeatureValue<String>> ruleFeaturize(Featurizable<IString,String> f) {
+      return Collections.singletonList(new FeatureValue<>("POSITION", f.sourcePosition));
+    }
+    @Override
+    public boolean isolationScoreOnly() { return false; }
+  }
+
+  /**
+   * Bigram language model with deterministic scores.
+   */
+  private static class TestLM implements LanguageModel<IString> {
+    @Override
+    public LMState score(Sequence<IString> sequence, int startIndex, LMState priorState) {
+      int previous = priorState == null || priorState.length() == 0 ? -1 :
+        ((KenLMState) priorState).getState()[0];
+      double score = 0.0;
+      for (int i = 0; i < sequence.size(); ++i) {
+        final int id = sequence.get(i).id;
+        if (i >= startIndex) score -= 1.0 + ((31 * previous + id) & 0xf) / 8.0;
+        previous = id;
+      }
+      return previous < 0 ? new KenLMState(score, new int[0], 0) :
+        new KenLMState(score, new int[] { previous }, 1);
+    }
+    @Override
+    public IString getStartToken() { return TokenUtils.START_TOKEN; }
+    @Override
+    public IString getEndToken() { return TokenUtils.END_TOKEN; }
+    @Override
+    public String getName() { return "test"; }
+    @Override
+    public int order() { return 2; }
+  }
+
+  /**
+   * Language model that counts the derivation queries that were not queued and flushed
+   * before they were scored.
+   */
+  private static class BatchedTestLM extends TestLM implements BatchedLanguageModel<IString> {
+    final Set<String> queued = new HashSet<>();
+    final Set<String> flushed = new HashSet<>();
+    int numBatches = 0;
+    int numUnqueued = 0;
+    private static String key(Sequence<IString> sequence, int startIndex, LMState priorState) {
+      return String.format("%s|%d|%s", sequence, startIndex, priorState == null ? "" :
+        Arrays.toString(((KenLMState) priorState).getState()));
+    }
+    @Override
+    public LMState score(Sequence<IString> sequence, int startIndex, LMState priorState) {
+      // Isolation scores of rules have no context
+      if ((startIndex > 0 || priorState != null) && ! flushed.contains(key(sequence, startIndex, priorState))) {
+        ++numUnqueued;
+      }
+      return super.score(sequence, startIndex, priorState);
+    }
+    @Override
+    public void queue(Sequence<IString> sequence, int startIndex, LMState priorState) {
+      queued.add(key(sequence, startIndex, priorState));
+    }
+    @Override
+    public void flush() {
+      flushed.addAll(queued);
+      queued.clear();
+      ++numBatches;
+    }
+  }
+
+  private static InputProperties inputProperties() {
+    InputProperties inputProperties = new InputProperties();
+    inputProperties.put(InputProperty.RuleQueryLimit, 10);
+    return inputProperties;
+  }
+
+  @Test
+  public void testIsThreadsafe() throws CloneNotSupportedException {
+    List<Featurizer<IString,String>> featurizers = new ArrayList<>();
+    featurizers.add(new TranslationModelFeaturizer());
+    featurizers.add(new PunctuationDifference());
+    FeatureExtractor<IString,String> featurizer = new FeatureExtractor<>(featurizers);
+    assertTrue(featurizer.isThreadsafe());
+
+    CloneableFeaturizer cloneable = new CloneableFeaturizer();
+    featurizers.add(cloneable);
+    featurizer = new FeatureExtractor<>(featurizers);
+    assertFalse(featurizer.isThreadsafe());
+
+    // Only featurizers with per-thread state are copied
+    @SuppressWarnings("unchecked")
+    FeatureExtractor<IString,String> copy = (FeatureExtractor<IString,String>) featurizer.clone();
+    assertSame(featurizers.get(1), copy.getFeaturizers().get(1));
+    assertNotSame(cloneable, copy.getFeaturizers().get(2));
+  }
+
+  @Test
+  public void testStaticRuleFeatures() {
+    List<Featurizer<IString,String>> featurizers = new ArrayList<>();
+    featurizers.add(new TranslationModelFeaturizer());
+    CountingFeaturizer counter = new CountingFeaturizer();
+    featurizers.add(counter);
+    featurizers.add(new PositionFeaturizer());
+    FeatureExtractor<IString,String> featurizer = new FeatureExtractor<>(featurizers);
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount(TranslationModelFeaturizer.toTMFeature(SCORE_NAME), 1.0);
+    weights.setCount("STATIC", 2.0);
+    weights.setCount("POSITION", 0.5);
+    Scorer<String> scorer = new SparseScorer(weights);
+
+    Sequence<IString> sourcePhrase = IStrings.tokenize("b");
+    Rule<IString> rule = new Rule<>(new float[] { -1.0f }, new String[] { SCORE_NAME },
+        IStrings.tokenize("x y"), sourcePhrase, PhraseAlignment.getPhraseAlignment("(0) (0)"), "test");
+    Sequence<IString> source = IStrings.tokenize("a a b");
+    CoverageSet coverage = new CoverageSet(source.size());
+    coverage.set(2);
+    ConcreteRule<IString,String> concreteRule = new ConcreteRule<>(rule, coverage, featurizer, scorer,
+        source, 0, inputProperties());
+    assertEquals(-1.0 + 4.0 + 1.0, concreteRule.isolationScore, 1e-6);
+    assertEquals(3, concreteRule.cachedFeatureList.size());
+
+    // Another source input
+    source = IStrings.tokenize("b");
+    coverage = new CoverageSet(source.size());
+    coverage.set(0);
+    concreteRule = new ConcreteRule<>(rule, coverage, featurizer, scorer, source, 1, inputProperties());
+    assertEquals(-1.0 + 4.0, concreteRule.isolationScore, 1e-6);
+    assertEquals(1, counter.numCalls);
+
+    // New weights
+    weights = new ClassicCounter<>(weights);
+    weights.setCount("STATIC", -1.0);
+    scorer.updateWeights(weights);
+    concreteRule = new ConcreteRule<>(rule, coverage, featurizer, scorer, source, 1, inputProperties());
+    assertEquals(-1.0 - 2.0, concreteRule.isolationScore, 1e-6);
+    assertEquals(1, counter.numCalls);
+    assertEquals(concreteRule.isolationScore, scorer.getIncrementalScore(featurizer.ruleFeaturize(
+        new Featurizable<>(source, inputProperties(), concreteRule, 1))), 1e-6);
+  }
+
+  @Test
+  public void testSharedAcrossThreads() throws Exception {
+    List<Featurizer<IString,String>> featurizers = new ArrayList<>();
+    featurizers.add(new TranslationModelFeaturizer());
+    featurizers.add(new PunctuationDifference());
+    final FeatureExtractor<IString,String> featurizer = new FeatureExtractor<>(featurizers);
+    final TestModel model = new TestModel();
+    model.setFeaturizer(featurizer);
+    final SearchHeuristic<IString,String> heuristic = HeuristicFactory.factory(featurizer,
+        HeuristicFactory.ISOLATED_PHRASE_SOURCE_COVERAGE);
+    final RecombinationFilter<Derivation<IString,String>> filter = RecombinationFilterFactory.factory(
+        RecombinationFilterFactory.EXACT_RECOMBINATION, featurizer.getFeaturizers());
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount(TranslationModelFeaturizer.toTMFeature(SCORE_NAME), 1.0);
+    weights.setCount("PDIF", 1.5);
+
+    // One inferer per thread, all with the same model components
+    final int numThreads = 4;
+    List<Inferer<IString,String>> inferers = new ArrayList<>(numThreads);
+    for (int i = 0; i < numThreads; ++i) {
+      CubePruningDecoderBuilder<IString,String> builder = CubePruningDecoder.builder();
+      builder.setUnknownWordModel(new UnknownWordPhraseGenerator<>(false), false);
+      builder.setPhraseGenerator(model);
+      builder.setFeaturizer(featurizer);
+      builder.setScorer(new SparseScorer(weights));
+      builder.setSearchHeuristic(heuristic);
+      builder.setRecombinationFilter(filter);
+      inferers.add(builder.newInferer());
+    }
+
+    // Sources with different punctuation counts
+    final int numSources = 40;
+    List<Sequence<IString>> sources = new ArrayList<>(numSources);
+    for (int i = 0; i < numSources; ++i) {
+      StringBuilder sb = new StringBuilder("a");
+      for (int j = 0; j < 2 + i % 5; ++j) sb.append(j <= i % 3 ? " ," : " b");
+      sources.add(IStrings.tokenize(sb.toString()));
+    }
+    double[] expected = new double[numSources];
+    for (int i = 0; i < numSources; ++i) {
+      expected[i] = inferers.get(0).translate(sources.get(i), i, inputProperties(),
+          new UnconstrainedOutputSpace<>(), null).score;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (int iter = 0; iter < 5; ++iter) {
+        List<Future<Double>> scores = new ArrayList<>(numSources);
+        for (int i = 0; i < numSources; ++i) {
+          final int sourceId = i;
+          final Sequence<IString> source = sources.get(i);
+          final Inferer<IString,String> inferer = inferers.get(i % numThreads);
+          // Inferers are not threadsafe, so each one is used by at most one task at a time
+          scores.add(pool.submit(() -> {
+            synchronized(inferer) {
+              RichTranslation<IString,String> translation = inferer.translate(source, sourceId,
+                  inputProperties(), new UnconstrainedOutputSpace<>(), null);
+              return translation.score;
+            }
+          }));
+        }
+        for (int i = 0; i < numSources; ++i) {
+          assertEquals(expected[i], scores.get(i).get(), 1e-9);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static Inferer<IString,String> lmInferer(LanguageModel<IString> lm) {
+    List<Featurizer<IString,String>> featurizers = new ArrayList<>();
+    featurizers.add(new TranslationModelFeaturizer());
+    featurizers.add(new NGramLanguageModelFeaturizer(lm));
+    FeatureExtractor<IString,String> featurizer = new FeatureExtractor<>(featurizers);
+    TestModel model = new TestModel();
+    model.setFeaturizer(featurizer);
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount(TranslationModelFeaturizer.toTMFeature(SCORE_NAME), 1.0);
+    weights.setCount(NGramLanguageModelFeaturizer.DEFAULT_FEATURE_NAME, 0.5);
+    CubePruningDecoderBuilder<IString,String> builder = CubePruningDecoder.builder();
+    builder.setUnknownWordModel(new UnknownWordPhraseGenerator<>(false), false);
+    builder.setPhraseGenerator(model);
+    builder.setFeaturizer(featurizer);
+    builder.setScorer(new SparseScorer(weights));
+    builder.setSearchHeuristic(HeuristicFactory.factory(featurizer,
+        HeuristicFactory.ISOLATED_PHRASE_SOURCE_COVERAGE));
+    builder.setRecombinationFilter(RecombinationFilterFactory.factory(
+        RecombinationFilterFactory.EXACT_RECOMBINATION, featurizer.getFeaturizers()));
+    return builder.newInferer();
+  }
+
+  @Test
+  public void testBatchQueries() {
+    Inferer<IString,String> inferer = lmInferer(new TestLM());
+    BatchedTestLM batchedLm = new BatchedTestLM();
+    Inferer<IString,String> batchedInferer = lmInferer(batchedLm);
+    for (int i = 0; i < 20; ++i) {
+      StringBuilder sb = new StringBuilder("a");
+      for (int j = 0; j < 1 + i % 6; ++j) sb.append(j % 3 == i % 2 ? " b" : " c").append(j);
+      Sequence<IString> source = IStrings.tokenize(sb.toString());
+      RichTranslation<IString,String> expected = inferer.translate(source, i, inputProperties(),
+          new UnconstrainedOutputSpace<>(), null);
+      RichTranslation<IString,String> translation = batchedInferer.translate(source, i,
+          inputProperties(), new UnconstrainedOutputSpace<>(), null);
+      assertEquals(expected.translation, translation.translation);
+      assertEquals(expected.score, translation.score, 1e-9);
+    }
+
+    // Every derivation query was scored in a batch
+    assertTrue(batchedLm.numBatches > 0);
+    assertEquals(0, batchedLm.numUnqueued);
+  }
+}
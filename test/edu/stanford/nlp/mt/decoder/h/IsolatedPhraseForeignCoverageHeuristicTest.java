@@ -0,0 +1,131 @@
+package edu.stanford.nlp.mt.decoder.h;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
+import edu.stanford.nlp.mt.decoder.feat.Featurizer;
+import edu.stanford.nlp.mt.decoder.feat.base.TranslationModelFeaturizer;
+import edu.stanford.nlp.mt.decoder.util.Scorer;
+import edu.stanford.nlp.mt.decoder.util.SparseScorer;
+import edu.stanford.nlp.mt.tm.CompiledPhraseTable;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.Rule;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.PhraseAlignment;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class IsolatedPhraseForeignCoverageHeuristicTest {
+
+  private static final String SCORE_NAME = CompiledPhraseTable.DEFAULT_FEATURE_PREFIX + ".0";
+
+  /**
+   * Rules with random scores for random spans of up to four tokens.
+   */
+  private static List<ConcreteRule<IString,String>> randomRules(Sequence<IString> source,
+      Random random) {
+    List<Featurizer<IString,String>> featurizers = new ArrayList<>();
+    featurizers.add(new TranslationModelFeaturizer());
+    FeatureExtractor<IString,String> featurizer = new FeatureExtractor<>(featurizers);
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount(TranslationModelFeaturizer.toTMFeature(SCORE_NAME), 1.0);
+    Scorer<String> scorer = new SparseScorer(weights);
+
+    List<ConcreteRule<IString,String>> ruleList = new ArrayList<>();
+    for (int i = 0; i < source.size(); ++i) {
+      for (int j = i + 1; j <= Math.min(i + 4, source.size()); ++j) {
+        // Every token has a unigram rule
+        if (j > i + 1 && random.nextBoolean()) continue;
+        CoverageSet coverage = new CoverageSet(source.size());
+        coverage.set(i, j);
+        Sequence<IString> sourcePhrase = source.subsequence(i, j);
+        Rule<IString> rule = new Rule<>(new float[] { -10.0f * random.nextFloat() },
+            new String[] { SCORE_NAME }, sourcePhrase, sourcePhrase,
+            PhraseAlignment.getPhraseAlignment("(0)"), "test");
+        ruleList.add(new ConcreteRule<>(rule, coverage, featurizer, scorer, source, 0,
+            new InputProperties()));
+      }
+    }
+    return ruleList;
+  }
+
+  /**
+   * Viterbi segmentation of each gap in the coverage set.
+   */
+  private static double referenceFutureCost(List<ConcreteRule<IString,String>> ruleList,
+      int length, CoverageSet coverage) {
+    double[][] ruleScores = new double[length][length + 1];
+    for (double[] row : ruleScores) Arrays.fill(row, Double.NEGATIVE_INFINITY);
+    for (ConcreteRule<IString,String> rule : ruleList) {
+      int end = rule.sourcePosition + rule.abstractRule.source.size();
+      ruleScores[rule.sourcePosition][end] = Math.max(ruleScores[rule.sourcePosition][end],
+          rule.isolationScore);
+    }
+    double futureCost = 0.0;
+    for (int start = coverage.nextClearBit(0); start < length; ) {
+      int end = coverage.nextSetBit(start);
+      if (end < 0) end = length;
+      double[] best = new double[end + 1];
+      Arrays.fill(best, Double.NEGATIVE_INFINITY);
+      best[start] = 0.0;
+      for (int j = start + 1; j <= end; ++j) {
+        for (int i = start; i < j; ++i) best[j] = Math.max(best[j], best[i] + ruleScores[i][j]);
+      }
+      futureCost += best[end];
+      start = coverage.nextClearBit(end);
+    }
+    return futureCost;
+  }
+
+  @Test
+  public void testFutureCost() {
+    Random random = new Random(5);
+    IsolatedPhraseForeignCoverageHeuristic<IString,String> heuristic =
+        new IsolatedPhraseForeignCoverageHeuristic<>();
+    for (int length : new int[] { 1, 7, 63, 64, 65, 130 }) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < length; ++i) sb.append(" w").append(random.nextInt(10));
+      Sequence<IString> source = IStrings.tokenize(sb.toString().trim());
+      List<ConcreteRule<IString,String>> ruleList = randomRules(source, random);
+      double h = heuristic.getInitialHeuristic(source, new InputProperties(),
+          Collections.singletonList(ruleList), null, 0);
+      CoverageSet coverage = new CoverageSet(length);
+      assertEquals(referenceFutureCost(ruleList, length, coverage), h, 1e-3);
+      assertEquals(h, heuristic.getFutureCost(coverage), 1e-3);
+
+      for (int i = 0; i < 200; ++i) {
+        coverage = new CoverageSet(length);
+        for (int j = 0; j < length; ++j) if (random.nextInt(3) == 0) coverage.set(j);
+        double expected = referenceFutureCost(ruleList, length, coverage);
+        assertEquals(expected, heuristic.getFutureCost(coverage), 1e-3);
+        // Memoized
+        assertEquals(expected, heuristic.getFutureCost(coverage), 1e-3);
+      }
+
+      // The memo does not alias the coverage set
+      coverage = new CoverageSet(length);
+      double expected = heuristic.getFutureCost(coverage);
+      coverage.set(0);
+      assertEquals(referenceFutureCost(ruleList, length, coverage), heuristic.getFutureCost(coverage), 1e-3);
+      assertEquals(expected, heuristic.getFutureCost(new CoverageSet(length)), 1e-3);
+
+      coverage.set(0, length);
+      assertEquals(0.0, heuristic.getFutureCost(coverage), 0.0);
+    }
+  }
+}
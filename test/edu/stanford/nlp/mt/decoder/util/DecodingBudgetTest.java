@@ -0,0 +1,80 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.util.DecodingBudget.Degradation;
+import edu.stanford.nlp.mt.util.TimingUtils;
+
+/**
+ * Unit test.
+ */
+public class DecodingBudgetTest {
+
+  @Test
+  public void testFromString() {
+    DecodingBudget budget = DecodingBudget.fromString("1000");
+    assertEquals(1000, budget.maxDerivations);
+    assertEquals(0, budget.maxRecombinations);
+    assertEquals(0, budget.maxMillis);
+    budget = DecodingBudget.fromString("1000,50,200");
+    assertEquals(50, budget.maxRecombinations);
+    assertEquals(200, budget.maxMillis);
+  }
+
+  @Test
+  public void testWithinBudget() {
+    DecodingBudget budget = new DecodingBudget(10000, 0, 0);
+    DecodingBudget.Monitor monitor = budget.monitor(1, 10, 100, 20, 5, TimingUtils.startTime());
+    // 500 derivations per beam
+    for (int i = 1; i <= 10; ++i) monitor.update(i, 500 * (i - 1), 0);
+    assertEquals(100, monitor.beamSize());
+    assertEquals(20, monitor.ruleQueryLimit());
+    assertEquals(5, monitor.distortionLimit());
+    assertTrue(monitor.degradations().isEmpty());
+  }
+
+  @Test
+  public void testAdaptiveDegradation() {
+    DecodingBudget budget = new DecodingBudget(10000, 0, 0);
+    DecodingBudget.Monitor monitor = budget.monitor(1, 10, 100, 20, 5, TimingUtils.startTime());
+    monitor.update(1, 0, 0);
+    // 2000 derivations in the first beam, so 18000 projected for the other nine
+    monitor.update(2, 2000, 0);
+    assertEquals(44, monitor.beamSize());
+    monitor.update(3, 6000, 0);
+    assertEquals(DecodingBudget.MIN_BEAM_SIZE, monitor.beamSize());
+    monitor.update(4, 8000, 0);
+    assertEquals(DecodingBudget.MIN_RULE_QUERY_LIMIT, monitor.ruleQueryLimit());
+    monitor.update(5, 9000, 0);
+    assertEquals(0, monitor.distortionLimit());
+    monitor.update(6, 9500, 0);
+    assertEquals(1, monitor.beamSize());
+    assertFalse(monitor.isExceeded());
+
+    List<Degradation> degradations = monitor.degradations();
+    assertEquals(5, degradations.size());
+    assertEquals(Degradation.Type.BeamSize, degradations.get(0).type);
+    assertEquals(2, degradations.get(0).cardinality);
+    assertEquals(Degradation.Type.RuleQueryLimit, degradations.get(2).type);
+    assertEquals(Degradation.Type.Monotone, degradations.get(3).type);
+    assertEquals(Degradation.Type.Greedy, degradations.get(4).type);
+  }
+
+  @Test
+  public void testExceeded() {
+    DecodingBudget budget = new DecodingBudget(0, 100, 0);
+    DecodingBudget.Monitor monitor = budget.monitor(1, 10, 100, -1, -1, TimingUtils.startTime());
+    assertFalse(monitor.checkExceeded(1, 1000000, 99));
+    assertTrue(monitor.checkExceeded(1, 1000000, 100));
+    assertEquals(1, monitor.beamSize());
+    assertEquals(0, monitor.distortionLimit());
+    assertEquals(DecodingBudget.MIN_RULE_QUERY_LIMIT, monitor.ruleQueryLimit());
+    monitor.update(2, 0, 0);
+    assertEquals(1, monitor.degradations().size());
+    assertEquals(Degradation.Type.BudgetExceeded, monitor.degradations().get(0).type);
+  }
+}
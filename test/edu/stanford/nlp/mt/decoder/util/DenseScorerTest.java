@@ -0,0 +1,73 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class DenseScorerTest {
+
+  private static final String[] FEATURE_NAMES = new String[] { "a", "b", "c", "d", "e", "f", "g" };
+
+  private static Counter<String> weights(double scale) {
+    Counter<String> weights = new ClassicCounter<>();
+    for (int i = 0; i < FEATURE_NAMES.length - 1; ++i) {
+      weights.setCount(FEATURE_NAMES[i], scale * (i + 1));
+    }
+    return weights;
+  }
+
+  private static List<FeatureValue<String>> toFeatureValues(float[] values) {
+    List<FeatureValue<String>> features = new ArrayList<>();
+    for (int i = 0; i < values.length; ++i) {
+      features.add(new FeatureValue<>(FEATURE_NAMES[i], values[i]));
+    }
+    return features;
+  }
+
+  @Test
+  public void testDenseBlock() {
+    float[] values = new float[] { 0.5f, -1.0f, 2.0f, -0.25f, 1.5f, 3.0f, 1.0f };
+    List<Scorer<String>> scorers = new ArrayList<>();
+    scorers.add(new DenseScorer(weights(1.0)));
+    scorers.add(new SparseScorer(weights(1.0)));
+    for (Scorer<String> scorer : scorers) {
+      assertEquals(scorer.getIncrementalScore(toFeatureValues(values)),
+          scorer.getIncrementalScore(values, FEATURE_NAMES), 1e-9);
+
+      // The weights of the block are updated
+      scorer.updateWeights(weights(-2.0));
+      assertEquals(scorer.getIncrementalScore(toFeatureValues(values)),
+          scorer.getIncrementalScore(values, FEATURE_NAMES), 1e-9);
+
+      // Fewer values than feature names
+      float[] prefix = new float[] { 0.5f, -1.0f, 2.0f };
+      assertEquals(scorer.getIncrementalScore(toFeatureValues(prefix)),
+          scorer.getIncrementalScore(prefix, FEATURE_NAMES), 1e-9);
+    }
+  }
+
+  @Test
+  public void testDotProduct() {
+    for (int length = 0; length < 11; ++length) {
+      float[] values = new float[length];
+      double[] weights = new double[length + 2];
+      double expected = 0.0;
+      for (int i = 0; i < length; ++i) {
+        values[i] = i - 4.5f;
+        weights[i] = 0.1 * i;
+        expected += values[i] * weights[i];
+      }
+      assertEquals(expected, DenseScorer.dotProduct(values, weights, length), 1e-9);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
+
+/**
+ * Unit test.
+ */
+public class KBestLatticeDecoderTest {
+
+  private static class TestState implements State<TestState> {
+    final TestState parent;
+    final double partialScore;
+    final int depth;
+    TestState(TestState parent, double weight) {
+      this.parent = parent;
+      this.partialScore = parent == null ? weight : parent.partialScore + weight;
+      this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+    @Override
+    public int compareTo(TestState o) { return Double.compare(partialScore, o.partialScore); }
+    @Override
+    public double score() { return partialScore; }
+    @Override
+    public double partialScore() { return partialScore; }
+    @Override
+    public State<TestState> parent() { return parent; }
+    @Override
+    public int depth() { return depth; }
+  }
+
+  /**
+   * A layered lattice. Each retained state is the best of a group of states that
+   * were recombined, and extends a random retained state of the previous layer.
+   */
+  private static List<TestState> makeLattice(int numLayers, int layerSize, int groupSize,
+      RecombinationHistory<TestState> history, Random random) {
+    List<TestState> layer = Collections.singletonList(new TestState(null, 0.0));
+    for (int i = 0; i < numLayers; ++i) {
+      List<TestState> nextLayer = new ArrayList<>(layerSize);
+      for (int j = 0; j < layerSize; ++j) {
+        List<TestState> group = new ArrayList<>(groupSize);
+        for (int k = 0; k < groupSize; ++k) {
+          group.add(new TestState(layer.get(random.nextInt(layer.size())), -random.nextInt(20)));
+        }
+        Collections.sort(group, Collections.reverseOrder());
+        for (int k = 1; k < groupSize; ++k) history.log(group.get(0), group.get(k));
+        nextLayer.add(group.get(0));
+      }
+      layer = nextLayer;
+    }
+    return layer;
+  }
+
+  private static double pathScore(List<TestState> path) {
+    double score = path.get(0).partialScore();
+    for (int i = 1; i < path.size(); ++i) {
+      TestState state = path.get(i);
+      score += state.partialScore() - state.parent().partialScore();
+    }
+    return score;
+  }
+
+  /**
+   * Scores of all paths into the goal states.
+   */
+  private static List<Double> allPathScores(List<TestState> goals, RecombinationHistory<TestState> history) {
+    List<Double> scores = new ArrayList<>();
+    for (TestState goal : goals) allPathScores(goal, 0.0, history, scores);
+    Collections.sort(scores, Collections.reverseOrder());
+    return scores;
+  }
+
+  private static void allPathScores(State<TestState> state, double suffixScore,
+      RecombinationHistory<TestState> history, List<Double> scores) {
+    List<State<TestState>> edges = new ArrayList<>(history.recombinations(state));
+    edges.add(state);
+    for (State<TestState> edge : edges) {
+      if (edge.parent() == null) {
+        scores.add(suffixScore + edge.partialScore());
+      } else {
+        allPathScores(edge.parent(), suffixScore + edge.partialScore() - edge.parent().partialScore(),
+            history, scores);
+      }
+    }
+  }
+
+  @Test
+  public void testAgenda() {
+    Random random = new Random(11);
+    RecombinationHistory<TestState> history = new RecombinationHistory<>();
+    List<TestState> goals = makeLattice(8, 6, 4, history, random);
+
+    KBestLatticeDecoder<TestState> kbest = new KBestLatticeDecoder<>(goals, history);
+    StateLatticeDecoder<TestState> agenda = new StateLatticeDecoder<>(goals, history);
+    for (int i = 0; i < 1000; ++i) {
+      assertTrue(kbest.hasNext());
+      assertTrue(agenda.hasNext());
+      List<TestState> path = kbest.next();
+      double score = pathScore(path);
+      assertEquals(score, kbest.lastScore(), 1e-9);
+      assertEquals(9, path.size());
+      assertNull(path.get(0).parent());
+      // Each state extends the previous state or a state that was recombined into it
+      for (int j = 1; j < path.size(); ++j) {
+        State<TestState> parent = path.get(j).parent();
+        assertTrue(path.get(j-1) == parent || history.recombinations(parent).contains(path.get(j-1)));
+      }
+      // The agenda can skip paths, but it never returns a better one
+      double agendaScore = pathScore(agenda.next());
+      if (i == 0) assertEquals(score, agendaScore, 1e-9);
+      assertTrue(agendaScore <= score + 1e-9);
+    }
+    // The best path is the best goal state
+    assertEquals(Collections.max(goals).partialScore(),
+        pathScore(new KBestLatticeDecoder<>(goals, history).next()), 1e-9);
+  }
+
+  @Test
+  public void testExhaustive() {
+    Random random = new Random(5);
+    RecombinationHistory<TestState> history = new RecombinationHistory<>();
+    List<TestState> goals = makeLattice(4, 3, 3, history, random);
+
+    KBestLatticeDecoder<TestState> kbest = new KBestLatticeDecoder<>(goals, history);
+    List<Double> scores = new ArrayList<>();
+    for (List<TestState> path : kbest) scores.add(pathScore(path));
+    List<Double> expected = allPathScores(goals, history);
+    assertEquals(expected.size(), scores.size());
+    for (int i = 0; i < scores.size(); ++i) assertEquals(expected.get(i), scores.get(i), 1e-9);
+    assertFalse(kbest.hasNext());
+  }
+}
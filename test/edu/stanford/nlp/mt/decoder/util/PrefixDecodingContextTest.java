@@ -0,0 +1,239 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.CubePruningDecoder;
+import edu.stanford.nlp.mt.decoder.CubePruningDecoder.CubePruningDecoderBuilder;
+import edu.stanford.nlp.mt.decoder.Inferer;
+import edu.stanford.nlp.mt.decoder.Inferer.NbestMode;
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
+import edu.stanford.nlp.mt.decoder.feat.Featurizer;
+import edu.stanford.nlp.mt.decoder.feat.base.LinearFutureCostFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.base.TranslationModelFeaturizer;
+import edu.stanford.nlp.mt.decoder.h.HeuristicFactory;
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationFilterFactory;
+import edu.stanford.nlp.mt.tm.DynamicTranslationModel;
+import edu.stanford.nlp.mt.tm.UnknownWordPhraseGenerator;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.InputProperty;
+import edu.stanford.nlp.mt.util.KSR;
+import edu.stanford.nlp.mt.util.ParallelCorpus;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.WordPredictionAccuracy;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class PrefixDecodingContextTest {
+
+  private static final int VOCAB_SIZE = 20;
+  private static final int NBEST_SIZE = 10;
+
+  private static DynamicTranslationModel<String> tm;
+  private static List<Sequence<IString>> testSources;
+  private static List<Sequence<IString>> testReferences;
+
+  /**
+   * A sentence pair in which source word sk is usually translated as tk, and otherwise as uk,
+   * with some adjacent words swapped. Returns the source, target, and alignment.
+   */
+  private static String[] sentencePair(Random random) {
+    final int length = 2 + random.nextInt(7);
+    int[] words = new int[length];
+    int[] order = new int[length];
+    for (int i = 0; i < length; ++i) {
+      words[i] = random.nextInt(VOCAB_SIZE);
+      order[i] = i;
+    }
+    for (int i = 0; i + 1 < length; ++i) {
+      if (random.nextInt(4) == 0) {
+        order[i] = i + 1;
+        order[i + 1] = i;
+        ++i;
+      }
+    }
+    StringBuilder source = new StringBuilder();
+    StringBuilder target = new StringBuilder();
+    StringBuilder align = new StringBuilder();
+    for (int i = 0; i < length; ++i) {
+      source.append(" s").append(words[i]);
+      target.append(random.nextInt(1 + words[order[i]] % 5) == 0 ? " u" : " t").append(words[order[i]]);
+      align.append(" ").append(order[i]).append("-").append(i);
+    }
+    return new String[] { source.toString().trim(), target.toString().trim(), align.toString().trim() };
+  }
+
+  /**
+   * A bitext of sentence pairs, and a test set from the same distribution.
+   */
+  @BeforeClass
+  public static void setUp() {
+    Random random = new Random(11);
+    ParallelCorpus corpus = new ParallelCorpus();
+    for (int n = 0; n < 300; ++n) {
+      String[] pair = sentencePair(random);
+      corpus.add(pair[0], pair[1], pair[2]);
+    }
+    ParallelSuffixArray sa = new ParallelSuffixArray(corpus);
+    sa.build();
+    tm = new DynamicTranslationModel<>(sa, "test");
+    tm.initialize(true);
+
+    testSources = new ArrayList<>();
+    testReferences = new ArrayList<>();
+    for (int n = 0; n < 400; ++n) {
+      String[] pair = sentencePair(random);
+      testSources.add(IStrings.tokenize(pair[0]));
+      testReferences.add(IStrings.tokenize(pair[1]));
+    }
+  }
+
+  private static Inferer<IString,String> inferer() {
+    List<Featurizer<IString,String>> featurizers = new ArrayList<>();
+    featurizers.add(new TranslationModelFeaturizer());
+    featurizers.add(new LinearFutureCostFeaturizer());
+    FeatureExtractor<IString,String> featurizer = new FeatureExtractor<>(featurizers);
+    tm.setFeaturizer(featurizer);
+    Counter<String> weights = new ClassicCounter<>();
+    for (String name : tm.getFeatureNames()) {
+      weights.setCount(TranslationModelFeaturizer.toTMFeature(name), 1.0);
+    }
+    weights.setCount(LinearFutureCostFeaturizer.FEATURE_NAME, 0.3);
+    CubePruningDecoderBuilder<IString,String> builder = CubePruningDecoder.builder();
+    builder.setUnknownWordModel(new UnknownWordPhraseGenerator<>(false), false);
+    builder.setPhraseGenerator(tm);
+    builder.setFeaturizer(featurizer);
+    builder.setScorer(new SparseScorer(weights));
+    builder.setSearchHeuristic(HeuristicFactory.factory(featurizer,
+        HeuristicFactory.ISOLATED_PHRASE_SOURCE_COVERAGE));
+    builder.setRecombinationFilter(RecombinationFilterFactory.factory(
+        RecombinationFilterFactory.EXACT_RECOMBINATION, featurizer.getFeaturizers()));
+    builder.setBeamSize(20);
+    return builder.newInferer();
+  }
+
+  private static List<RichTranslation<IString,String>> decode(Inferer<IString,String> inferer,
+      Sequence<IString> source, Sequence<IString> prefix, PrefixDecodingContext<IString,String> context) {
+    InputProperties inputProperties = new InputProperties();
+    inputProperties.put(InputProperty.RuleQueryLimit, 20);
+    if (prefix != null) inputProperties.put(InputProperty.TargetPrefix, true);
+    if (context != null) inputProperties.put(InputProperty.PrefixDecodingContext, context);
+    List<Sequence<IString>> targets = prefix == null ? null : Collections.singletonList(prefix);
+    OutputSpace<IString,String> outputSpace = OutputSpaceFactory.getOutputSpace(0, targets, true,
+        tm.maxLengthSource(), tm.maxLengthTarget(), false);
+    return inferer.nbest(source, 0, inputProperties, outputSpace, targets, NBEST_SIZE, false,
+        NbestMode.Standard);
+  }
+
+  /**
+   * Decode successive prefixes of a reference with a shared context, as in a KSR simulation,
+   * and from scratch. The n-best lists must be identical.
+   */
+  @Test
+  public void testIncrementalEqualsScratch() {
+    Inferer<IString,String> inferer = inferer();
+    Sequence<IString> source = IStrings.tokenize("s1 s2 s3 s4 s5 s6 s7");
+    Sequence<IString> reference = IStrings.tokenize("t1 t3 t2 t4 t5 t7 t6");
+    PrefixDecodingContext<IString,String> context = new PrefixDecodingContext<>();
+    for (int length = 1; length < reference.size(); ++length) {
+      Sequence<IString> prefix = reference.subsequence(0, length);
+      List<RichTranslation<IString,String>> incremental = decode(inferer, source, prefix, context);
+      List<RichTranslation<IString,String>> scratch = decode(inferer, source, prefix, null);
+      assertEquals(scratch.size(), incremental.size());
+      for (int i = 0; i < scratch.size(); ++i) {
+        assertEquals(prefix, incremental.get(i).translation.subsequence(0, length));
+        assertEquals(scratch.get(i).translation, incremental.get(i).translation);
+        assertEquals(scratch.get(i).score, incremental.get(i).score, 1e-6);
+      }
+    }
+    // At most beams 1..k-2 of the previous prefix are restored for the prefix of length k
+    assertTrue(context.getNumRestoredBeams() > 0);
+    assertTrue(context.getNumRestoredBeams() <= (reference.size() - 3) * (reference.size() - 2) / 2);
+  }
+
+  /**
+   * A different prefix only restores the beams of the common part.
+   */
+  @Test
+  public void testChangedPrefix() {
+    Inferer<IString,String> inferer = inferer();
+    Sequence<IString> source = IStrings.tokenize("s1 s2 s3 s4 s5");
+    PrefixDecodingContext<IString,String> context = new PrefixDecodingContext<>();
+    decode(inferer, source, IStrings.tokenize("t1 t2 t3 t4"), context);
+    assertEquals(0, context.getNumRestoredBeams());
+
+    Sequence<IString> prefix = IStrings.tokenize("t1 t3 t2 t4");
+    List<RichTranslation<IString,String>> incremental = decode(inferer, source, prefix, context);
+    assertEquals(1, context.getNumRestoredBeams());
+    List<RichTranslation<IString,String>> scratch = decode(inferer, source, prefix, null);
+    assertEquals(scratch.get(0).translation, incremental.get(0).translation);
+    assertEquals(scratch.get(0).score, incremental.get(0).score, 1e-6);
+
+    // Another source input resets the context
+    decode(inferer, IStrings.tokenize("s1 s2 s3"), IStrings.tokenize("t1 t2"), context);
+    assertEquals(1, context.getNumRestoredBeams());
+  }
+
+  /**
+   * The KSR and WPA counts of the test set, computed as in <code>Phrasal</code>.
+   */
+  private static int[] evaluate(Inferer<IString,String> inferer, boolean useContext, int[] numRestoredBeams) {
+    int ksrTyped = 0, ksrTotal = 0, wpaCorrect = 0, wpaTotal = 0;
+    for (int n = 0; n < testSources.size(); ++n) {
+      Sequence<IString> source = testSources.get(n);
+      Sequence<IString> reference = testReferences.get(n);
+      List<RichTranslation<IString,String>> translations = decode(inferer, source, null, null);
+      PrefixDecodingContext<IString,String> context = useContext ? new PrefixDecodingContext<>() : null;
+
+      List<RichTranslation<IString,String>> ksrTranslations = translations;
+      int previousPrefixSize = 0;
+      while (true) {
+        KSR ksr = KSR.getNextPrefix(ksrTranslations, NBEST_SIZE, reference, previousPrefixSize);
+        ksrTyped += ksr.ksrTyped;
+        ksrTotal += ksr.ksrTotal;
+        if (ksr.nextPrefix == null) break;
+        ksrTranslations = decode(inferer, source, ksr.nextPrefix, context);
+        previousPrefixSize = ksr.nextPrefix.size();
+      }
+
+      if (WordPredictionAccuracy.correctPrediction(translations, NBEST_SIZE, reference, 0)) ++wpaCorrect;
+      ++wpaTotal;
+      for (int length = 1; length < reference.size(); ++length) {
+        List<RichTranslation<IString,String>> wpaTranslations = decode(inferer, source,
+            reference.subsequence(0, length), context);
+        if (WordPredictionAccuracy.correctPrediction(wpaTranslations, NBEST_SIZE, reference, length)) ++wpaCorrect;
+        ++wpaTotal;
+      }
+      if (context != null) numRestoredBeams[0] += context.getNumRestoredBeams();
+    }
+    return new int[] { ksrTyped, ksrTotal, wpaCorrect, wpaTotal };
+  }
+
+  /**
+   * KSR and WPA of a test set must not depend on the context. The synthetic rules of some
+   * prefixes change when the prefix grows, so some beams must not be restored.
+   */
+  @Test
+  public void testKSRAndWPA() {
+    Inferer<IString,String> inferer = inferer();
+    int[] numRestoredBeams = new int[1];
+    int[] scratch = evaluate(inferer, false, numRestoredBeams);
+    int[] incremental = evaluate(inferer, true, numRestoredBeams);
+    assertArrayEquals(scratch, incremental);
+    assertTrue(numRestoredBeams[0] > 0);
+  }
+}
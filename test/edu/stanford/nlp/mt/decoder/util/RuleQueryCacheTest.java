@@ -0,0 +1,167 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.AbstractInferer;
+import edu.stanford.nlp.mt.decoder.CubePruningDecoder;
+import edu.stanford.nlp.mt.decoder.CubePruningDecoder.CubePruningDecoderBuilder;
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
+import edu.stanford.nlp.mt.decoder.feat.Featurizer;
+import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.base.TranslationModelFeaturizer;
+import edu.stanford.nlp.mt.tm.CompiledPhraseTable;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.Rule;
+import edu.stanford.nlp.mt.tm.TranslationModel;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.InputProperty;
+import edu.stanford.nlp.mt.util.PhraseAlignment;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class RuleQueryCacheTest {
+
+  private static final String SCORE_NAME = CompiledPhraseTable.DEFAULT_FEATURE_PREFIX + ".0";
+  private static final String FEATURE_NAME = TranslationModelFeaturizer.toTMFeature(SCORE_NAME);
+
+  /**
+   * Translation model with one unigram rule per source token. Counts queries.
+   */
+  private static class CountingModel implements TranslationModel<IString,String> {
+    int numQueries = 0;
+    RuleFeaturizer<IString,String> featurizer;
+
+    @Override
+    public List<ConcreteRule<IString,String>> getRules(Sequence<IString> source,
+        InputProperties sourceInputProperties, int sourceInputId, Scorer<String> scorer) {
+      ++numQueries;
+      List<ConcreteRule<IString,String>> ruleList = new ArrayList<>();
+      for (int i = 0; i < source.size(); ++i) {
+        Rule<IString> rule = new Rule<>(new float[] { -1.0f }, new String[] { SCORE_NAME },
+            source.subsequence(i, i+1), source.subsequence(i, i+1),
+            PhraseAlignment.getPhraseAlignment("(0)"), "test");
+        CoverageSet coverage = new CoverageSet(source.size());
+        coverage.set(i);
+        ruleList.add(new ConcreteRule<>(rule, coverage, featurizer, scorer, source, sourceInputId,
+            sourceInputProperties));
+      }
+      return ruleList;
+    }
+    @Override
+    public Object clone() throws CloneNotSupportedException { return super.clone(); }
+    @Override
+    public int maxLengthSource() { return 1; }
+    @Override
+    public int maxLengthTarget() { return 1; }
+    @Override
+    public void setFeaturizer(RuleFeaturizer<IString,String> featurizer) { this.featurizer = featurizer; }
+    @Override
+    public List<String> getFeatureNames() { return Collections.singletonList(SCORE_NAME); }
+    @Override
+    public String getName() { return "test"; }
+    @Override
+    public void setName(String name) {}
+  }
+
+  private CountingModel model;
+  private Scorer<String> scorer;
+  private AbstractInferer<IString,String> inferer;
+
+  @SuppressWarnings("unchecked")
+  @Before
+  public void setUp() {
+    List<Featurizer<IString,String>> featurizers = new ArrayList<>();
+    featurizers.add(new TranslationModelFeaturizer());
+    FeatureExtractor<IString,String> featurizer = new FeatureExtractor<>(featurizers);
+    model = new CountingModel();
+    model.setFeaturizer(featurizer);
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount(FEATURE_NAME, 1.0);
+    scorer = new SparseScorer(weights);
+    CubePruningDecoderBuilder<IString,String> builder = CubePruningDecoder.builder();
+    builder.setPhraseGenerator(model);
+    builder.setFeaturizer(featurizer);
+    builder.setScorer(scorer);
+    inferer = (AbstractInferer<IString,String>) builder.newInferer();
+  }
+
+  @Test
+  public void testHitsAndRescoring() {
+    RuleQueryCache<IString,String> cache = new RuleQueryCache<>(10);
+    Sequence<IString> source = IStrings.tokenize("a b c");
+    List<ConcreteRule<IString,String>> rules = cache.getRules(inferer, source, new InputProperties(), 0, scorer);
+    assertEquals(3, rules.size());
+    assertEquals(-1.0, rules.get(0).isolationScore, 1e-6);
+
+    // Hit
+    List<ConcreteRule<IString,String>> cached = cache.getRules(inferer, source, new InputProperties(), 0, scorer);
+    assertEquals(1, model.numQueries);
+    assertSame(rules.get(0), cached.get(0));
+
+    // Same weight vector again
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount(FEATURE_NAME, 2.0);
+    scorer.updateWeights(weights);
+    final long version = scorer.weightsVersion();
+    scorer.updateWeights(weights);
+    assertEquals(version, scorer.weightsVersion());
+
+    // Updated in place
+    weights.setCount(FEATURE_NAME, 1.0);
+    scorer.updateWeights(weights);
+    assertNotEquals(version, scorer.weightsVersion());
+    weights.setCount(FEATURE_NAME, 2.0);
+    scorer.updateWeights(weights);
+
+    // New weights: rescore without a query
+    List<ConcreteRule<IString,String>> rescored = cache.getRules(inferer, source, new InputProperties(), 0, scorer);
+    assertEquals(1, model.numQueries);
+    assertEquals(3, rescored.size());
+    assertEquals(-2.0, rescored.get(0).isolationScore, 1e-6);
+    assertSame(rules.get(0).abstractRule, rescored.get(0).abstractRule);
+    assertEquals(2.0 / 3.0, cache.hitRate(), 1e-9);
+  }
+
+  @Test
+  public void testKeys() {
+    RuleQueryCache<IString,String> cache = new RuleQueryCache<>(2);
+    Sequence<IString> source = IStrings.tokenize("a b c");
+    cache.getRules(inferer, source, new InputProperties(), 0, scorer);
+    cache.getRules(inferer, IStrings.tokenize("a b c"), new InputProperties(), 0, scorer);
+    assertEquals(1, model.numQueries);
+
+    // Input properties that affect the query
+    InputProperties properties = new InputProperties();
+    properties.put(InputProperty.Domain, new String[] { "news" });
+    cache.getRules(inferer, source, properties, 0, scorer);
+    assertEquals(2, model.numQueries);
+    properties = new InputProperties();
+    properties.put(InputProperty.Domain, new String[] { "news" });
+    cache.getRules(inferer, source, properties, 0, scorer);
+    assertEquals(2, model.numQueries);
+
+    // Bounded, and the least recently used entry is evicted
+    cache.getRules(inferer, source, new InputProperties(), 0, scorer);
+    cache.getRules(inferer, IStrings.tokenize("d e"), new InputProperties(), 1, scorer);
+    assertEquals(3, model.numQueries);
+    assertEquals(2, cache.size());
+    cache.getRules(inferer, source, new InputProperties(), 0, scorer);
+    assertEquals(3, model.numQueries);
+    cache.getRules(inferer, source, properties, 0, scorer);
+    assertEquals(4, model.numQueries);
+  }
+}
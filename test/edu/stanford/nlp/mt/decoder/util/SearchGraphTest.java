@@ -0,0 +1,115 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class SearchGraphTest {
+
+  /**
+   * A graph with edges {tail, head, context words, target words, features}. Nodes 2 and 3 are
+   * goal derivations.
+   */
+  private static final Object[][] EDGES = {
+    { 0, 1, "", "a", "f1 1.0" },
+    { 0, 1, "", "b", "f2 1.0" },
+    { 0, 2, "", "a c", "f1 0.5 f3 1.0" },
+    { 1, 3, "a", "c", "f3 1.0" },
+    { 1, 3, "a", "d", "f1 -1.0" },
+    { 2, 3, "a c", "d", "f2 2.0" },
+    { 2, 4, "", "", "" },
+    { 3, 4, "", "", "" },
+  };
+
+  /**
+   * Write a search graph file.
+   *
+   * @return
+   * @throws IOException
+   */
+  public static List<SearchGraph> diamond() throws IOException {
+    File file = File.createTempFile("searchgraph", ".bin");
+    file.deleteOnExit();
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      out.writeInt(0x53475248);
+      out.writeInt(1);
+      for (int sourceInputId : new int[] { 1, 0 }) {
+        out.writeInt(sourceInputId);
+        out.writeInt(5);
+        out.writeInt(EDGES.length);
+        String[] featureNames = { "f1", "f2", "f3" };
+        out.writeInt(featureNames.length);
+        for (String name : featureNames) out.writeUTF(name);
+        String[] vocabulary = { "a", "b", "c", "d" };
+        out.writeInt(vocabulary.length);
+        for (String word : vocabulary) out.writeUTF(word);
+        for (Object[] edge : EDGES) {
+          out.writeInt((Integer) edge[0]);
+          out.writeInt((Integer) edge[1]);
+          String[] context = ((String) edge[2]).isEmpty() ? new String[0] : ((String) edge[2]).split(" ");
+          String[] target = ((String) edge[3]).isEmpty() ? new String[0] : ((String) edge[3]).split(" ");
+          out.writeInt(context.length);
+          out.writeInt(context.length + target.length);
+          for (String word : context) out.writeInt(word.charAt(0) - 'a');
+          for (String word : target) out.writeInt(word.charAt(0) - 'a');
+          String[] features = ((String) edge[4]).isEmpty() ? new String[0] : ((String) edge[4]).split(" ");
+          out.writeInt(features.length / 2);
+          for (int i = 0; i < features.length; i += 2) {
+            out.writeInt(features[i].charAt(1) - '1');
+            out.writeDouble(Double.parseDouble(features[i+1]));
+          }
+        }
+      }
+    }
+    return SearchGraph.load(file.getPath());
+  }
+
+  @Test
+  public void testLoad() throws IOException {
+    List<SearchGraph> graphs = diamond();
+    assertEquals(2, graphs.size());
+    assertEquals(0, graphs.get(0).sourceInputId);
+    assertEquals(1, graphs.get(1).sourceInputId);
+
+    SearchGraph graph = graphs.get(0);
+    assertEquals(5, graph.numNodes());
+    assertEquals(EDGES.length, graph.numEdges());
+    assertEquals(0, graph.root());
+    assertEquals(4, graph.goal());
+    assertEquals(0, graph.firstEdge(1));
+    assertEquals(2, graph.firstEdge(2));
+    assertEquals(6, graph.firstEdge(4));
+    assertEquals(EDGES.length, graph.firstEdge(5));
+    assertEquals(2, graph.tail(5));
+    assertEquals(3, graph.head(5));
+    assertEquals(IStrings.tokenize("a c d"), graph.targetWithContext(5));
+    assertEquals(IStrings.tokenize("d"), graph.target(5));
+    assertEquals(2, graph.contextLength(5));
+    assertEquals(0, graph.target(7).size());
+    assertEquals(2, graph.numFeatures(2));
+    assertEquals("f3", graph.featureName(2, 1));
+    assertEquals(1.0, graph.featureValue(2, 1), 0.0);
+
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("f1", 2.0);
+    weights.setCount("f3", -1.0);
+    double[] scores = graph.edgeScores(weights);
+    assertEquals(2.0, scores[0], 1e-9);
+    assertEquals(0.0, scores[2], 1e-9);
+    assertEquals(-2.0, scores[4], 1e-9);
+    assertEquals(0.0, scores[7], 0.0);
+  }
+}
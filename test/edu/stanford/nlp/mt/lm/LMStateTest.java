@@ -0,0 +1,69 @@
+package edu.stanford.nlp.mt.lm;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Unit test.
+ */
+public class LMStateTest {
+
+  @Test
+  public void testPacked() {
+    int[] query = new int[] { 7, 0, Integer.MAX_VALUE, -1, 42 };
+    KenLMState state = new KenLMState(-1.0, query, 4);
+    assertTrue(state.isPacked());
+    assertEquals(4, state.length());
+    assertArrayEquals(new int[] { 7, 0, Integer.MAX_VALUE, -1 }, state.getState());
+
+    int[] dest = new int[6];
+    state.copyState(dest, 2);
+    assertArrayEquals(new int[] { 0, 0, 7, 0, Integer.MAX_VALUE, -1 }, dest);
+
+    // Only the context is compared
+    KenLMState other = new KenLMState(-2.0, new int[] { 7, 0, Integer.MAX_VALUE, -1, 3 }, 4);
+    assertEquals(state, other);
+    assertEquals(state.hashCode(), other.hashCode());
+    assertEquals(state.longHashCode(), other.longHashCode());
+    assertTrue(state.sameContext(other));
+
+    // Trailing zeros differ from a shorter context
+    KenLMState prefix = new KenLMState(-1.0, new int[] { 7, 0, 0 }, 2);
+    KenLMState zeros = new KenLMState(-1.0, new int[] { 7, 0, 0 }, 3);
+    assertFalse(prefix.sameContext(zeros));
+    assertNotEquals(prefix.longHashCode(), zeros.longHashCode());
+    assertFalse(state.sameContext(new KenLMState(-1.0, new int[] { 7, 0, Integer.MAX_VALUE, -2 }, 4)));
+  }
+
+  @Test
+  public void testUnpacked() {
+    int[] context = new int[] { 1, 2, 3, 4, 5, 6 };
+    NPLMState state = new NPLMState(-1.0, context.clone());
+    assertFalse(state.isPacked());
+    assertArrayEquals(context, state.getState());
+    assertEquals(state, new NPLMState(-3.0, context.clone()));
+    assertNotEquals(state, new NPLMState(-1.0, new int[] { 1, 2, 3, 4, 5, 7 }));
+
+    KenLMState kenState = new KenLMState(-1.0, new int[] { 1, 2, 3, 4, 5, 6, 7 }, 6);
+    assertArrayEquals(context, kenState.getState());
+    assertTrue(kenState.sameContext(new KenLMState(0.0, context, 6)));
+  }
+
+  @Test
+  public void testARPA() {
+    Sequence<IString> context = IStrings.tokenize("the quick brown");
+    ARPALMState state = new ARPALMState(-1.0, context);
+    assertTrue(state.isPacked());
+    assertEquals(3, state.length());
+    assertEquals(state, new ARPALMState(-2.0, IStrings.tokenize("the quick brown")));
+    assertEquals(state, new ARPALMState(-2.0, state));
+    assertNotEquals(state, new ARPALMState(-1.0, IStrings.tokenize("the quick fox")));
+    assertEquals(new ARPALMState(-1.0, IStrings.tokenize("a b c d e f")),
+        new ARPALMState(-1.0, IStrings.tokenize("a b c d e f")));
+  }
+}
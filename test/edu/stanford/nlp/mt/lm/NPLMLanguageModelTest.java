@@ -0,0 +1,190 @@
+package edu.stanford.nlp.mt.lm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.TokenUtils;
+
+/**
+ * Unit test.
+ */
+public class NPLMLanguageModelTest {
+
+  private static final int START_ID = 1;
+
+  /**
+   * Deterministic n-gram scores that count the queries.
+   */
+  private static class TestScorer implements NGramScorer {
+    final int order;
+    int numSingleQueries = 0;
+    int numBatches = 0;
+    int numBatchedQueries = 0;
+    TestScorer(int order) {
+      this.order = order;
+    }
+    @Override
+    public int order() { return order; }
+    @Override
+    public int nplmIndex(String token) { return 2 + (token.hashCode() & 0x7fffffff) % 1000; }
+    @Override
+    public int BeginSentence() { return START_ID; }
+    @Override
+    public double scoreNgram(int[] ngram) {
+      ++numSingleQueries;
+      return score(ngram);
+    }
+    @Override
+    public double[] scoreNgrams(int[][] ngrams) {
+      ++numBatches;
+      numBatchedQueries += ngrams.length;
+      return Arrays.stream(ngrams).mapToDouble(TestScorer::score).toArray();
+    }
+    static double score(int[] ngram) {
+      return -1.0 - (Arrays.hashCode(ngram) & 0x3ff) / 256.0;
+    }
+  }
+
+  /**
+   * A language model query.
+   */
+  private static class Query {
+    final Sequence<IString> sequence;
+    final int startIndex;
+    final int prior;
+    Query(Sequence<IString> sequence, int startIndex, int prior) {
+      this.sequence = sequence;
+      this.startIndex = startIndex;
+      this.prior = prior;
+    }
+  }
+
+  private static Sequence<IString> phrase(Random random, int maxLength) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0, sz = random.nextInt(maxLength + 1); i < sz; ++i) {
+      sb.append(" w").append(random.nextInt(12));
+    }
+    return IStrings.tokenize(sb.toString().trim());
+  }
+
+  /**
+   * Expand hypotheses for several steps. Queries for a step are scored with <code>score()</code>
+   * by the unbatched model, and queued, flushed, and then scored by the batched model.
+   */
+  private static void assertBatchedEqualsUnbatched(int order, int scoreCacheSize) {
+    TestScorer scorer = new TestScorer(order);
+    TestScorer batchScorer = new TestScorer(order);
+    NPLMLanguageModel lm = new NPLMLanguageModel(scorer, "test", scoreCacheSize);
+    NPLMLanguageModel batchLm = new NPLMLanguageModel(batchScorer, "test", scoreCacheSize);
+    Random random = new Random(order);
+
+    List<LMState> states = new ArrayList<>();
+    List<LMState> batchStates = new ArrayList<>();
+    for (int step = 0; step < 4; ++step) {
+      List<Query> queries = new ArrayList<>();
+      if (step == 0) {
+        for (int i = 0; i < 20; ++i) {
+          Sequence<IString> sequence = phrase(random, 4);
+          if (i % 2 == 0) {
+            queries.add(new Query(IStrings.tokenize(TokenUtils.START_TOKEN + " " + sequence), 1, -1));
+          } else {
+            queries.add(new Query(sequence, 0, -1));
+          }
+        }
+      } else {
+        for (int i = 0; i < 30; ++i) {
+          Sequence<IString> sequence = phrase(random, 3);
+          if (step == 3) sequence = IStrings.tokenize(sequence + " " + TokenUtils.END_TOKEN);
+          queries.add(new Query(sequence, 0, random.nextInt(states.size())));
+        }
+        // Duplicate queries
+        queries.add(queries.get(0));
+        queries.add(queries.get(1));
+      }
+
+      for (Query query : queries) {
+        batchLm.queue(query.sequence, query.startIndex,
+            query.prior < 0 ? null : batchStates.get(query.prior));
+      }
+      batchLm.flush();
+
+      List<LMState> nextStates = new ArrayList<>();
+      List<LMState> nextBatchStates = new ArrayList<>();
+      for (Query query : queries) {
+        LMState state = lm.score(query.sequence, query.startIndex,
+            query.prior < 0 ? null : states.get(query.prior));
+        LMState batchState = batchLm.score(query.sequence, query.startIndex,
+            query.prior < 0 ? null : batchStates.get(query.prior));
+        assertEquals(state.getScore(), batchState.getScore(), 0.0);
+        assertEquals(state, batchState);
+        assertEquals(state.hashCode(), batchState.hashCode());
+        assertArrayEquals(((NPLMState) state).getState(), ((NPLMState) batchState).getState());
+        nextStates.add(state);
+        nextBatchStates.add(batchState);
+      }
+      states = nextStates;
+      batchStates = nextBatchStates;
+    }
+    assertTrue(batchScorer.numBatchedQueries > 0);
+    assertEquals(4, batchScorer.numBatches);
+    if (scoreCacheSize >= batchScorer.numBatchedQueries) {
+      // Every query was answered by a batch
+      assertEquals(0, batchScorer.numSingleQueries);
+    }
+  }
+
+  @Test
+  public void testBatchedScores() {
+    assertBatchedEqualsUnbatched(3, NPLMLanguageModel.DEFAULT_SCORE_CACHE_SIZE);
+  }
+
+  @Test
+  public void testBatchedScoresUnpackedState() {
+    // Contexts of 6 words are not packed
+    assertBatchedEqualsUnbatched(7, NPLMLanguageModel.DEFAULT_SCORE_CACHE_SIZE);
+  }
+
+  @Test
+  public void testBatchedScoresSmallCache() {
+    // Batched scores are evicted before they are read
+    assertBatchedEqualsUnbatched(3, 8);
+  }
+
+  @Test
+  public void testQueue() {
+    TestScorer scorer = new TestScorer(3);
+    NPLMLanguageModel lm = new NPLMLanguageModel(scorer, "test", 1024);
+    Sequence<IString> sequence = IStrings.tokenize(TokenUtils.START_TOKEN + " a b c");
+    lm.queue(sequence, 1, null);
+    lm.queue(sequence, 1, null);
+    lm.flush();
+    assertEquals(1, scorer.numBatches);
+    assertEquals(3, scorer.numBatchedQueries);
+
+    // Cached n-grams are not queued again
+    lm.queue(sequence, 1, null);
+    lm.flush();
+    assertEquals(1, scorer.numBatches);
+    LMState state = lm.score(sequence, 1, null);
+    assertEquals(0, scorer.numSingleQueries);
+
+    // The context is the last order-1 words
+    LMState other = lm.score(IStrings.tokenize("x b c"), 0, null);
+    assertEquals(state, other);
+    assertEquals(state.hashCode(), other.hashCode());
+    assertNotEquals(state.getScore(), other.getScore(), 0.0);
+    assertNotEquals(state, lm.score(IStrings.tokenize("b c d"), 0, null));
+
+    // Source deletion
+    assertSame(state, lm.score(IStrings.tokenize(""), 0, state));
+  }
+}
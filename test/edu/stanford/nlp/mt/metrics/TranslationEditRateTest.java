@@ -0,0 +1,119 @@
+package edu.stanford.nlp.mt.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.bbn.mt.terp.TERcalc;
+import com.bbn.mt.terp.TERcost;
+
+import edu.stanford.nlp.mt.util.ArraySequence;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Unit test.
+ */
+public class TranslationEditRateTest {
+
+  private static final String[] WORDS = ("the The a cat Cat dog sat on mat rug quickly slowly " +
+      "U.S. u.s. economy economy, , . 's \" -- 1,000").split(" ");
+
+  private static Sequence<IString> sentence(Random random, int length) {
+    String[] tokens = new String[length];
+    for (int i = 0; i < length; ++i) tokens[i] = WORDS[random.nextInt(WORDS.length)];
+    return IStrings.toIStringSequence(tokens);
+  }
+
+  /**
+   * A reference with a few words swapped, substituted, and dropped.
+   */
+  private static Sequence<IString> perturb(Random random, Sequence<IString> reference) {
+    List<IString> tokens = new ArrayList<>();
+    for (IString token : reference) tokens.add(token);
+    for (int k = random.nextInt(4); k > 0 && tokens.size() > 1; --k) {
+      int start = random.nextInt(tokens.size());
+      int end = Math.min(tokens.size(), start + 1 + random.nextInt(3));
+      List<IString> block = new ArrayList<>(tokens.subList(start, end));
+      tokens.subList(start, end).clear();
+      tokens.addAll(random.nextInt(tokens.size() + 1), block);
+    }
+    if (random.nextBoolean() && tokens.size() > 0) tokens.set(random.nextInt(tokens.size()), new IString(WORDS[random.nextInt(WORDS.length)]));
+    if (random.nextBoolean() && tokens.size() > 0) tokens.remove(random.nextInt(tokens.size()));
+    Collections.shuffle(tokens.subList(0, random.nextInt(tokens.size() + 1) / 4), random);
+    return new ArraySequence<>(tokens);
+  }
+
+  private static double jarEdits(Sequence<IString> hypothesis, Sequence<IString> reference) {
+    TERcalc calc = new TERcalc(new TERcost());
+    calc.BEAM_WIDTH = TranslationEditRate.DEFAULT_BEAM_WIDTH;
+    return calc.TER(hypothesis.toString(), reference.toString()).numEdits;
+  }
+
+  @Test
+  public void testExamples() {
+    TranslationEditRate ter = new TranslationEditRate();
+    TranslationEditRate.Reference reference = new TranslationEditRate.Reference(IStrings.tokenize("the cat sat on the mat"));
+    assertEquals(0, ter.edits(TranslationEditRate.toIds(IStrings.tokenize("the cat sat on the mat")), reference));
+    assertEquals(1, ter.edits(TranslationEditRate.toIds(IStrings.tokenize("the dog sat on the mat")), reference));
+    assertEquals(1, ter.edits(TranslationEditRate.toIds(IStrings.tokenize("on the mat the cat sat")), reference));
+    assertEquals(6, ter.edits(new int[0], reference));
+    assertEquals(2, ter.edits(TranslationEditRate.toIds(IStrings.tokenize("a b")), new TranslationEditRate.Reference(new int[0])));
+
+    // Case-insensitive like the jar
+    reference = new TranslationEditRate.Reference(IStrings.tokenize("the cat sat ."));
+    assertEquals(0, ter.edits(TranslationEditRate.toIds(IStrings.tokenize("The cat sat .")), reference));
+    assertEquals(1, ter.edits(TranslationEditRate.toIds(IStrings.tokenize("The cat sat ."), false),
+        new TranslationEditRate.Reference(IStrings.tokenize("the cat sat ."), false)));
+    assertEquals(2, ter.edits(TranslationEditRate.toIds(IStrings.tokenize("the U.S. economy , grew")),
+        new TranslationEditRate.Reference(IStrings.tokenize("the u.s. economy, grew"))));
+  }
+
+  @Test
+  public void testLowercaseIds() {
+    // More word types than the initial size of the lowercase id table, from several threads
+    final int numTypes = 10000;
+    IntStream.range(0, numTypes).parallel().forEach(i -> {
+      int[] ids = TranslationEditRate.toIds(IStrings.tokenize("W" + i + " w" + i + " W" + i));
+      assertEquals(new IString("w" + i).id, ids[0]);
+      assertEquals(ids[0], ids[1]);
+      assertEquals(ids[0], ids[2]);
+    });
+    assertArrayEquals(TranslationEditRate.toIds(IStrings.tokenize("w17 W9999")),
+        TranslationEditRate.toIds(IStrings.tokenize("W17 w9999")));
+  }
+
+  @Test
+  public void testAgreesWithJar() {
+    Random random = new Random(17);
+    TranslationEditRate ter = new TranslationEditRate();
+    for (int n = 0; n < 2000; ++n) {
+      Sequence<IString> reference = sentence(random, 1 + random.nextInt(25));
+      Sequence<IString> hypothesis = random.nextInt(4) == 0 ? sentence(random, random.nextInt(25)) :
+        perturb(random, reference);
+      int edits = ter.edits(TranslationEditRate.toIds(hypothesis), new TranslationEditRate.Reference(reference));
+      assertEquals(hypothesis + " ||| " + reference, jarEdits(hypothesis, reference), edits, 0.0);
+    }
+  }
+
+  @Test
+  public void testSentenceLevelMetric() {
+    Random random = new Random(3);
+    SLTERMetric<IString,String> metric = new SLTERMetric<>();
+    for (int n = 0; n < 200; ++n) {
+      List<Sequence<IString>> references = new ArrayList<>();
+      references.add(sentence(random, 5 + random.nextInt(10)));
+      references.add(perturb(random, references.get(0)));
+      Sequence<IString> hypothesis = perturb(random, references.get(random.nextInt(2)));
+      double expected = Math.min(jarEdits(hypothesis, references.get(0)), jarEdits(hypothesis, references.get(1)));
+      assertEquals(-expected, metric.score(n % 7, null, references, hypothesis), 0.0);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+package edu.stanford.nlp.mt.preordering;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.nlp.classify.LogisticClassifier;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.mt.tools.deplm.DependencyUtils;
+import edu.stanford.nlp.mt.util.AbstractWordClassMap;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.TokenUtils;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.Pair;
+
+/**
+ * Unit test.
+ */
+public class DependencyBnBPreordererTest {
+
+  private static final String[] TAGS = { "NN", "VB", "DT", "JJ", "IN" };
+  private static final String[] RELS = { "nsubj", "dobj", "det", "amod", "prep", "pobj" };
+  private static final int VOCAB_SIZE = 12;
+
+  private static List<HashMap<Integer, Pair<IndexedWord, List<Integer>>>> sentences;
+  private static DependencyBnBPreorderer preorderer;
+  private static LogisticClassifier<Integer, String> classifier;
+
+  // Words are looked up as lowercased word/tag strings
+  private static String key(String word, String tag) {
+    return (word + "/" + tag).toLowerCase();
+  }
+
+  private static class TestClassMap extends AbstractWordClassMap {
+    TestClassMap() {
+      wordToClass = new HashMap<>();
+      numMappings = 1;
+      for (int i = 0; i < VOCAB_SIZE; ++i) {
+        for (String tag : TAGS) {
+          wordToClass.put(new IString(key("w" + i, tag)), Collections.singletonList(new IString("c" + (i % 3))));
+        }
+      }
+      wordToClass.put(TokenUtils.UNK_TOKEN, Collections.singletonList(new IString("cu")));
+    }
+  }
+
+  /**
+   * A random dependency tree in CoNLL format.
+   */
+  private static String conll(Random random, int length) {
+    List<Integer> order = new ArrayList<>();
+    for (int i = 1; i <= length; ++i) order.add(i);
+    Collections.shuffle(order, random);
+    int[] heads = new int[length + 1];
+    for (int k = 1; k < length; ++k) {
+      heads[order.get(k)] = order.get(random.nextInt(k));
+    }
+    StringBuilder sb = new StringBuilder();
+    for (int i = 1; i <= length; ++i) {
+      String tag = TAGS[random.nextInt(TAGS.length)];
+      String rel = heads[i] == 0 ? "root" : RELS[random.nextInt(RELS.length)];
+      // Words outside the class map, and frequent words with the separator of the cross features
+      String word = random.nextInt(8) == 0 ? "x_r:" + random.nextInt(4) : "w" + random.nextInt(VOCAB_SIZE);
+      sb.append(String.format("%d\t%s\t_\t%s\t%s\t_\t%d\t%s%n", i, word, tag, tag, heads[i], rel));
+    }
+    return sb.toString();
+  }
+
+  private static List<Tree> internalNodes(Tree tree) {
+    List<Tree> nodes = new ArrayList<>();
+    for (Tree node : tree) if ( ! node.isLeaf()) nodes.add(node);
+    return nodes;
+  }
+
+  /**
+   * Random sentences, and a classifier with random weights for the features of the sentences.
+   * Some features are left out of the classifier.
+   */
+  @BeforeClass
+  public static void setUp() {
+    Random random = new Random(5);
+    sentences = new ArrayList<>();
+    for (int n = 0; n < 200; ++n) {
+      BufferedReader reader = new BufferedReader(new StringReader(conll(random, 2 + random.nextInt(10))));
+      sentences.add(DependencyUtils.getDependenciesFromCoNLLFileReader(reader, false, false));
+    }
+    Set<String> mostFrequentTokens = new HashSet<>();
+    for (String tag : TAGS) {
+      mostFrequentTokens.add(key("w0", tag));
+      mostFrequentTokens.add(key("x_r:0", tag));
+      mostFrequentTokens.add(key("x_r:1", tag));
+    }
+    DependencyBnBPreorderer extractor = new DependencyBnBPreorderer(new TestClassMap(),
+        mostFrequentTokens, null);
+    Index<String> featureIndex = new HashIndex<>();
+    for (HashMap<Integer, Pair<IndexedWord, List<Integer>>> dependencies : sentences) {
+      for (Tree node : internalNodes(DependencyBnBPreorderer.generateShallowTree(dependencies))) {
+        IndexedWord hw = (IndexedWord) node.label();
+        for (Tree a : node.children()) {
+          for (Tree b : node.children()) {
+            if (a == b) continue;
+            for (String feature : extractor.pairFeatures(a, b, hw)) {
+              if (random.nextInt(10) != 0) featureIndex.add(feature);
+            }
+          }
+        }
+      }
+    }
+    double[] weights = new double[featureIndex.size()];
+    for (int i = 0; i < weights.length; ++i) weights[i] = random.nextGaussian();
+    classifier = new LogisticClassifier<>(weights, featureIndex, new Integer[] { -1, 1 });
+    preorderer = new DependencyBnBPreorderer(new TestClassMap(), mostFrequentTokens, classifier);
+  }
+
+  /**
+   * The permutation search before memoization, which scores every permutation with
+   * the classifier.
+   */
+  private static int[] exhaustiveSearch(Tree node) {
+    Tree[] children = node.children();
+    IndexedWord hw = (IndexedWord) node.label();
+    ExhaustiveResult result = new ExhaustiveResult();
+    exhaustiveSearch(children, hw, new int[children.length], 0, new boolean[children.length], result);
+    return result.permutation;
+  }
+
+  private static class ExhaustiveResult {
+    double score = Double.NEGATIVE_INFINITY;
+    int[] permutation = null;
+  }
+
+  private static void exhaustiveSearch(Tree[] children, IndexedWord hw, int[] permutation,
+      int length, boolean[] used, ExhaustiveResult result) {
+    if (length == permutation.length) {
+      double score = 0.0;
+      for (int i = 0; i < length; ++i) {
+        for (int j = i + 1; j < length; ++j) {
+          double p = classifier.probabilityOf(preorderer.pairFeatures(children[permutation[i]],
+              children[permutation[j]], hw), 1);
+          score += permutation[i] > permutation[j] ? Math.log(p) : Math.log(1 - p);
+        }
+      }
+      if (score > result.score) {
+        result.score = score;
+        result.permutation = permutation.clone();
+      }
+      return;
+    }
+    for (int i = 0; i < permutation.length; ++i) {
+      if (used[i]) continue;
+      used[i] = true;
+      permutation[length] = i;
+      exhaustiveSearch(children, hw, permutation, length + 1, used, result);
+      used[i] = false;
+    }
+  }
+
+  @Test
+  public void testProbabilities() {
+    int numCrossFeatures = 0;
+    for (HashMap<Integer, Pair<IndexedWord, List<Integer>>> dependencies : sentences) {
+      for (Tree node : internalNodes(DependencyBnBPreorderer.generateShallowTree(dependencies))) {
+        IndexedWord hw = (IndexedWord) node.label();
+        for (Tree a : node.children()) {
+          for (Tree b : node.children()) {
+            if (a == b) continue;
+            List<String> features = preorderer.pairFeatures(a, b, hw);
+            for (String feature : features) {
+              if (feature.contains("x_r:") && feature.contains("_r:t:")) ++numCrossFeatures;
+            }
+            assertEquals(classifier.probabilityOf(features, 1), preorderer.probabilityOfSwap(a, b, hw), 1e-12);
+          }
+        }
+      }
+    }
+    // Cross features whose left part contains the separator
+    assertTrue(numCrossFeatures > 0);
+  }
+
+  @Test
+  public void testSearchEqualsExhaustiveSearch() {
+    int numNodes = 0;
+    for (HashMap<Integer, Pair<IndexedWord, List<Integer>>> dependencies : sentences) {
+      for (Tree node : internalNodes(DependencyBnBPreorderer.generateShallowTree(dependencies))) {
+        if (node.children().length > 6) continue;
+        assertArrayEquals(exhaustiveSearch(node), preorderer.permutation(node));
+        if (node.children().length > 2) ++numNodes;
+      }
+    }
+    assertTrue(numNodes > 50);
+  }
+
+  @Test
+  public void testBatchEqualsSequential() {
+    List<String> expected = new ArrayList<>();
+    for (HashMap<Integer, Pair<IndexedWord, List<Integer>>> dependencies : sentences) {
+      expected.add(preorderer.preorder(dependencies));
+    }
+    assertEquals(expected, preorderer.preorder(sentences, 4));
+    assertEquals(expected, preorderer.preorder(sentences, 1));
+  }
+}
@@ -0,0 +1,139 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
+import edu.stanford.nlp.mt.decoder.feat.Featurizer;
+import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.base.TranslationModelFeaturizer;
+import edu.stanford.nlp.mt.decoder.util.Scorer;
+import edu.stanford.nlp.mt.decoder.util.SparseScorer;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.PhraseAlignment;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class CombinedTranslationModelTest {
+
+  private static final String SCORE_NAME = CompiledPhraseTable.DEFAULT_FEATURE_PREFIX + ".0";
+
+  /**
+   * Translation model with a random number of randomly scored rules per span.
+   */
+  private static class RandomModel implements TranslationModel<IString,String> {
+    private final long seed;
+    private RuleFeaturizer<IString,String> featurizer;
+
+    public RandomModel(long seed) { this.seed = seed; }
+
+    @Override
+    public List<ConcreteRule<IString,String>> getRules(Sequence<IString> source,
+        InputProperties sourceInputProperties, int sourceInputId, Scorer<String> scorer) {
+      Random random = new Random(seed);
+      List<ConcreteRule<IString,String>> ruleList = new ArrayList<>();
+      for (int i = 0; i < source.size(); ++i) {
+        for (int j = i + 1; j <= Math.min(source.size(), i + 2); ++j) {
+          CoverageSet coverage = new CoverageSet(source.size());
+          coverage.set(i, j);
+          for (int n = 0, sz = random.nextInt(30); n < sz; ++n) {
+            Rule<IString> rule = new Rule<>(random.nextInt(1 << 20), new float[] { -random.nextInt(100) },
+                new String[] { SCORE_NAME }, source.subsequence(i, j), source.subsequence(i, j),
+                PhraseAlignment.getPhraseAlignment("I-I"), "test");
+            ruleList.add(new ConcreteRule<>(rule, coverage, featurizer, scorer, source, sourceInputId,
+                sourceInputProperties));
+          }
+        }
+      }
+      // Not sorted
+      Collections.shuffle(ruleList, random);
+      return ruleList;
+    }
+    @Override
+    public Object clone() throws CloneNotSupportedException { return super.clone(); }
+    @Override
+    public int maxLengthSource() { return 2; }
+    @Override
+    public int maxLengthTarget() { return 2; }
+    @Override
+    public void setFeaturizer(RuleFeaturizer<IString,String> featurizer) { this.featurizer = featurizer; }
+    @Override
+    public List<String> getFeatureNames() { return Collections.singletonList(SCORE_NAME); }
+    @Override
+    public String getName() { return "test"; }
+    @Override
+    public void setName(String name) {}
+  }
+
+  /**
+   * Reference merge by sorting all rules of each span.
+   */
+  private static Map<CoverageSet,List<ConcreteRule<IString,String>>> reference(
+      List<TranslationModel<IString,String>> models, Sequence<IString> source, Scorer<String> scorer,
+      int queryLimit) {
+    Map<CoverageSet,List<ConcreteRule<IString,String>>> spanRules = new HashMap<>();
+    for (TranslationModel<IString,String> model : models) {
+      for (ConcreteRule<IString,String> rule : model.getRules(source, new InputProperties(), 0, scorer)) {
+        spanRules.computeIfAbsent(rule.sourceCoverage, k -> new ArrayList<>()).add(rule);
+      }
+    }
+    for (CoverageSet coverage : spanRules.keySet()) {
+      List<ConcreteRule<IString,String>> rules = spanRules.get(coverage);
+      Collections.sort(rules);
+      spanRules.put(coverage, new ArrayList<>(rules.subList(0, Math.min(queryLimit, rules.size()))));
+    }
+    return spanRules;
+  }
+
+  @Test
+  public void testTopK() {
+    List<Featurizer<IString,String>> featurizers = new ArrayList<>();
+    featurizers.add(new TranslationModelFeaturizer());
+    FeatureExtractor<IString,String> featurizer = new FeatureExtractor<>(featurizers);
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount(TranslationModelFeaturizer.toTMFeature(SCORE_NAME), 1.0);
+    Scorer<String> scorer = new SparseScorer(weights);
+
+    List<TranslationModel<IString,String>> models = Arrays.asList(new RandomModel(1), new RandomModel(2),
+        new RandomModel(3));
+    Sequence<IString> source = IStrings.tokenize("a b c d e f");
+    for (int queryLimit : new int[] { 1, 5, 20, 100 }) {
+      CombinedTranslationModel<IString,String> tm = new CombinedTranslationModel<>(models, queryLimit);
+      tm.setFeaturizer(featurizer);
+      Map<CoverageSet,List<ConcreteRule<IString,String>>> expected = reference(models, source, scorer,
+          queryLimit);
+
+      List<ConcreteRule<IString,String>> rules = tm.getRules(source, new InputProperties(), 0, scorer);
+      Map<CoverageSet,List<ConcreteRule<IString,String>>> actual = new HashMap<>();
+      for (ConcreteRule<IString,String> rule : rules) {
+        actual.computeIfAbsent(rule.sourceCoverage, k -> new ArrayList<>()).add(rule);
+      }
+      assertEquals(expected.keySet(), actual.keySet());
+      for (CoverageSet coverage : expected.keySet()) {
+        List<ConcreteRule<IString,String>> expectedRules = expected.get(coverage);
+        List<ConcreteRule<IString,String>> actualRules = actual.get(coverage);
+        assertEquals(expectedRules.size(), actualRules.size());
+        for (int i = 0; i < expectedRules.size(); ++i) {
+          assertEquals(expectedRules.get(i).abstractRule.id, actualRules.get(i).abstractRule.id);
+          assertEquals(expectedRules.get(i).isolationScore, actualRules.get(i).isolationScore, 1e-9);
+        }
+      }
+    }
+  }
+}
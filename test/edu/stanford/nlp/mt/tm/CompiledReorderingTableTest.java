@@ -0,0 +1,96 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Unit test.
+ */
+public class CompiledReorderingTableTest {
+
+  private static final String[] RULES = { "a b ||| x y", "a ||| x", "b ||| y z", "c ||| w" };
+
+  private static File write(String prefix, String[] lines) throws IOException {
+    File file = File.createTempFile(prefix, ".txt");
+    file.deleteOnExit();
+    try (PrintStream out = new PrintStream(file, "UTF-8")) {
+      for (String line : lines) out.println(line);
+    }
+    return file;
+  }
+
+  private static CompiledPhraseTable<String> makePhraseTable() throws IOException {
+    return makePhraseTable(RULES);
+  }
+
+  private static CompiledPhraseTable<String> makePhraseTable(String[] rules) throws IOException {
+    String[] lines = new String[rules.length];
+    for (int i = 0; i < rules.length; ++i) lines[i] = rules[i] + " ||| ||| ||| 0.5 0.5";
+    return new CompiledPhraseTable<>(write("ptable", lines).getPath());
+  }
+
+  private static Rule<IString> rule(PhraseTable<IString> phraseTable, String source, String target) {
+    Sequence<IString> src = IStrings.toIStringSequence(source.split(" "));
+    Sequence<IString> tgt = IStrings.toIStringSequence(target.split(" "));
+    return new Rule<>(phraseTable.getId(src, tgt), new float[0], new String[0], tgt, src, null, "");
+  }
+
+  @Test
+  public void testCompile() throws IOException {
+    CompiledPhraseTable<String> phraseTable = makePhraseTable();
+    // The last rule has no reordering scores
+    String[] lines = new String[RULES.length - 1];
+    for (int i = 0; i < lines.length; ++i) {
+      lines[i] = String.format("%s ||| 0.%d 0.2 0.3 0.4 0.5 0.6", RULES[i], i + 1);
+    }
+    File textFile = write("reordering", lines);
+    final String filetype = "msd-bidirectional-fe";
+    LexicalReorderingTable textTable = new LexicalReorderingTable(textFile.getPath(), phraseTable, filetype);
+    assertFalse(CompiledReorderingTable.isCompiled(textFile.getPath()));
+
+    File compiledFile = File.createTempFile("reordering", ".bin");
+    compiledFile.deleteOnExit();
+    textTable.getCompiledTable().save(compiledFile.getPath());
+    assertTrue(CompiledReorderingTable.isCompiled(compiledFile.getPath()));
+    LexicalReorderingTable compiledTable = new LexicalReorderingTable(compiledFile.getPath(), phraseTable,
+        filetype);
+    assertEquals(filetype, compiledTable.filetype);
+
+    for (LexicalReorderingTable table : new LexicalReorderingTable[] { textTable, compiledTable }) {
+      Rule<IString> rule = rule(phraseTable, "b", "y z");
+      assertArrayEquals(new float[] { 0.3f, 0.2f, 0.3f, 0.4f, 0.5f, 0.6f }, table.getReorderingScores(rule), 0.0f);
+      int index = table.getReorderingIndex(rule);
+      assertTrue(index >= 0);
+      assertEquals(0.1f, table.getReorderingScore(table.getReorderingIndex(rule(phraseTable, "a b", "x y")), 0), 0.0f);
+      assertEquals(0.6f, table.getReorderingScore(index, 5), 0.0f);
+
+      Rule<IString> missing = rule(phraseTable, "c", "w");
+      assertEquals(-1, table.getReorderingIndex(missing));
+      assertNull(table.getReorderingScores(missing));
+    }
+
+    // Compiled for a different model
+    try {
+      new ExtendedLexicalReorderingTable(compiledFile.getPath(), phraseTable, "msd2-bidirectional-fe");
+      fail();
+    } catch (RuntimeException e) {}
+
+    // Compiled for a different phrase table with the same number of rules
+    CompiledPhraseTable<String> otherTable = makePhraseTable(new String[] { RULES[1], RULES[0], RULES[2], RULES[3] });
+    assertEquals(phraseTable.signature(), makePhraseTable().signature());
+    assertNotEquals(phraseTable.signature(), otherTable.signature());
+    try {
+      new LexicalReorderingTable(compiledFile.getPath(), otherTable, filetype);
+      fail();
+    } catch (IOException e) {}
+  }
+}
@@ -0,0 +1,68 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
+import edu.stanford.nlp.mt.decoder.util.SparseScorer;
+import edu.stanford.nlp.mt.tm.DTUTable.Match;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+
+/**
+ * Unit test.
+ */
+public class DTUTableTest {
+
+  private static DTUTable<String> makeTable(String... rules) throws IOException {
+    File file = File.createTempFile("dtutable", ".txt");
+    file.deleteOnExit();
+    try (PrintStream out = new PrintStream(file, "UTF-8")) {
+      for (String rule : rules) out.println(rule + " ||| ||| ||| 0.5 0.5");
+    }
+    return new DTUTable<>(file.getPath());
+  }
+
+  private static void assertMatch(Match match, String foreign, int... coverage) {
+    assertEquals(foreign, IStrings.toIStringSequence(match.foreign).toString());
+    assertEquals(coverage.length, match.coverage.cardinality());
+    for (int i : coverage) assertTrue(match.coverage.get(i));
+  }
+
+  @Test
+  public void testMatch() throws IOException {
+    DTUTable<String> table = makeTable("a b ||| v w", "b ||| w", "a X c ||| u X x", "a X e ||| u y",
+        "c X e ||| x y", "d a ||| z");
+    Sequence<IString> source = IStrings.tokenize("a b c d e");
+    List<Match> matches = table.match(source);
+    assertEquals(5, matches.size());
+    assertMatch(matches.get(0), "a b", 0, 1);
+    assertMatch(matches.get(1), "a X c", 0, 2);
+    assertMatch(matches.get(2), "a X e", 0, 4);
+    assertMatch(matches.get(3), "b", 1);
+    assertMatch(matches.get(4), "c X e", 2, 4);
+
+    table.setFeaturizer(new FeatureExtractor<>(new ArrayList<>()));
+    List<ConcreteRule<IString,String>> rules = table.getRules(source, new InputProperties(), 0,
+        new SparseScorer(new ClassicCounter<>()));
+    assertEquals(5, rules.size());
+    assertTrue(rules.get(1).abstractRule instanceof DTURule);
+    assertEquals(2, ((DTURule<IString>) rules.get(1).abstractRule).dtus.length);
+    assertFalse(rules.get(2).abstractRule instanceof DTURule);
+    assertEquals("a X e", rules.get(2).abstractRule.source.toString());
+
+    // Gaps cannot start or end the source
+    assertEquals(0, table.match(IStrings.tokenize("a e")).size());
+    assertEquals(0, table.match(IStrings.tokenize("x y")).size());
+  }
+}
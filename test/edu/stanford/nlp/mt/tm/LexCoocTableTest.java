@@ -0,0 +1,145 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.ParallelCorpus;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray;
+
+/**
+ * Unit test.
+ */
+public class LexCoocTableTest {
+
+  private static final int MARGINALIZE = Integer.MIN_VALUE;
+  private static final int VOCAB_SIZE = 30;
+
+  private static ParallelSuffixArray makeBitext(int numSentences, Random random) {
+    ParallelCorpus corpus = new ParallelCorpus();
+    for (int n = 0; n < numSentences; ++n) {
+      int srcLength = 1 + random.nextInt(10);
+      int tgtLength = 1 + random.nextInt(10);
+      StringBuilder source = new StringBuilder();
+      for (int i = 0; i < srcLength; ++i) source.append(" s").append(random.nextInt(VOCAB_SIZE));
+      StringBuilder target = new StringBuilder();
+      for (int i = 0; i < tgtLength; ++i) target.append(" t").append(random.nextInt(VOCAB_SIZE));
+      // Leave some words unaligned
+      StringBuilder align = new StringBuilder("0-0");
+      for (int i = 1; i < srcLength; ++i) {
+        if (random.nextInt(4) > 0) align.append(" ").append(i).append("-").append(random.nextInt(tgtLength));
+      }
+      corpus.add(source.toString().trim(), target.toString().trim(), align.toString());
+    }
+    return new ParallelSuffixArray(corpus);
+  }
+
+  /**
+   * Sequential reference count.
+   */
+  private static Map<Long,Integer> count(ParallelSuffixArray sa) {
+    Map<Long,Integer> counts = new HashMap<>();
+    sa.stream().forEach(s -> {
+      for (int i = 0; i < s.sourceLength(); ++i) {
+        if (s.isSourceUnaligned(i)) {
+          add(counts, s.source(i), LexCoocTable.NULL_ID);
+        } else {
+          for (int j : s.f2e(i)) add(counts, s.source(i), s.target(j));
+        }
+      }
+      for (int i = 0; i < s.targetLength(); ++i) {
+        if (s.isTargetUnaligned(i)) add(counts, LexCoocTable.NULL_ID, s.target(i));
+      }
+    });
+    return counts;
+  }
+
+  private static void add(Map<Long,Integer> counts, int srcId, int tgtId) {
+    counts.merge(LexCoocTable.pack(srcId, tgtId), 1, Integer::sum);
+    counts.merge(LexCoocTable.pack(MARGINALIZE, tgtId), 1, Integer::sum);
+    counts.merge(LexCoocTable.pack(srcId, MARGINALIZE), 1, Integer::sum);
+  }
+
+  private static void assertCounts(Map<Long,Integer> expected, LexCoocTable table, int vocabSize) {
+    assertEquals(expected.size(), table.size());
+    int[] ids = new int[vocabSize + 2];
+    for (int i = 0; i < vocabSize; ++i) ids[i] = i;
+    ids[vocabSize] = LexCoocTable.NULL_ID;
+    ids[vocabSize + 1] = MARGINALIZE;
+    for (int srcId : ids) {
+      for (int tgtId : ids) {
+        if (srcId == MARGINALIZE && tgtId == MARGINALIZE) continue;
+        int count = expected.getOrDefault(LexCoocTable.pack(srcId, tgtId), 0);
+        assertEquals(count, table.getJointCount(srcId, tgtId));
+      }
+      if (srcId != MARGINALIZE) {
+        assertEquals((int) expected.getOrDefault(LexCoocTable.pack(srcId, MARGINALIZE), 0),
+            table.getSrcMarginal(srcId));
+        assertEquals((int) expected.getOrDefault(LexCoocTable.pack(MARGINALIZE, srcId), 0),
+            table.getTgtMarginal(srcId));
+      }
+    }
+    // Ids outside of the vocabulary
+    assertEquals(0, table.getJointCount(vocabSize + 100, 0));
+    assertEquals(0, table.getJointCount(-5, 0));
+    assertEquals(0, table.getSrcMarginal(Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testBuild() {
+    ParallelSuffixArray sa = makeBitext(500, new Random(3));
+    LexCoocTable table = LexCoocTable.build(sa);
+    assertCounts(count(sa), table, sa.getVocabulary().size());
+  }
+
+  @Test
+  public void testSegments() throws IOException {
+    ParallelSuffixArray sa = makeBitext(300, new Random(7));
+    LexCoocTable table = LexCoocTable.build(sa);
+    File file = File.createTempFile("cooc", ".bin");
+    file.deleteOnExit();
+    table.save(file.getPath(), 7L);
+    LexCoocTable segmented = LexCoocTable.load(file.getPath(), 7L, 3);
+    assertCounts(count(sa), segmented, sa.getVocabulary().size());
+
+    // Round trip through a segmented table
+    File file2 = File.createTempFile("cooc", ".bin");
+    file2.deleteOnExit();
+    segmented.save(file2.getPath(), 7L);
+    assertCounts(count(sa), LexCoocTable.load(file2.getPath(), 7L), sa.getVocabulary().size());
+  }
+
+  @Test
+  public void testEmpty() {
+    LexCoocTable table = LexCoocTable.build(new ParallelSuffixArray(new ParallelCorpus()));
+    assertEquals(0, table.size());
+    assertEquals(0, table.getJointCount(0, 0));
+    assertEquals(0, table.getTgtMarginal(LexCoocTable.NULL_ID));
+  }
+
+  @Test
+  public void testSaveLoad() throws IOException {
+    ParallelSuffixArray sa = makeBitext(200, new Random(5));
+    LexCoocTable table = LexCoocTable.build(sa);
+    File file = File.createTempFile("cooc", ".bin");
+    file.deleteOnExit();
+    table.save(file.getPath(), 42L);
+
+    LexCoocTable mapped = LexCoocTable.load(file.getPath(), 42L);
+    assertNotNull(mapped);
+    assertCounts(count(sa), mapped, sa.getVocabulary().size());
+
+    // Many small segments
+    assertCounts(count(sa), LexCoocTable.load(file.getPath(), 42L, 4), sa.getVocabulary().size());
+
+    // Saved for a different bitext
+    assertNull(LexCoocTable.load(file.getPath(), 43L));
+    assertNull(LexCoocTable.load(file.getPath() + ".missing", 42L));
+  }
+}
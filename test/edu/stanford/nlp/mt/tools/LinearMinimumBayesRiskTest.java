@@ -0,0 +1,62 @@
+package edu.stanford.nlp.mt.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
+import edu.stanford.nlp.mt.decoder.util.SearchGraphTest;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class LinearMinimumBayesRiskTest {
+
+  @Test
+  public void testConsensus() {
+    LinearMinimumBayesRisk mbr = new LinearMinimumBayesRisk(1.0,
+        LinearMinimumBayesRisk.DEFAULT_PRECISION, LinearMinimumBayesRisk.DEFAULT_RATIO);
+    List<Sequence<IString>> translations = new ArrayList<>();
+    translations.add(IStrings.tokenize("x y z w"));
+    translations.add(IStrings.tokenize("a b c d"));
+    translations.add(IStrings.tokenize("a b c e"));
+    double[] modelScores = { 0.5, 0.4, 0.4 };
+    double[] gains = mbr.expectedGains(translations, modelScores);
+    assertEquals(3, gains.length);
+    // The model prefers the outlier, but the other entries share n-grams
+    assertTrue(gains[1] > gains[0]);
+    assertEquals(gains[1], gains[2], 1e-9);
+
+    // A single entry is its own evidence
+    double[] single = mbr.expectedGains(translations.subList(0, 1), new double[] { -3.0 });
+    double[] again = mbr.expectedGains(translations.subList(0, 1), new double[] { 2.0 });
+    assertEquals(single[0], again[0], 1e-9);
+  }
+
+  @Test
+  public void testDecode() throws IOException {
+    SearchGraph graph = SearchGraphTest.diamond().get(0);
+    LinearMinimumBayesRisk mbr = new LinearMinimumBayesRisk(1.0,
+        LinearMinimumBayesRisk.DEFAULT_PRECISION, LinearMinimumBayesRisk.DEFAULT_RATIO);
+    // Nearly all mass on "a c d"
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("f2", 20.0);
+    weights.setCount("f3", 20.0);
+    assertEquals(IStrings.tokenize("a c d"), mbr.decode(graph, weights));
+
+    // Nearly all mass on "b d"
+    weights = new ClassicCounter<>();
+    weights.setCount("f1", -20.0);
+    weights.setCount("f2", 10.0);
+    assertEquals(IStrings.tokenize("b d"), mbr.decode(graph, weights));
+  }
+}
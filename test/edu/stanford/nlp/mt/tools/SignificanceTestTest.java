@@ -0,0 +1,107 @@
+package edu.stanford.nlp.mt.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.metrics.BLEUMetric;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Unit test.
+ */
+public class SignificanceTestTest {
+
+  private static final int NUM_SENTENCES = 50;
+  private static final String[] WORDS = "the a cat dog sat on mat rug quickly slowly".split(" ");
+
+  private static Sequence<IString> sentence(Random random, int length) {
+    String[] tokens = new String[length];
+    for (int i = 0; i < length; ++i) tokens[i] = WORDS[random.nextInt(WORDS.length)];
+    return IStrings.toIStringSequence(tokens);
+  }
+
+  private static List<List<Sequence<IString>>> references(Random random) {
+    List<List<Sequence<IString>>> references = new ArrayList<>(NUM_SENTENCES);
+    for (int i = 0; i < NUM_SENTENCES; ++i) {
+      references.add(Collections.singletonList(sentence(random, 8 + random.nextInt(8))));
+    }
+    return references;
+  }
+
+  // Copies each reference, replacing tokens with probability noise
+  private static List<Sequence<IString>> system(List<List<Sequence<IString>>> references,
+      Random random, double noise) {
+    List<Sequence<IString>> system = new ArrayList<>(references.size());
+    for (List<Sequence<IString>> refs : references) {
+      Sequence<IString> ref = refs.get(0);
+      String[] tokens = new String[ref.size()];
+      for (int i = 0; i < tokens.length; ++i) {
+        tokens[i] = random.nextDouble() < noise ? WORDS[random.nextInt(WORDS.length)] + "x" : ref.get(i).toString();
+      }
+      system.add(IStrings.toIStringSequence(tokens));
+    }
+    return system;
+  }
+
+  @Test
+  public void testBLEUSufficientStatistics() {
+    Random random = new Random(7);
+    List<List<Sequence<IString>>> references = references(random);
+    List<Sequence<IString>> trans = system(references, random, 0.3);
+    for (boolean smooth : new boolean[] { false, true }) {
+      BLEUMetric<IString,String> bleu = new BLEUMetric<>(references, smooth);
+      double[][] stats = SignificanceTest.sufficientStatistics(trans, bleu);
+      assertEquals(bleu.numSufficientStatistics(), stats[0].length);
+      assertEquals(SignificanceTest.scoreList(trans, bleu),
+          bleu.scoreSufficientStatistics(SignificanceTest.sum(stats)), 1e-9);
+    }
+  }
+
+  @Test
+  public void testApproximateRandomization() {
+    Random random = new Random(11);
+    List<List<Sequence<IString>>> references = references(random);
+    BLEUMetric<IString,String> bleu = new BLEUMetric<>(references);
+    double[][] baseline = SignificanceTest.sufficientStatistics(system(references, random, 0.5), bleu);
+    List<double[][]> systems = new ArrayList<>();
+    systems.add(SignificanceTest.sufficientStatistics(system(references, random, 0.1), bleu));
+    systems.add(SignificanceTest.sufficientStatistics(system(references, random, 0.5), bleu));
+
+    // Identical results for any number of threads
+    int[] serial = SignificanceTest.approximateRandomization(bleu, baseline, systems, 1000, 1L, 1);
+    int[] parallel = SignificanceTest.approximateRandomization(bleu, baseline, systems, 1000, 1L, 4);
+    assertArrayEquals(serial, parallel);
+    assertTrue(serial[0] < 10);
+    assertTrue(serial[1] > 10);
+
+    // A system is never different from itself
+    int[] self = SignificanceTest.approximateRandomization(bleu, baseline,
+        Collections.singletonList(baseline), 200, 1L, 2);
+    assertEquals(200, self[0]);
+  }
+
+  @Test
+  public void testPairedBootstrap() {
+    Random random = new Random(13);
+    List<List<Sequence<IString>>> references = references(random);
+    BLEUMetric<IString,String> bleu = new BLEUMetric<>(references);
+    double[][] baseline = SignificanceTest.sufficientStatistics(system(references, random, 0.5), bleu);
+    List<double[][]> systems = Collections.singletonList(
+        SignificanceTest.sufficientStatistics(system(references, random, 0.1), bleu));
+
+    double[][] scores = SignificanceTest.pairedBootstrap(bleu, baseline, systems, 1000, 1L, 3);
+    assertEquals(2, scores.length);
+    assertEquals(1000, scores[1].length);
+    assertArrayEquals(scores[1], SignificanceTest.pairedBootstrap(bleu, baseline, systems, 1000, 1L, 1)[1], 0.0);
+    assertTrue(SignificanceTest.bootstrapPValue(scores[0], scores[1]) < 0.01);
+    assertTrue(SignificanceTest.bootstrapPValue(scores[1], scores[0]) > 0.99);
+  }
+}
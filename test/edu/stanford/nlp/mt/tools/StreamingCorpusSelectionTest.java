@@ -0,0 +1,207 @@
+package edu.stanford.nlp.mt.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IOTools;
+
+/**
+ * Unit test.
+ */
+public class StreamingCorpusSelectionTest {
+
+  private static final int NUM_LINES = 1000;
+
+  private static String tmpFile(String suffix) throws IOException {
+    File file = File.createTempFile("select", suffix);
+    file.deleteOnExit();
+    return file.getPath();
+  }
+
+  private static String writeLines(List<String> lines) throws IOException {
+    String filename = tmpFile(".txt");
+    PrintStream ps = IOTools.getWriterFromFile(filename);
+    for (String line : lines) ps.println(line);
+    ps.close();
+    return filename;
+  }
+
+  private static List<String> readLines(String filename) throws IOException {
+    List<String> lines = new ArrayList<>();
+    LineNumberReader reader = IOTools.getReaderFromFile(filename);
+    for (String line; (line = reader.readLine()) != null;) lines.add(line);
+    reader.close();
+    return lines;
+  }
+
+  // Line i has score i % 97, so scores repeat
+  private static List<String> corpus() {
+    List<String> lines = new ArrayList<>(NUM_LINES);
+    for (int i = 0; i < NUM_LINES; ++i) lines.add(String.format("%d tokens %d", i % 97, i));
+    return lines;
+  }
+
+  private static double score(String[] record) {
+    return Double.parseDouble(record[0].split("\\s+")[0]);
+  }
+
+  @Test
+  public void testTopK() throws IOException {
+    String input = writeLines(corpus());
+    String output = tmpFile(".out");
+    String lineFile = tmpFile(".line");
+    StreamingCorpusSelection selection = new StreamingCorpusSelection(
+        StreamingCorpusSelectionTest::score, true, 3);
+    selection.setChunkSize(17);
+    assertEquals(25, selection.selectTopK(new String[] { input }, 25, new String[] { output }, null, lineFile));
+
+    // Ties are broken in favor of earlier lines
+    List<String> lineIds = readLines(lineFile);
+    List<String> selected = readLines(output);
+    assertEquals(25, selected.size());
+    int[] expected = { 0, 97, 194, 291, 388, 485, 582, 679, 776, 873, 970, 1, 98 };
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(String.valueOf(expected[i]), lineIds.get(i));
+      assertEquals(corpus().get(expected[i]), selected.get(i));
+    }
+  }
+
+  @Test
+  public void testThreshold() throws IOException {
+    List<String> lines = corpus();
+    String input = writeLines(lines);
+    String output = tmpFile(".out");
+    String scoreFile = tmpFile(".score");
+    StreamingCorpusSelection selection = new StreamingCorpusSelection(
+        StreamingCorpusSelectionTest::score, false, 4);
+    selection.setChunkSize(10);
+    long numSelected = selection.selectThreshold(new String[] { input }, 90.0, new String[] { output }, scoreFile, null);
+
+    // Input order
+    List<String> expected = new ArrayList<>();
+    for (String line : lines) if (score(new String[] { line }) >= 90.0) expected.add(line);
+    assertEquals(expected.size(), numSelected);
+    assertEquals(expected, readLines(output));
+    assertEquals("90.0", readLines(scoreFile).get(0));
+  }
+
+  @Test
+  public void testBitextWithRepetition() throws IOException {
+    List<String> source = new ArrayList<>();
+    List<String> target = new ArrayList<>();
+    for (int i = 0; i < 100; ++i) {
+      source.add("s" + (i % 10));
+      target.add("t" + (i % 20));
+    }
+    String[] inputs = { writeLines(source), writeLines(target) };
+    String[] outputs = { tmpFile(".src"), tmpFile(".tgt") };
+    StreamingCorpusSelection selection = new StreamingCorpusSelection(
+        record -> record[1].equals("t5") ? Double.NaN : record[0].length() + record[1].length(), true, 2);
+    selection.setChunkSize(7);
+    selection.setRemoveRepetition(true);
+
+    // 20 distinct pairs, one of which is rejected
+    assertEquals(19, selection.selectTopK(inputs, 50, outputs, null, null));
+    List<String> selectedSource = readLines(outputs[0]);
+    List<String> selectedTarget = readLines(outputs[1]);
+    assertEquals(19, selectedSource.size());
+    assertEquals("s0", selectedSource.get(0));
+    assertEquals("t0", selectedTarget.get(0));
+    assertFalse(selectedTarget.contains("t5"));
+  }
+
+  @Test
+  public void testCheckpoint() throws IOException {
+    String input = writeLines(corpus());
+    String output = tmpFile(".out");
+    String checkpoint = tmpFile(".ser.gz");
+    new File(checkpoint).delete();
+    StreamingCorpusSelection selection = new StreamingCorpusSelection(
+        StreamingCorpusSelectionTest::score, true, 2);
+    selection.setChunkSize(50);
+    selection.setCheckpoint(checkpoint, 100);
+    assertEquals(NUM_LINES, selection.selectThreshold(new String[] { input }, 1000.0, new String[] { output }, null, null));
+    assertEquals(corpus(), readLines(output));
+    assertFalse(new File(checkpoint).exists());
+  }
+
+  @Test
+  public void testResumeThreshold() throws IOException {
+    assertResumes(false);
+  }
+
+  @Test
+  public void testResumeTopK() throws IOException {
+    assertResumes(true);
+  }
+
+  private static long select(StreamingCorpusSelection.Scorer scorer, boolean topK, String input,
+      String[] outputs, String checkpoint) throws IOException {
+    StreamingCorpusSelection selection = new StreamingCorpusSelection(scorer, true, 3);
+    selection.setChunkSize(50);
+    selection.setRemoveRepetition(true);
+    if (checkpoint != null) selection.setCheckpoint(checkpoint, 100);
+    String[] inputFiles = { input };
+    String[] outputFiles = { outputs[0] };
+    return topK ? selection.selectTopK(inputFiles, 100, outputFiles, outputs[1], outputs[2]) :
+      selection.selectThreshold(inputFiles, 40.0, outputFiles, outputs[1], outputs[2]);
+  }
+
+  /**
+   * Interrupt a job with a scoring error, resume it from the checkpoint, and compare
+   * the output to an uninterrupted job.
+   */
+  private static void assertResumes(boolean topK) throws IOException {
+    // The last lines repeat earlier lines
+    List<String> lines = corpus();
+    lines.addAll(corpus().subList(0, 300));
+    String input = writeLines(lines);
+
+    String[] expected = { tmpFile(".out"), tmpFile(".score"), tmpFile(".line") };
+    long numSelected = select(StreamingCorpusSelectionTest::score, topK, input, expected, null);
+
+    String[] actual = { tmpFile(".out"), tmpFile(".score"), tmpFile(".line") };
+    String checkpoint = tmpFile(".ser.gz");
+    new File(checkpoint).delete();
+    try {
+      select(record -> {
+        if (record[0].endsWith(" 730")) throw new IllegalStateException("interrupted");
+        return score(record);
+      }, topK, input, actual, checkpoint);
+      fail("Job was not interrupted");
+    } catch (IllegalStateException e) {
+      assertEquals("interrupted", e.getMessage());
+    }
+    assertTrue(new File(checkpoint).exists());
+
+    // Records written after the checkpoint are discarded on resume
+    for (String filename : actual) {
+      try (PrintStream ps = new PrintStream(new FileOutputStream(filename, true))) {
+        ps.println("0 partial");
+      }
+    }
+
+    // Lines before the checkpoint are not scored again. The checkpoint position depends on
+    // when scored chunks are merged, so only check that the job resumed after some line.
+    AtomicInteger numScored = new AtomicInteger();
+    assertEquals(numSelected, select(record -> {
+      numScored.incrementAndGet();
+      return score(record);
+    }, topK, input, actual, checkpoint));
+    assertTrue(numScored.get() < lines.size());
+    assertFalse(new File(checkpoint).exists());
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(readLines(expected[i]), readLines(actual[i]));
+    }
+  }
+}
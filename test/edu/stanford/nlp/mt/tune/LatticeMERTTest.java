@@ -0,0 +1,118 @@
+package edu.stanford.nlp.mt.tune;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
+import edu.stanford.nlp.mt.decoder.util.SearchGraphTest;
+import edu.stanford.nlp.mt.metrics.BLEUMetric;
+import edu.stanford.nlp.mt.tune.LatticeMERT.Envelope;
+import edu.stanford.nlp.mt.tune.LatticeMERT.Intervals;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class LatticeMERTTest {
+
+  /**
+   * Paths from the root to a node as edge lists.
+   */
+  private static List<List<Integer>> paths(SearchGraph graph, int v) {
+    List<List<Integer>> paths = new ArrayList<>();
+    if (v == graph.root()) {
+      paths.add(new ArrayList<>());
+      return paths;
+    }
+    for (int e = graph.firstEdge(v); e < graph.firstEdge(v+1); ++e) {
+      for (List<Integer> path : paths(graph, graph.tail(e))) {
+        path.add(e);
+        paths.add(path);
+      }
+    }
+    return paths;
+  }
+
+  private static Counter<String> weights(double f1, double f2, double f3) {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("f1", f1);
+    weights.setCount("f2", f2);
+    weights.setCount("f3", f3);
+    return weights;
+  }
+
+  @Test
+  public void testEnvelope() throws IOException {
+    SearchGraph graph = SearchGraphTest.diamond().get(0);
+    Counter<String> weights = weights(0.3, -0.2, 0.1);
+    Counter<String> direction = weights(-1.0, 0.5, 0.25);
+    Envelope[] envelopes = LatticeMERT.envelopes(graph, weights, direction);
+    Envelope goal = envelopes[graph.goal()];
+    assertTrue(goal.size() > 1);
+
+    List<List<Integer>> paths = paths(graph, graph.goal());
+    assertEquals(6, paths.size());
+    double[] intercepts = graph.edgeScores(weights);
+    double[] slopes = graph.edgeScores(direction);
+    for (double x = -10.0; x <= 10.0; x += 0.125) {
+      double bestScore = Double.NEGATIVE_INFINITY;
+      for (List<Integer> path : paths) {
+        double score = 0.0;
+        for (int e : path) score += intercepts[e] + x * slopes[e];
+        bestScore = Math.max(bestScore, score);
+      }
+      int line = goal.size() - 1;
+      while (goal.left[line] > x) --line;
+      assertEquals(bestScore, goal.intercepts[line] + x * goal.slopes[line], 1e-9);
+    }
+    for (int i = 1; i < goal.size(); ++i) {
+      assertTrue(goal.left[i] > goal.left[i-1]);
+      assertTrue(goal.slopes[i] > goal.slopes[i-1]);
+    }
+  }
+
+  @Test
+  public void testTranslation() throws IOException {
+    SearchGraph graph = SearchGraphTest.diamond().get(0);
+    // Only f2 is weighted along the direction, so "a c d" wins for large x
+    Envelope[] envelopes = LatticeMERT.envelopes(graph, weights(0.0, 0.0, 0.0), weights(0.0, 1.0, 0.0));
+    Envelope goal = envelopes[graph.goal()];
+    Sequence<IString> translation = LatticeMERT.translation(graph, envelopes, goal.size() - 1);
+    assertEquals(IStrings.tokenize("a c d"), translation);
+  }
+
+  @Test
+  public void testLineSearch() throws IOException {
+    List<SearchGraph> graphs = SearchGraphTest.diamond();
+    List<List<Sequence<IString>>> references = new ArrayList<>();
+    for (int i = 0; i < graphs.size(); ++i) {
+      references.add(Collections.singletonList(IStrings.tokenize("a c d")));
+    }
+    BLEUMetric<IString, String> metric = new BLEUMetric<>(references, true);
+    Intervals intervals = LatticeMERT.lineSearch(graphs, weights(0.0, 0.0, 0.0),
+        weights(0.0, 1.0, 0.0), metric, references.size());
+    assertEquals(intervals.checkpoints.length, intervals.evals.length);
+    assertTrue(intervals.checkpoints.length > 1);
+    double[] sorted = intervals.checkpoints.clone();
+    Arrays.sort(sorted);
+    assertArrayEquals(sorted, intervals.checkpoints, 0.0);
+    // The reference is the argmax at the right end of the line
+    int best = 0;
+    for (int i = 1; i < intervals.evals.length; ++i) {
+      if (intervals.evals[i] > intervals.evals[best]) best = i;
+    }
+    assertEquals(intervals.evals.length - 1, best);
+    assertTrue(intervals.checkpoints[best] > 0.0);
+  }
+}
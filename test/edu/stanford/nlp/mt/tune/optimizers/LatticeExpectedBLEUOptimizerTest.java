@@ -0,0 +1,68 @@
+package edu.stanford.nlp.mt.tune.optimizers;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.util.SearchGraph;
+import edu.stanford.nlp.mt.decoder.util.SearchGraphTest;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class LatticeExpectedBLEUOptimizerTest {
+
+  private static final String[] FEATURES = { "f1", "f2", "f3" };
+
+  @Test
+  public void testGradient() throws IOException {
+    SearchGraph graph = SearchGraphTest.diamond().get(0);
+    List<Sequence<IString>> references = Collections.singletonList(IStrings.tokenize("a c d"));
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("f1", 0.2);
+    weights.setCount("f2", -0.4);
+    weights.setCount("f3", 0.7);
+    Counter<String> gradient = new ClassicCounter<>();
+    double objective = LatticeExpectedBLEUOptimizer.expectedBLEU(weights, graph, references, gradient);
+    assertTrue(objective > 0.0 && objective < 1.0);
+    assertEquals(objective, LatticeExpectedBLEUOptimizer.expectedBLEU(weights, graph, references, null), 0.0);
+
+    // Finite differences
+    final double h = 1e-6;
+    for (String feature : FEATURES) {
+      Counter<String> plus = new ClassicCounter<>(weights);
+      plus.incrementCount(feature, h);
+      Counter<String> minus = new ClassicCounter<>(weights);
+      minus.incrementCount(feature, -h);
+      double numerical = (LatticeExpectedBLEUOptimizer.expectedBLEU(plus, graph, references, null)
+          - LatticeExpectedBLEUOptimizer.expectedBLEU(minus, graph, references, null)) / (2 * h);
+      assertEquals(feature, numerical, gradient.getCount(feature), 1e-6);
+    }
+  }
+
+  @Test
+  public void testObjective() throws IOException {
+    SearchGraph graph = SearchGraphTest.diamond().get(0);
+    List<Sequence<IString>> references = Collections.singletonList(IStrings.tokenize("a c d"));
+    // Nearly all mass on the reference path
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("f2", 20.0);
+    weights.setCount("f3", 20.0);
+    double objective = LatticeExpectedBLEUOptimizer.expectedBLEU(weights, graph, references, null);
+    assertEquals(1.0, objective, 1e-6);
+
+    // The optimizer moves toward the reference
+    LatticeExpectedBLEUOptimizer optimizer = new LatticeExpectedBLEUOptimizer(1, 3, new String[] { "Infinity" });
+    Counter<String> loss = optimizer.getUnregularizedGradient(new ClassicCounter<>(), graph, references);
+    assertTrue(loss.getCount("f2") < 0.0);
+  }
+}
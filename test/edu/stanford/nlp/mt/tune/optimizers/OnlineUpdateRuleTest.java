@@ -0,0 +1,83 @@
+package edu.stanford.nlp.mt.tune.optimizers;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.util.AtomicWeightVector;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class OnlineUpdateRuleTest {
+
+  private static List<Supplier<OnlineUpdateRule<String>>> updaters() {
+    List<Supplier<OnlineUpdateRule<String>>> updaters = new ArrayList<>();
+    updaters.add(() -> new SGDUpdater(0.1));
+    updaters.add(() -> new AdaGradUpdater(0.1, 10));
+    updaters.add(() -> new AdaGradFOBOSUpdater(0.1, 10, 0.01));
+    updaters.add(() -> new AdaGradFOBOSUpdater(0.1, 10, 0.01, AdaGradFOBOSUpdater.Norm.aeLASSO, null));
+    updaters.add(() -> new AdaGradFastFOBOSUpdater(0.1, 10, 0.01, null));
+    updaters.add(() -> new MiraUpdater());
+    return updaters;
+  }
+
+  private static Counter<String> gradient(int t) {
+    Counter<String> gradient = new ClassicCounter<>();
+    gradient.setCount("a", 1.0 + t);
+    gradient.setCount("DiscPT.s+t:x>y", -0.5);
+    gradient.setCount("f" + t, 0.25);
+    return gradient;
+  }
+
+  /**
+   * Run each update rule inside a group of updates, as <code>OnlineTuner</code> does, and
+   * check that the result matches an update of a <code>ClassicCounter</code>.
+   */
+  @Test
+  public void testAtomicWeightVector() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      for (Supplier<OnlineUpdateRule<String>> factory : updaters()) {
+        OnlineUpdateRule<String> expectedUpdater = factory.get();
+        OnlineUpdateRule<String> updater = factory.get();
+        Counter<String> expected = new ClassicCounter<>();
+        expected.setCount("b", 2.0);
+        AtomicWeightVector weights = new AtomicWeightVector(expected);
+        Future<?> result = executor.submit(() -> {
+          for (int t = 0; t < 4; ++t) {
+            boolean endOfEpoch = t % 2 == 1;
+            expectedUpdater.update(expected, gradient(t), t, endOfEpoch);
+            weights.beginUpdate();
+            try {
+              updater.update(weights, gradient(t), t, endOfEpoch);
+            } finally {
+              weights.endUpdate();
+            }
+          }
+        });
+        result.get(10, TimeUnit.SECONDS);
+        String name = updater.getClass().getSimpleName();
+        for (String feature : expected.keySet()) {
+          assertEquals(name, expected.getCount(feature), weights.getCount(feature), 1e-12);
+        }
+        for (String feature : weights.keySet()) {
+          assertEquals(name, expected.getCount(feature), weights.getCount(feature), 1e-12);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package edu.stanford.nlp.mt.tune.optimizers;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.tune.optimizers.PairwiseRankingSampler.SparseVector;
+import edu.stanford.nlp.mt.util.AtomicWeightVector;
+import edu.stanford.nlp.mt.util.AtomicWeightVector.Snapshot;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test.
+ */
+public class PairwiseRankingOptimizerSGDTest {
+
+  private static final int TUNE_SET_SIZE = 10;
+  private static final int XI = 15;
+  private static final double SIGMA = 0.1;
+  private static final double RATE = 0.1;
+
+  private static PairwiseRankingOptimizerSGD newOptimizer(boolean hogwild) {
+    return new PairwiseRankingOptimizerSGD(TUNE_SET_SIZE, 30, 3, 500, XI, 0.05, SIGMA, RATE, "sgd",
+        0.0, null, null, 1, hogwild);
+  }
+
+  private static AtomicWeightVector newWeights(Random random) {
+    AtomicWeightVector weights = new AtomicWeightVector();
+    for (int i = 0; i < 30; i += 2) weights.setCount("f" + i, random.nextGaussian());
+    return weights;
+  }
+
+  /**
+   * Difference vectors over the ids of the weight vector, some of which are new features.
+   */
+  private static List<SparseVector> newDataset(AtomicWeightVector weights, Random random) {
+    List<SparseVector> dataset = new ArrayList<>();
+    for (int n = 0; n < 20; ++n) {
+      int[] features = new int[1 + random.nextInt(6)];
+      double[] values = new double[features.length];
+      for (int i = 0; i < features.length; ++i) {
+        features[i] = weights.indexOf("f" + random.nextInt(40));
+        values[i] = random.nextGaussian();
+      }
+      dataset.add(new SparseVector(features, values));
+    }
+    return dataset;
+  }
+
+  private static double margin(SparseVector datum, AtomicWeightVector index, Counter<String> weights) {
+    double sum = 0.0;
+    for (int i = 0; i < datum.size(); ++i) sum += weights.getCount(index.feature(datum.features[i])) * datum.values[i];
+    return sum;
+  }
+
+  private static double derivative(double margin) {
+    return -1.0 / (1.0 + Math.exp(margin));
+  }
+
+  private static Counter<String> regularization(Counter<String> weights, int numData) {
+    final double scaledSigmaSquared = SIGMA * SIGMA / (2.0 * numData / (2.0 * XI * TUNE_SET_SIZE));
+    Counter<String> gradient = new ClassicCounter<>();
+    for (String feature : weights.keySet()) gradient.setCount(feature, weights.getCount(feature) / scaledSigmaSquared);
+    return gradient;
+  }
+
+  private static void assertCountersEqual(Counter<String> expected, Counter<String> actual) {
+    Set<String> features = new HashSet<>(expected.keySet());
+    features.addAll(actual.keySet());
+    for (String feature : features) {
+      assertEquals(feature, expected.getCount(feature), actual.getCount(feature), 1e-9);
+    }
+  }
+
+  @Test
+  public void testGradient() {
+    Random random = new Random(3);
+    AtomicWeightVector weights = newWeights(random);
+    List<SparseVector> dataset = newDataset(weights, random);
+    Snapshot snapshot = weights.snapshot();
+    Counter<String> current = weights.toCounter();
+
+    Counter<String> expected = regularization(current, dataset.size());
+    for (SparseVector datum : dataset) {
+      double d = derivative(margin(datum, weights, current));
+      for (int i = 0; i < datum.size(); ++i) {
+        expected.incrementCount(weights.feature(datum.features[i]), 2.0 * datum.values[i] * d);
+      }
+    }
+    assertCountersEqual(expected, newOptimizer(false).computeGradient(dataset, snapshot, 1));
+    assertCountersEqual(current, weights.toCounter());
+  }
+
+  @Test
+  public void testHogwild() {
+    Random random = new Random(5);
+    AtomicWeightVector weights = newWeights(random);
+    List<SparseVector> dataset = newDataset(weights, random);
+    Snapshot snapshot = weights.snapshot();
+    Counter<String> initial = weights.toCounter();
+
+    // Sequential SGD on the samples
+    Counter<String> expected = weights.toCounter();
+    for (SparseVector datum : dataset) {
+      double d = derivative(margin(datum, weights, expected));
+      for (int i = 0; i < datum.size(); ++i) {
+        expected.incrementCount(weights.feature(datum.features[i]), -RATE * 2.0 * datum.values[i] * d);
+      }
+    }
+    Counter<String> gradient = newOptimizer(true).computeGradient(dataset, snapshot, 1);
+    assertCountersEqual(expected, weights.toCounter());
+    assertCountersEqual(regularization(initial, dataset.size()), gradient);
+  }
+
+  @Test
+  public void testConcurrentHogwild() throws Exception {
+    Random random = new Random(7);
+    AtomicWeightVector weights = newWeights(random);
+    PairwiseRankingOptimizerSGD optimizer = newOptimizer(true);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < 16; ++t) {
+        List<SparseVector> dataset = newDataset(weights, new Random(t));
+        results.add(executor.submit(() -> {
+          for (int n = 0; n < 50; ++n) optimizer.computeGradient(dataset, weights.snapshot(), 1);
+        }));
+      }
+      for (Future<?> result : results) result.get(30, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    Counter<String> current = weights.toCounter();
+    assertTrue(current.size() > 15);
+    for (String feature : current.keySet()) assertFalse(feature, Double.isNaN(current.getCount(feature)));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testHogwildRequiresSGD() {
+    new PairwiseRankingOptimizerSGD(TUNE_SET_SIZE, 30, 3, 500, XI, 0.05, SIGMA, RATE, "adagrad",
+        0.0, null, null, 1, true);
+  }
+}
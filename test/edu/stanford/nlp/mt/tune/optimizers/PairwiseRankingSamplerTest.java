@@ -0,0 +1,107 @@
+package edu.stanford.nlp.mt.tune.optimizers;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.tune.optimizers.PairwiseRankingSampler.SparseVector;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.Triple;
+
+/**
+ * Unit test.
+ */
+public class PairwiseRankingSamplerTest {
+
+  /**
+   * Reference implementation that sorts all of the sampled pairs.
+   */
+  private static List<Triple<Double,Integer,Integer>> reference(double[] scores, int gamma, int xi,
+      double nThreshold, Random random) {
+    List<Triple<Double,Integer,Integer>> v = new ArrayList<>();
+    for (int g = 0; g < gamma; g++) {
+      int j = random.nextInt(scores.length);
+      int jPrime = random.nextInt(scores.length);
+      double absDiff = Math.abs(scores[j] - scores[jPrime]);
+      if (absDiff >= nThreshold) {
+        v.add(scores[j] > scores[jPrime] ? new Triple<>(absDiff, j, jPrime) : new Triple<>(absDiff, jPrime, j));
+      }
+    }
+    Collections.sort(v);
+    Collections.reverse(v);
+    return v.subList(0, Math.min(xi, v.size()));
+  }
+
+  @Test
+  public void testSample() {
+    Random random = new Random(11);
+    double[] scores = new double[100];
+    for (int i = 0; i < scores.length; ++i) scores[i] = random.nextInt(20) / 20.0;
+
+    for (int xi : new int[] { 1, 10, 5000 }) {
+      final long seed = PairwiseRankingSampler.seed(3, 7, xi);
+      int[][] pairs = PairwiseRankingSampler.sample(scores.length, j -> scores[j], 500, xi, 0.05,
+          new Random(seed));
+      List<Triple<Double,Integer,Integer>> expected = reference(scores, 500, xi, 0.05, new Random(seed));
+      assertEquals(expected.size(), pairs.length);
+      assertTrue(pairs.length <= xi);
+      for (int i = 0; i < pairs.length; ++i) {
+        assertEquals(expected.get(i).second().intValue(), pairs[i][0]);
+        assertEquals(expected.get(i).third().intValue(), pairs[i][1]);
+        assertTrue(scores[pairs[i][0]] - scores[pairs[i][1]] >= 0.05);
+      }
+      // Reproducible
+      assertTrue(Arrays.deepEquals(pairs, PairwiseRankingSampler.sample(scores.length, j -> scores[j], 500,
+          xi, 0.05, new Random(seed))));
+    }
+    assertEquals(0, PairwiseRankingSampler.sample(0, j -> 0.0, 500, 10, 0.05, new Random(1)).length);
+    assertNotEquals(PairwiseRankingSampler.seed(1, 2, 0), PairwiseRankingSampler.seed(1, 2, 1));
+    assertNotEquals(PairwiseRankingSampler.seed(1, 2, 0), PairwiseRankingSampler.seed(1, 3, 0));
+  }
+
+  @Test
+  public void testDifference() {
+    List<FeatureValue<String>> plus = Arrays.asList(new FeatureValue<>("a", 1.0), new FeatureValue<>("b", 2.0),
+        new FeatureValue<>("a", 0.5), new FeatureValue<>("c", 1.0));
+    List<FeatureValue<String>> minus = Arrays.asList(new FeatureValue<>("b", 2.0), new FeatureValue<>("d", 3.0));
+
+    // Ids that are not in the order of the features
+    Index<String> index = new HashIndex<>();
+    index.addAll(Arrays.asList("z", "d", "c", "b", "a"));
+    SparseVector difference = PairwiseRankingSampler.difference(plus, minus, null, index::addToIndex);
+    Map<String,Double> expected = new HashMap<>();
+    expected.put("a", 1.5);
+    expected.put("b", 0.0);
+    expected.put("c", 1.0);
+    expected.put("d", -3.0);
+    assertEquals(expected.size(), difference.size());
+    List<String> features = new ArrayList<>();
+    for (int i = 0; i < difference.size(); ++i) {
+      features.add(index.get(difference.features[i]));
+      assertEquals(expected.get(index.get(difference.features[i])), difference.values[i], 1e-9);
+    }
+    assertEquals(Arrays.asList("a", "b", "c", "d"), features);
+
+    difference = PairwiseRankingSampler.difference(plus, minus, new HashSet<>(Arrays.asList("a", "d")), index::addToIndex);
+    assertEquals(2, difference.size());
+    for (int i = 0; i < difference.size(); ++i) {
+      assertEquals(expected.get(index.get(difference.features[i])), difference.values[i], 1e-9);
+    }
+
+    // New features are added to the index
+    difference = PairwiseRankingSampler.difference(Arrays.asList(new FeatureValue<>("e", 1.0)), minus, null, index::addToIndex);
+    assertEquals(Arrays.asList("e", "b", "d"), Arrays.asList(index.get(difference.features[0]),
+        index.get(difference.features[1]), index.get(difference.features[2])));
+  }
+}
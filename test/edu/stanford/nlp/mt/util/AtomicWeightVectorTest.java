@@ -0,0 +1,115 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.AtomicWeightVector.Snapshot;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.stats.Counters;
+
+/**
+ * Unit test.
+ */
+public class AtomicWeightVectorTest {
+
+  @Test
+  public void testCounter() {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("a", 1.0);
+    weights.setCount("b", -2.0);
+    AtomicWeightVector vector = new AtomicWeightVector(weights);
+    assertEquals(1.0, vector.getCount("a"), 0.0);
+    assertEquals(0.0, vector.getCount("c"), 0.0);
+    assertEquals(2, vector.size());
+
+    Counters.addInPlace(vector, weights, 1.0);
+    assertEquals(-4.0, vector.getCount("b"), 0.0);
+    vector.incrementCount("c", 3.0);
+    vector.remove("a");
+    assertFalse(vector.containsKey("a"));
+    assertEquals(2, vector.keySet().size());
+    assertEquals(2, vector.size());
+    assertEquals(-1.0, vector.totalCount(), 0.0);
+
+    Counter<String> copy = vector.toCounter();
+    assertTrue(copy instanceof ClassicCounter);
+    assertEquals(2, copy.size());
+    assertEquals(3.0, copy.getCount("c"), 0.0);
+
+    vector.setCount("c", 0.0);
+    assertEquals(1, vector.size());
+    vector.incrementCount("b", 4.0);
+    assertEquals(0, vector.size());
+    vector.setCount("b", 1.0);
+    assertEquals(1, vector.size());
+  }
+
+  @Test
+  public void testGrow() {
+    AtomicWeightVector vector = new AtomicWeightVector();
+    for (int i = 0; i < 10000; ++i) vector.setCount("f" + i, i);
+    for (int i = 0; i < 10000; ++i) {
+      assertEquals(i, vector.get(vector.indexOf("f" + i)), 0.0);
+    }
+    assertEquals(9999, vector.size());
+  }
+
+  @Test
+  public void testSnapshot() {
+    AtomicWeightVector vector = new AtomicWeightVector();
+    vector.setCount("a", 1.0);
+    Snapshot snapshot = vector.snapshot();
+    assertSame(snapshot, vector.snapshot());
+
+    vector.beginUpdate();
+    vector.setCount("a", 2.0);
+    vector.setCount("b", 2.0);
+    vector.endUpdate();
+    Snapshot snapshot2 = vector.snapshot();
+    assertNotEquals(snapshot.version(), snapshot2.version());
+    // Snapshots do not change
+    assertEquals(1.0, snapshot.getCount("a"), 0.0);
+    assertEquals(0.0, snapshot.getCount("b"), 0.0);
+    assertEquals(1, snapshot.size());
+    assertEquals(2.0, snapshot2.getCount("b"), 0.0);
+    try {
+      snapshot.setCount("a", 0.0);
+      fail();
+    } catch (UnsupportedOperationException e) {}
+  }
+
+  @Test
+  public void testConcurrentUpdates() {
+    AtomicWeightVector vector = new AtomicWeightVector();
+    IntStream.range(0, 4000).parallel().forEach(i -> {
+      vector.beginUpdate();
+      vector.incrementCount("f" + (i % 10), 1.0);
+      vector.incrementCount("g", -1.0);
+      vector.endUpdate();
+      // Every group of updates is complete
+      Snapshot snapshot = vector.snapshot();
+      double sum = 0.0;
+      for (int j = 0; j < 10; ++j) sum += snapshot.getCount("f" + j);
+      assertEquals(-sum, snapshot.getCount("g"), 0.0);
+    });
+    for (int j = 0; j < 10; ++j) assertEquals(400.0, vector.getCount("f" + j), 0.0);
+    assertEquals(-4000.0, vector.getCount("g"), 0.0);
+    assertEquals(11, vector.size());
+  }
+
+  @Test
+  public void testConcurrentSize() {
+    AtomicWeightVector vector = new AtomicWeightVector();
+    // Weights cross zero many times
+    IntStream.range(0, 20000).parallel().forEach(i -> {
+      vector.incrementCount("f" + (i % 7), i % 2 == 0 ? 1.0 : -1.0);
+      if (i % 5 == 0) vector.setCount("g" + (i % 3), (i / 5) % 2);
+    });
+    assertEquals(vector.keySet().size(), vector.size());
+    assertEquals(vector.toCounter().totalCount(), vector.totalCount(), 1e-9);
+  }
+}
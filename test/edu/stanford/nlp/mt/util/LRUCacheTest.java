@@ -0,0 +1,43 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+/**
+ * Unit test.
+ */
+public class LRUCacheTest {
+
+  @Test
+  public void testEviction() {
+    LRUCache<String,Integer> cache = new LRUCache<>(2);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    assertEquals(1, (int) cache.get("a"));
+    cache.put("c", 3);
+    // b was the least recently used
+    assertNull(cache.get("b"));
+    assertEquals(1, (int) cache.get("a"));
+    assertEquals(3, (int) cache.get("c"));
+    assertEquals(2, cache.size());
+
+    assertEquals(1, (int) cache.putIfAbsent("a", 4));
+    assertEquals(5, (int) cache.putIfAbsent("d", 5));
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testConcurrentInserts() {
+    final int maxSize = 5000;
+    LRUCache<Integer,Integer> cache = new LRUCache<>(maxSize);
+    IntStream.range(0, 100000).parallel().forEach(i -> {
+      cache.put(i, i);
+      assertTrue(cache.size() <= maxSize);
+    });
+    assertEquals(maxSize, cache.size());
+  }
+}
@@ -0,0 +1,107 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.ParallelSuffixArray.SamplePlanner;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray.SentencePair;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray.SuffixArraySample;
+
+/**
+ * Unit test.
+ */
+public class ParallelSuffixArrayTest {
+
+  private static ParallelSuffixArray makeBitext() {
+    ParallelCorpus corpus = new ParallelCorpus();
+    for (int i = 0; i < 50; ++i) {
+      corpus.add("a b c d", "w x y z", "0-0 1-1 2-2 3-3");
+      corpus.add("a b e", "w x v", "0-0 1-1 2-2");
+      corpus.add("d a b c", "z w x y", "0-0 1-1 2-2 3-3");
+      corpus.add("f g", "u", "0-0 1-0");
+    }
+    ParallelSuffixArray sa = new ParallelSuffixArray(corpus);
+    sa.build();
+    return sa;
+  }
+
+  private static int[] query(ParallelSuffixArray sa, String str) {
+    return Arrays.stream(str.split("\\s+")).mapToInt(w -> sa.getVocabulary().indexOf(w)).toArray();
+  }
+
+  @Test
+  public void testStratifiedSample() {
+    final int lb = 100, ub = 1099, maxSamples = 30;
+    int[] sample = ParallelSuffixArray.stratifiedSample(lb, ub, maxSamples, 17, null);
+    assertArrayEquals(sample, ParallelSuffixArray.stratifiedSample(lb, ub, maxSamples, 17, null));
+    assertFalse(Arrays.equals(sample, ParallelSuffixArray.stratifiedSample(lb, ub, maxSamples, 18, null)));
+    assertEquals(maxSamples, sample.length);
+    for (int k = 0; k < maxSamples; ++k) {
+      // One index per stratum
+      assertTrue(sample[k] >= lb + k * 1000 / maxSamples);
+      assertTrue(sample[k] < lb + (k + 1) * 1000 / maxSamples);
+    }
+
+    // Small ranges are not sampled
+    assertArrayEquals(new int[] { 5, 6, 7 }, ParallelSuffixArray.stratifiedSample(5, 7, 10, 17, null));
+  }
+
+  @Test
+  public void testReuse() {
+    int[] reuse = new int[] { 3, 150, 151, 590, 2000 };
+    int[] sample = ParallelSuffixArray.stratifiedSample(100, 599, 10, 17, reuse);
+    assertEquals(10, sample.length);
+    // Strata are [100,150), [150,200), ... [550,600)
+    assertEquals(150, sample[1]);
+    assertEquals(590, sample[9]);
+    for (int k = 1; k < sample.length; ++k) assertTrue(sample[k-1] < sample[k]);
+  }
+
+  @Test
+  public void testSamplePlanner() {
+    ParallelSuffixArray sa = makeBitext();
+    final int maxSamples = 20;
+    SamplePlanner planner = sa.samplePlanner(query(sa, "a b c q"), maxSamples);
+    SuffixArraySample prefixSample = planner.sample(0, 2);
+    assertEquals(150, prefixSample.ub - prefixSample.lb + 1);
+    assertEquals(maxSamples, prefixSample.size());
+
+    SuffixArraySample sample = planner.sample(0, 3);
+    assertEquals(100, sample.ub - sample.lb + 1);
+    assertEquals(maxSamples, sample.size());
+    assertTrue(planner.numReusedSamples() > 0);
+    assertEquals(2 * maxSamples, planner.numSentencePairs());
+    assertTrue(planner.numSentences() < planner.numSentencePairs());
+
+    // Same sentence pairs as the suffix array
+    for (SentencePair s : sample.samples) {
+      SentencePair t = sa.sample(query(sa, "a b c"), 1000).samples.stream()
+          .filter(o -> o.srcStartInclusive == s.srcStartInclusive).findFirst().get();
+      assertEquals(t.wordPosition, s.wordPosition);
+      assertEquals(t.sourceLength(), s.sourceLength());
+      assertEquals(t.targetLength(), s.targetLength());
+      for (int i = 0; i < s.sourceLength(); ++i) {
+        assertEquals(t.source(i), s.source(i));
+        assertArrayEquals(t.f2e(i), s.f2e(i));
+      }
+      for (int i = 0; i < s.targetLength(); ++i) {
+        assertEquals(t.target(i), s.target(i));
+        assertArrayEquals(t.e2f(i), s.e2f(i));
+      }
+    }
+
+    // Deterministic, and independent of the spans sampled before
+    SuffixArraySample other = sa.samplePlanner(query(sa, "d a b c"), maxSamples).sample(1, 4);
+    assertEquals(sample.lb, other.lb);
+    assertEquals(sample.ub, other.ub);
+    for (int i = 0; i < maxSamples; ++i) {
+      assertEquals(sample.samples.get(i).wordPosition, other.samples.get(i).wordPosition);
+    }
+
+    assertEquals(0, planner.sample(2, 4).size());
+    assertEquals(0, planner.sample(3, 4).size());
+  }
+}
@@ -0,0 +1,105 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+/**
+ * Unit test.
+ */
+public class SourceAnnotationStoreTest {
+
+  private static final String[] CONLL = {
+    "1\tThe\t_\tDT\tDT\t_\t2\tdet",
+    "2\tdog\t_\tNN\tNN\t_\t3\tnsubj",
+    "3\tbarks\t_\tVBZ\tVBZ\t_\t0\troot",
+    "4\tloudly\t_\tRB\tRB\t_\t3\tadvmod",
+    "",
+    "1\tHello\t_\tUH\tUH\t_\t0\troot",
+    "2\t!\t_\t.\t.\t_\t0\tpunct",
+    ""
+  };
+
+  private static String writeCoNLL() throws IOException {
+    File file = File.createTempFile("deps", ".conll");
+    file.deleteOnExit();
+    PrintStream ps = IOTools.getWriterFromFile(file);
+    for (String line : CONLL) ps.println(line);
+    ps.close();
+    return file.getPath();
+  }
+
+  @Test
+  public void testCoNLL() throws IOException {
+    SourceAnnotationStore store = SourceAnnotationStore.load(writeCoNLL());
+    assertEquals(2, store.size());
+    SourceDependencyParse parse = store.get(0);
+    assertEquals(4, parse.size());
+    assertEquals(1, parse.head(0));
+    assertEquals(2, parse.head(1));
+    assertEquals(-1, parse.head(2));
+    assertEquals(2, parse.head(3));
+    assertEquals("nsubj", store.label(parse.label(1)));
+
+    // Root punctuation is skipped
+    parse = store.get(1);
+    assertEquals(-1, parse.head(0));
+    assertEquals(SourceDependencyParse.NO_HEAD, parse.head(1));
+    assertNull(store.get(2));
+  }
+
+  @Test
+  public void testReachability() throws IOException {
+    SourceDependencyParse parse = SourceAnnotationStore.load(writeCoNLL()).get(0);
+    assertTrue(parse.isReachable(2, 0));
+    assertTrue(parse.isReachable(2, 3));
+    assertTrue(parse.isReachable(1, 1));
+    assertFalse(parse.isReachable(1, 3));
+    assertFalse(parse.isReachable(0, 1));
+    assertEquals(1, parse.nextReachable(1, 1));
+    assertEquals(-1, parse.nextReachable(1, 2));
+    assertEquals(3, parse.nextChild(2, 2));
+    assertEquals(-1, parse.nextChild(0, 0));
+  }
+
+  @Test
+  public void testLongSentence() {
+    int[] heads = new int[130];
+    for (int i = 0; i < heads.length; ++i) heads[i] = i - 1;
+    SourceDependencyParse parse = new SourceDependencyParse(heads, new int[heads.length]);
+    assertTrue(parse.isReachable(0, 129));
+    assertEquals(64, parse.nextReachable(3, 64));
+    assertEquals(-1, parse.nextReachable(129, 130));
+    assertFalse(parse.isReachable(129, 0));
+  }
+
+  @Test
+  public void testCompiled() throws IOException {
+    SourceAnnotationStore store = SourceAnnotationStore.load(writeCoNLL());
+    // Leave a gap at id 2
+    store.put(3, new SourceDependencyParse(new int[] { -1, 0 }, new int[] { store.labelId("root"), store.labelId("dobj") }));
+    File file = File.createTempFile("deps", ".bin");
+    file.deleteOnExit();
+    store.write(file.getPath());
+
+    assertTrue(SourceAnnotationStore.isCompiled(file.getPath()));
+    try (SourceAnnotationStore compiled = SourceAnnotationStore.load(file.getPath())) {
+      assertEquals(4, compiled.size());
+      assertEquals(store.get(0), compiled.get(0));
+      assertEquals(store.get(1), compiled.get(1));
+      assertNull(compiled.get(2));
+      assertEquals(store.get(3), compiled.get(3));
+      assertTrue(compiled.get(0).isReachable(2, 3));
+      assertEquals("dobj", compiled.label(compiled.get(3).label(1)));
+
+      // On-the-fly entries take precedence
+      SourceDependencyParse parse = new SourceDependencyParse(new int[] { -1 }, new int[] { 0 });
+      compiled.put(0, parse);
+      assertEquals(parse, compiled.get(0));
+    }
+  }
+}
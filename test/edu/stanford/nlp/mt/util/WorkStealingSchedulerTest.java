@@ -0,0 +1,89 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
+
+/**
+ * Unit test.
+ */
+public class WorkStealingSchedulerTest {
+
+  /**
+   * Sleeps in proportion to the input and records the processing order.
+   */
+  private static class SleepProcessor implements ThreadsafeProcessor<Integer,Integer> {
+    final List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+    @Override
+    public Integer process(Integer input) {
+      processed.add(input);
+      try {
+        Thread.sleep(input % 5);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      if (input < 0) throw new IllegalArgumentException();
+      return 2 * input;
+    }
+    @Override
+    public ThreadsafeProcessor<Integer,Integer> newInstance() {
+      return this;
+    }
+  }
+
+  @Test
+  public void testInputOrder() {
+    Random random = new Random(17);
+    List<Integer> inputs = new ArrayList<>();
+    for (int i = 0; i < 300; ++i) inputs.add(random.nextInt(100));
+    WorkStealingScheduler<Integer,Integer> scheduler = new WorkStealingScheduler<>(4,
+        new SleepProcessor(), i -> i, 16);
+    List<Integer> outputs = new ArrayList<>();
+    for (int input : inputs) {
+      scheduler.put(input);
+      for (Integer output; (output = scheduler.poll()) != null;) outputs.add(output);
+    }
+    scheduler.join();
+    while (scheduler.peek()) outputs.add(scheduler.poll());
+
+    assertEquals(inputs.size(), outputs.size());
+    for (int i = 0; i < inputs.size(); ++i) {
+      assertEquals(2 * inputs.get(i), (int) outputs.get(i));
+    }
+    assertTrue(scheduler.statistics().startsWith("inputs: 300  outliers: 0"));
+  }
+
+  @Test
+  public void testLongestFirst() {
+    SleepProcessor processor = new SleepProcessor();
+    List<Integer> outliers = new ArrayList<>();
+    WorkStealingScheduler<Integer,Integer> scheduler = new WorkStealingScheduler<>(1,
+        processor, i -> i, 5, 3.0, outliers::add);
+    int[] inputs = new int[] { 3, 40, 1, 5, 4, 2, 9, 7 };
+    for (int input : inputs) scheduler.put(input);
+    scheduler.join();
+    for (int input : inputs) assertEquals(2 * input, (int) scheduler.poll());
+    assertFalse(scheduler.peek());
+
+    // Each window is sorted by decreasing cost
+    assertEquals(Arrays.asList(40, 5, 4, 3, 1, 9, 7, 2), processor.processed);
+    assertEquals(Collections.singletonList(40), outliers);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFailure() {
+    WorkStealingScheduler<Integer,Integer> scheduler = new WorkStealingScheduler<>(2,
+        new SleepProcessor(), i -> i, 4);
+    for (int i = -1; i < 10; ++i) scheduler.put(i);
+    scheduler.join();
+    scheduler.poll();
+  }
+}